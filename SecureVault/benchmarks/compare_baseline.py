@@ -0,0 +1,99 @@
+#!/usr/bin/env python3
+"""
+Compares two JMH JSON result files (java -jar benchmarks.jar -rf json) and
+reports every benchmark whose score got worse by more than the threshold.
+
+    python3 compare_baseline.py baseline.json current.json [--threshold 10]
+
+Benchmarks are matched by name and @Param values. For time-per-operation
+modes (avgt, sample, ss) a higher score is worse; for throughput (thrpt) a
+lower one is. A change smaller than the two runs' combined error margins is
+treated as noise and never flagged.
+
+Exit status: 0 = no regressions, 1 = at least one regression, 2 = bad input.
+
+@author Mkwenje Tadiwa
+"""
+
+import argparse
+import json
+import sys
+
+LOWER_IS_BETTER = {"avgt", "sample", "ss"}
+
+
+def load(path):
+    with open(path, encoding="utf-8") as f:
+        results = {}
+        for run in json.load(f):
+            params = run.get("params") or {}
+            # Class.method is enough to tell benchmarks apart
+            name = ".".join(run["benchmark"].split(".")[-2:])
+            key = name + "".join(
+                " {}={}".format(k, v) for k, v in sorted(params.items()))
+            results[key] = run
+        return results
+
+
+def error(metric):
+    e = metric.get("scoreError")
+    try:
+        e = float(e)
+    except (TypeError, ValueError):
+        return 0.0
+    return 0.0 if e != e else e  # NaN when there was a single iteration
+
+
+def main():
+    parser = argparse.ArgumentParser(description=__doc__.split("\n\n")[0])
+    parser.add_argument("baseline")
+    parser.add_argument("current")
+    parser.add_argument("--threshold", type=float, default=10.0,
+                        help="percentage change that counts as a regression (default 10)")
+    args = parser.parse_args()
+
+    try:
+        baseline = load(args.baseline)
+        current = load(args.current)
+    except (OSError, ValueError, KeyError) as e:
+        print("Cannot read results: {}".format(e), file=sys.stderr)
+        return 2
+
+    regressions = 0
+    print("{:<56} {:>14} {:>14} {:>9}".format("benchmark", "baseline", "current", "change"))
+    for key in sorted(current):
+        cur = current[key]["primaryMetric"]
+        if key not in baseline:
+            print("{:<56} {:>14} {:>14.3f} {:>9}  (new)".format(key, "-", cur["score"], ""))
+            continue
+        base = baseline[key]["primaryMetric"]
+        unit = cur["scoreUnit"]
+        if base["scoreUnit"] != unit or base["score"] == 0:
+            print("{:<56} not comparable ({} vs {})".format(key, base["scoreUnit"], unit))
+            continue
+
+        change = (cur["score"] - base["score"]) / base["score"] * 100
+        worse = change if current[key]["mode"] in LOWER_IS_BETTER else -change
+        noise = abs(cur["score"] - base["score"]) <= error(cur) + error(base)
+
+        flag = ""
+        if worse > args.threshold and not noise:
+            flag = "  REGRESSION"
+            regressions += 1
+        elif worse < -args.threshold and not noise:
+            flag = "  improved"
+
+        print("{:<56} {:>14.3f} {:>14.3f} {:>+8.1f}%  {}{}".format(
+            key, base["score"], cur["score"], change, unit, flag))
+
+    for key in sorted(set(baseline) - set(current)):
+        print("{:<56} missing from current results".format(key))
+
+    if regressions:
+        print("\n{} benchmark(s) regressed by more than {:g}%".format(regressions, args.threshold))
+        return 1
+    return 0
+
+
+if __name__ == "__main__":
+    sys.exit(main())
@@ -0,0 +1,106 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package ie.ncirl.securevault.benchmarks;
+
+import ie.ncirl.securevault.crypto.AesGcmCrypto;
+import ie.ncirl.securevault.crypto.CryptoProgress;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.SecretKey;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AesGcmBenchmark
+ *
+ * AesGcmCrypto.encryptFile / decryptFile on files of different sizes, with
+ * the files in a temporary directory (so the numbers include the file I/O,
+ * mostly served from the page cache).
+ *
+ * Sizes stay below the 64 MB at which ParallelAesGcmCrypto takes over, so
+ * this measures the single-threaded segment pipeline.
+ *
+ * decryptToStream reads the same file through the memory-mapped
+ * SvDecryptingChannel into a discarding stream, i.e. the cost of consuming
+ * the plaintext without writing it to disk. decryptRange reads 4 KB from
+ * the middle of the file, which should cost about the same at every size.
+ *
+ * @author Mkwenje Tadiwa
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AesGcmBenchmark {
+
+    @Param({"4096", "1048576", "16777216"})
+    public int size;
+
+    private Path dir;
+    private Path plain;
+    private Path encrypted;
+    private Path output;
+    private SecretKey key;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        dir = Files.createTempDirectory("sv-bench-aes");
+        plain = dir.resolve("plain.bin");
+        encrypted = dir.resolve("plain.bin.sv");
+        output = dir.resolve("out.bin");
+
+        byte[] data = new byte[size];
+        new Random(42).nextBytes(data);
+        Files.write(plain, data);
+
+        key = AesGcmCrypto.generateKey();
+        AesGcmCrypto.encryptFile(plain, encrypted, key);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        for (Path p : new Path[] {plain, encrypted, output}) {
+            Files.deleteIfExists(p);
+        }
+        Files.deleteIfExists(dir);
+    }
+
+    @Benchmark
+    public void encrypt() throws Exception {
+        AesGcmCrypto.encryptFile(plain, output, key);
+    }
+
+    @Benchmark
+    public void decrypt() throws Exception {
+        AesGcmCrypto.decryptFile(encrypted, output, key);
+    }
+
+    @Benchmark
+    public long decryptToStream() throws Exception {
+        return AesGcmCrypto.decryptToStream(encrypted, OutputStream.nullOutputStream(), key, CryptoProgress.NONE);
+    }
+
+    @Benchmark
+    public byte[] decryptRange() throws Exception {
+        return AesGcmCrypto.decryptRange(encrypted, key, null, size / 2, 4096);
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package ie.ncirl.securevault.benchmarks;
+
+import ie.ncirl.securevault.db.Database;
+import ie.ncirl.securevault.db.FileRecordDao;
+import ie.ncirl.securevault.db.InMemoryVaultStore;
+import ie.ncirl.securevault.db.VaultStore;
+import ie.ncirl.securevault.model.FileRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FileRecordDaoBenchmark
+ *
+ * FileRecordDao inserts and the dashboard's queries against a user with
+ * RECORDS existing files:
+ *
+ *  - store=sqlite: a fresh SQLite file in a temporary directory, with the
+ *    normal PRAGMAs and connection pool (set up through Database)
+ *  - store=memory: InMemoryVaultStore, i.e. the DAO overhead without JDBC
+ *
+ * Each store runs in its own fork, because Database reads its settings once.
+ *
+ * @author Mkwenje Tadiwa
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileRecordDaoBenchmark {
+
+    private static final int RECORDS = 10_000;
+    private static final int PAGE_SIZE = 50;
+    private static final int BATCH_SIZE = 100;
+
+    @Param({"sqlite", "memory"})
+    public String store;
+
+    private Path dir;
+    private FileRecordDao dao;
+    private int userId;
+    private int firstId;
+    private int lastId;
+    private byte[] wrappedKey;
+    private List<FileRecord> batch;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        VaultStore vaultStore;
+        if (store.equals("sqlite")) {
+            dir = Files.createTempDirectory("sv-bench-db");
+            System.setProperty("securevault.db.path", dir.resolve("bench.db").toString());
+            System.setProperty("securevault.store", "sqlite");
+            vaultStore = Database.getStore();
+        } else {
+            vaultStore = new InMemoryVaultStore();
+        }
+        vaultStore.initialize();
+        dao = new FileRecordDao(vaultStore);
+
+        userId = vaultStore.insertUser("bench", new byte[32], new byte[16], "JBSWY3DPEHPK3PXP",
+                "RSA", new byte[294], new byte[1218]);
+
+        // 40 bytes, like an AES key wrapped under a KEK
+        wrappedKey = new byte[40];
+        ThreadLocalRandom.current().nextBytes(wrappedKey);
+
+        List<FileRecord> records = new ArrayList<>(RECORDS);
+        for (int i = 0; i < RECORDS; i++) {
+            records.add(record(i));
+        }
+        dao.insertBatch(records);
+
+        List<FileRecord> page = dao.getPage(userId, Integer.MAX_VALUE, 1);
+        lastId = page.get(0).getId();
+        firstId = dao.getIdAt(userId, RECORDS - 1);
+
+        batch = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            batch.add(record(i));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        if (dir != null) {
+            Database.shutdown();
+            try (var files = Files.list(dir)) {
+                for (Path p : (Iterable<Path>) files::iterator) {
+                    Files.deleteIfExists(p);
+                }
+            }
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    private FileRecord record(int i) {
+        return new FileRecord(0, userId, "C:\\Users\\bench\\Documents\\file-" + i + ".pdf",
+                "C:\\Users\\bench\\Documents\\file-" + i + ".pdf.sv", wrappedKey,
+                FileRecord.KEY_SCHEME_KEK);
+    }
+
+    @Benchmark
+    public void insert() throws Exception {
+        dao.insert(userId, "C:\\bench\\new.pdf", "C:\\bench\\new.pdf.sv", wrappedKey, FileRecord.KEY_SCHEME_KEK);
+    }
+
+    /** BATCH_SIZE records in one transaction; divide by BATCH_SIZE for per-record cost. */
+    @Benchmark
+    public void insertBatch() throws Exception {
+        dao.insertBatch(batch);
+    }
+
+    @Benchmark
+    public List<FileRecord> firstPage() throws Exception {
+        return dao.getPage(userId, Integer.MAX_VALUE, PAGE_SIZE);
+    }
+
+    /** A page from the middle of the list (keyset, so should cost the same as the first). */
+    @Benchmark
+    public List<FileRecord> middlePage() throws Exception {
+        return dao.getPage(userId, firstId + RECORDS / 2, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public int count() throws Exception {
+        return dao.countByUserId(userId);
+    }
+
+    /** One record with its wrapped key, as loaded before every decrypt. */
+    @Benchmark
+    public FileRecord getByIdWithKey() throws Exception {
+        return dao.getByIdWithKey(ThreadLocalRandom.current().nextInt(firstId, lastId + 1));
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package ie.ncirl.securevault.benchmarks;
+
+import ie.ncirl.securevault.crypto.AesGcmCrypto;
+import ie.ncirl.securevault.crypto.KeyAlgorithm;
+import ie.ncirl.securevault.crypto.KeyWrapUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.SecretKey;
+import java.security.KeyPair;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * KeyWrapBenchmark
+ *
+ * Wrapping and unwrapping one per-file AES key with each scheme in use:
+ *
+ *  - RSA:    RSA-OAEP with the user's key pair (KeyWrapUtil.wrapKey/unwrapKey)
+ *  - X25519: ephemeral ECDH + HKDF + AES key wrap
+ *  - KEK:    AES key wrap under the user's key-encryption key
+ *            (KeyWrapUtil.wrapWithKek/unwrapWithKek)
+ *
+ * @author Mkwenje Tadiwa
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KeyWrapBenchmark {
+
+    @Param({"RSA", "X25519", "KEK"})
+    public String scheme;
+
+    private KeyAlgorithm algorithm;
+    private KeyPair keyPair;
+    private SecretKey kek;
+    private SecretKey fileKey;
+    private byte[] wrapped;
+
+    @Setup
+    public void setup() throws Exception {
+        fileKey = AesGcmCrypto.generateKey();
+        if (scheme.equals("KEK")) {
+            kek = AesGcmCrypto.generateKey();
+        } else {
+            algorithm = KeyAlgorithm.forId(scheme);
+            keyPair = algorithm.generateKeyPair();
+        }
+        wrapped = wrap();
+    }
+
+    @Benchmark
+    public byte[] wrap() throws Exception {
+        if (kek != null) {
+            return KeyWrapUtil.wrapWithKek(fileKey, kek);
+        }
+        return algorithm.wrapKey(fileKey, keyPair.getPublic());
+    }
+
+    @Benchmark
+    public SecretKey unwrap() throws Exception {
+        if (kek != null) {
+            return KeyWrapUtil.unwrapWithKek(wrapped, kek);
+        }
+        return algorithm.unwrapKey(wrapped, keyPair.getPrivate());
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package ie.ncirl.securevault.benchmarks;
+
+import ie.ncirl.securevault.crypto.PasswordHashSpec;
+import ie.ncirl.securevault.crypto.PasswordHasher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PasswordHashBenchmark
+ *
+ * One password hash (= one login or registration) per algorithm, at fixed
+ * parameters so runs on the same machine are comparable:
+ *
+ *  - legacy:   PasswordHasher.hashPassword (PBKDF2-SHA512, 100,000 iterations)
+ *  - pbkdf2:   PBKDF2-SHA512, 310,000 iterations
+ *  - argon2id: 64 MiB, t=3, p=1
+ *  - scrypt:   N=2^17, r=8, p=1
+ *
+ * The live settings are calibrated per host (PasswordHashCalibrator), so
+ * these are not the costs users see, but a change here means the
+ * hashing code itself got slower or faster.
+ *
+ * @author Mkwenje Tadiwa
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PasswordHashBenchmark {
+
+    @Param({"legacy", "pbkdf2", "argon2id", "scrypt"})
+    public String algorithm;
+
+    private final char[] password = "correct horse battery staple".toCharArray();
+    private byte[] salt;
+    private PasswordHashSpec spec;
+
+    @Setup
+    public void setup() {
+        salt = PasswordHasher.generateSalt();
+        switch (algorithm) {
+            case "legacy":   spec = null; break;
+            case "pbkdf2":   spec = PasswordHashSpec.pbkdf2(310_000); break;
+            case "argon2id": spec = PasswordHashSpec.argon2id(65_536, 3, 1); break;
+            case "scrypt":   spec = PasswordHashSpec.scrypt(17, 8, 1); break;
+            default:         throw new IllegalArgumentException(algorithm);
+        }
+    }
+
+    @Benchmark
+    public byte[] hash() {
+        if (spec == null) {
+            return PasswordHasher.hashPassword(password, salt);
+        }
+        return spec.derive(password, salt);
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package ie.ncirl.securevault.benchmarks;
+
+import ie.ncirl.securevault.auth.TotpUtil;
+import ie.ncirl.securevault.auth.TotpVerifier;
+import org.apache.commons.codec.binary.Base32;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TotpBenchmark
+ *
+ * Cost of checking one TOTP code with +-1 step of drift (three HMACs), as
+ * done on every login:
+ *
+ *  - legacyVerifyCode:   the original TotpUtil code (Base32 decode, new
+ *                        SecretKeySpec and Mac.getInstance per window)
+ *  - totpUtilVerifyCode: the public TotpUtil.verifyCode entry point
+ *  - verifierFromSecret: what it does internally (new TotpVerifier per call)
+ *  - verifierReused:     one TotpVerifier checking many codes
+ *
+ * Run with "-prof gc" to see bytes allocated per operation.
+ *
+ * @author Mkwenje Tadiwa
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TotpBenchmark {
+
+    private static final int DRIFT = 1;
+
+    private String secret;
+    private TotpVerifier verifier;
+    private long now;
+    private int code;
+
+    @Setup
+    public void setup() {
+        secret = TotpUtil.generateSecret();
+        verifier = new TotpVerifier(secret);
+        now = System.currentTimeMillis();
+        // A wrong code, so every window is computed.
+        code = (verifier.generateCode(now) + 1) % 1_000_000;
+    }
+
+    @Benchmark
+    public boolean legacyVerifyCode() {
+        return LegacyTotp.verifyCode(secret, code, DRIFT, now);
+    }
+
+    @Benchmark
+    public boolean totpUtilVerifyCode() {
+        return TotpUtil.verifyCode(secret, code, DRIFT);
+    }
+
+    @Benchmark
+    public boolean verifierFromSecret() {
+        return new TotpVerifier(secret).verify(code, now, DRIFT);
+    }
+
+    @Benchmark
+    public boolean verifierReused() {
+        return verifier.verify(code, now, DRIFT);
+    }
+
+    /**
+     * TotpUtil.generateCode/verifyCode as they were before TotpVerifier,
+     * kept here as the baseline.
+     */
+    static final class LegacyTotp {
+
+        static int generateCode(String base32Secret, long timeMillis) {
+            Base32 base32 = new Base32();
+            byte[] key = base32.decode(base32Secret);
+            long timeStep = (timeMillis / 1000L) / 30;
+            try {
+                byte[] data = new byte[8];
+                for (int i = 7; i >= 0; i--) {
+                    data[i] = (byte) (timeStep & 0xFF);
+                    timeStep >>= 8;
+                }
+                SecretKeySpec signKey = new SecretKeySpec(key, "HmacSHA1");
+                Mac mac = Mac.getInstance("HmacSHA1");
+                mac.init(signKey);
+                byte[] hmac = mac.doFinal(data);
+
+                int offset = hmac[hmac.length - 1] & 0x0F;
+                int binary = ((hmac[offset] & 0x7f) << 24)
+                        | ((hmac[offset + 1] & 0xff) << 16)
+                        | ((hmac[offset + 2] & 0xff) << 8)
+                        | (hmac[offset + 3] & 0xff);
+                return binary % 1_000_000;
+            } catch (Exception e) {
+                throw new RuntimeException("Error generating TOTP", e);
+            }
+        }
+
+        static boolean verifyCode(String base32Secret, int code, int allowedDriftSteps, long now) {
+            for (int i = -allowedDriftSteps; i <= allowedDriftSteps; i++) {
+                if (generateCode(base32Secret, now + (i * 30 * 1000L)) == code) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
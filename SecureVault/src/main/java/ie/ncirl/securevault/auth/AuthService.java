@@ -4,80 +4,86 @@
  */
 package ie.ncirl.securevault.auth;
 
+import ie.ncirl.securevault.crypto.KeyAlgorithm;
+import ie.ncirl.securevault.crypto.KeyPairPool;
 import ie.ncirl.securevault.crypto.PasswordHasher;
-import ie.ncirl.securevault.crypto.RsaKeyUtil;
 import ie.ncirl.securevault.db.Database;
+import ie.ncirl.securevault.db.VaultStore;
+import ie.ncirl.securevault.metrics.Counter;
+import ie.ncirl.securevault.metrics.LatencyHistogram;
+import ie.ncirl.securevault.metrics.Metrics;
 import ie.ncirl.securevault.model.User;
 
-import java.sql.*;
-import java.security.KeyFactory;
+import java.sql.SQLException;
 import java.security.KeyPair;
 import java.security.PrivateKey;
 import java.security.PublicKey;
-import java.security.spec.PKCS8EncodedKeySpec;
-import java.security.spec.X509EncodedKeySpec;
 
 /**
  * AuthService
  *
  * High-level service that handles:
  *  - User registration (creating a password hash, salt, and TOTP secret).
- *  - RSA keypair generation and storage (Step 8).
+ *    Password hashes use the encoded, calibrated format of PasswordHasher;
+ *    older hashes are upgraded on the next successful login.
+ *  - Key pair generation and storage (Step 8): RSA-2048 or X25519, see
+ *    {@link KeyAlgorithm}; the algorithm is stored with the user.
  *  - Looking up a user by username.
  *  - Verifying a login attempt using both password and TOTP code.
+ *
+ * Persistence goes through a {@link VaultStore} (SQLite by default).
  */
 public class AuthService {
 
+    private static final LatencyHistogram LOGIN_TIME = Metrics.histogram("auth.login");
+    private static final Counter LOGIN_SUCCESS = Metrics.counter("auth.login.success");
+    private static final Counter LOGIN_FAILURE = Metrics.counter("auth.login.failure");
+    private static final Counter TOTP_REPLAYS = Metrics.counter("auth.totp.replay");
+
+    private final VaultStore store;
+
+    // Null when replay protection is turned off.
+    private final TotpReplayGuard replayGuard;
+
+    public AuthService() {
+        this(Database.getStore());
+    }
+
+    public AuthService(VaultStore store) {
+        this.store = store;
+        this.replayGuard = TotpReplayGuard.forStore(store);
+    }
+
     /**
      * Registers a new user.
      *  - Generates a new TOTP secret
-     *  - Generates a salt and password hash using PBKDF2
-     *  - Generates RSA key pair (public/private)
-     *  - Stores everything in the database (including RSA keys)
+     *  - Hashes the password (encoded hash with its own salt and parameters)
+     *  - Generates a key pair (public/private) of the configured KeyAlgorithm
+     *  - Stores everything in the database (including the keys)
      *
      * @return the created User object (with generated ID and secret).
      */
     public User register(String username, char[] password) throws SQLException {
         String totpSecret = TotpUtil.generateSecret();
-        byte[] salt = PasswordHasher.generateSalt();
-        byte[] hash = PasswordHasher.hashPassword(password, salt);
+        // The encoded hash carries its own salt; the salt column is only used by old hashes.
+        byte[] salt = new byte[0];
+        byte[] hash = PasswordHasher.hash(password);
 
-        // STEP 8: Generate RSA key pair for this user
+        // STEP 8: Generate key pair for this user
+        KeyAlgorithm algorithm = KeyAlgorithm.forNewUsers();
         byte[] publicKeyBytes;
         byte[] privateKeyBytes;
         try {
-            KeyPair kp = RsaKeyUtil.generateKeyPair();
+            // Usually pre-generated in the background, see KeyPairPool
+            KeyPair kp = KeyPairPool.generate(algorithm);
             publicKeyBytes = kp.getPublic().getEncoded();   // X.509 format
             privateKeyBytes = kp.getPrivate().getEncoded(); // PKCS#8 format
         } catch (Exception e) {
-            throw new SQLException("Failed to generate RSA keys", e);
+            throw new SQLException("Failed to generate " + algorithm.id() + " keys", e);
         }
 
-        try (Connection conn = Database.getConnection()) {
-            String sql = """
-                INSERT INTO users (username, password_hash, salt, totp_secret, public_key, private_key)
-                VALUES (?, ?, ?, ?, ?, ?)
-                """;
-
-            try (PreparedStatement ps = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
-                ps.setString(1, username);
-                ps.setBytes(2, hash);
-                ps.setBytes(3, salt);
-                ps.setString(4, totpSecret);
-                ps.setBytes(5, publicKeyBytes);
-                ps.setBytes(6, privateKeyBytes);
-                ps.executeUpdate();
-
-                try (ResultSet rs = ps.getGeneratedKeys()) {
-                    if (rs.next()) {
-                        int id = rs.getInt(1);
-                        return new User(id, username, hash, salt, totpSecret);
-                    }
-                }
-            }
-        }
-
-        throw new SQLException("Failed to register user");
+        int id = store.insertUser(username, hash, salt, totpSecret, algorithm.id(), publicKeyBytes, privateKeyBytes);
+        return new User(id, username, hash, salt, totpSecret);
     }
 
     /**
@@ -85,51 +91,66 @@ public class AuthService {
      * (Does not load RSA keys into the User model - keys are fetched via separate methods.)
      */
     public User findByUsername(String username) throws SQLException {
-        try (Connection conn = Database.getConnection()) {
-            String sql = """
-                SELECT id, username, password_hash, salt, totp_secret
-                FROM users
-                WHERE username = ?
-                """;
-
-            try (PreparedStatement ps = conn.prepareStatement(sql)) {
-                ps.setString(1, username);
-                try (ResultSet rs = ps.executeQuery()) {
-                    if (rs.next()) {
-                        return new User(
-                                rs.getInt("id"),
-                                rs.getString("username"),
-                                rs.getBytes("password_hash"),
-                                rs.getBytes("salt"),
-                                rs.getString("totp_secret")
-                        );
-                    }
-                }
-            }
-        }
-        return null;
+        return store.findUserByUsername(username);
     }
 
     /**
      * Verifies a login attempt by:
      *  1. Fetching the user by username.
-     *  2. Verifying the password using PBKDF2 hash comparison.
+     *  2. Verifying the password against the stored hash (any format).
      *  3. Verifying the TOTP code using the stored secret.
+     *  4. Rejecting the code if it (or a later one) was already used to log in
+     *     (see {@link TotpReplayGuard}).
      *
-     * Both checks must pass for the login to succeed.
+     * Both checks must pass for the login to succeed. After a successful login
+     * an outdated password hash is replaced with one using the current
+     * parameters.
      */
     public boolean verifyLogin(String username, char[] password, int totpCode) throws SQLException {
+        long start = System.nanoTime();
+        boolean ok = checkLogin(username, password, totpCode);
+        LOGIN_TIME.recordSince(start);
+        (ok ? LOGIN_SUCCESS : LOGIN_FAILURE).increment();
+        return ok;
+    }
+
+    private boolean checkLogin(String username, char[] password, int totpCode) throws SQLException {
         User user = findByUsername(username);
         if (user == null) {
-            return false;
+            // Same hashing cost as a real user, so unknown names don't stand out.
+            return PasswordHasher.verifyDummy(password);
         }
 
-        boolean pwdOk = PasswordHasher.verifyPassword(password, user.getSalt(), user.getPasswordHash());
+        boolean pwdOk = PasswordHasher.verify(password, user.getPasswordHash(), user.getSalt());
         if (!pwdOk) {
             return false;
         }
 
-        return TotpUtil.verifyCode(user.getTotpSecret(), totpCode, 1);
+        long step = TotpVerifier.forSecret(user.getTotpSecret()).matchStep(totpCode, System.currentTimeMillis(), 1);
+        if (step < 0) {
+            return false;
+        }
+        if (replayGuard != null && !replayGuard.tryAccept(user.getId(), step)) {
+            TOTP_REPLAYS.increment();
+            return false;
+        }
+
+        if (PasswordHasher.needsRehash(user.getPasswordHash())) {
+            rehash(user, password);
+        }
+        return true;
+    }
+
+    /**
+     * Stores a fresh hash of the (just verified) password. Best effort: the
+     * old hash keeps working if this fails, so it does not fail the login.
+     */
+    private void rehash(User user, char[] password) {
+        try {
+            store.updatePasswordHash(user.getId(), PasswordHasher.hash(password), new byte[0]);
+        } catch (SQLException ignored) {
+            // Tried again on the next login.
+        }
     }
 
     /**
@@ -142,63 +163,58 @@ public class AuthService {
     }
 
     /**
-     * Fetches the user's RSA PublicKey from the database.
-     * Used to wrap AES keys during encryption.
+     * The KeyAlgorithm of the user's key pair.
+     */
+    public KeyAlgorithm getUserKeyAlgorithm(int userId) throws SQLException {
+        return KeyAlgorithm.forId(store.getKeyAlgorithm(userId));
+    }
+
+    /**
+     * Fetches the user's PublicKey from the database.
+     * Used to wrap the user's key-encryption key.
+     *
+     * Decoded keys are kept in the {@link SessionKeyCache} until logout.
      */
     public PublicKey getUserPublicKey(int userId) throws SQLException {
-        String sql = "SELECT public_key FROM users WHERE id = ?";
-
-        try (Connection conn = Database.getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
-
-            ps.setInt(1, userId);
-            try (ResultSet rs = ps.executeQuery()) {
-                if (rs.next()) {
-                    byte[] keyBytes = rs.getBytes("public_key");
-                    if (keyBytes == null) return null;
-
-                    try {
-                        X509EncodedKeySpec spec = new X509EncodedKeySpec(keyBytes);
-                        KeyFactory kf = KeyFactory.getInstance("RSA");
-                        return kf.generatePublic(spec);
-                    } catch (Exception e) {
-                        throw new SQLException("Failed to decode public key", e);
-                    }
-                }
-            }
+        try {
+            return SessionKeyCache.getPublicKey(userId, () -> loadPublicKey(userId));
+        } catch (SQLException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new SQLException("Failed to decode public key", e);
         }
-        return null;
     }
 
     /**
-     * Fetches the user's RSA PrivateKey from the database.
-     * Used to unwrap AES keys during decryption.
+     * Fetches the user's PrivateKey from the database.
+     * Used to unwrap the key-encryption key (and older RSA-wrapped file keys).
+     *
+     * Decoded keys are kept in the {@link SessionKeyCache} until logout.
      *
      * NOTE (for coursework): storing private keys in the DB is acceptable for demo,
      * but in a real system you would encrypt the private key or store it in a keystore.
      */
     public PrivateKey getUserPrivateKey(int userId) throws SQLException {
-        String sql = "SELECT private_key FROM users WHERE id = ?";
-
-        try (Connection conn = Database.getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
-
-            ps.setInt(1, userId);
-            try (ResultSet rs = ps.executeQuery()) {
-                if (rs.next()) {
-                    byte[] keyBytes = rs.getBytes("private_key");
-                    if (keyBytes == null) return null;
-
-                    try {
-                        PKCS8EncodedKeySpec spec = new PKCS8EncodedKeySpec(keyBytes);
-                        KeyFactory kf = KeyFactory.getInstance("RSA");
-                        return kf.generatePrivate(spec);
-                    } catch (Exception e) {
-                        throw new SQLException("Failed to decode private key", e);
-                    }
-                }
-            }
+        try {
+            return SessionKeyCache.getPrivateKey(userId, () -> loadPrivateKey(userId));
+        } catch (SQLException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new SQLException("Failed to decode private key", e);
         }
-        return null;
+    }
+
+    private PublicKey loadPublicKey(int userId) throws Exception {
+        byte[] keyBytes = store.getPublicKey(userId);
+        if (keyBytes == null) return null;
+
+        return getUserKeyAlgorithm(userId).decodePublicKey(keyBytes);
+    }
+
+    private PrivateKey loadPrivateKey(int userId) throws Exception {
+        byte[] keyBytes = store.getPrivateKey(userId);
+        if (keyBytes == null) return null;
+
+        return getUserKeyAlgorithm(userId).decodePrivateKey(keyBytes);
     }
 }
\ No newline at end of file
@@ -0,0 +1,168 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package ie.ncirl.securevault.auth;
+
+import ie.ncirl.securevault.crypto.AesGcmCrypto;
+import ie.ncirl.securevault.crypto.KeyAlgorithm;
+import ie.ncirl.securevault.crypto.KeyWrapUtil;
+import ie.ncirl.securevault.db.Database;
+import ie.ncirl.securevault.db.FileRecordDao;
+import ie.ncirl.securevault.db.VaultStore;
+import ie.ncirl.securevault.model.FileRecord;
+
+import javax.crypto.SecretKey;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * EnvelopeKeyService
+ *
+ * Two-level key hierarchy for file keys:
+ *
+ *   key pair --(RSA-OAEP or X25519 ECDH-ES, once per user)--> KEK --(AES key wrap)--> file keys
+ *
+ * Each user gets one random AES-256 key-encryption key (KEK), created on first
+ * use and stored in users.wrapped_kek, wrapped with the user's
+ * {@link KeyAlgorithm}. New file keys are wrapped
+ * under the KEK, so encrypting or decrypting a file costs a microsecond of
+ * AES key wrap instead of a public-key operation, once the KEK has been unwrapped
+ * (it is kept in the {@link SessionKeyCache}).
+ *
+ * Records written before this scheme are still RSA-wrapped; they can be read
+ * as they are, and {@link #migrateUser(int)} re-wraps them under the KEK in
+ * batches.
+ *
+ * @author Mkwenje Tadiwa
+ */
+public class EnvelopeKeyService {
+
+    private static final int MIGRATION_BATCH_SIZE = 200;
+
+    private final VaultStore store;
+    private final AuthService authService;
+    private final FileRecordDao fileDao;
+
+    public EnvelopeKeyService() {
+        this(Database.getStore());
+    }
+
+    public EnvelopeKeyService(VaultStore store) {
+        this.store = store;
+        this.authService = new AuthService(store);
+        this.fileDao = new FileRecordDao(store);
+    }
+
+    /**
+     * The user's KEK, creating and storing it on first use.
+     */
+    public SecretKey getUserKek(int userId) throws Exception {
+        return SessionKeyCache.getKek(userId, () -> loadOrCreateKek(userId));
+    }
+
+    private SecretKey loadOrCreateKek(int userId) throws Exception {
+        KeyAlgorithm algorithm = authService.getUserKeyAlgorithm(userId);
+        byte[] wrapped = store.getWrappedKek(userId);
+
+        if (wrapped == null) {
+            PublicKey publicKey = authService.getUserPublicKey(userId);
+            if (publicKey == null) {
+                throw new Exception("User public key not found. Register again or reset DB.");
+            }
+            SecretKey kek = AesGcmCrypto.generateKey();
+            if (store.setWrappedKekIfAbsent(userId, algorithm.wrapKey(kek, publicKey))) {
+                return kek;
+            }
+            // Someone else created it at the same time; use theirs.
+            wrapped = store.getWrappedKek(userId);
+        }
+
+        PrivateKey privateKey = authService.getUserPrivateKey(userId);
+        if (privateKey == null) {
+            throw new Exception("User private key not found. Register again or reset DB.");
+        }
+        return algorithm.unwrapKey(wrapped, privateKey);
+    }
+
+    /**
+     * Wraps a new file key for the user; store it with FileRecord.KEY_SCHEME_KEK.
+     */
+    public byte[] wrapFileKey(int userId, SecretKey fileKey) throws Exception {
+        return KeyWrapUtil.wrapWithKek(fileKey, getUserKek(userId));
+    }
+
+    /**
+     * Unwraps the key of a record loaded with its wrapped key (see
+     * FileRecordDao.getByIdWithKey), whichever scheme it uses.
+     */
+    public SecretKey unwrapFileKey(FileRecord record) throws Exception {
+        if (record.getKeyScheme() == FileRecord.KEY_SCHEME_CHUNKED) {
+            throw new Exception("Record " + record.getId() + " is in the chunk store and has no file key.");
+        }
+        byte[] wrapped = record.getWrappedKey();
+        if (wrapped == null || wrapped.length == 0) {
+            throw new Exception("Wrapped key not found for this record.");
+        }
+
+        switch (record.getKeyScheme()) {
+            case FileRecord.KEY_SCHEME_KEK:
+                return KeyWrapUtil.unwrapWithKek(wrapped, getUserKek(record.getUserId()));
+            case FileRecord.KEY_SCHEME_RSA:
+                PrivateKey privateKey = authService.getUserPrivateKey(record.getUserId());
+                if (privateKey == null) {
+                    throw new Exception("User RSA private key not found. Register again or reset DB.");
+                }
+                return KeyWrapUtil.unwrapKey(wrapped, privateKey);
+            default:
+                throw new Exception("Unknown key scheme " + record.getKeyScheme() + " for record " + record.getId());
+        }
+    }
+
+    /**
+     * Re-wraps every RSA-wrapped file key of the user under the KEK, one
+     * transaction per batch, and returns how many records were changed. Safe
+     * to run while the user is working: a record is only updated if it is
+     * still RSA-wrapped, and the file key itself does not change. Stops early
+     * if the thread is interrupted.
+     */
+    public int migrateUser(int userId) throws Exception {
+        int migrated = 0;
+        int skipped = 0;
+
+        while (!Thread.currentThread().isInterrupted()) {
+            // Records that failed to unwrap stay RSA-wrapped; fetch past them.
+            List<FileRecord> batch = fileDao.getByKeyScheme(userId, FileRecord.KEY_SCHEME_RSA,
+                    skipped + MIGRATION_BATCH_SIZE);
+            if (batch.size() <= skipped) break;
+
+            PrivateKey privateKey = authService.getUserPrivateKey(userId);
+            if (privateKey == null) {
+                throw new Exception("User RSA private key not found. Register again or reset DB.");
+            }
+            SecretKey kek = getUserKek(userId);
+
+            List<FileRecord> rewrapped = new ArrayList<>(batch.size());
+            for (FileRecord record : batch.subList(skipped, batch.size())) {
+                byte[] wrapped;
+                try {
+                    SecretKey fileKey = KeyWrapUtil.unwrapKey(record.getWrappedKey(), privateKey);
+                    wrapped = KeyWrapUtil.wrapWithKek(fileKey, kek);
+                } catch (Exception e) {
+                    skipped++;
+                    continue;
+                }
+                record.setWrappedKey(wrapped);
+                record.setKeyScheme(FileRecord.KEY_SCHEME_KEK);
+                rewrapped.add(record);
+            }
+
+            if (!rewrapped.isEmpty()) {
+                migrated += fileDao.updateWrappedKeys(rewrapped, FileRecord.KEY_SCHEME_RSA);
+            }
+        }
+        return migrated;
+    }
+}
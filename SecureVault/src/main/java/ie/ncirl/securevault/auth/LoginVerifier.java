@@ -0,0 +1,161 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package ie.ncirl.securevault.auth;
+
+import ie.ncirl.securevault.config.AppConfig;
+import ie.ncirl.securevault.metrics.Metrics;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LoginVerifier
+ *
+ * Admission control in front of {@link AuthService#verifyLogin}, whose
+ * password hash costs a few hundred ms of CPU on purpose.
+ *
+ *  1. Per-user and per-source token buckets reject repeated attempts before
+ *     any hashing is done.
+ *  2. Admitted attempts run on a dedicated pool with one thread per core and
+ *     a bounded queue. When the queue is full the attempt is rejected at
+ *     once (OVERLOADED) instead of piling up behind the others.
+ *
+ * Settings (see {@link AppConfig}):
+ *  - securevault.login.threads            default: available processors
+ *  - securevault.login.queue              default 64
+ *  - securevault.login.user.burst         default 5
+ *  - securevault.login.user.per.minute    default 10
+ *  - securevault.login.source.burst       default 20
+ *  - securevault.login.source.per.minute  default 60
+ *
+ * @author Mkwenje Tadiwa
+ */
+public class LoginVerifier {
+
+    /** Source id for logins made from the desktop UI. */
+    public static final String LOCAL_SOURCE = "local";
+
+    public enum Outcome { SUCCESS, FAILED, USER_RATE_LIMITED, SOURCE_RATE_LIMITED, OVERLOADED }
+
+    private static volatile LoginVerifier shared;
+
+    private final AuthService authService;
+    private final RateLimiter perUser;
+    private final RateLimiter perSource;
+    private final ThreadPoolExecutor pool;
+
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong succeeded = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong rejectedUser = new AtomicLong();
+    private final AtomicLong rejectedSource = new AtomicLong();
+    private final AtomicLong rejectedOverload = new AtomicLong();
+
+    public LoginVerifier(AuthService authService, int threads, int queueCapacity,
+                         RateLimiter perUser, RateLimiter perSource) {
+        this.authService = authService;
+        this.perUser = perUser;
+        this.perSource = perSource;
+
+        AtomicInteger ids = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                r -> {
+                    Thread t = new Thread(r, "login-verify-" + ids.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * The verifier configured from AppConfig, created on first use.
+     */
+    public static LoginVerifier shared() {
+        LoginVerifier v = shared;
+        if (v == null) {
+            synchronized (LoginVerifier.class) {
+                v = shared;
+                if (v == null) {
+                    v = shared = new LoginVerifier(new AuthService(),
+                            AppConfig.getInt("securevault.login.threads", Runtime.getRuntime().availableProcessors()),
+                            AppConfig.getInt("securevault.login.queue", 64),
+                            new RateLimiter(AppConfig.getInt("securevault.login.user.burst", 5),
+                                    AppConfig.getInt("securevault.login.user.per.minute", 10)),
+                            new RateLimiter(AppConfig.getInt("securevault.login.source.burst", 20),
+                                    AppConfig.getInt("securevault.login.source.per.minute", 60)));
+                    Metrics.gauge("auth.login.queue.depth", v::getQueueDepth);
+                    Metrics.gauge("auth.login.active", v::getActiveCount);
+                }
+            }
+        }
+        return v;
+    }
+
+    /**
+     * Checks the limits, then verifies the login on the pool and waits for
+     * the result. The caller may clear the password once this returns.
+     */
+    public Outcome verify(String username, char[] password, int totpCode, String source) throws Exception {
+        // Source first, so one client hammering many usernames is stopped early.
+        if (!perSource.tryAcquire(source)) {
+            rejectedSource.incrementAndGet();
+            return Outcome.SOURCE_RATE_LIMITED;
+        }
+        if (!perUser.tryAcquire(username)) {
+            rejectedUser.incrementAndGet();
+            return Outcome.USER_RATE_LIMITED;
+        }
+
+        Future<Boolean> result;
+        try {
+            result = pool.submit(() -> authService.verifyLogin(username, password, totpCode));
+        } catch (RejectedExecutionException e) {
+            rejectedOverload.incrementAndGet();
+            return Outcome.OVERLOADED;
+        }
+        admitted.incrementAndGet();
+
+        boolean ok;
+        try {
+            ok = result.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+        (ok ? succeeded : failed).incrementAndGet();
+        return ok ? Outcome.SUCCESS : Outcome.FAILED;
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /** Attempts waiting for a thread. */
+    public int getQueueDepth() { return pool.getQueue().size(); }
+
+    /** Attempts being hashed right now. */
+    public int getActiveCount() { return pool.getActiveCount(); }
+
+    public long getAdmittedCount() { return admitted.get(); }
+    public long getSuccessCount() { return succeeded.get(); }
+    public long getFailureCount() { return failed.get(); }
+    public long getUserRateLimitedCount() { return rejectedUser.get(); }
+    public long getSourceRateLimitedCount() { return rejectedSource.get(); }
+    public long getOverloadRejectedCount() { return rejectedOverload.get(); }
+
+    @Override
+    public String toString() {
+        return String.format("queue=%d active=%d admitted=%d ok=%d failed=%d rejected(user=%d source=%d overload=%d)",
+                getQueueDepth(), getActiveCount(), getAdmittedCount(), getSuccessCount(), getFailureCount(),
+                getUserRateLimitedCount(), getSourceRateLimitedCount(), getOverloadRejectedCount());
+    }
+}
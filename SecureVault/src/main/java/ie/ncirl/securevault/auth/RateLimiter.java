@@ -0,0 +1,77 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package ie.ncirl.securevault.auth;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * RateLimiter
+ *
+ * Token bucket per key (username, client address, ...): each key may make
+ * up to burst attempts at once, refilled at perMinute tokens per minute.
+ *
+ * At most MAX_KEYS buckets are kept: past that the least recently used one
+ * is dropped (constant time), so a flood of random keys cannot grow the map
+ * without bound. A key used again after that starts with a full bucket.
+ *
+ * @author Mkwenje Tadiwa
+ */
+public class RateLimiter {
+
+    private static final int MAX_KEYS = 10_000;
+
+    private static final class Bucket {
+        double tokens;
+        long lastRefillNanos;
+
+        Bucket(double tokens, long now) {
+            this.tokens = tokens;
+            this.lastRefillNanos = now;
+        }
+    }
+
+    private final double burst;
+    private final double tokensPerNano;
+    // Access-ordered: the eldest entry is the least recently used key. Guarded by this.
+    private final LinkedHashMap<String, Bucket> buckets = new LinkedHashMap<>(16, 0.75f, true);
+
+    public RateLimiter(int burst, int perMinute) {
+        this.burst = burst;
+        this.tokensPerNano = perMinute / 60e9;
+    }
+
+    /**
+     * Takes one token for the key; false if it has none left.
+     */
+    public synchronized boolean tryAcquire(String key) {
+        long now = System.nanoTime();
+        Bucket b = buckets.get(key);
+        if (b == null) {
+            b = new Bucket(burst, now);
+            buckets.put(key, b);
+            if (buckets.size() > MAX_KEYS) {
+                Iterator<Bucket> eldest = buckets.values().iterator();
+                eldest.next();
+                eldest.remove();
+            }
+        }
+
+        refill(b, now);
+        if (b.tokens < 1) return false;
+        b.tokens -= 1;
+        return true;
+    }
+
+    private void refill(Bucket b, long now) {
+        b.tokens = Math.min(burst, b.tokens + (now - b.lastRefillNanos) * tokensPerNano);
+        b.lastRefillNanos = now;
+    }
+
+    /** Keys currently tracked. */
+    public synchronized int size() {
+        return buckets.size();
+    }
+}
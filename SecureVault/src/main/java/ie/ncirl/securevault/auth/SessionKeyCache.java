@@ -0,0 +1,157 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package ie.ncirl.securevault.auth;
+
+import ie.ncirl.securevault.config.AppConfig;
+import ie.ncirl.securevault.crypto.KeyCache;
+import ie.ncirl.securevault.metrics.Metrics;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SessionKeyCache
+ *
+ * Keys that are expensive to get and are used again and again while a user is
+ * logged in:
+ *  - decoded RSA public/private keys (saves the DB read + KeyFactory parse)
+ *  - unwrapped per-file AES keys (saves the DB read + key unwrap)
+ *  - unwrapped per-user key-encryption keys (saves an RSA-OAEP decrypt)
+ *
+ * File keys and KEKs are held as raw bytes and zeroed when they leave the cache;
+ * callers get their own copy of the bytes (taken under the cache lock) in a
+ * SecretKeySpec, so eviction never pulls a key out from under a running
+ * decrypt. Private keys are shared with callers and cannot be copied cheaply,
+ * so they are only dropped, never destroyed.
+ *
+ * Everything is cleared on logout ({@link #clear()}).
+ *
+ * Settings (see {@link AppConfig}):
+ *  - securevault.keycache.file.size         file keys kept, default 512
+ *  - securevault.keycache.file.ttl.seconds  default 600
+ *  - securevault.keycache.rsa.size          decoded key pairs kept, default 16
+ *  - securevault.keycache.rsa.ttl.seconds   default 900
+ *
+ * @author Mkwenje Tadiwa
+ */
+public class SessionKeyCache {
+
+    private static final KeyCache<Integer, byte[]> FILE_KEYS = new KeyCache<>(
+            AppConfig.getInt("securevault.keycache.file.size", 512),
+            AppConfig.getLong("securevault.keycache.file.ttl.seconds", 600), TimeUnit.SECONDS,
+            byte[]::clone, material -> Arrays.fill(material, (byte) 0));
+
+    private static final KeyCache<Integer, byte[]> KEKS = new KeyCache<>(
+            AppConfig.getInt("securevault.keycache.rsa.size", 16),
+            AppConfig.getLong("securevault.keycache.rsa.ttl.seconds", 900), TimeUnit.SECONDS,
+            byte[]::clone, material -> Arrays.fill(material, (byte) 0));
+
+    private static final KeyCache<Integer, PublicKey> PUBLIC_KEYS = new KeyCache<>(
+            AppConfig.getInt("securevault.keycache.rsa.size", 16),
+            AppConfig.getLong("securevault.keycache.rsa.ttl.seconds", 900), TimeUnit.SECONDS,
+            key -> {});
+
+    private static final KeyCache<Integer, PrivateKey> PRIVATE_KEYS = new KeyCache<>(
+            AppConfig.getInt("securevault.keycache.rsa.size", 16),
+            AppConfig.getLong("securevault.keycache.rsa.ttl.seconds", 900), TimeUnit.SECONDS,
+            key -> {});
+
+    static {
+        Metrics.gauge("crypto.keycache.file.size", FILE_KEYS::size);
+        Metrics.gauge("crypto.keycache.file.hits", FILE_KEYS::getHitCount);
+        Metrics.gauge("crypto.keycache.file.misses", FILE_KEYS::getMissCount);
+        Metrics.gauge("crypto.keycache.private.hits", PRIVATE_KEYS::getHitCount);
+        Metrics.gauge("crypto.keycache.private.misses", PRIVATE_KEYS::getMissCount);
+    }
+
+    private SessionKeyCache() {}
+
+    /**
+     * Unwrapped AES key of a file record, loading (unwrapping) it on a miss.
+     * The returned key is a private copy.
+     */
+    public static SecretKey getFileKey(int fileId, KeyCache.Loader<SecretKey> loader) throws Exception {
+        byte[] material = FILE_KEYS.getOrLoad(fileId, () -> {
+            SecretKey key = loader.load();
+            return key == null ? null : key.getEncoded();
+        });
+        return toAesKey(material);
+    }
+
+    /**
+     * Remembers a file key that is already known (e.g. just generated for encryption).
+     */
+    public static void putFileKey(int fileId, SecretKey key) {
+        FILE_KEYS.put(fileId, key.getEncoded());
+    }
+
+    public static void invalidateFileKey(int fileId) {
+        FILE_KEYS.invalidate(fileId);
+    }
+
+    static SecretKey getKek(int userId, KeyCache.Loader<SecretKey> loader) throws Exception {
+        byte[] material = KEKS.getOrLoad(userId, () -> {
+            SecretKey key = loader.load();
+            return key == null ? null : key.getEncoded();
+        });
+        return toAesKey(material);
+    }
+
+    /**
+     * Wraps material (a private copy handed out by the cache) as a key and
+     * zeroes it: SecretKeySpec keeps a clone of its own.
+     */
+    private static SecretKey toAesKey(byte[] material) {
+        if (material == null) return null;
+        SecretKey key = new SecretKeySpec(material, "AES");
+        Arrays.fill(material, (byte) 0);
+        return key;
+    }
+
+    static PublicKey getPublicKey(int userId, KeyCache.Loader<PublicKey> loader) throws Exception {
+        return PUBLIC_KEYS.getOrLoad(userId, loader);
+    }
+
+    static PrivateKey getPrivateKey(int userId, KeyCache.Loader<PrivateKey> loader) throws Exception {
+        return PRIVATE_KEYS.getOrLoad(userId, loader);
+    }
+
+    /**
+     * Drops the cached RSA keys and KEK of one user (e.g. after a key change).
+     */
+    public static void invalidateUser(int userId) {
+        KEKS.invalidate(userId);
+        PUBLIC_KEYS.invalidate(userId);
+        PRIVATE_KEYS.invalidate(userId);
+    }
+
+    /**
+     * Drops and zeroes every cached key. Called on logout.
+     */
+    public static void clear() {
+        FILE_KEYS.clear();
+        KEKS.clear();
+        PUBLIC_KEYS.clear();
+        PRIVATE_KEYS.clear();
+    }
+
+    /**
+     * One line per cache with size, hits, misses and evictions.
+     */
+    public static String describeStats() {
+        return "file keys: " + FILE_KEYS + System.lineSeparator()
+                + "key-encryption keys: " + KEKS + System.lineSeparator()
+                + "public keys: " + PUBLIC_KEYS + System.lineSeparator()
+                + "private keys: " + PRIVATE_KEYS;
+    }
+
+    public static KeyCache<Integer, byte[]> fileKeyStats() { return FILE_KEYS; }
+    public static KeyCache<Integer, PublicKey> publicKeyStats() { return PUBLIC_KEYS; }
+    public static KeyCache<Integer, PrivateKey> privateKeyStats() { return PRIVATE_KEYS; }
+}
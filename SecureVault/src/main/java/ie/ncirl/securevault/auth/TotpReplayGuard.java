@@ -0,0 +1,278 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package ie.ncirl.securevault.auth;
+
+import ie.ncirl.securevault.config.AppConfig;
+import ie.ncirl.securevault.db.VaultStore;
+
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * TotpReplayGuard
+ *
+ * Stops a TOTP code from being used twice. For each user it remembers the
+ * last time step a code was accepted for; a login is only accepted for a
+ * later step. That also rejects an older code (e.g. the previous window)
+ * once a newer one has been used.
+ *
+ * The map is held in memory, split into lock stripes by user id, each a
+ * small open-addressing table of (user id, step, dirty) primitives, so a
+ * login allocates nothing. The stripe is picked by the low bits of the
+ * hashed id and the slot by the bits above them. Entries older than the
+ * drift window are dropped, since no acceptable code can hit them.
+ *
+ * Accepted steps are written to the totp_last_step table by a background
+ * task (every securevault.totp.replay.flush.ms, default 500, and by
+ * {@link #closeAll()} on exit), so the login itself never waits for the
+ * database. They are loaded back on startup. A crash can lose at most the last flush interval, which is far
+ * shorter than the 30 s a code stays valid.
+ *
+ * Disable with securevault.totp.replay.protection=false.
+ *
+ * @author Mkwenje Tadiwa
+ */
+public class TotpReplayGuard {
+
+    private static final int STRIPE_BITS = 6;
+    private static final int STRIPES = 1 << STRIPE_BITS;
+
+    // Steps older than now - KEEP_STEPS can never be accepted again (drift is 1).
+    private static final long KEEP_STEPS = 2;
+
+    private static final Map<VaultStore, TotpReplayGuard> BY_STORE = new ConcurrentHashMap<>();
+
+    private final VaultStore store;
+    private final long periodMillis;
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final ScheduledExecutorService flusher;
+
+    /**
+     * One lock and one open-addressing table (linear probing, key 0 = empty,
+     * so user ids are stored +1).
+     */
+    private static final class Stripe {
+        final ReentrantLock lock = new ReentrantLock();
+        int[] keys = new int[16];
+        long[] steps = new long[16];
+        boolean[] dirty = new boolean[16];  // changed since the last flush
+        int size;
+
+        int indexOf(int key) {
+            int mask = keys.length - 1;
+            // The low STRIPE_BITS chose the stripe and are the same for every key in it.
+            int i = (mix(key) >>> STRIPE_BITS) & mask;
+            while (keys[i] != 0 && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            return i;
+        }
+
+        long get(int key) {
+            int i = indexOf(key);
+            return keys[i] == 0 ? Long.MIN_VALUE : steps[i];
+        }
+
+        void put(int key, long step) {
+            int i = indexOf(key);
+            if (keys[i] == 0) {
+                if ((size + 1) * 4 > keys.length * 3) {
+                    rebuild(keys.length * 2, Long.MIN_VALUE);
+                    i = indexOf(key);
+                }
+                keys[i] = key;
+                size++;
+            }
+            steps[i] = step;
+        }
+
+        /**
+         * Marks key as changed, if it is still in the table.
+         */
+        void markDirty(int key) {
+            int i = indexOf(key);
+            if (keys[i] != 0) dirty[i] = true;
+        }
+
+        /**
+         * Re-inserts all entries with step >= minStep into a table of the given capacity.
+         */
+        void rebuild(int capacity, long minStep) {
+            int[] oldKeys = keys;
+            long[] oldSteps = steps;
+            boolean[] oldDirty = dirty;
+            keys = new int[capacity];
+            steps = new long[capacity];
+            dirty = new boolean[capacity];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0 && oldSteps[i] >= minStep) {
+                    int j = indexOf(oldKeys[i]);
+                    keys[j] = oldKeys[i];
+                    steps[j] = oldSteps[i];
+                    dirty[j] = oldDirty[i];
+                    size++;
+                }
+            }
+        }
+
+        static int mix(int key) {
+            int h = key * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+
+    public TotpReplayGuard(VaultStore store, int periodSeconds, long flushMillis) {
+        this.store = store;
+        this.periodMillis = periodSeconds * 1000L;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+
+        load();
+
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "totp-replay-flush");
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * The guard for a store (one per store, so every AuthService on it
+     * shares the same state), or null if replay protection is off.
+     */
+    public static TotpReplayGuard forStore(VaultStore store) {
+        if (!AppConfig.getBoolean("securevault.totp.replay.protection", true)) return null;
+        return BY_STORE.computeIfAbsent(store, s -> new TotpReplayGuard(s,
+                TotpVerifier.DEFAULT_PERIOD_SECONDS,
+                AppConfig.getLong("securevault.totp.replay.flush.ms", 500)));
+    }
+
+    /**
+     * Records that the user logged in with a code for the given step.
+     * Returns false if a code for this step or a later one was already
+     * accepted (a replay).
+     */
+    public boolean tryAccept(int userId, long step) {
+        int key = userId + 1;
+        Stripe s = stripeOf(key);
+        s.lock.lock();
+        try {
+            if (step <= s.get(key)) {
+                return false;
+            }
+            s.put(key, step);
+            s.markDirty(key);
+            return true;
+        } finally {
+            s.lock.unlock();
+        }
+    }
+
+    private void load() {
+        try {
+            store.getTotpLastSteps(currentStep() - KEEP_STEPS).forEach((userId, step) -> {
+                stripeOf(userId + 1).put(userId + 1, step);
+            });
+        } catch (SQLException e) {
+            // Start empty: codes stay single-use from now on.
+        }
+    }
+
+    /**
+     * Writes changed steps to the database and drops expired entries.
+     */
+    public void flush() throws SQLException {
+        long minStep = currentStep() - KEEP_STEPS;
+        Map<Integer, Long> batch = new HashMap<>();
+
+        for (Stripe s : stripes) {
+            s.lock.lock();
+            try {
+                for (int i = 0; i < s.keys.length; i++) {
+                    if (s.dirty[i]) {
+                        batch.put(s.keys[i] - 1, s.steps[i]);
+                        s.dirty[i] = false;
+                    }
+                }
+                if (s.size > 0) {
+                    s.rebuild(s.keys.length, minStep);
+                }
+            } finally {
+                s.lock.unlock();
+            }
+        }
+
+        if (batch.isEmpty()) return;
+        try {
+            store.saveTotpLastSteps(batch);
+        } catch (SQLException e) {
+            // Mark them again for the next attempt; the table holds the same step or a newer one.
+            batch.forEach((userId, step) -> {
+                Stripe s = stripeOf(userId + 1);
+                s.lock.lock();
+                try {
+                    s.markDirty(userId + 1);
+                } finally {
+                    s.lock.unlock();
+                }
+            });
+            throw e;
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception ignored) {
+            // Retried on the next tick.
+        }
+    }
+
+    /**
+     * Stops the background task after a last flush.
+     */
+    public void close() {
+        flusher.shutdown();
+        flushQuietly();
+    }
+
+    /**
+     * Closes every guard. Called on exit, before the database pool closes.
+     */
+    public static void closeAll() {
+        BY_STORE.values().forEach(TotpReplayGuard::close);
+    }
+
+    private Stripe stripeOf(int key) {
+        return stripes[Stripe.mix(key) & (STRIPES - 1)];
+    }
+
+    private long currentStep() {
+        return Math.floorDiv(System.currentTimeMillis(), periodMillis);
+    }
+
+    /** Users currently tracked (including not yet purged expired ones). */
+    public int size() {
+        int n = 0;
+        for (Stripe s : stripes) {
+            s.lock.lock();
+            try {
+                n += s.size;
+            } finally {
+                s.lock.unlock();
+            }
+        }
+        return n;
+    }
+}
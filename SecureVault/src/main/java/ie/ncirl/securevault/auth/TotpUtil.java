@@ -6,10 +6,7 @@ package ie.ncirl.securevault.auth;
 
 import org.apache.commons.codec.binary.Base32;
 
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
 import java.security.SecureRandom;
-import java.time.Instant;
 
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
@@ -32,13 +29,14 @@ import java.net.URLEncoder;
  *
  * You should reference RFC 6238 in your documentation to acknowledge
  * that the algorithm is not original to this project.
+ *
+ * The computation itself lives in {@link TotpVerifier}; use it directly to
+ * check several codes against one secret, or for other algorithms/digits.
  */
 public class TotpUtil {
 
     private static final SecureRandom secureRandom = new SecureRandom();
     private static final int SECRET_LENGTH = 20;      // 160-bit secret key
-    private static final int TIME_STEP_SECONDS = 30;  // standard TOTP time window
-    private static final String HMAC_ALGO = "HmacSHA1";
 
     /**
      * Generates a random Base32-encoded secret, suitable for use with apps like
@@ -59,41 +57,7 @@ public class TotpUtil {
      * @return a 6-digit integer code.
      */
     public static int generateCode(String base32Secret, long timeMillis) {
-        Base32 base32 = new Base32();
-        byte[] key = base32.decode(base32Secret);
-
-        // Convert current time into a 30-second "time step" value.
-        long timeStep = (timeMillis / 1000L) / TIME_STEP_SECONDS;
-
-        try {
-            // Build an 8-byte array representing the time step counter.
-            byte[] data = new byte[8];
-            for (int i = 7; i >= 0; i--) {
-                data[i] = (byte) (timeStep & 0xFF);
-                timeStep >>= 8;
-            }
-
-            // Create HMAC-SHA1 of the counter using the secret key.
-            SecretKeySpec signKey = new SecretKeySpec(key, HMAC_ALGO);
-            Mac mac = Mac.getInstance(HMAC_ALGO);
-            mac.init(signKey);
-            byte[] hmac = mac.doFinal(data);
-
-            // Dynamic truncation: take 4 bytes starting at an offset
-            // indicated by the low 4 bits of the last byte.
-            int offset = hmac[hmac.length - 1] & 0x0F;
-            int binary =
-                    ((hmac[offset] & 0x7f) << 24) |
-                    ((hmac[offset + 1] & 0xff) << 16) |
-                    ((hmac[offset + 2] & 0xff) << 8) |
-                    (hmac[offset + 3] & 0xff);
-
-            // Restrict to 6 digits.
-            int otp = binary % 1_000_000;
-            return otp;
-        } catch (Exception e) {
-            throw new RuntimeException("Error generating TOTP", e);
-        }
+        return TotpVerifier.forSecret(base32Secret).generateCode(timeMillis);
     }
 
     /**
@@ -105,17 +69,8 @@ public class TotpUtil {
      * @return true if the code is valid within the allowed drift, false otherwise.
      */
     public static boolean verifyCode(String base32Secret, int code, int allowedDriftSteps) {
-        long now = Instant.now().toEpochMilli();
-
-        // Check codes for [now - drift, now + drift] time windows.
-        for (int i = -allowedDriftSteps; i <= allowedDriftSteps; i++) {
-            long time = now + (i * TIME_STEP_SECONDS * 1000L);
-            int candidate = generateCode(base32Secret, time);
-            if (candidate == code) {
-                return true;
-            }
-        }
-        return false;
+        // The secret is decoded once per cached verifier; all windows are checked without allocating.
+        return TotpVerifier.forSecret(base32Secret).verify(code, allowedDriftSteps);
     }
     
         /**
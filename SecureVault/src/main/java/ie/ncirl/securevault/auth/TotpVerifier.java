@@ -0,0 +1,254 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package ie.ncirl.securevault.auth;
+
+import ie.ncirl.securevault.config.AppConfig;
+import ie.ncirl.securevault.crypto.KeyCache;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TotpVerifier
+ *
+ * TOTP (RFC 6238) for one secret, built for the login hot path:
+ *  - the Base32 secret is decoded, and the HMAC inner/outer pads are
+ *    computed, once when the verifier is created;
+ *  - each thread reuses one MessageDigest per hash algorithm and
+ *    preallocated counter/digest buffers, so generating or verifying a code
+ *    does not allocate.
+ *
+ * HMAC (RFC 2104) is done directly on MessageDigest because javax.crypto.Mac
+ * allocates a new array inside every doFinal().
+ *
+ * Supports HMAC-SHA1/SHA256/SHA512, 6 to 9 digits and any period; the
+ * defaults (SHA1, 6 digits, 30 s) match what authenticator apps expect and
+ * what {@link TotpUtil} has always produced.
+ *
+ * Instances are immutable and thread-safe. {@link #forSecret} keeps the
+ * verifiers of recently used secrets, so a login does not decode the secret
+ * and compute the pads again.
+ *
+ * Settings (see {@link AppConfig}):
+ *  - securevault.totp.cache.size         verifiers kept, default 256
+ *  - securevault.totp.cache.ttl.seconds  default 900
+ *
+ * @author Mkwenje Tadiwa
+ */
+public final class TotpVerifier {
+
+    public enum Algorithm {
+        SHA1("SHA-1", 64), SHA256("SHA-256", 64), SHA512("SHA-512", 128);
+
+        final String digestName;
+        final int blockSize;
+
+        Algorithm(String digestName, int blockSize) {
+            this.digestName = digestName;
+            this.blockSize = blockSize;
+        }
+    }
+
+    public static final int DEFAULT_DIGITS = 6;
+    public static final int DEFAULT_PERIOD_SECONDS = 30;
+
+    private static final int[] POWERS_OF_TEN = {
+            1, 10, 100, 1_000, 10_000, 100_000, 1_000_000, 10_000_000, 100_000_000, 1_000_000_000
+    };
+
+    /**
+     * Per-thread scratch space for one hash algorithm.
+     */
+    private static final class Scratch {
+        final MessageDigest md;
+        final byte[] counter = new byte[8];
+        final byte[] inner;
+        final byte[] outer;
+
+        Scratch(Algorithm algorithm) {
+            try {
+                md = MessageDigest.getInstance(algorithm.digestName);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+            inner = new byte[md.getDigestLength()];
+            outer = new byte[md.getDigestLength()];
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static final ThreadLocal<Scratch>[] SCRATCH = new ThreadLocal[Algorithm.values().length];
+
+    static {
+        for (Algorithm a : Algorithm.values()) {
+            SCRATCH[a.ordinal()] = ThreadLocal.withInitial(() -> new Scratch(a));
+        }
+    }
+
+    private static final KeyCache<String, TotpVerifier> VERIFIERS = new KeyCache<>(
+            AppConfig.getInt("securevault.totp.cache.size", 256),
+            AppConfig.getLong("securevault.totp.cache.ttl.seconds", 900), TimeUnit.SECONDS,
+            verifier -> {});
+
+    private final Algorithm algorithm;
+    private final int digits;
+    private final long periodMillis;
+    private final byte[] innerPad;
+    private final byte[] outerPad;
+
+    /**
+     * Verifier with the standard settings (SHA1, 6 digits, 30 s).
+     */
+    public TotpVerifier(String base32Secret) {
+        this(decodeBase32(base32Secret), Algorithm.SHA1, DEFAULT_DIGITS, DEFAULT_PERIOD_SECONDS);
+    }
+
+    /**
+     * Verifier with the standard settings for base32Secret, reused while the
+     * secret keeps being used.
+     */
+    public static TotpVerifier forSecret(String base32Secret) {
+        TotpVerifier verifier = VERIFIERS.get(base32Secret);
+        if (verifier == null) {
+            verifier = new TotpVerifier(base32Secret);
+            VERIFIERS.put(base32Secret, verifier);
+        }
+        return verifier;
+    }
+
+    public TotpVerifier(byte[] key, Algorithm algorithm, int digits, int periodSeconds) {
+        if (digits < 6 || digits > 9) throw new IllegalArgumentException("digits must be 6..9");
+        if (periodSeconds < 1) throw new IllegalArgumentException("period must be positive");
+
+        this.algorithm = algorithm;
+        this.digits = digits;
+        this.periodMillis = periodSeconds * 1000L;
+
+        // RFC 2104: keys longer than a block are hashed first, shorter ones zero-padded.
+        byte[] k = key;
+        if (k.length > algorithm.blockSize) {
+            k = SCRATCH[algorithm.ordinal()].get().md.digest(k);
+        }
+        innerPad = new byte[algorithm.blockSize];
+        outerPad = new byte[algorithm.blockSize];
+        for (int i = 0; i < algorithm.blockSize; i++) {
+            byte b = i < k.length ? k[i] : 0;
+            innerPad[i] = (byte) (b ^ 0x36);
+            outerPad[i] = (byte) (b ^ 0x5c);
+        }
+        if (k != key) Arrays.fill(k, (byte) 0);
+    }
+
+    /**
+     * The code for the time step containing timeMillis.
+     */
+    public int generateCode(long timeMillis) {
+        return codeForStep(Math.floorDiv(timeMillis, periodMillis));
+    }
+
+    /**
+     * True if code matches the current time step or one within driftSteps of it.
+     */
+    public boolean verify(int code, int driftSteps) {
+        return matchStep(code, Instant.now().toEpochMilli(), driftSteps) >= 0;
+    }
+
+    public boolean verify(int code, long timeMillis, int driftSteps) {
+        return matchStep(code, timeMillis, driftSteps) >= 0;
+    }
+
+    /**
+     * The time step that code belongs to, within driftSteps of the step of
+     * timeMillis, or -1 if none matches. Every window is checked, whether or
+     * not an earlier one matched, so the timing does not depend on which did.
+     */
+    public long matchStep(int code, long timeMillis, int driftSteps) {
+        long now = Math.floorDiv(timeMillis, periodMillis);
+        long matched = -1;
+        for (long step = now - driftSteps; step <= now + driftSteps; step++) {
+            int diff = codeForStep(step) ^ code;
+            // Branch-free select: matched = (diff == 0) ? step : matched
+            long mask = (long) (diff | -diff) >> 63;
+            matched = (matched & mask) | (step & ~mask);
+        }
+        return matched;
+    }
+
+    private int codeForStep(long step) {
+        Scratch s = SCRATCH[algorithm.ordinal()].get();
+        byte[] counter = s.counter;
+        for (int i = 7; i >= 0; i--) {
+            counter[i] = (byte) step;
+            step >>>= 8;
+        }
+
+        try {
+            MessageDigest md = s.md;
+            md.update(innerPad);
+            md.update(counter);
+            md.digest(s.inner, 0, s.inner.length);
+            md.update(outerPad);
+            md.update(s.inner);
+            md.digest(s.outer, 0, s.outer.length);
+        } catch (DigestException e) {
+            throw new IllegalStateException(e);
+        }
+
+        // Dynamic truncation (RFC 4226 section 5.3)
+        byte[] h = s.outer;
+        int offset = h[h.length - 1] & 0x0F;
+        int binary = ((h[offset] & 0x7f) << 24)
+                | ((h[offset + 1] & 0xff) << 16)
+                | ((h[offset + 2] & 0xff) << 8)
+                | (h[offset + 3] & 0xff);
+        return binary % POWERS_OF_TEN[digits];
+    }
+
+    /**
+     * RFC 4648 Base32, case-insensitive, ignoring padding and spaces. Done by
+     * hand because commons-codec's Base32 allocates several KB per decoder.
+     */
+    static byte[] decodeBase32(String s) {
+        int chars = 0;
+        for (int i = 0; i < s.length(); i++) {
+            if (base32Value(s.charAt(i)) >= 0) chars++;
+        }
+
+        byte[] out = new byte[chars * 5 / 8];
+        int buffer = 0;
+        int bits = 0;
+        int n = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            int v = base32Value(c);
+            if (v < 0) {
+                if (c == '=' || c == ' ') continue;
+                throw new IllegalArgumentException("Invalid Base32 character: " + c);
+            }
+            buffer = (buffer << 5) | v;
+            bits += 5;
+            if (bits >= 8) {
+                bits -= 8;
+                if (n < out.length) out[n++] = (byte) (buffer >> bits);
+            }
+        }
+        return out;
+    }
+
+    private static int base32Value(char c) {
+        if (c >= 'A' && c <= 'Z') return c - 'A';
+        if (c >= 'a' && c <= 'z') return c - 'a';
+        if (c >= '2' && c <= '7') return c - '2' + 26;
+        return -1;
+    }
+
+    public Algorithm getAlgorithm() { return algorithm; }
+    public int getDigits() { return digits; }
+    public int getPeriodSeconds() { return (int) (periodMillis / 1000); }
+}
@@ -0,0 +1,98 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package ie.ncirl.securevault.config;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * AppConfig
+ *
+ * Application settings, looked up in this order:
+ *  1. JVM system properties (e.g. -Dsecurevault.db.path=/mnt/nvme/vault.db)
+ *  2. the properties file named by -Dsecurevault.config, or "securevault.properties"
+ *     in the working directory if it exists
+ *  3. the default passed by the caller
+ *
+ * All keys start with "securevault.".
+ *
+ * @author Mkwenje Tadiwa
+ */
+public class AppConfig {
+
+    private static final String CONFIG_FILE_PROPERTY = "securevault.config";
+    private static final String DEFAULT_CONFIG_FILE = "securevault.properties";
+
+    private static final Properties fileProperties = loadFile();
+
+    public static String getString(String key, String defaultValue) {
+        String value = System.getProperty(key);
+        if (value == null) {
+            value = fileProperties.getProperty(key);
+        }
+        return value == null || value.isBlank() ? defaultValue : value.trim();
+    }
+
+    public static int getInt(String key, int defaultValue) {
+        String value = getString(key, null);
+        if (value == null) return defaultValue;
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Config " + key + " must be an integer: " + value, e);
+        }
+    }
+
+    public static long getLong(String key, long defaultValue) {
+        String value = getString(key, null);
+        if (value == null) return defaultValue;
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Config " + key + " must be a number: " + value, e);
+        }
+    }
+
+    public static boolean getBoolean(String key, boolean defaultValue) {
+        String value = getString(key, null);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+
+    /**
+     * Returns every setting whose key starts with the given prefix, with the
+     * prefix removed (system properties win over the file).
+     */
+    public static Map<String, String> getWithPrefix(String prefix) {
+        Map<String, String> result = new TreeMap<>();
+        for (String key : fileProperties.stringPropertyNames()) {
+            if (key.startsWith(prefix)) result.put(key.substring(prefix.length()), fileProperties.getProperty(key).trim());
+        }
+        for (String key : System.getProperties().stringPropertyNames()) {
+            if (key.startsWith(prefix)) result.put(key.substring(prefix.length()), System.getProperty(key).trim());
+        }
+        return result;
+    }
+
+    private static Properties loadFile() {
+        Properties props = new Properties();
+        Path file = Paths.get(System.getProperty(CONFIG_FILE_PROPERTY, DEFAULT_CONFIG_FILE));
+        if (Files.isRegularFile(file)) {
+            try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                props.load(reader);
+            } catch (IOException e) {
+                // Fall back to defaults rather than refusing to start.
+                System.out.println("Could not read config " + file + ": " + e.getMessage());
+            }
+        }
+        return props;
+    }
+}
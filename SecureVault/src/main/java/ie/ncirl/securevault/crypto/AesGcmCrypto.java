@@ -4,65 +4,489 @@
  */
 package ie.ncirl.securevault.crypto;
 
+import ie.ncirl.securevault.metrics.Counter;
+import ie.ncirl.securevault.metrics.LatencyHistogram;
+import ie.ncirl.securevault.metrics.Metrics;
+
+import javax.crypto.AEADBadTagException;
 import javax.crypto.Cipher;
 import javax.crypto.KeyGenerator;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.GCMParameterSpec;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.security.SecureRandom;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  *
  * @author Mkwenje Tadiwa
  */
 public class AesGcmCrypto {
-    
+
         private static final int AES_BITS = 256;
-    private static final int IV_BYTES = 12;          // recommended for GCM
     private static final int TAG_BITS = 128;         // 16 bytes auth tag
 
+    // Read size used when feeding a legacy single-tag file into the cipher.
+    private static final int LEGACY_READ_BYTES = 64 * 1024;
+
+    // Files at least this large are handed to ParallelAesGcmCrypto on multi-core hosts.
+    private static final long PARALLEL_THRESHOLD = 64L * 1024 * 1024;
+
     private static final SecureRandom random = new SecureRandom();
 
+    private static final LatencyHistogram ENCRYPT_TIME = Metrics.histogram("crypto.aes.encrypt");
+    private static final LatencyHistogram DECRYPT_TIME = Metrics.histogram("crypto.aes.decrypt");
+    private static final Counter ENCRYPT_BYTES = Metrics.counter("crypto.aes.encrypt.bytes");
+    private static final Counter DECRYPT_BYTES = Metrics.counter("crypto.aes.decrypt.bytes");
+    private static final Counter COMPRESSED_FILES = Metrics.counter("crypto.compression.files");
+    private static final Counter COMPRESSION_SAVED_BYTES = Metrics.counter("crypto.compression.saved.bytes");
+
     public static SecretKey generateKey() throws Exception {
         KeyGenerator kg = KeyGenerator.getInstance("AES");
         kg.init(AES_BITS);
         return kg.generateKey();
     }
 
+    /**
+     * Encrypts a file into the segmented .sv format (see {@link SvFileFormat}).
+     * The file is streamed one segment at a time, so memory use is bounded by
+     * the segment size rather than the file size.
+     *
+     * Large files are sealed on all cores by {@link ParallelAesGcmCrypto}; the
+     * resulting file is identical in format.
+     *
+     * With securevault.compression.enabled, a file that samples as
+     * compressible is first run through a {@link CompressionCodec} (chosen by
+     * {@link CompressionCodec#forFile}) and the compressed stream is sealed
+     * instead, on one thread; the codec id goes into the header.
+     */
     public static void encryptFile(Path input, Path output, SecretKey key) throws Exception {
-        byte[] iv = new byte[IV_BYTES];
-        random.nextBytes(iv);
+        encryptFile(input, output, key, CryptoProgress.NONE);
+    }
 
-        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
-        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, iv));
+    /**
+     * Same as {@link #encryptFile(Path, Path, SecretKey)}, reporting progress
+     * (and allowing cancellation) through the listener.
+     */
+    public static void encryptFile(Path input, Path output, SecretKey key, CryptoProgress progress)
+            throws Exception {
+        long start = System.nanoTime();
+        long size = Files.size(input);
+        CompressionCodec codec = CompressionCodec.forFile(input);
+        if (codec != null) {
+            encryptCompressed(input, output, key, codec, progress);
+        } else if (useParallel(size)) {
+            ParallelAesGcmCrypto.encryptFile(input, output, key, progress);
+        } else {
+            encryptFile(input, output, key, SvFileFormat.DEFAULT_SEGMENT_SIZE, progress);
+        }
+        ENCRYPT_TIME.recordSince(start);
+        ENCRYPT_BYTES.add(size);
+    }
 
-        byte[] plaintext = Files.readAllBytes(input);
-        byte[] ciphertext = cipher.doFinal(plaintext);
+    public static void encryptFile(Path input, Path output, SecretKey key, int segmentSize) throws Exception {
+        encryptFile(input, output, key, segmentSize, CryptoProgress.NONE);
+    }
+
+    public static void encryptFile(Path input, Path output, SecretKey key, int segmentSize,
+                                   CryptoProgress progress) throws Exception {
+        SvFileFormat.Header header = SvFileFormat.Header.create(segmentSize, random);
+
+        try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ)) {
+            try (FileChannel out = openOutput(output)) {
+                encryptSegments(header, in, out, key, in.size(), progress);
+            } catch (Exception e) {
+                Files.deleteIfExists(output);
+                throw e;
+            }
+        }
+    }
 
-        // Write: [IV length (1 byte)] [IV bytes] [ciphertext+tag]
-        byte[] out = new byte[1 + iv.length + ciphertext.length];
-        out[0] = (byte) iv.length;
-        System.arraycopy(iv, 0, out, 1, iv.length);
-        System.arraycopy(ciphertext, 0, out, 1 + iv.length, ciphertext.length);
+    private static void encryptCompressed(Path input, Path output, SecretKey key, CompressionCodec codec,
+                                          CryptoProgress progress) throws Exception {
+        SvFileFormat.Header header = SvFileFormat.Header.create(SvFileFormat.VERSION,
+                SvFileFormat.DEFAULT_SEGMENT_SIZE, codec.id(), random);
 
-        Files.write(output, out);
+        try (CountingInputStream plain = new CountingInputStream(Files.newInputStream(input));
+             InputStream compressed = codec.compressing(plain)) {
+            long total = Files.size(input);
+            long payload;
+            try (FileChannel out = openOutput(output)) {
+                // Progress in plaintext consumed, which is what the total refers to.
+                payload = encryptSegments(header, Channels.newChannel(compressed), out, key, total,
+                        (done, ignored) -> progress.update(plain.count, total));
+            } catch (Exception e) {
+                Files.deleteIfExists(output);
+                throw e;
+            }
+            COMPRESSED_FILES.increment();
+            COMPRESSION_SAVED_BYTES.add(plain.count - payload);
+        }
     }
 
+    /**
+     * Encrypts everything a producer writes into in (a pipe, socket or any
+     * other channel, read to end of stream) as a .sv stream into out, one
+     * segment at a time through direct buffers; the length need not be known
+     * up front. Neither channel is closed. Progress reports -1 as the total.
+     *
+     * @return number of plaintext bytes encrypted.
+     */
+    public static long encryptFromChannel(ReadableByteChannel in, WritableByteChannel out, SecretKey key,
+                                          CryptoProgress progress) throws Exception {
+        long start = System.nanoTime();
+        SvFileFormat.Header header = SvFileFormat.Header.create(SvFileFormat.DEFAULT_SEGMENT_SIZE, random);
+        long length = encryptSegments(header, in, out, key, -1, progress);
+        ENCRYPT_TIME.recordSince(start);
+        ENCRYPT_BYTES.add(length);
+        return length;
+    }
+
+    private static long encryptSegments(SvFileFormat.Header header, ReadableByteChannel in,
+                                        WritableByteChannel out, SecretKey key, long total,
+                                        CryptoProgress progress) throws Exception {
+        int segmentSize = header.segmentSize();
+        SvFileFormat.writeFully(out, ByteBuffer.wrap(header.encoded()));
+
+        Cipher cipher = Cipher.getInstance(SvFileFormat.TRANSFORMATION);
+        ByteBuffer plain = ByteBuffer.allocateDirect(segmentSize);
+        ByteBuffer sealed = ByteBuffer.allocateDirect(header.sealedSegmentSize());
+
+        long done = 0;
+        long index = 0;
+        boolean last;
+        do {
+            plain.clear();
+            int n = SvFileFormat.readUpTo(in, plain);
+            done += n;
+            // The final segment is always short; an exact multiple gets an empty one.
+            last = n < segmentSize;
+            plain.flip();
+
+            sealed.clear();
+            header.seal(cipher, key, index++, last, plain, sealed);
+            sealed.flip();
+            SvFileFormat.writeFully(out, sealed);
+            progress.update(done, total);
+        } while (!last);
+        return done;
+    }
+
+    /**
+     * Decrypts a .sv file. Segmented files are streamed and each segment is
+     * authenticated before its plaintext is written; legacy files (1-byte IV
+     * length header) are still accepted.
+     *
+     * If anything fails the partially written output is removed.
+     */
     public static void decryptFile(Path input, Path output, SecretKey key) throws Exception {
-        byte[] all = Files.readAllBytes(input);
+        decryptFile(input, output, key, CryptoProgress.NONE);
+    }
 
-        int ivLen = all[0] & 0xFF;
-        byte[] iv = new byte[ivLen];
-        System.arraycopy(all, 1, iv, 0, ivLen);
+    /**
+     * Same as {@link #decryptFile(Path, Path, SecretKey)}, reporting progress
+     * (and allowing cancellation) through the listener.
+     */
+    public static void decryptFile(Path input, Path output, SecretKey key, CryptoProgress progress)
+            throws Exception {
+        decryptFile(input, output, key, null, progress);
+    }
+
+    /**
+     * Decrypts a file that has been updated in place (see {@link SvFileUpdater}),
+     * also checking that every segment is the version its manifest records.
+     * With a null manifest this is the plain {@link #decryptFile(Path, Path, SecretKey, CryptoProgress)}.
+     */
+    public static void decryptFile(Path input, Path output, SecretKey key, SegmentManifest manifest,
+                                   CryptoProgress progress) throws Exception {
+        decryptTimed(input, output, key, () -> manifest, progress);
+    }
 
-        byte[] ciphertext = new byte[all.length - 1 - ivLen];
-        System.arraycopy(all, 1 + ivLen, ciphertext, 0, ciphertext.length);
+    /**
+     * Same, loading the manifest once the file is locked against updates: a
+     * manifest loaded earlier may already be out of date when the read starts.
+     */
+    public static void decryptUpdatable(Path input, Path output, SecretKey key, SvFileUpdater.ManifestLoader manifest,
+                                        CryptoProgress progress) throws Exception {
+        decryptTimed(input, output, key, manifest, progress);
+    }
+
+    private static void decryptTimed(Path input, Path output, SecretKey key, SvFileUpdater.ManifestLoader manifest,
+                                     CryptoProgress progress) throws Exception {
+        long start = System.nanoTime();
+        decryptAnyFormat(input, output, key, manifest, progress);
+        DECRYPT_TIME.recordSince(start);
+        DECRYPT_BYTES.add(Files.size(output));
+    }
+
+    /**
+     * Opens a segmented .sv file as a seekable channel of its plaintext (see
+     * {@link SvDecryptingChannel}): segments are decrypted from a memory
+     * mapping and authenticated as they are read, without a plaintext file,
+     * and a seek skips straight to the segment holding the new position.
+     * manifest is the stored manifest of a file updated in place, or null.
+     */
+    public static SvDecryptingChannel openDecryptingChannel(Path input, SecretKey key, SegmentManifest manifest)
+            throws Exception {
+        return SvDecryptingChannel.open(input, key, manifest);
+    }
+
+    /**
+     * Decrypts up to length plaintext bytes starting at offset, e.g. the
+     * first page of a document for a preview. Only the segments overlapping
+     * the range are read and authenticated, so the time taken depends on the
+     * range, not on the file size. Returns fewer bytes if the range runs past
+     * the end of the file.
+     *
+     * A compressed file has to be inflated from the start, so there the time
+     * grows with offset (still without decrypting past the range).
+     */
+    public static byte[] decryptRange(Path input, SecretKey key, SegmentManifest manifest, long offset, int length)
+            throws Exception {
+        try (SvDecryptingChannel in = SvDecryptingChannel.openPayload(input, key, manifest)) {
+            if (in.codecId() != CompressionCodec.NONE) {
+                return decompressRange(in, offset, length);
+            }
+            long available = Math.max(0, in.size() - offset);
+            ByteBuffer buf = ByteBuffer.allocate((int) Math.min(length, available));
+            in.position(offset);
+            SvFileFormat.readFully(in, buf);
+            DECRYPT_BYTES.add(buf.capacity());
+            return buf.array();
+        }
+    }
+
+    private static byte[] decompressRange(SvDecryptingChannel in, long offset, int length) throws Exception {
+        if (offset < 0) {
+            throw new IllegalArgumentException("Negative offset: " + offset);
+        }
+        try (InputStream plain = CompressionCodec.forId(in.codecId()).decompressing(Channels.newInputStream(in))) {
+            plain.skipNBytes(offset);
+            byte[] range = plain.readNBytes(length);
+            DECRYPT_BYTES.add(range.length);
+            return range;
+        } catch (EOFException e) {
+            // Offset past the end of the plaintext.
+            return new byte[0];
+        }
+    }
+
+    /**
+     * Decrypts a segmented .sv file into a stream (a digest, an HTTP
+     * response, an indexer) without writing plaintext to disk. Each segment
+     * is authenticated before it is written to out, so on a tag failure out
+     * has received only authentic data, but possibly not all of it. out is
+     * not closed. Compressed files are inflated on the way through.
+     *
+     * @return number of plaintext bytes written.
+     */
+    public static long decryptToStream(Path input, OutputStream out, SecretKey key, CryptoProgress progress)
+            throws Exception {
+        return decryptToStream(input, out, key, null, progress);
+    }
+
+    public static long decryptToStream(Path input, OutputStream out, SecretKey key, SegmentManifest manifest,
+                                       CryptoProgress progress) throws Exception {
+        long start = System.nanoTime();
+        long done = writePlaintext(input, out, key, manifest, progress);
+        DECRYPT_TIME.recordSince(start);
+        DECRYPT_BYTES.add(done);
+        return done;
+    }
+
+    private static long writePlaintext(Path input, OutputStream out, SecretKey key, SegmentManifest manifest,
+                                       CryptoProgress progress) throws Exception {
+        long done = 0;
+        try (SvDecryptingChannel in = SvDecryptingChannel.openPayload(input, key, manifest)) {
+            long total = in.size();
+            // Heap buffer: the stream takes an array, and a full segment is decrypted straight into it.
+            ByteBuffer buf = ByteBuffer.allocate(SvFileFormat.DEFAULT_SEGMENT_SIZE);
+            if (in.codecId() == CompressionCodec.NONE) {
+                int n;
+                while ((n = in.read(buf)) >= 0) {
+                    out.write(buf.array(), 0, n);
+                    buf.clear();
+                    done += n;
+                    progress.update(done, total);
+                }
+                return done;
+            }
+
+            // Compressed: the plaintext length is unknown, so progress counts the compressed stream.
+            try (InputStream plain = CompressionCodec.forId(in.codecId()).decompressing(Channels.newInputStream(in))) {
+                int n;
+                while ((n = plain.read(buf.array())) >= 0) {
+                    out.write(buf.array(), 0, n);
+                    done += n;
+                    progress.update(in.position(), total);
+                }
+            }
+            return done;
+        }
+    }
+
+    /**
+     * Holds the file locked shared throughout (see {@link SvFileLock}), so an
+     * update in place cannot rewrite segments under the read.
+     */
+    private static void decryptAnyFormat(Path input, Path output, SecretKey key, SvFileUpdater.ManifestLoader manifest,
+                                         CryptoProgress progress) throws Exception {
+        SvFileLock lock = SvFileLock.shared(input);
+        try {
+            decryptLocked(input, output, key, manifest.load(), progress);
+        } finally {
+            lock.release();
+        }
+    }
+
+    private static void decryptLocked(Path input, Path output, SecretKey key, SegmentManifest manifest,
+                                      CryptoProgress progress) throws Exception {
+        try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ)) {
+            SvFileFormat.Header header = SvFileFormat.Header.read(in);
+            if (manifest != null) {
+                manifest.checkFile(header, in.size());
+            }
+            if (header != null && header.codecId() == CompressionCodec.NONE && useParallel(in.size())) {
+                ParallelAesGcmCrypto.decryptSegments(header, in, output, key, manifest,
+                        ForkJoinPool.commonPool(), progress);
+                return;
+            }
+            if (header == null || header.codecId() == CompressionCodec.NONE) {
+                try (FileChannel out = openOutput(output)) {
+                    if (header == null) {
+                        decryptLegacy(in, out, key, progress);
+                    } else {
+                        decryptSegments(header, in, out, key, manifest, progress);
+                    }
+                } catch (Exception e) {
+                    Files.deleteIfExists(output);
+                    throw e;
+                }
+                return;
+            }
+        }
+
+        // Compressed: the segments hold a stream that is inflated on the way out.
+        try (OutputStream out = Files.newOutputStream(output)) {
+            writePlaintext(input, out, key, manifest, progress);
+        } catch (Exception e) {
+            Files.deleteIfExists(output);
+            throw e;
+        }
+    }
+
+    private static void decryptSegments(SvFileFormat.Header header, FileChannel in, FileChannel out,
+                                        SecretKey key, SegmentManifest manifest, CryptoProgress progress)
+            throws Exception {
+        long total = header.plaintextLength(in.size());
+        long done = 0;
+
+        Cipher cipher = Cipher.getInstance(SvFileFormat.TRANSFORMATION);
+        ByteBuffer sealed = ByteBuffer.allocate(header.sealedSegmentSize());
+        ByteBuffer plain = ByteBuffer.allocate(header.segmentSize());
+
+        long index = 0;
+        boolean last;
+        do {
+            sealed.clear();
+            int n = SvFileFormat.readUpTo(in, sealed);
+            sealed.flip();
+            if (n < header.segmentOverhead()) {
+                throw new AEADBadTagException("Truncated .sv file (missing final segment)");
+            }
+            last = n < sealed.capacity();
+
+            plain.clear();
+            if (manifest != null) {
+                manifest.checkNonce(index, sealed);
+            }
+            header.open(cipher, key, index++, last, sealed, plain);
+            plain.flip();
+            done += plain.remaining();
+            SvFileFormat.writeFully(out, plain);
+            progress.update(done, total);
+        } while (!last);
+    }
+
+    /**
+     * Legacy layout: [IV length (1 byte)] [IV bytes] [ciphertext+tag].
+     *
+     * The ciphertext is fed to the cipher in chunks instead of being copied out of
+     * one big array, but GCM can only check the single tag at the very end, so the
+     * JCE still buffers the whole payload internally for these files.
+     */
+    private static void decryptLegacy(FileChannel in, FileChannel out, SecretKey key,
+                                      CryptoProgress progress) throws Exception {
+        long total = in.size();
+
+        ByteBuffer ivLen = ByteBuffer.allocate(1);
+        SvFileFormat.readFully(in, ivLen);
+        byte[] iv = new byte[ivLen.get(0) & 0xFF];
+        SvFileFormat.readFully(in, ByteBuffer.wrap(iv));
 
         Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
         cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, iv));
 
-        byte[] plaintext = cipher.doFinal(ciphertext);
-        Files.write(output, plaintext);
+        ByteBuffer chunk = ByteBuffer.allocate(LEGACY_READ_BYTES);
+        while (SvFileFormat.readUpTo(in, chunk) > 0) {
+            chunk.flip();
+            byte[] part = cipher.update(chunk.array(), 0, chunk.limit());
+            if (part != null && part.length > 0) {
+                SvFileFormat.writeFully(out, ByteBuffer.wrap(part));
+            }
+            chunk.clear();
+            // Ciphertext consumed is the best measure here (output is held back until the tag).
+            progress.update(in.position(), total);
+        }
+        SvFileFormat.writeFully(out, ByteBuffer.wrap(cipher.doFinal()));
+    }
+
+    private static boolean useParallel(long size) {
+        return size >= PARALLEL_THRESHOLD && Runtime.getRuntime().availableProcessors() > 1;
+    }
+
+    private static FileChannel openOutput(Path output) throws IOException {
+        return FileChannel.open(output,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /**
+     * Counts the bytes read through it (plaintext consumed by a compressor).
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) count += n;
+            return n;
+        }
     }
 }
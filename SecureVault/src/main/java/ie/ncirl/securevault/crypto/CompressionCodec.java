@@ -0,0 +1,78 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package ie.ncirl.securevault.crypto;
+
+import ie.ncirl.securevault.config.AppConfig;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * CompressionCodec
+ *
+ * Optional compression applied to the plaintext before it is encrypted into
+ * a .sv file (ciphertext does not compress, so it has to happen first).
+ *
+ *  - 1 "deflate": zlib Deflate from the JDK, see {@link DeflateCodec}.
+ *
+ * The id is stored in the low bits of the .sv header flags (0 = not
+ * compressed), which are part of every segment's AAD. A new codec gets the
+ * next free id and a case in {@link #forId}; ids must never be reused.
+ *
+ * Both directions are pull streams, so neither side has to hold more than a
+ * buffer of data.
+ *
+ * Settings (see {@link AppConfig}):
+ *  - securevault.compression.enabled         compress new .sv files that look compressible, default false
+ *  - securevault.compression.entropy.percent compress only if the sampled entropy is at most this
+ *                                            share of 8 bits per byte, default 90
+ *
+ * @author Mkwenje Tadiwa
+ */
+public interface CompressionCodec {
+
+    int NONE = 0;
+    int DEFLATE = 1;
+
+    // Below this the codec's framing costs more than it could save.
+    long MIN_COMPRESS_BYTES = 1024;
+
+    /** Id stored in the .sv header, 1-15. */
+    int id();
+
+    String name();
+
+    /** Compressed form of plain; closing it closes plain. */
+    InputStream compressing(InputStream plain) throws IOException;
+
+    /** Plaintext of compressed; closing it closes compressed. */
+    InputStream decompressing(InputStream compressed) throws IOException;
+
+    /**
+     * The codec with the given header id.
+     */
+    static CompressionCodec forId(int id) throws IOException {
+        if (id == DEFLATE) {
+            return DeflateCodec.INSTANCE;
+        }
+        throw new IOException("Unknown .sv compression codec: " + id);
+    }
+
+    /**
+     * Codec to encrypt input with, or null to store it as is: compression is
+     * off, the file is tiny, or a sample of it is already close to random
+     * (media, archives, other encrypted data), see {@link EntropySampler}.
+     */
+    static CompressionCodec forFile(Path input) throws IOException {
+        if (!AppConfig.getBoolean("securevault.compression.enabled", false)
+                || Files.size(input) < MIN_COMPRESS_BYTES) {
+            return null;
+        }
+        double maxBits = 8.0 * AppConfig.getInt("securevault.compression.entropy.percent", 90) / 100;
+        return EntropySampler.bitsPerByte(input) <= maxBits ? DeflateCodec.INSTANCE : null;
+    }
+}
@@ -0,0 +1,25 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package ie.ncirl.securevault.crypto;
+
+/**
+ * CryptoProgress
+ *
+ * Progress callback for file encryption/decryption, in plaintext bytes.
+ *
+ * Called after every segment, from worker threads on the parallel path, so it
+ * must be cheap and thread-safe. To cancel, throw
+ * {@link java.util.concurrent.CancellationException} from it: the operation
+ * stops and its partial output file is deleted.
+ *
+ * @author Mkwenje Tadiwa
+ */
+@FunctionalInterface
+public interface CryptoProgress {
+
+    CryptoProgress NONE = (bytesDone, bytesTotal) -> {};
+
+    void update(long bytesDone, long bytesTotal);
+}
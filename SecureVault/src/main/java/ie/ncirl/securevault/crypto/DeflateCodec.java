@@ -0,0 +1,73 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package ie.ncirl.securevault.crypto;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * DeflateCodec
+ *
+ * zlib-wrapped Deflate (java.util.zip) at the default level. Text, logs and
+ * CSV exports typically shrink to a quarter or less.
+ *
+ * The streams own their Deflater/Inflater and release its native memory on
+ * close.
+ *
+ * @author Mkwenje Tadiwa
+ */
+final class DeflateCodec implements CompressionCodec {
+
+    static final DeflateCodec INSTANCE = new DeflateCodec();
+
+    // Matches the default .sv segment size, so one read fills about one segment.
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    private DeflateCodec() {}
+
+    @Override
+    public int id() {
+        return DEFLATE;
+    }
+
+    @Override
+    public String name() {
+        return "deflate";
+    }
+
+    @Override
+    public InputStream compressing(InputStream plain) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        return new DeflaterInputStream(plain, deflater, BUFFER_BYTES) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    deflater.end();
+                }
+            }
+        };
+    }
+
+    @Override
+    public InputStream decompressing(InputStream compressed) {
+        Inflater inflater = new Inflater();
+        return new InflaterInputStream(compressed, inflater, BUFFER_BYTES) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    inflater.end();
+                }
+            }
+        };
+    }
+}
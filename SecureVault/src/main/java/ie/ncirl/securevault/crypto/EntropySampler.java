@@ -0,0 +1,81 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package ie.ncirl.securevault.crypto;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * EntropySampler
+ *
+ * Estimates how compressible a file is without reading all of it: the
+ * Shannon entropy of the byte values in a few windows spread evenly over the
+ * file, averaged. Text and CSV come out around 4-5 bits per byte; JPEG, MP4,
+ * ZIP and encrypted data at 7.9 or more, where Deflate only costs time.
+ *
+ * Each window is measured on its own, so a file that mixes text with
+ * embedded binary is not mistaken for random data.
+ *
+ * @author Mkwenje Tadiwa
+ */
+final class EntropySampler {
+
+    private static final int WINDOWS = 16;
+    private static final int WINDOW_BYTES = 4096;
+
+    private EntropySampler() {}
+
+    /**
+     * Average entropy of the sampled windows, in bits per byte (0-8).
+     */
+    static double bitsPerByte(Path input) throws IOException {
+        try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ)) {
+            long size = in.size();
+            if (size == 0) return 0;
+
+            int windows = (int) Math.min(WINDOWS, (size + WINDOW_BYTES - 1) / WINDOW_BYTES);
+            long stride = windows > 1 ? (size - WINDOW_BYTES) / (windows - 1) : 0;
+            ByteBuffer buf = ByteBuffer.allocate(WINDOW_BYTES);
+            int[] counts = new int[256];
+
+            double weightedBits = 0;
+            long sampled = 0;
+            for (int w = 0; w < windows; w++) {
+                buf.clear();
+                long position = w * stride;
+                while (buf.hasRemaining()) {
+                    int n = in.read(buf, position);
+                    if (n < 0) break;
+                    position += n;
+                }
+                int n = buf.position();
+                if (n == 0) continue;
+
+                Arrays.fill(counts, 0);
+                byte[] bytes = buf.array();
+                for (int i = 0; i < n; i++) {
+                    counts[bytes[i] & 0xFF]++;
+                }
+                weightedBits += entropy(counts, n) * n;
+                sampled += n;
+            }
+            return sampled == 0 ? 0 : weightedBits / sampled;
+        }
+    }
+
+    private static double entropy(int[] counts, int total) {
+        double bits = 0;
+        for (int c : counts) {
+            if (c == 0) continue;
+            double p = (double) c / total;
+            bits -= p * Math.log(p);
+        }
+        return bits / Math.log(2);
+    }
+}
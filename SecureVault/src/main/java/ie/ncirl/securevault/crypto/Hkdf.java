@@ -0,0 +1,58 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package ie.ncirl.securevault.crypto;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.util.Arrays;
+
+/**
+ * Hkdf
+ *
+ * HKDF (RFC 5869) with HMAC-SHA256, built on javax.crypto.Mac since the JDK
+ * we target has no KDF API.
+ *
+ * @author Mkwenje Tadiwa
+ */
+public class Hkdf {
+
+    private static final int HASH_BYTES = 32;
+
+    private Hkdf() {}
+
+    /**
+     * Extract-then-expand: length bytes of output keying material.
+     */
+    public static byte[] deriveSha256(byte[] ikm, byte[] salt, byte[] info, int length) throws Exception {
+        if (length < 1 || length > 255 * HASH_BYTES) {
+            throw new IllegalArgumentException("Invalid HKDF output length: " + length);
+        }
+
+        Mac mac = Mac.getInstance("HmacSHA256");
+
+        // Extract
+        mac.init(new SecretKeySpec(salt == null || salt.length == 0 ? new byte[HASH_BYTES] : salt, "HmacSHA256"));
+        byte[] prk = mac.doFinal(ikm);
+
+        // Expand
+        mac.init(new SecretKeySpec(prk, "HmacSHA256"));
+        byte[] okm = new byte[length];
+        byte[] t = new byte[0];
+        int done = 0;
+        for (int i = 1; done < length; i++) {
+            mac.update(t);
+            mac.update(info);
+            mac.update((byte) i);
+            t = mac.doFinal();
+            int n = Math.min(t.length, length - done);
+            System.arraycopy(t, 0, okm, done, n);
+            done += n;
+        }
+
+        Arrays.fill(prk, (byte) 0);
+        Arrays.fill(t, (byte) 0);
+        return okm;
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package ie.ncirl.securevault.crypto;
+
+import ie.ncirl.securevault.config.AppConfig;
+
+import javax.crypto.SecretKey;
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+
+/**
+ * KeyAlgorithm
+ *
+ * A user's asymmetric key type: how the key pair is generated and encoded,
+ * and how an AES key is wrapped to the public key.
+ *
+ *  - "RSA":    RSA-2048 with RSA-OAEP (SHA-256), see {@link RsaKeyAlgorithm}.
+ *  - "X25519": ephemeral-static ECDH + HKDF-SHA256 + AES key wrap, see
+ *              {@link X25519KeyAlgorithm}. Key generation takes well under a
+ *              millisecond instead of tens to hundreds.
+ *
+ * The id is stored per user (users.key_alg). New users get the algorithm
+ * from securevault.keys.algorithm (default RSA).
+ *
+ * @author Mkwenje Tadiwa
+ */
+public interface KeyAlgorithm {
+
+    String RSA = "RSA";
+    String X25519 = "X25519";
+
+    /** Id stored in the database. */
+    String id();
+
+    KeyPair generateKeyPair() throws Exception;
+
+    /** Decodes an X.509-encoded public key. */
+    PublicKey decodePublicKey(byte[] encoded) throws Exception;
+
+    /** Decodes a PKCS#8-encoded private key. */
+    PrivateKey decodePrivateKey(byte[] encoded) throws Exception;
+
+    byte[] wrapKey(SecretKey aesKey, PublicKey publicKey) throws Exception;
+
+    SecretKey unwrapKey(byte[] wrappedKey, PrivateKey privateKey) throws Exception;
+
+    /**
+     * The algorithm with the given id; null or empty means RSA (rows from
+     * before the id was stored).
+     */
+    static KeyAlgorithm forId(String id) {
+        if (id == null || id.isEmpty() || id.equalsIgnoreCase(RSA)) {
+            return RsaKeyAlgorithm.INSTANCE;
+        }
+        if (id.equalsIgnoreCase(X25519)) {
+            return X25519KeyAlgorithm.INSTANCE;
+        }
+        throw new IllegalArgumentException("Unknown key algorithm: " + id);
+    }
+
+    /**
+     * Algorithm for newly registered users (securevault.keys.algorithm).
+     */
+    static KeyAlgorithm forNewUsers() {
+        return forId(AppConfig.getString("securevault.keys.algorithm", RSA));
+    }
+}
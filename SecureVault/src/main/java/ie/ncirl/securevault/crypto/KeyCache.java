@@ -0,0 +1,189 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package ie.ncirl.securevault.crypto;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * KeyCache
+ *
+ * Small thread-safe LRU cache for key material with a size limit and a
+ * time-to-live. Whenever an entry leaves the cache (LRU eviction, expiry,
+ * invalidate or clear) the {@code onRemove} hook is called so the key can be
+ * destroyed or zeroed.
+ *
+ * Because of that a value must not be used after it has left the cache. Give
+ * a {@code copy} function to hand every caller its own copy instead: it is
+ * taken under the cache lock, before a concurrent put can evict and destroy
+ * the cached value.
+ *
+ * Expired entries are removed lazily on the next get/put, and immediately by
+ * {@link #purgeExpired()}.
+ *
+ * @author Mkwenje Tadiwa
+ */
+public class KeyCache<K, V> {
+
+    /**
+     * Produces a value on a cache miss.
+     */
+    @FunctionalInterface
+    public interface Loader<V> {
+        V load() throws Exception;
+    }
+
+    private static final class Entry<V> {
+        final V value;
+        final long expiresAtNanos;
+
+        Entry(V value, long expiresAtNanos) {
+            this.value = value;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+    }
+
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final UnaryOperator<V> copy;
+    private final Consumer<V> onRemove;
+
+    // Access-ordered: the eldest entry is the least recently used one.
+    private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public KeyCache(int maxEntries, long ttl, TimeUnit unit, Consumer<V> onRemove) {
+        this(maxEntries, ttl, unit, UnaryOperator.identity(), onRemove);
+    }
+
+    public KeyCache(int maxEntries, long ttl, TimeUnit unit, UnaryOperator<V> copy, Consumer<V> onRemove) {
+        if (maxEntries < 1) throw new IllegalArgumentException("maxEntries must be >= 1");
+        this.maxEntries = maxEntries;
+        this.ttlNanos = unit.toNanos(ttl);
+        this.copy = copy;
+        this.onRemove = onRemove;
+    }
+
+    /**
+     * Cached value (the caller's copy), or null if absent or expired.
+     */
+    public V get(K key) {
+        List<V> removed = new ArrayList<>();
+        V value;
+        synchronized (this) {
+            purgeExpired(System.nanoTime(), removed);
+            Entry<V> e = entries.get(key);
+            value = e == null ? null : copy.apply(e.value);
+        }
+        (value == null ? misses : hits).incrementAndGet();
+        removed.forEach(onRemove);
+        return value;
+    }
+
+    /**
+     * Cached value, or the loader's result (a copy of which is then cached).
+     * Two threads missing at once may both load; the later value wins.
+     */
+    public V getOrLoad(K key, Loader<V> loader) throws Exception {
+        V value = get(key);
+        if (value != null) return value;
+
+        value = loader.load();
+        if (value != null) {
+            put(key, copy.apply(value));
+        }
+        return value;
+    }
+
+    public void put(K key, V value) {
+        List<V> removed = new ArrayList<>();
+        synchronized (this) {
+            long now = System.nanoTime();
+            purgeExpired(now, removed);
+            Entry<V> old = entries.put(key, new Entry<>(value, now + ttlNanos));
+            if (old != null && old.value != value) {
+                removed.add(old.value);
+            }
+            Iterator<Entry<V>> it = entries.values().iterator();
+            while (entries.size() > maxEntries && it.hasNext()) {
+                removed.add(it.next().value);
+                it.remove();
+                evictions.incrementAndGet();
+            }
+        }
+        removed.forEach(onRemove);
+    }
+
+    public void invalidate(K key) {
+        Entry<V> e;
+        synchronized (this) {
+            e = entries.remove(key);
+        }
+        if (e != null) onRemove.accept(e.value);
+    }
+
+    /**
+     * Removes (and destroys) everything.
+     */
+    public void clear() {
+        List<V> removed = new ArrayList<>();
+        synchronized (this) {
+            for (Entry<V> e : entries.values()) {
+                removed.add(e.value);
+            }
+            entries.clear();
+        }
+        removed.forEach(onRemove);
+    }
+
+    public void purgeExpired() {
+        List<V> removed = new ArrayList<>();
+        synchronized (this) {
+            purgeExpired(System.nanoTime(), removed);
+        }
+        removed.forEach(onRemove);
+    }
+
+    private void purgeExpired(long now, List<V> removed) {
+        Iterator<Map.Entry<K, Entry<V>>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Entry<V> e = it.next().getValue();
+            if (now - e.expiresAtNanos >= 0) {
+                removed.add(e.value);
+                it.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    public synchronized int size() { return entries.size(); }
+    public long getHitCount() { return hits.get(); }
+    public long getMissCount() { return misses.get(); }
+
+    /** Entries dropped for size or age (not counting invalidate/clear). */
+    public long getEvictionCount() { return evictions.get(); }
+
+    public double getHitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("size=%d hits=%d misses=%d hitRate=%.1f%% evictions=%d",
+                size(), getHitCount(), getMissCount(), getHitRate() * 100, getEvictionCount());
+    }
+}
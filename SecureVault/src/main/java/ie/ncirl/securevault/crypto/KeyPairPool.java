@@ -0,0 +1,204 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package ie.ncirl.securevault.crypto;
+
+import ie.ncirl.securevault.config.AppConfig;
+import ie.ncirl.securevault.metrics.Metrics;
+
+import javax.security.auth.DestroyFailedException;
+import javax.security.auth.Destroyable;
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * KeyPairPool
+ *
+ * Keeps a few key pairs generated ahead of time so registration does not
+ * wait for RSA-2048 generation (hundreds of ms, with a long tail).
+ *
+ * Low-priority daemon threads fill the pool up to its capacity and block
+ * while it is full. {@link #take()} returns a pooled pair instantly, or
+ * generates one inline if the pool is empty (e.g. a burst of registrations).
+ * {@link #close()} stops the threads and discards the pooled pairs.
+ *
+ * Settings (see {@link AppConfig}):
+ *  - securevault.keys.pool.size     pairs kept ready per algorithm, default 4 (0 = no pool)
+ *  - securevault.keys.pool.threads  refill threads, default 1
+ *
+ * @author Mkwenje Tadiwa
+ */
+public class KeyPairPool {
+
+    private static final Map<String, KeyPairPool> SHARED = new ConcurrentHashMap<>();
+    private static final AtomicInteger THREAD_IDS = new AtomicInteger();
+
+    private final KeyAlgorithm algorithm;
+    private final BlockingQueue<KeyPair> ready;
+    private final List<Thread> refillers = new ArrayList<>();
+    private final long startedNanos = System.nanoTime();
+
+    private final AtomicLong generated = new AtomicLong();
+    private final AtomicLong generationNanos = new AtomicLong();
+    private final AtomicLong maxGenerationNanos = new AtomicLong();
+    private final AtomicLong taken = new AtomicLong();
+    private final AtomicLong generatedInline = new AtomicLong();
+
+    private volatile boolean closed;
+
+    public KeyPairPool(KeyAlgorithm algorithm, int capacity, int threads) {
+        this.algorithm = algorithm;
+        this.ready = new ArrayBlockingQueue<>(capacity);
+
+        for (int i = 0; i < threads; i++) {
+            Thread t = new Thread(this::refillLoop, "keypair-pool-" + algorithm.id() + "-" + THREAD_IDS.incrementAndGet());
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            refillers.add(t);
+            t.start();
+        }
+    }
+
+    /**
+     * The shared pool for an algorithm, started on first use; null if pooling
+     * is turned off (securevault.keys.pool.size=0).
+     */
+    public static KeyPairPool shared(KeyAlgorithm algorithm) {
+        int capacity = AppConfig.getInt("securevault.keys.pool.size", 4);
+        if (capacity <= 0) return null;
+
+        return SHARED.computeIfAbsent(algorithm.id(), id -> {
+            KeyPairPool pool = new KeyPairPool(algorithm, capacity,
+                    Math.max(1, AppConfig.getInt("securevault.keys.pool.threads", 1)));
+            Metrics.gauge("crypto.keypair.pool." + id + ".depth", pool::getDepth);
+            Metrics.gauge("crypto.keypair.pool." + id + ".inline", pool::getInlineCount);
+            return pool;
+        });
+    }
+
+    /**
+     * A fresh key pair, from the shared pool if there is one.
+     */
+    public static KeyPair generate(KeyAlgorithm algorithm) throws Exception {
+        KeyPairPool pool = shared(algorithm);
+        return pool == null ? algorithm.generateKeyPair() : pool.take();
+    }
+
+    /**
+     * A pooled key pair, or a newly generated one if none is ready. Every pair
+     * is handed out once.
+     */
+    public KeyPair take() throws Exception {
+        KeyPair kp = ready.poll();
+        if (kp != null) {
+            taken.incrementAndGet();
+            return kp;
+        }
+        generatedInline.incrementAndGet();
+        return timedGenerate();
+    }
+
+    private void refillLoop() {
+        while (!closed) {
+            try {
+                ready.put(timedGenerate());
+                if (closed) {
+                    // Generated while close() was draining the pool.
+                    discardPooled();
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                // Generation should not fail; don't spin if it does.
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private KeyPair timedGenerate() throws Exception {
+        long start = System.nanoTime();
+        KeyPair kp = algorithm.generateKeyPair();
+        long nanos = System.nanoTime() - start;
+
+        generated.incrementAndGet();
+        generationNanos.addAndGet(nanos);
+        maxGenerationNanos.accumulateAndGet(nanos, Math::max);
+        return kp;
+    }
+
+    /**
+     * Stops the refill threads (one in the middle of a generation finishes it
+     * first) and discards the pooled pairs, destroying their private keys
+     * where the provider supports it. take() still works, generating inline.
+     */
+    public void close() {
+        closed = true;
+        for (Thread t : refillers) {
+            t.interrupt();
+        }
+        discardPooled();
+    }
+
+    private void discardPooled() {
+        KeyPair kp;
+        while ((kp = ready.poll()) != null) {
+            if (kp.getPrivate() instanceof Destroyable key && !key.isDestroyed()) {
+                try {
+                    key.destroy();
+                } catch (DestroyFailedException ignored) {
+                    // The JDK's RSA keys cannot be destroyed; they are just dropped.
+                }
+            }
+        }
+    }
+
+    public KeyAlgorithm getAlgorithm() { return algorithm; }
+
+    /** Pairs ready right now. */
+    public int getDepth() { return ready.size(); }
+
+    public int getCapacity() { return ready.size() + ready.remainingCapacity(); }
+
+    /** Pairs handed out from the pool. */
+    public long getTakenCount() { return taken.get(); }
+
+    /** Pairs that had to be generated inside take() because the pool was empty. */
+    public long getInlineCount() { return generatedInline.get(); }
+
+    /** Pairs generated in total (pool refills + inline). */
+    public long getGeneratedCount() { return generated.get(); }
+
+    /** Average pairs generated per second since the pool started. */
+    public double getRefillRatePerSecond() {
+        double seconds = (System.nanoTime() - startedNanos) / 1e9;
+        return seconds <= 0 ? 0 : generated.get() / seconds;
+    }
+
+    public double getAverageGenerationMillis() {
+        long n = generated.get();
+        return n == 0 ? 0 : generationNanos.get() / 1e6 / n;
+    }
+
+    public double getMaxGenerationMillis() {
+        return maxGenerationNanos.get() / 1e6;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s depth=%d/%d taken=%d inline=%d generated=%d rate=%.2f/s avgGen=%.1fms maxGen=%.1fms",
+                algorithm.id(), getDepth(), getCapacity(), getTakenCount(), getInlineCount(), getGeneratedCount(),
+                getRefillRatePerSecond(), getAverageGenerationMillis(), getMaxGenerationMillis());
+    }
+}
@@ -4,29 +4,69 @@
  */
 package ie.ncirl.securevault.crypto;
 
+import ie.ncirl.securevault.metrics.LatencyHistogram;
+import ie.ncirl.securevault.metrics.Metrics;
+
 import javax.crypto.Cipher;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.SecretKeySpec;
 import java.security.PrivateKey;
 import java.security.PublicKey;
+import java.util.Arrays;
 
 /**
+ * KeyWrapUtil
+ *
+ * Wraps per-file AES keys:
+ *  - with the user's RSA key pair (RSA-OAEP), and
+ *  - with a per-user AES key-encryption key (AES key wrap, RFC 3394), which
+ *    is what new records use: about a microsecond per key instead of an RSA
+ *    private-key operation, and 40 bytes instead of 256.
  *
  * @author Mkwenje Tadiwa
  */
 public class KeyWrapUtil {
     
     
+    private static final LatencyHistogram RSA_WRAP_TIME = Metrics.histogram("crypto.rsa.wrap");
+    private static final LatencyHistogram RSA_UNWRAP_TIME = Metrics.histogram("crypto.rsa.unwrap");
+
     public static byte[] wrapKey(SecretKey aesKey, PublicKey publicKey) throws Exception {
+        long start = System.nanoTime();
         Cipher cipher = Cipher.getInstance("RSA/ECB/OAEPWithSHA-256AndMGF1Padding");
         cipher.init(Cipher.ENCRYPT_MODE, publicKey);
-        return cipher.doFinal(aesKey.getEncoded());
+        byte[] wrapped = cipher.doFinal(aesKey.getEncoded());
+        RSA_WRAP_TIME.recordSince(start);
+        return wrapped;
     }
 
     public static SecretKey unwrapKey(byte[] wrappedKey, PrivateKey privateKey) throws Exception {
+        long start = System.nanoTime();
         Cipher cipher = Cipher.getInstance("RSA/ECB/OAEPWithSHA-256AndMGF1Padding");
         cipher.init(Cipher.DECRYPT_MODE, privateKey);
         byte[] keyBytes = cipher.doFinal(wrappedKey);
-        return new SecretKeySpec(keyBytes, "AES");
+        RSA_UNWRAP_TIME.recordSince(start);
+        SecretKey key = new SecretKeySpec(keyBytes, "AES");
+        Arrays.fill(keyBytes, (byte) 0);    // the spec holds its own copy
+        return key;
+    }
+
+    /**
+     * Wraps an AES key under a key-encryption key (RFC 3394 AES key wrap).
+     */
+    public static byte[] wrapWithKek(SecretKey aesKey, SecretKey kek) throws Exception {
+        Cipher cipher = Cipher.getInstance("AESWrap");
+        cipher.init(Cipher.WRAP_MODE, kek);
+        return cipher.wrap(aesKey);
+    }
+
+    /**
+     * Reverses {@link #wrapWithKek}; fails if the wrapped key was altered or
+     * the KEK is wrong.
+     */
+    public static SecretKey unwrapWithKek(byte[] wrappedKey, SecretKey kek) throws Exception {
+        Cipher cipher = Cipher.getInstance("AESWrap");
+        cipher.init(Cipher.UNWRAP_MODE, kek);
+        return (SecretKey) cipher.unwrap(wrappedKey, "AES", Cipher.SECRET_KEY);
     }
 }
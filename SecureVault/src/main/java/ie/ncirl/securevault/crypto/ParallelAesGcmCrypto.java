@@ -0,0 +1,302 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package ie.ncirl.securevault.crypto;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ParallelAesGcmCrypto
+ *
+ * Multi-core encrypt/decrypt of the segmented .sv format.
+ *
+ * Every segment has its own nonce, derived from its index or (v2) stored with
+ * it (see {@link SvFileFormat}), so segments can be sealed and opened independently. The segment range is split
+ * across a ForkJoinPool; each worker reads and writes its segments with positional
+ * FileChannel I/O, so the output is laid out in order without any coordination
+ * between workers.
+ *
+ * The output is byte-for-byte the same format as {@link AesGcmCrypto} writes and
+ * either path can decrypt what the other produced. Truncation and reordering are
+ * caught by the index and last-segment flag bound into every nonce.
+ *
+ * @author Mkwenje Tadiwa
+ */
+public class ParallelAesGcmCrypto {
+
+    // Roughly how much plaintext one fork/join leaf processes before it stops splitting.
+    private static final int BYTES_PER_TASK = 1024 * 1024;
+
+    private static final SecureRandom random = new SecureRandom();
+
+    private static final ThreadLocal<Cipher> CIPHERS = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance(SvFileFormat.TRANSFORMATION);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("AES/GCM not available", e);
+        }
+    });
+
+    public static void encryptFile(Path input, Path output, SecretKey key) throws Exception {
+        encryptFile(input, output, key, CryptoProgress.NONE);
+    }
+
+    public static void encryptFile(Path input, Path output, SecretKey key, CryptoProgress progress)
+            throws Exception {
+        encryptFile(input, output, key, SvFileFormat.DEFAULT_SEGMENT_SIZE, ForkJoinPool.commonPool(), progress);
+    }
+
+    public static void encryptFile(Path input, Path output, SecretKey key, int segmentSize, ForkJoinPool pool)
+            throws Exception {
+        encryptFile(input, output, key, segmentSize, pool, CryptoProgress.NONE);
+    }
+
+    public static void encryptFile(Path input, Path output, SecretKey key, int segmentSize, ForkJoinPool pool,
+                                   CryptoProgress progress) throws Exception {
+        SvFileFormat.Header header = SvFileFormat.Header.create(segmentSize, random);
+
+        try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ)) {
+            long plaintextLength = in.size();
+            long segments = plaintextLength / segmentSize + 1;
+
+            try (FileChannel out = FileChannel.open(output,
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+
+                SvFileFormat.writeFully(out, ByteBuffer.wrap(header.encoded()));
+                run(pool, new SegmentTask(header, in, out, key, Cipher.ENCRYPT_MODE, null,
+                        0, segments, segments, plaintextLength, new Progress(progress, plaintextLength)));
+            } catch (Exception e) {
+                Files.deleteIfExists(output);
+                throw e;
+            }
+        }
+    }
+
+    public static void decryptFile(Path input, Path output, SecretKey key) throws Exception {
+        decryptFile(input, output, key, ForkJoinPool.commonPool(), CryptoProgress.NONE);
+    }
+
+    public static void decryptFile(Path input, Path output, SecretKey key, CryptoProgress progress)
+            throws Exception {
+        decryptFile(input, output, key, ForkJoinPool.commonPool(), progress);
+    }
+
+    public static void decryptFile(Path input, Path output, SecretKey key, ForkJoinPool pool) throws Exception {
+        decryptFile(input, output, key, pool, CryptoProgress.NONE);
+    }
+
+    /**
+     * Decrypts a segmented .sv file in parallel. Legacy single-tag files cannot be
+     * split, and compressed files hold one Deflate stream (see
+     * {@link CompressionCodec}), so both are handed to the sequential
+     * {@link AesGcmCrypto} path.
+     */
+    public static void decryptFile(Path input, Path output, SecretKey key, ForkJoinPool pool,
+                                   CryptoProgress progress) throws Exception {
+        decryptFile(input, output, key, null, pool, progress);
+    }
+
+    /**
+     * Same, checking every segment's nonce against the manifest of an updated
+     * file (see {@link SegmentManifest}) if one is given.
+     */
+    static void decryptFile(Path input, Path output, SecretKey key, SegmentManifest manifest, ForkJoinPool pool,
+                            CryptoProgress progress) throws Exception {
+        // Shared, so an update in place waits for the read (see SvFileLock).
+        SvFileLock lock = SvFileLock.shared(input);
+        try {
+            try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ)) {
+                SvFileFormat.Header header = SvFileFormat.Header.read(in);
+                if (manifest != null) {
+                    manifest.checkFile(header, in.size());
+                }
+                if (header != null && header.codecId() == CompressionCodec.NONE) {
+                    decryptSegments(header, in, output, key, manifest, pool, progress);
+                    return;
+                }
+            }
+            AesGcmCrypto.decryptFile(input, output, key, manifest, progress);
+        } finally {
+            lock.release();
+        }
+    }
+
+    /**
+     * Opens all segments of in, whose header has already been read, into
+     * output. The output is removed if anything fails.
+     */
+    static void decryptSegments(SvFileFormat.Header header, FileChannel in, Path output, SecretKey key,
+                                SegmentManifest manifest, ForkJoinPool pool, CryptoProgress progress)
+            throws Exception {
+        long segments = header.segmentCount(in.size());
+        long plaintextLength = header.plaintextLength(in.size());
+
+        try (FileChannel out = FileChannel.open(output,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+
+            run(pool, new SegmentTask(header, in, out, key, Cipher.DECRYPT_MODE, manifest,
+                    0, segments, segments, plaintextLength, new Progress(progress, plaintextLength)));
+        } catch (Exception e) {
+            Files.deleteIfExists(output);
+            throw e;
+        }
+    }
+
+    private static void run(ForkJoinPool pool, SegmentTask task) throws Exception {
+        try {
+            pool.invoke(task);
+        } catch (SegmentFailure e) {
+            Throwable cause = e;
+            while (cause instanceof SegmentFailure) {
+                cause = cause.getCause();
+            }
+            throw (Exception) cause;
+        }
+    }
+
+    /**
+     * Plaintext bytes finished so far across all workers of one file.
+     */
+    private static final class Progress {
+        private final CryptoProgress listener;
+        private final long total;
+        private final AtomicLong done = new AtomicLong();
+
+        Progress(CryptoProgress listener, long total) {
+            this.listener = listener;
+            this.total = total;
+        }
+
+        void add(long bytes) {
+            listener.update(done.addAndGet(bytes), total);
+        }
+    }
+
+    /**
+     * Seals or opens the segments in [from, to), splitting in half until a range
+     * is small enough to process directly.
+     */
+    private static final class SegmentTask extends RecursiveAction {
+
+        private final SvFileFormat.Header header;
+        private final FileChannel in;
+        private final FileChannel out;
+        private final SecretKey key;
+        private final int mode;
+        private final SegmentManifest manifest;
+        private final long from;
+        private final long to;
+        private final long segmentCount;
+        private final long plaintextLength;
+        private final Progress progress;
+
+        SegmentTask(SvFileFormat.Header header, FileChannel in, FileChannel out, SecretKey key, int mode,
+                    SegmentManifest manifest, long from, long to, long segmentCount, long plaintextLength,
+                    Progress progress) {
+            this.header = header;
+            this.in = in;
+            this.out = out;
+            this.key = key;
+            this.mode = mode;
+            this.manifest = manifest;
+            this.from = from;
+            this.to = to;
+            this.segmentCount = segmentCount;
+            this.plaintextLength = plaintextLength;
+            this.progress = progress;
+        }
+
+        @Override
+        protected void compute() {
+            long leafSegments = Math.max(1, BYTES_PER_TASK / header.segmentSize());
+            if (to - from > leafSegments) {
+                long mid = from + (to - from) / 2;
+                invokeAll(
+                        new SegmentTask(header, in, out, key, mode, manifest, from, mid, segmentCount,
+                                plaintextLength, progress),
+                        new SegmentTask(header, in, out, key, mode, manifest, mid, to, segmentCount,
+                                plaintextLength, progress));
+                return;
+            }
+
+            try {
+                processRange();
+            } catch (Exception e) {
+                throw new SegmentFailure(e);
+            }
+        }
+
+        private void processRange() throws IOException, GeneralSecurityException {
+            int segmentSize = header.segmentSize();
+            Cipher cipher = CIPHERS.get();
+            ByteBuffer plain = ByteBuffer.allocate(segmentSize);
+            ByteBuffer sealed = ByteBuffer.allocate(header.sealedSegmentSize());
+
+            for (long index = from; index < to; index++) {
+                boolean last = index == segmentCount - 1;
+                long plainOffset = index * segmentSize;
+                int plainLen = (int) Math.min(segmentSize, plaintextLength - plainOffset);
+                long sealedOffset = header.segmentOffset(index);
+
+                plain.clear().limit(plainLen);
+                sealed.clear().limit(plainLen + header.segmentOverhead());
+
+                if (mode == Cipher.ENCRYPT_MODE) {
+                    readAt(in, plain, plainOffset);
+                    header.seal(cipher, key, index, last, plain, sealed);
+                    sealed.flip();
+                    writeAt(out, sealed, sealedOffset);
+                } else {
+                    readAt(in, sealed, sealedOffset);
+                    if (manifest != null) {
+                        manifest.checkNonce(index, sealed);
+                    }
+                    header.open(cipher, key, index, last, sealed, plain);
+                    plain.flip();
+                    writeAt(out, plain, plainOffset);
+                }
+                progress.add(plainLen);
+            }
+        }
+    }
+
+    private static void readAt(FileChannel ch, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = ch.read(buf, position);
+            if (n < 0) throw new EOFException("Unexpected end of input");
+            position += n;
+        }
+        buf.flip();
+    }
+
+    private static void writeAt(FileChannel ch, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            position += ch.write(buf, position);
+        }
+    }
+
+    /** Carries a checked exception out of a fork/join task. */
+    private static final class SegmentFailure extends RuntimeException {
+        SegmentFailure(Exception cause) {
+            super(cause);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package ie.ncirl.securevault.crypto;
+
+/**
+ * PasswordHashCalibrator
+ *
+ * Picks password hashing parameters so that one hash takes about a target
+ * time on this machine. It times a small run of the algorithm (after a
+ * warm-up) and scales the cost parameter:
+ *
+ *  - PBKDF2:   iterations, rounded down to a multiple of 10,000
+ *  - Argon2id: passes (t) at a fixed memory size
+ *  - scrypt:   log2(N) with r=8, p=1, up to a maximum (memory is
+ *              128 * r * N bytes, so N = 2^22 would already be 4 GiB)
+ *
+ * The result never goes below the given minimum, so a slow or busy machine
+ * cannot calibrate itself into weak hashes.
+ *
+ * @author Mkwenje Tadiwa
+ */
+public class PasswordHashCalibrator {
+
+    private static final char[] PASSWORD = "calibration-password".toCharArray();
+    private static final byte[] SALT = new byte[16];
+
+    private PasswordHashCalibrator() {}
+
+    public static PasswordHashSpec pbkdf2(long targetMillis, int minIterations) {
+        int probe = 20_000;
+        double millis = time(PasswordHashSpec.pbkdf2(probe));
+        long iterations = (long) (probe * targetMillis / millis) / 10_000 * 10_000;
+        return PasswordHashSpec.pbkdf2((int) Math.min(Integer.MAX_VALUE, Math.max(minIterations, iterations)));
+    }
+
+    public static PasswordHashSpec argon2id(long targetMillis, int memoryKib, int minIterations) {
+        double millis = time(PasswordHashSpec.argon2id(memoryKib, 1, 1));
+        int t = (int) Math.min(100, Math.max(minIterations, (long) (targetMillis / millis)));
+        return PasswordHashSpec.argon2id(memoryKib, t, 1);
+    }
+
+    public static PasswordHashSpec scrypt(long targetMillis, int minLogN, int maxLogN) {
+        int probe = 14;
+        double millis = time(PasswordHashSpec.scrypt(probe, 8, 1));
+        int logN = probe;
+        // Each step doubles both time and memory.
+        while (logN < maxLogN && millis * 2 <= targetMillis) {
+            millis *= 2;
+            logN++;
+        }
+        return PasswordHashSpec.scrypt(Math.max(minLogN, logN), 8, 1);
+    }
+
+    /**
+     * Best of three runs after a warm-up, in milliseconds.
+     */
+    private static double time(PasswordHashSpec spec) {
+        spec.derive(PASSWORD, SALT);
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 3; i++) {
+            long start = System.nanoTime();
+            spec.derive(PASSWORD, SALT);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return Math.max(best, 1) / 1e6;
+    }
+}
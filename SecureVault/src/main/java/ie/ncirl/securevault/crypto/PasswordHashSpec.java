@@ -0,0 +1,234 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package ie.ncirl.securevault.crypto;
+
+import org.bouncycastle.crypto.generators.Argon2BytesGenerator;
+import org.bouncycastle.crypto.generators.SCrypt;
+import org.bouncycastle.crypto.params.Argon2Parameters;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * PasswordHashSpec
+ *
+ * A password hashing algorithm plus its cost parameters, and the encoded
+ * (PHC string style) form that is stored in users.password_hash:
+ *
+ *   $pbkdf2-sha512$i=310000$&lt;salt&gt;$&lt;hash&gt;
+ *   $argon2id$v=19$m=65536,t=3,p=1$&lt;salt&gt;$&lt;hash&gt;
+ *   $scrypt$ln=17,r=8,p=1$&lt;salt&gt;$&lt;hash&gt;
+ *
+ * Salt and hash are unpadded Base64. Because every stored hash carries its own
+ * parameters, the cost can change (per host, or over time) without breaking
+ * existing logins.
+ *
+ * Argon2id and scrypt come from Bouncy Castle; PBKDF2 from the JCA.
+ *
+ * @author Mkwenje Tadiwa
+ */
+public final class PasswordHashSpec {
+
+    public static final String PBKDF2 = "pbkdf2-sha512";
+    public static final String ARGON2ID = "argon2id";
+    public static final String SCRYPT = "scrypt";
+
+    static final int HASH_LENGTH = 32;
+
+    private static final Base64.Encoder B64 = Base64.getEncoder().withoutPadding();
+    private static final Base64.Decoder B64_DECODER = Base64.getDecoder();
+
+    private final String algorithm;
+    private final Map<String, Integer> params;
+
+    private PasswordHashSpec(String algorithm, Map<String, Integer> params) {
+        this.algorithm = algorithm;
+        this.params = params;
+    }
+
+    public static PasswordHashSpec pbkdf2(int iterations) {
+        Map<String, Integer> p = new LinkedHashMap<>();
+        p.put("i", iterations);
+        return new PasswordHashSpec(PBKDF2, p);
+    }
+
+    public static PasswordHashSpec argon2id(int memoryKib, int iterations, int parallelism) {
+        Map<String, Integer> p = new LinkedHashMap<>();
+        p.put("m", memoryKib);
+        p.put("t", iterations);
+        p.put("p", parallelism);
+        return new PasswordHashSpec(ARGON2ID, p);
+    }
+
+    public static PasswordHashSpec scrypt(int logN, int blockSize, int parallelism) {
+        Map<String, Integer> p = new LinkedHashMap<>();
+        p.put("ln", logN);
+        p.put("r", blockSize);
+        p.put("p", parallelism);
+        return new PasswordHashSpec(SCRYPT, p);
+    }
+
+    public String getAlgorithm() { return algorithm; }
+
+    public int param(String name) {
+        Integer v = params.get(name);
+        if (v == null) throw new IllegalArgumentException(algorithm + " has no parameter " + name);
+        return v;
+    }
+
+    /**
+     * Amount of work per hash, comparable between specs of the same algorithm.
+     */
+    public long cost() {
+        switch (algorithm) {
+            case PBKDF2:   return param("i");
+            case ARGON2ID: return (long) param("m") * param("t");
+            case SCRYPT:   return (1L << param("ln")) * param("r") * param("p");
+            default:       throw new IllegalStateException(algorithm);
+        }
+    }
+
+    /**
+     * True if hashes made with this spec should be replaced by ones made
+     * with target (different algorithm, or at most half the work). The target
+     * is calibrated afresh on every start and moves a little each time; a
+     * smaller margin would rehash on every login.
+     */
+    public boolean isWeakerThan(PasswordHashSpec target) {
+        return !algorithm.equals(target.algorithm) || cost() * 2 <= target.cost();
+    }
+
+    /**
+     * Runs the algorithm.
+     */
+    public byte[] derive(char[] password, byte[] salt) {
+        switch (algorithm) {
+            case PBKDF2: {
+                PBEKeySpec spec = new PBEKeySpec(password, salt, param("i"), HASH_LENGTH * 8);
+                try {
+                    return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA512").generateSecret(spec).getEncoded();
+                } catch (Exception e) {
+                    throw new RuntimeException("Error hashing password", e);
+                } finally {
+                    spec.clearPassword();
+                }
+            }
+            case ARGON2ID: {
+                Argon2Parameters p = new Argon2Parameters.Builder(Argon2Parameters.ARGON2_id)
+                        .withVersion(Argon2Parameters.ARGON2_VERSION_13)
+                        .withMemoryAsKB(param("m"))
+                        .withIterations(param("t"))
+                        .withParallelism(param("p"))
+                        .withSalt(salt)
+                        .build();
+                Argon2BytesGenerator gen = new Argon2BytesGenerator();
+                gen.init(p);
+                byte[] out = new byte[HASH_LENGTH];
+                byte[] pwd = utf8(password);
+                try {
+                    gen.generateBytes(pwd, out);
+                } finally {
+                    Arrays.fill(pwd, (byte) 0);
+                }
+                return out;
+            }
+            case SCRYPT: {
+                byte[] pwd = utf8(password);
+                try {
+                    return SCrypt.generate(pwd, salt, 1 << param("ln"), param("r"), param("p"), HASH_LENGTH);
+                } finally {
+                    Arrays.fill(pwd, (byte) 0);
+                }
+            }
+            default:
+                throw new IllegalStateException("Unknown password hash algorithm " + algorithm);
+        }
+    }
+
+    /**
+     * The stored form: "$alg$params$salt$hash".
+     */
+    public String encode(byte[] salt, byte[] hash) {
+        StringBuilder sb = new StringBuilder("$").append(algorithm);
+        if (algorithm.equals(ARGON2ID)) {
+            sb.append("$v=19");
+        }
+        sb.append('$');
+        boolean first = true;
+        for (Map.Entry<String, Integer> e : params.entrySet()) {
+            if (!first) sb.append(',');
+            sb.append(e.getKey()).append('=').append(e.getValue());
+            first = false;
+        }
+        return sb.append('$').append(B64.encodeToString(salt))
+                .append('$').append(B64.encodeToString(hash))
+                .toString();
+    }
+
+    /**
+     * A parsed stored hash.
+     */
+    public static final class Encoded {
+        public final PasswordHashSpec spec;
+        public final byte[] salt;
+        public final byte[] hash;
+
+        Encoded(PasswordHashSpec spec, byte[] salt, byte[] hash) {
+            this.spec = spec;
+            this.salt = salt;
+            this.hash = hash;
+        }
+    }
+
+    /**
+     * Parses the output of {@link #encode}.
+     */
+    public static Encoded decode(String encoded) {
+        String[] parts = encoded.split("\\$");
+        // "", alg, [v=19,] params, salt, hash
+        int i = 1;
+        if (parts.length < 5) throw new IllegalArgumentException("Malformed password hash");
+        String alg = parts[i++];
+        if (alg.equals(ARGON2ID)) {
+            if (!parts[i++].equals("v=19")) throw new IllegalArgumentException("Unsupported argon2 version");
+        }
+        if (parts.length != i + 3) throw new IllegalArgumentException("Malformed password hash");
+
+        Map<String, Integer> params = new LinkedHashMap<>();
+        for (String kv : parts[i++].split(",")) {
+            int eq = kv.indexOf('=');
+            if (eq < 1) throw new IllegalArgumentException("Malformed password hash parameter: " + kv);
+            params.put(kv.substring(0, eq), Integer.parseInt(kv.substring(eq + 1)));
+        }
+
+        PasswordHashSpec spec;
+        switch (alg) {
+            case PBKDF2:   spec = pbkdf2(params.get("i")); break;
+            case ARGON2ID: spec = argon2id(params.get("m"), params.get("t"), params.get("p")); break;
+            case SCRYPT:   spec = scrypt(params.get("ln"), params.get("r"), params.get("p")); break;
+            default:       throw new IllegalArgumentException("Unknown password hash algorithm " + alg);
+        }
+        return new Encoded(spec, B64_DECODER.decode(parts[i++]), B64_DECODER.decode(parts[i]));
+    }
+
+    private static byte[] utf8(char[] password) {
+        ByteBuffer bb = StandardCharsets.UTF_8.encode(CharBuffer.wrap(password));
+        byte[] out = Arrays.copyOf(bb.array(), bb.limit());
+        Arrays.fill(bb.array(), (byte) 0);
+        return out;
+    }
+
+    @Override
+    public String toString() {
+        return encode(new byte[0], new byte[0]).replaceAll("\\$+$", "");
+    }
+}
@@ -4,8 +4,14 @@
  */
 package ie.ncirl.securevault.crypto;
 
+import ie.ncirl.securevault.config.AppConfig;
+import ie.ncirl.securevault.metrics.LatencyHistogram;
+import ie.ncirl.securevault.metrics.Metrics;
+
 import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.PBEKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.security.spec.InvalidKeySpecException;
@@ -29,6 +35,20 @@ import java.security.spec.InvalidKeySpecException;
  * In your report you can honestly say this is an implementation
  * of PBKDF2 based on the RFC and the examples in the official
  * Java cryptography documentation.
+ *
+ * Encoded hashes:
+ *  New hashes are stored in the self-describing format of
+ *  {@link PasswordHashSpec} (algorithm, parameters, salt and hash in one
+ *  string) via {@link #hash(char[])} / {@link #verify}. Older users still
+ *  have a bare 32-byte PBKDF2 hash (100,000 iterations) plus the salt
+ *  column; those verify as before and report {@link #needsRehash}.
+ *
+ *  The parameters for new hashes come from:
+ *   - securevault.password.algorithm   pbkdf2-sha512 (default), argon2id or scrypt
+ *   - securevault.password.target.ms   calibrate to about this verify time, default 250
+ *   - securevault.password.iterations  fixed PBKDF2 iterations instead of calibrating
+ *   - securevault.password.argon2.memory.kib   default 65536
+ *  Calibration runs once per process (see {@link PasswordHashCalibrator}).
  */
 public class PasswordHasher {
 
@@ -103,4 +123,143 @@ public class PasswordHasher {
         }
         return diff == 0;
     }
+
+    // --- encoded hashes ---
+
+    // Floors so calibration can never pick something weaker than the old fixed cost.
+    private static final int MIN_PBKDF2_ITERATIONS = ITERATIONS;
+    private static final int MIN_ARGON2_ITERATIONS = 2;
+    private static final int MIN_SCRYPT_LOG_N = 15;
+    // 256 MiB per hash at r=8; every concurrent login needs that much heap.
+    private static final int MAX_SCRYPT_LOG_N = 18;
+
+    // Time per hash/verify, whatever the algorithm (PBKDF2 unless configured otherwise)
+    private static final LatencyHistogram HASH_TIME = Metrics.histogram("auth.password.hash");
+    private static final LatencyHistogram VERIFY_TIME = Metrics.histogram("auth.password.verify");
+
+    private static volatile PasswordHashSpec current;
+    private static volatile byte[] dummyHash;
+
+    /**
+     * Parameters used for new hashes, calibrating them on first use.
+     */
+    public static PasswordHashSpec currentSpec() {
+        PasswordHashSpec spec = current;
+        if (spec == null) {
+            synchronized (PasswordHasher.class) {
+                spec = current;
+                if (spec == null) {
+                    spec = current = calibrate();
+                }
+            }
+        }
+        return spec;
+    }
+
+    /**
+     * Runs the calibration (and prepares the dummy hash) on a background
+     * thread so the first registration or login does not have to wait for it.
+     */
+    public static void calibrateInBackground() {
+        Thread t = new Thread(() -> verifyDummy(new char[0]), "password-hash-calibration");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private static PasswordHashSpec calibrate() {
+        String algorithm = AppConfig.getString("securevault.password.algorithm", PasswordHashSpec.PBKDF2);
+        long targetMillis = AppConfig.getLong("securevault.password.target.ms", 250);
+
+        switch (algorithm) {
+            case PasswordHashSpec.ARGON2ID:
+                return PasswordHashCalibrator.argon2id(targetMillis,
+                        AppConfig.getInt("securevault.password.argon2.memory.kib", 65536), MIN_ARGON2_ITERATIONS);
+            case PasswordHashSpec.SCRYPT:
+                return PasswordHashCalibrator.scrypt(targetMillis, MIN_SCRYPT_LOG_N, MAX_SCRYPT_LOG_N);
+            case PasswordHashSpec.PBKDF2:
+                int fixed = AppConfig.getInt("securevault.password.iterations", 0);
+                if (fixed > 0) {
+                    return PasswordHashSpec.pbkdf2(Math.max(MIN_PBKDF2_ITERATIONS, fixed));
+                }
+                return PasswordHashCalibrator.pbkdf2(targetMillis, MIN_PBKDF2_ITERATIONS);
+            default:
+                throw new IllegalArgumentException("Unknown password hash algorithm: " + algorithm);
+        }
+    }
+
+    /**
+     * Hashes a password with the current parameters and a new random salt.
+     * The result is the encoded form, ready to store in users.password_hash.
+     */
+    public static byte[] hash(char[] password) {
+        PasswordHashSpec spec = currentSpec();
+        long start = System.nanoTime();
+        byte[] salt = generateSalt();
+        byte[] encoded = spec.encode(salt, spec.derive(password, salt)).getBytes(StandardCharsets.US_ASCII);
+        HASH_TIME.recordSince(start);
+        return encoded;
+    }
+
+    /**
+     * Verifies a password against a stored hash in either format.
+     *
+     * @param legacySalt the users.salt column, only used for bare PBKDF2 hashes.
+     */
+    public static boolean verify(char[] password, byte[] stored, byte[] legacySalt) {
+        long start = System.nanoTime();
+        try {
+            if (isLegacy(stored)) {
+                return verifyPassword(password, legacySalt, stored);
+            }
+
+            PasswordHashSpec.Encoded encoded;
+            try {
+                encoded = PasswordHashSpec.decode(new String(stored, StandardCharsets.US_ASCII));
+            } catch (RuntimeException e) {
+                return false;
+            }
+            byte[] actual = encoded.spec.derive(password, encoded.salt);
+            return MessageDigest.isEqual(actual, encoded.hash);
+        } finally {
+            VERIFY_TIME.recordSince(start);
+        }
+    }
+
+    /**
+     * Does the same work as verifying a real password with the current
+     * parameters, and always fails. Used for unknown usernames, so they take
+     * as long as known ones and reveal nothing through timing.
+     */
+    public static boolean verifyDummy(char[] password) {
+        byte[] stored = dummyHash;
+        if (stored == null) {
+            stored = dummyHash = hash("not-a-real-password".toCharArray());
+        }
+        verify(password, stored, null);
+        return false;
+    }
+
+    /**
+     * True if the stored hash uses an old format, another algorithm or at
+     * most half the work of {@link #currentSpec()} (see
+     * {@link PasswordHashSpec#isWeakerThan}); rehash it after a successful
+     * login.
+     */
+    public static boolean needsRehash(byte[] stored) {
+        if (isLegacy(stored)) return true;
+        try {
+            PasswordHashSpec spec = PasswordHashSpec.decode(new String(stored, StandardCharsets.US_ASCII)).spec;
+            return spec.isWeakerThan(currentSpec());
+        } catch (RuntimeException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Bare PBKDF2 hashes from before the encoded format are exactly 32 bytes;
+     * encoded hashes are always longer.
+     */
+    private static boolean isLegacy(byte[] stored) {
+        return stored.length == KEY_LENGTH / 8;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,58 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package ie.ncirl.securevault.crypto;
+
+import javax.crypto.SecretKey;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+
+/**
+ * RsaKeyAlgorithm
+ *
+ * The original key type: RSA-2048 key pairs from {@link RsaKeyUtil} and
+ * RSA-OAEP wrapping from {@link KeyWrapUtil}.
+ *
+ * @author Mkwenje Tadiwa
+ */
+public final class RsaKeyAlgorithm implements KeyAlgorithm {
+
+    static final RsaKeyAlgorithm INSTANCE = new RsaKeyAlgorithm();
+
+    private RsaKeyAlgorithm() {}
+
+    @Override
+    public String id() {
+        return RSA;
+    }
+
+    @Override
+    public KeyPair generateKeyPair() throws Exception {
+        return RsaKeyUtil.generateKeyPair();
+    }
+
+    @Override
+    public PublicKey decodePublicKey(byte[] encoded) throws Exception {
+        return KeyFactory.getInstance("RSA").generatePublic(new X509EncodedKeySpec(encoded));
+    }
+
+    @Override
+    public PrivateKey decodePrivateKey(byte[] encoded) throws Exception {
+        return KeyFactory.getInstance("RSA").generatePrivate(new PKCS8EncodedKeySpec(encoded));
+    }
+
+    @Override
+    public byte[] wrapKey(SecretKey aesKey, PublicKey publicKey) throws Exception {
+        return KeyWrapUtil.wrapKey(aesKey, publicKey);
+    }
+
+    @Override
+    public SecretKey unwrapKey(byte[] wrappedKey, PrivateKey privateKey) throws Exception {
+        return KeyWrapUtil.unwrapKey(wrappedKey, privateKey);
+    }
+}
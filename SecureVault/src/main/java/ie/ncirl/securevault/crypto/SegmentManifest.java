@@ -0,0 +1,124 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package ie.ncirl.securevault.crypto;
+
+import javax.crypto.AEADBadTagException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * SegmentManifest
+ *
+ * What the database knows about the current version of an updatable (v2)
+ * .sv file, one entry per segment:
+ *
+ *   fingerprint (16) | nonce (12)
+ *
+ * The fingerprint is a truncated HMAC-SHA256 of the segment's plaintext under
+ * a key derived from the file key; {@link SvFileUpdater} compares it with the
+ * new source to find the segments that changed. The nonce is the one the
+ * segment was last sealed with. Since every re-seal picks a new random nonce,
+ * checking it on decrypt rejects a segment left over from an older version
+ * (or from an update that did not finish), which the GCM tag alone accepts.
+ *
+ * Encoded as [kind = 2 (1)] [segment size (4)] [plaintext length (8)]
+ * [segment count (4)] [entries]; chunk store manifests start with kind 1.
+ *
+ * @author Mkwenje Tadiwa
+ */
+public final class SegmentManifest {
+
+    static final int KIND = 2;
+    static final int FINGERPRINT_BYTES = 16;
+    static final int ENTRY_BYTES = FINGERPRINT_BYTES + SvFileFormat.NONCE_BYTES;
+
+    private static final int ENCODED_HEADER_BYTES = 1 + 4 + 8 + 4;
+
+    private final int segmentSize;
+    private final long plaintextLength;
+    private final byte[] entries;
+
+    SegmentManifest(int segmentSize, long plaintextLength, byte[] entries) {
+        this.segmentSize = segmentSize;
+        this.plaintextLength = plaintextLength;
+        this.entries = entries;
+    }
+
+    /**
+     * True if the stored manifest bytes are a segment manifest (and not, say,
+     * a chunk list).
+     */
+    public static boolean isSegmentManifest(byte[] encoded) {
+        return encoded != null && encoded.length > 0 && encoded[0] == KIND;
+    }
+
+    public static SegmentManifest decode(byte[] encoded) throws IOException {
+        if (!isSegmentManifest(encoded) || encoded.length < ENCODED_HEADER_BYTES) {
+            throw new IOException("Not a segment manifest");
+        }
+        ByteBuffer buf = ByteBuffer.wrap(encoded, 1, encoded.length - 1);
+        int segmentSize = buf.getInt();
+        long plaintextLength = buf.getLong();
+        int count = buf.getInt();
+        // Checked before the division below; checkFile then matches it against the file's header.
+        if (segmentSize < SvFileFormat.MIN_SEGMENT_SIZE || segmentSize > SvFileFormat.MAX_SEGMENT_SIZE
+                || plaintextLength < 0) {
+            throw new IOException("Malformed segment manifest");
+        }
+        if ((long) count * ENTRY_BYTES != buf.remaining() || count != plaintextLength / segmentSize + 1) {
+            throw new IOException("Malformed segment manifest");
+        }
+        byte[] entries = new byte[buf.remaining()];
+        buf.get(entries);
+        return new SegmentManifest(segmentSize, plaintextLength, entries);
+    }
+
+    public byte[] encode() {
+        ByteBuffer buf = ByteBuffer.allocate(ENCODED_HEADER_BYTES + entries.length);
+        buf.put((byte) KIND).putInt(segmentSize).putLong(plaintextLength).putInt(segmentCount()).put(entries);
+        return buf.array();
+    }
+
+    public int getSegmentSize() { return segmentSize; }
+    public long getPlaintextLength() { return plaintextLength; }
+    public int segmentCount() { return entries.length / ENTRY_BYTES; }
+
+    boolean fingerprintEquals(int index, byte[] fingerprint) {
+        int off = index * ENTRY_BYTES;
+        return MessageDigest.isEqual(Arrays.copyOfRange(entries, off, off + FINGERPRINT_BYTES), fingerprint);
+    }
+
+    byte[] entries() { return entries; }
+
+    /**
+     * Throws unless the file described by header and fileSize has the shape
+     * this manifest expects.
+     */
+    void checkFile(SvFileFormat.Header header, long fileSize) throws IOException, GeneralSecurityException {
+        if (header == null || !header.hasSegmentNonces() || header.codecId() != CompressionCodec.NONE
+                || header.segmentSize() != segmentSize
+                || header.segmentCount(fileSize) != segmentCount()) {
+            throw new AEADBadTagException("Encrypted file does not match its manifest");
+        }
+    }
+
+    /**
+     * Throws unless the sealed segment (at sealed's position, not consumed)
+     * carries the nonce recorded for it.
+     */
+    void checkNonce(long index, ByteBuffer sealed) throws AEADBadTagException {
+        int off = (int) index * ENTRY_BYTES + FINGERPRINT_BYTES;
+        int diff = 0;
+        for (int i = 0; i < SvFileFormat.NONCE_BYTES; i++) {
+            diff |= entries[off + i] ^ sealed.get(sealed.position() + i);
+        }
+        if (diff != 0) {
+            throw new AEADBadTagException("Segment " + index + " is not the current version");
+        }
+    }
+}
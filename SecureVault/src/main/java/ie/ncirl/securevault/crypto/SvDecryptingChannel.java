@@ -0,0 +1,312 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package ie.ncirl.securevault.crypto;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+
+/**
+ * SvDecryptingChannel
+ *
+ * Plaintext of a segmented .sv file as a read-only {@link SeekableByteChannel},
+ * for callers that hash, index or stream the content and have no use for a
+ * plaintext file, or only need part of it (a preview, a seek in a video).
+ *
+ * The ciphertext is memory-mapped a window of segments at a time and each
+ * segment is decrypted straight out of the mapping. A segment is
+ * authenticated before any of its plaintext is returned; if the caller's
+ * buffer has room for a whole segment it is decrypted directly into it,
+ * otherwise into one direct buffer of segment size that later reads drain.
+ * Nothing else is buffered, whatever the file size.
+ *
+ * {@link #position(long)} maps a plaintext offset to the segment holding it
+ * (offset / segment size), so reading a range decrypts and authenticates
+ * only the segments the range covers: the cost follows the range, not the
+ * file. Seeking within the segment already decrypted costs nothing.
+ *
+ * A failed tag surfaces from {@link #read} as an IOException whose cause is
+ * the {@link AEADBadTagException}; everything read before it was authentic.
+ * The channel does not move past a segment that failed, so reading on
+ * fails again rather than skipping over it.
+ *
+ * The file is locked shared while the channel is open (see {@link SvFileLock}),
+ * so an update in place from this JVM waits for it to be closed.
+ *
+ * Legacy single-tag files cannot be checked before the end and are rejected;
+ * use {@link AesGcmCrypto#decryptFile(Path, Path, SecretKey)} for those.
+ * Compressed files (see {@link CompressionCodec}) have no plaintext offsets
+ * to seek to and are rejected too; {@link AesGcmCrypto#decryptToStream}
+ * reads them.
+ *
+ * @author Mkwenje Tadiwa
+ */
+public final class SvDecryptingChannel implements SeekableByteChannel {
+
+    // Ciphertext mapped per window; bounds address space use on very large files.
+    private static final long MAP_WINDOW_BYTES = 64L * 1024 * 1024;
+
+    private final SvFileLock lock;
+    private final FileChannel file;
+    private final SecretKey key;
+    private final SegmentManifest manifest;
+    private final SvFileFormat.Header header;
+    private final long segmentCount;
+    private final long plaintextLength;
+    private final int windowSegments;
+    private final Cipher cipher;
+
+    private MappedByteBuffer window;
+    private long windowFirst = -1;
+
+    private final ByteBuffer plain;     // decrypted segment not yet read, when the caller's buffer was too small
+    private long plainIndex = -1;       // segment held in plain, or -1
+    private long nextIndex;
+    private int skip;                   // bytes of segment nextIndex before the position, after a seek
+    private long position;
+    private boolean open = true;
+
+    private SvDecryptingChannel(SvFileLock lock, FileChannel file, SvFileFormat.Header header, SecretKey key,
+                                SegmentManifest manifest) throws Exception {
+        this.lock = lock;
+        this.file = file;
+        this.header = header;
+        this.key = key;
+        this.manifest = manifest;
+
+        long size = file.size();
+        this.segmentCount = header.segmentCount(size);
+        this.plaintextLength = header.plaintextLength(size);
+        this.windowSegments = (int) Math.max(1, MAP_WINDOW_BYTES / header.sealedSegmentSize());
+        this.cipher = Cipher.getInstance(SvFileFormat.TRANSFORMATION);
+        this.plain = ByteBuffer.allocateDirect(header.segmentSize()).limit(0);
+    }
+
+    /**
+     * Opens input for reading plaintext. manifest is the stored manifest of a
+     * file updated in place (see {@link SvFileUpdater}), or null.
+     */
+    public static SvDecryptingChannel open(Path input, SecretKey key, SegmentManifest manifest) throws Exception {
+        SvDecryptingChannel channel = openPayload(input, key, manifest);
+        if (channel.codecId() != CompressionCodec.NONE) {
+            channel.close();
+            throw new IOException("Compressed .sv file cannot be read by position, decrypt it as a stream: " + input);
+        }
+        return channel;
+    }
+
+    /**
+     * Like {@link #open}, but also accepts compressed files, whose segments
+     * then yield the compressed stream (sizes and positions count compressed
+     * bytes).
+     */
+    static SvDecryptingChannel openPayload(Path input, SecretKey key, SegmentManifest manifest) throws Exception {
+        SvFileLock lock = SvFileLock.shared(input);
+        FileChannel file = null;
+        try {
+            file = FileChannel.open(input, StandardOpenOption.READ);
+            SvFileFormat.Header header = SvFileFormat.Header.read(file);
+            if (header == null) {
+                throw new IOException("Legacy .sv file cannot be streamed, decrypt it to a file instead: " + input);
+            }
+            if (manifest != null) {
+                manifest.checkFile(header, file.size());
+            }
+            return new SvDecryptingChannel(lock, file, header, key, manifest);
+        } catch (Exception e) {
+            try {
+                if (file != null) file.close();
+            } finally {
+                lock.release();
+            }
+            throw e;
+        }
+    }
+
+    /** {@link CompressionCodec} id of the file, 0 if not compressed. */
+    int codecId() {
+        return header.codecId();
+    }
+
+    /** Total plaintext length of the file. */
+    @Override
+    public synchronized long size() throws IOException {
+        ensureOpen();
+        return plaintextLength;
+    }
+
+    /** Plaintext offset of the next read. */
+    @Override
+    public synchronized long position() throws IOException {
+        ensureOpen();
+        return position;
+    }
+
+    /**
+     * Moves to a plaintext offset. Nothing is decrypted until the next read;
+     * at or past the end, reads return -1.
+     */
+    @Override
+    public synchronized SvDecryptingChannel position(long newPosition) throws IOException {
+        ensureOpen();
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("Negative position: " + newPosition);
+        }
+        int segmentSize = header.segmentSize();
+        long index = newPosition / segmentSize;
+        int offset = (int) (newPosition % segmentSize);
+
+        if (newPosition >= plaintextLength) {
+            dropPlain();
+            nextIndex = segmentCount;
+            skip = 0;
+        } else if (index == plainIndex) {
+            plain.limit(plainLength(index)).position(offset);
+        } else {
+            dropPlain();
+            nextIndex = index;
+            skip = offset;
+        }
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst) throws IOException {
+        ensureOpen();
+        if (!dst.hasRemaining()) return 0;
+
+        int total = 0;
+        try {
+            while (dst.hasRemaining()) {
+                if (plain.hasRemaining()) {
+                    total += drain(dst);
+                    continue;
+                }
+                if (nextIndex >= segmentCount) break;
+
+                int n = plainLength(nextIndex);
+                if (skip == 0 && dst.remaining() >= n) {
+                    // Room for the whole segment: no intermediate copy.
+                    dropPlain();
+                    int before = dst.position();
+                    try {
+                        openSegment(nextIndex, dst);
+                    } catch (IOException e) {
+                        dst.position(before);
+                        throw e;
+                    }
+                    nextIndex++;
+                    total += dst.position() - before;
+                } else {
+                    plain.clear();
+                    try {
+                        openSegment(nextIndex, plain);
+                    } catch (IOException e) {
+                        dropPlain();
+                        throw e;
+                    }
+                    plain.flip().position(skip);
+                    plainIndex = nextIndex++;
+                    skip = 0;
+                }
+            }
+        } finally {
+            // Also counts what reached dst before a segment failed; the failed one is retried on the next read.
+            position += total;
+        }
+        return total == 0 && nextIndex >= segmentCount ? -1 : total;
+    }
+
+    private void dropPlain() {
+        plain.limit(0);
+        plainIndex = -1;
+    }
+
+    private int drain(ByteBuffer dst) {
+        int n = Math.min(plain.remaining(), dst.remaining());
+        int limit = plain.limit();
+        plain.limit(plain.position() + n);
+        dst.put(plain);
+        plain.limit(limit);
+        return n;
+    }
+
+    /**
+     * Authenticates and decrypts segment index into out.
+     */
+    private void openSegment(long index, ByteBuffer out) throws IOException {
+        ByteBuffer sealed = sealedSegment(index);
+        try {
+            if (manifest != null) {
+                manifest.checkNonce(index, sealed);
+            }
+            header.open(cipher, key, index, index == segmentCount - 1, sealed, out);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Segment " + index + " failed authentication", e);
+        }
+    }
+
+    /**
+     * Read-only view of the sealed bytes of segment index, mapping the
+     * window that holds it if needed.
+     */
+    private ByteBuffer sealedSegment(long index) throws IOException {
+        if (windowFirst < 0 || index < windowFirst || index >= windowFirst + windowSegments) {
+            windowFirst = index - index % windowSegments;
+            long start = header.segmentOffset(windowFirst);
+            long end = Math.min(file.size(), header.segmentOffset(windowFirst + windowSegments));
+            window = file.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        }
+        int offset = (int) ((index - windowFirst) * header.sealedSegmentSize());
+        int length = plainLength(index) + header.segmentOverhead();
+        return window.slice(offset, length);
+    }
+
+    private int plainLength(long index) {
+        return (int) Math.min(header.segmentSize(), plaintextLength - index * header.segmentSize());
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) {
+        throw new NonWritableChannelException();
+    }
+
+    private void ensureOpen() throws ClosedChannelException {
+        if (!open) throw new ClosedChannelException();
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (!open) return;
+        open = false;
+        window = null;
+        try {
+            file.close();
+        } finally {
+            lock.release();
+        }
+    }
+}
@@ -0,0 +1,344 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package ie.ncirl.securevault.crypto;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * SvFileFormat
+ *
+ * Layout of the segmented ".sv" file format written by {@link AesGcmCrypto}.
+ *
+ *   [header][segment 0][segment 1] ... [segment n]
+ *
+ * Header (17 bytes):
+ *   magic "SVLT" (4) | version (1) | flags (1) | segment size (4) | nonce prefix (7)
+ *
+ * Every segment holds exactly "segment size" plaintext bytes except the last one,
+ * which is always shorter (and may be empty), followed by a 16-byte GCM tag.
+ * Each segment is sealed under the file key with its own nonce:
+ *
+ *   nonce = nonce prefix (7) | segment index (4) | last-segment flag (1)
+ *
+ * and the header bytes as AAD. Binding the index and the "last" flag into the
+ * nonce means segments cannot be reordered, dropped or truncated without a tag
+ * failure (the STREAM construction of Hoang, Reyhanitabar, Rogaway and Vizár).
+ *
+ * Version 2 ("updatable", written by {@link SvFileUpdater}) stores a random
+ * nonce in front of every segment instead, so a segment can be re-sealed in
+ * place without ever reusing a nonce:
+ *
+ *   segment = nonce (12) | ciphertext | tag (16)
+ *   AAD     = header | segment index (4) | last-segment flag (1)
+ *
+ * Index and flag move from the nonce into the AAD, which keeps the same
+ * protection against reordering and truncation. What a v2 file cannot show on
+ * its own is that a segment is the latest version; the nonces recorded in its
+ * {@link SegmentManifest} do that.
+ *
+ * The low four bits of the flags hold the {@link CompressionCodec} id (0 =
+ * none). With a codec the segments carry the compressed stream, so segment
+ * offsets index compressed bytes: such files decrypt as a stream, not by
+ * position. Since the header is the AAD, the codec id cannot be altered.
+ *
+ * Files written before this format existed start with a 1-byte IV length instead
+ * of the magic, which is how the two are told apart.
+ *
+ * @author Mkwenje Tadiwa
+ */
+final class SvFileFormat {
+
+    static final byte[] MAGIC = {'S', 'V', 'L', 'T'};
+    static final int VERSION = 1;
+    static final int VERSION_UPDATABLE = 2;
+
+    static final int FLAGS_CODEC_MASK = 0x0F;
+
+    static final int HEADER_BYTES = 17;
+    static final int NONCE_PREFIX_BYTES = 7;
+    static final int NONCE_BYTES = 12;
+    static final int TAG_BYTES = 16;
+    static final int TAG_BITS = TAG_BYTES * 8;
+
+    static final int DEFAULT_SEGMENT_SIZE = 64 * 1024;
+    static final int MIN_SEGMENT_SIZE = 1024;
+    static final int MAX_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    static final String TRANSFORMATION = "AES/GCM/NoPadding";
+
+    private static final SecureRandom NONCES = new SecureRandom();
+
+    private SvFileFormat() {}
+
+    /**
+     * Parsed (or freshly generated) file header.
+     */
+    static final class Header {
+
+        private final int version;
+        private final int flags;
+        private final int segmentSize;
+        private final byte[] noncePrefix;
+        private final byte[] encoded;
+
+        private Header(int version, int flags, int segmentSize, byte[] noncePrefix) {
+            this.version = version;
+            this.flags = flags;
+            this.segmentSize = segmentSize;
+            this.noncePrefix = noncePrefix;
+
+            ByteBuffer buf = ByteBuffer.allocate(HEADER_BYTES);
+            buf.put(MAGIC).put((byte) version).put((byte) flags).putInt(segmentSize).put(noncePrefix);
+            this.encoded = buf.array();
+        }
+
+        /**
+         * Creates a header for a new file with a random nonce prefix.
+         */
+        static Header create(int segmentSize, SecureRandom random) {
+            return create(VERSION, segmentSize, random);
+        }
+
+        /**
+         * Creates a header for a new file of the given version. In a v2 file
+         * the prefix is unused by the nonces but still random, so the header
+         * (part of every segment's AAD) differs between files.
+         */
+        static Header create(int version, int segmentSize, SecureRandom random) {
+            return create(version, segmentSize, CompressionCodec.NONE, random);
+        }
+
+        /**
+         * Creates a header whose segments will hold a stream compressed with
+         * the given codec id.
+         */
+        static Header create(int version, int segmentSize, int codecId, SecureRandom random) {
+            checkSegmentSize(segmentSize);
+            if ((codecId & ~FLAGS_CODEC_MASK) != 0) {
+                throw new IllegalArgumentException("Invalid compression codec id: " + codecId);
+            }
+            byte[] prefix = new byte[NONCE_PREFIX_BYTES];
+            random.nextBytes(prefix);
+            return new Header(version, codecId, segmentSize, prefix);
+        }
+
+        /**
+         * Reads a header from the start of the channel.
+         *
+         * @return the header, or null if the channel holds a legacy (pre-segmented) file,
+         *         in which case the channel is rewound to position 0.
+         */
+        static Header read(FileChannel in) throws IOException {
+            ByteBuffer buf = ByteBuffer.allocate(HEADER_BYTES);
+            in.position(0);
+            readUpTo(in, buf);
+            buf.flip();
+
+            if (buf.remaining() < MAGIC.length || !hasMagic(buf)) {
+                in.position(0);
+                return null;
+            }
+            if (buf.remaining() < HEADER_BYTES) {
+                throw new EOFException("Truncated .sv header");
+            }
+            return parse(buf);
+        }
+
+        private static Header parse(ByteBuffer buf) throws IOException {
+            buf.position(MAGIC.length);
+            int version = buf.get() & 0xFF;
+            int flags = buf.get() & 0xFF;
+            int segmentSize = buf.getInt();
+            byte[] prefix = new byte[NONCE_PREFIX_BYTES];
+            buf.get(prefix);
+
+            if (version != VERSION && version != VERSION_UPDATABLE) {
+                throw new IOException("Unsupported .sv version: " + version);
+            }
+            if (segmentSize < MIN_SEGMENT_SIZE || segmentSize > MAX_SEGMENT_SIZE) {
+                throw new IOException("Invalid .sv segment size: " + segmentSize);
+            }
+            if ((flags & ~FLAGS_CODEC_MASK) != 0) {
+                throw new IOException("Unsupported .sv flags: " + flags);
+            }
+            return new Header(version, flags, segmentSize, prefix);
+        }
+
+        private static boolean hasMagic(ByteBuffer buf) {
+            for (int i = 0; i < MAGIC.length; i++) {
+                if (buf.get(i) != MAGIC[i]) return false;
+            }
+            return true;
+        }
+
+        int version() { return version; }
+        int flags() { return flags; }
+        int segmentSize() { return segmentSize; }
+        byte[] encoded() { return encoded.clone(); }
+
+        /** {@link CompressionCodec} id of the payload, 0 if not compressed. */
+        int codecId() { return flags & FLAGS_CODEC_MASK; }
+
+        /** True for v2 files, which store a nonce in front of every segment. */
+        boolean hasSegmentNonces() { return version == VERSION_UPDATABLE; }
+
+        /** Bytes a segment takes on disk beyond its plaintext (tag, plus nonce in v2). */
+        int segmentOverhead() { return hasSegmentNonces() ? NONCE_BYTES + TAG_BYTES : TAG_BYTES; }
+
+        /** Size of one full segment on disk (plaintext + overhead). */
+        int sealedSegmentSize() { return segmentSize + segmentOverhead(); }
+
+        /** File offset of the given segment. */
+        long segmentOffset(long index) {
+            return HEADER_BYTES + index * sealedSegmentSize();
+        }
+
+        /**
+         * Number of segments in a file of the given total size, including the
+         * (short) final segment.
+         */
+        long segmentCount(long fileSize) throws IOException {
+            long body = fileSize - HEADER_BYTES;
+            long count = body / sealedSegmentSize() + 1;
+            long lastSealed = body - (count - 1) * sealedSegmentSize();
+            if (body < segmentOverhead() || lastSealed < segmentOverhead()) {
+                throw new EOFException("Truncated .sv file");
+            }
+            return count;
+        }
+
+        /** Plaintext length of a file of the given total size. */
+        long plaintextLength(long fileSize) throws IOException {
+            return fileSize - HEADER_BYTES - segmentCount(fileSize) * segmentOverhead();
+        }
+
+        /** Total .sv file size for a plaintext of the given length. */
+        long sealedLength(long plaintextLength) {
+            long segments = plaintextLength / segmentSize + 1;
+            return HEADER_BYTES + plaintextLength + segments * segmentOverhead();
+        }
+
+        /**
+         * Initialises the cipher for one segment: derives its nonce and adds the
+         * header as associated data.
+         */
+        void initSegment(Cipher cipher, int mode, SecretKey key, long index, boolean last)
+                throws GeneralSecurityException {
+            if (index < 0 || index > 0xFFFFFFFFL) {
+                throw new GeneralSecurityException("Too many segments for one .sv file");
+            }
+            byte[] nonce = Arrays.copyOf(noncePrefix, NONCE_BYTES);
+            nonce[7] = (byte) (index >>> 24);
+            nonce[8] = (byte) (index >>> 16);
+            nonce[9] = (byte) (index >>> 8);
+            nonce[10] = (byte) index;
+            nonce[11] = (byte) (last ? 1 : 0);
+
+            cipher.init(mode, key, new GCMParameterSpec(TAG_BITS, nonce));
+            cipher.updateAAD(encoded);
+        }
+
+        /**
+         * Encrypts the plaintext remaining in plain into out, as segment index.
+         * v2 segments get a fresh random nonce, written to out first.
+         */
+        void seal(Cipher cipher, SecretKey key, long index, boolean last, ByteBuffer plain, ByteBuffer out)
+                throws GeneralSecurityException {
+            if (!hasSegmentNonces()) {
+                initSegment(cipher, Cipher.ENCRYPT_MODE, key, index, last);
+                cipher.doFinal(plain, out);
+                return;
+            }
+            byte[] nonce = new byte[NONCE_BYTES];
+            NONCES.nextBytes(nonce);
+            out.put(nonce);
+            initNonceSegment(cipher, Cipher.ENCRYPT_MODE, key, nonce, index, last);
+            cipher.doFinal(plain, out);
+        }
+
+        /**
+         * Decrypts and authenticates the sealed segment remaining in sealed
+         * into plain.
+         */
+        void open(Cipher cipher, SecretKey key, long index, boolean last, ByteBuffer sealed, ByteBuffer plain)
+                throws GeneralSecurityException {
+            if (!hasSegmentNonces()) {
+                initSegment(cipher, Cipher.DECRYPT_MODE, key, index, last);
+                cipher.doFinal(sealed, plain);
+                return;
+            }
+            if (sealed.remaining() < NONCE_BYTES + TAG_BYTES) {
+                throw new AEADBadTagException("Truncated .sv segment " + index);
+            }
+            byte[] nonce = new byte[NONCE_BYTES];
+            sealed.get(nonce);
+            initNonceSegment(cipher, Cipher.DECRYPT_MODE, key, nonce, index, last);
+            cipher.doFinal(sealed, plain);
+        }
+
+        private void initNonceSegment(Cipher cipher, int mode, SecretKey key, byte[] nonce, long index, boolean last)
+                throws GeneralSecurityException {
+            if (index < 0 || index > 0xFFFFFFFFL) {
+                throw new GeneralSecurityException("Too many segments for one .sv file");
+            }
+            cipher.init(mode, key, new GCMParameterSpec(TAG_BITS, nonce));
+            cipher.updateAAD(encoded);
+            cipher.updateAAD(new byte[] {
+                    (byte) (index >>> 24), (byte) (index >>> 16), (byte) (index >>> 8), (byte) index,
+                    (byte) (last ? 1 : 0)
+            });
+        }
+    }
+
+    static void checkSegmentSize(int segmentSize) {
+        if (segmentSize < MIN_SEGMENT_SIZE || segmentSize > MAX_SEGMENT_SIZE) {
+            throw new IllegalArgumentException("Segment size must be between "
+                    + MIN_SEGMENT_SIZE + " and " + MAX_SEGMENT_SIZE + " bytes");
+        }
+    }
+
+    /**
+     * Reads until the buffer is full or the channel reaches end of stream.
+     *
+     * @return number of bytes read.
+     */
+    static int readUpTo(ReadableByteChannel in, ByteBuffer buf) throws IOException {
+        int total = 0;
+        while (buf.hasRemaining()) {
+            int n = in.read(buf);
+            if (n < 0) break;
+            total += n;
+        }
+        return total;
+    }
+
+    /**
+     * Reads exactly {@code buf.remaining()} bytes from the channel.
+     */
+    static void readFully(ReadableByteChannel in, ByteBuffer buf) throws IOException {
+        int expected = buf.remaining();
+        if (readUpTo(in, buf) != expected) {
+            throw new EOFException("Unexpected end of input");
+        }
+    }
+
+    static void writeFully(WritableByteChannel out, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            out.write(buf);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package ie.ncirl.securevault.crypto;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * SvFileLock
+ *
+ * Reader/writer lock on a .sv file: {@link SvFileUpdater} holds it
+ * exclusively while it rewrites segments, readers hold it shared while they
+ * decrypt, so nobody reads a file halfway through an update.
+ *
+ * The guard only works within one JVM: it is a ReentrantReadWriteLock per
+ * path, not an OS file lock. An OS lock would not help here: on POSIX it
+ * belongs to the process and goes away as soon as any channel on the file is
+ * closed, and on Windows it is enforced per handle, so it would also shut
+ * out the updater's and readers' own channels. Another process working on
+ * the same vault directory is not kept out.
+ *
+ * Acquire, then release in a finally block.
+ *
+ * @author Mkwenje Tadiwa
+ */
+final class SvFileLock {
+
+    private static final Map<Path, Entry> ENTRIES = new HashMap<>();
+
+    /**
+     * Lock of one path, dropped when no thread holds or waits for it.
+     */
+    private static final class Entry {
+        final ReentrantReadWriteLock threads = new ReentrantReadWriteLock();
+        int users;                  // guarded by ENTRIES
+    }
+
+    private final Path path;
+    private final Entry entry;
+    private final boolean exclusive;
+
+    private SvFileLock(Path path, Entry entry, boolean exclusive) {
+        this.path = path;
+        this.entry = entry;
+        this.exclusive = exclusive;
+    }
+
+    /**
+     * Waits until no update runs on file, then keeps updates out until
+     * released.
+     */
+    static SvFileLock shared(Path file) {
+        Path path = key(file);
+        Entry entry = enter(path);
+        entry.threads.readLock().lock();
+        return new SvFileLock(path, entry, false);
+    }
+
+    /**
+     * Waits until no reader or other update holds file, then keeps both out
+     * until released.
+     */
+    static SvFileLock exclusive(Path file) {
+        Path path = key(file);
+        Entry entry = enter(path);
+        entry.threads.writeLock().lock();
+        return new SvFileLock(path, entry, true);
+    }
+
+    void release() {
+        try {
+            if (exclusive) {
+                entry.threads.writeLock().unlock();
+            } else {
+                entry.threads.readLock().unlock();
+            }
+        } finally {
+            leave(path, entry);
+        }
+    }
+
+    private static Path key(Path file) {
+        return file.toAbsolutePath().normalize();
+    }
+
+    private static Entry enter(Path path) {
+        synchronized (ENTRIES) {
+            Entry entry = ENTRIES.computeIfAbsent(path, p -> new Entry());
+            entry.users++;
+            return entry;
+        }
+    }
+
+    private static void leave(Path path, Entry entry) {
+        synchronized (ENTRIES) {
+            if (--entry.users == 0) {
+                ENTRIES.remove(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,528 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package ie.ncirl.securevault.crypto;
+
+import ie.ncirl.securevault.metrics.Counter;
+import ie.ncirl.securevault.metrics.LatencyHistogram;
+import ie.ncirl.securevault.metrics.Metrics;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+/**
+ * SvFileUpdater
+ *
+ * Brings an existing .sv file up to date with a changed source file by
+ * re-sealing only the segments whose content changed, in place, each with a
+ * fresh random nonce (format v2, see {@link SvFileFormat}).
+ *
+ * An update:
+ *  1. fingerprints every segment of the source (HMAC-SHA256 under a key
+ *     derived from the file key, on all cores) and compares with the
+ *     {@link SegmentManifest} of the current version;
+ *  2. copies the sealed segments about to be overwritten into an undo
+ *     journal (&lt;file&gt;.undo) and syncs it;
+ *  3. re-seals the changed segments (plus the old and new last segment when
+ *     the length changes) in place, truncates if the file got shorter, syncs;
+ *  4. hands the new manifest to the caller to store, then deletes the journal.
+ *
+ * Until step 4 the stored manifest still describes the old version. If the
+ * update fails or the process dies before it, the journal puts the old
+ * segments back ({@link #recover}), so a reader sees either the old version
+ * or the new one. Segments that are not rewritten are neither read from the
+ * .sv file nor decrypted.
+ *
+ * A file without a manifest (every .sv written by {@link AesGcmCrypto}) is
+ * rewritten completely as v2 on its first update, into a temp file that
+ * replaces the original. The original is kept as a .old file until the
+ * manifest is committed and is moved back if the commit fails. Later updates
+ * are incremental. The file key does not change.
+ *
+ * Only one update runs on a file at a time, and readers wait for it (see
+ * {@link SvFileLock}; this holds within one JVM only). The stored manifest is loaded only once the lock is
+ * held: one loaded before could predate an update that finished meanwhile,
+ * and updating against it would record nonces the file no longer has.
+ *
+ * @author Mkwenje Tadiwa
+ */
+public final class SvFileUpdater {
+
+    private static final byte[] JOURNAL_MAGIC = {'S', 'V', 'U', 'N'};
+    private static final byte[] FINGERPRINT_INFO = "securevault segment fingerprint".getBytes(StandardCharsets.UTF_8);
+
+    private static final SecureRandom random = new SecureRandom();
+
+    private static final LatencyHistogram UPDATE_TIME = Metrics.histogram("crypto.sv.update");
+    private static final Counter REWRITTEN_BYTES = Metrics.counter("crypto.sv.update.rewritten.bytes");
+
+    private SvFileUpdater() {}
+
+    /**
+     * Loads the stored manifest of the file, or null if it has none yet.
+     * Called with the file locked.
+     */
+    @FunctionalInterface
+    public interface ManifestLoader {
+        SegmentManifest load() throws Exception;
+    }
+
+    /**
+     * Receives the manifest of the new version once it is on disk; store it
+     * with the record. If this throws, the file is rolled back.
+     */
+    @FunctionalInterface
+    public interface ManifestCommit {
+        void commit(SegmentManifest manifest) throws Exception;
+    }
+
+    /**
+     * What an update did.
+     */
+    public static final class Result {
+        private final SegmentManifest manifest;
+        private final boolean fullRewrite;
+        private final int rewrittenSegments;
+        private final long rewrittenBytes;
+
+        Result(SegmentManifest manifest, boolean fullRewrite, int rewrittenSegments, long rewrittenBytes) {
+            this.manifest = manifest;
+            this.fullRewrite = fullRewrite;
+            this.rewrittenSegments = rewrittenSegments;
+            this.rewrittenBytes = rewrittenBytes;
+        }
+
+        public SegmentManifest getManifest() { return manifest; }
+        public boolean isFullRewrite() { return fullRewrite; }
+        public int getRewrittenSegments() { return rewrittenSegments; }
+        public long getRewrittenBytes() { return rewrittenBytes; }
+
+        @Override
+        public String toString() {
+            return String.format("%s %d of %d segments (%.1f MB)", fullRewrite ? "rewrote all" : "rewrote",
+                    rewrittenSegments, manifest.segmentCount(), rewrittenBytes / (1024.0 * 1024.0));
+        }
+    }
+
+    /**
+     * Updates sealedFile to hold the current content of source. current
+     * loads the stored manifest of sealedFile once the file is locked.
+     * Progress covers reading the source plus re-sealing; cancelling (see
+     * {@link CryptoProgress}) leaves the old version in place.
+     */
+    public static Result update(Path source, Path sealedFile, SecretKey key, ManifestLoader current,
+                                ManifestCommit commit, CryptoProgress progress) throws Exception {
+        long start = System.nanoTime();
+        Result result;
+        SvFileLock lock = SvFileLock.exclusive(sealedFile);
+        try {
+            SegmentManifest manifest = current.load();
+            result = manifest == null
+                    ? rewrite(source, sealedFile, key, commit, progress)
+                    : updateInPlace(source, sealedFile, key, manifest, commit, progress);
+        } finally {
+            lock.release();
+        }
+        UPDATE_TIME.recordSince(start);
+        REWRITTEN_BYTES.add(result.getRewrittenBytes());
+        return result;
+    }
+
+    /**
+     * First update of a file: writes a complete v2 copy next to it and swaps
+     * it in. A crash before the swap leaves the old file; after it, a v2 file
+     * that decrypts without a manifest until the next update writes one.
+     */
+    private static Result rewrite(Path source, Path sealedFile, SecretKey key, ManifestCommit commit,
+                                  CryptoProgress progress) throws Exception {
+        int segmentSize;
+        try (FileChannel old = FileChannel.open(sealedFile, StandardOpenOption.READ)) {
+            SvFileFormat.Header oldHeader = SvFileFormat.Header.read(old);
+            segmentSize = oldHeader == null ? SvFileFormat.DEFAULT_SEGMENT_SIZE : oldHeader.segmentSize();
+        }
+        return rewrite(source, sealedFile, key, segmentSize, commit, progress);
+    }
+
+    private static Result rewrite(Path source, Path sealedFile, SecretKey key, int segmentSize,
+                                  ManifestCommit commit, CryptoProgress progress) throws Exception {
+        SvFileFormat.Header header = SvFileFormat.Header.create(SvFileFormat.VERSION_UPDATABLE, segmentSize, random);
+        Mac mac = fingerprintMac(key);
+        Path tmp = Files.createTempFile(sealedFile.toAbsolutePath().getParent(),
+                sealedFile.getFileName().toString(), ".tmp");
+
+        SegmentManifest manifest;
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+
+            long length = in.size();
+            int count = segmentCount(length, segmentSize);
+            byte[] entries = new byte[count * SegmentManifest.ENTRY_BYTES];
+
+            Cipher cipher = Cipher.getInstance(SvFileFormat.TRANSFORMATION);
+            ByteBuffer plain = ByteBuffer.allocate(segmentSize);
+            ByteBuffer sealed = ByteBuffer.allocate(header.sealedSegmentSize());
+            SvFileFormat.writeFully(out, ByteBuffer.wrap(header.encoded()));
+
+            for (int i = 0; i < count; i++) {
+                int n = segmentLength(i, length, segmentSize);
+                plain.clear().limit(n);
+                SvFileFormat.readFully(in, plain);
+                plain.flip();
+
+                sealSegment(header, cipher, key, mac, i, i == count - 1, plain, sealed, entries);
+                SvFileFormat.writeFully(out, sealed);
+                progress.update((long) i * segmentSize + n, length);
+            }
+            out.force(true);
+            manifest = new SegmentManifest(segmentSize, length, entries);
+        } catch (Exception e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+
+        // The old version is kept until the manifest is committed, so a failed commit can put it back.
+        Path backup = backupPath(sealedFile);
+        Files.deleteIfExists(backup);
+        try {
+            Files.createLink(backup, sealedFile);
+        } catch (UnsupportedOperationException | IOException e) {
+            Files.copy(sealedFile, backup);
+        }
+        try {
+            Files.move(tmp, sealedFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            commit.commit(manifest);
+        } catch (Exception e) {
+            Files.deleteIfExists(tmp);
+            Files.move(backup, sealedFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            throw e;
+        }
+        Files.delete(backup);
+        return new Result(manifest, true, manifest.segmentCount(), manifest.getPlaintextLength());
+    }
+
+    private static Result updateInPlace(Path source, Path sealedFile, SecretKey key, SegmentManifest current,
+                                        ManifestCommit commit, CryptoProgress progress) throws Exception {
+        Path journal = journalPath(sealedFile);
+
+        try (FileChannel file = FileChannel.open(sealedFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+
+            recoverLocked(file, journal, current);
+            SvFileFormat.Header header = SvFileFormat.Header.read(file);
+            current.checkFile(header, file.size());
+
+            int segmentSize = header.segmentSize();
+            long length = Files.size(source);
+            int count = segmentCount(length, segmentSize);
+            int oldCount = current.segmentCount();
+
+            // 1. Which segments changed
+            byte[] fingerprints = fingerprints(source, key, segmentSize, length, count, progress);
+            List<Integer> dirty = new ArrayList<>();
+            long dirtyBytes = 0;
+            for (int i = 0; i < count; i++) {
+                boolean lastChanged = (i == count - 1) != (i == oldCount - 1);
+                if (i >= oldCount || lastChanged || !current.fingerprintEquals(i,
+                        Arrays.copyOfRange(fingerprints, i * SegmentManifest.FINGERPRINT_BYTES,
+                                (i + 1) * SegmentManifest.FINGERPRINT_BYTES))) {
+                    dirty.add(i);
+                    dirtyBytes += segmentLength(i, length, segmentSize);
+                }
+            }
+            if (dirty.isEmpty() && count == oldCount) {
+                return new Result(current, false, 0, 0);
+            }
+
+            // 2. Keep what is about to be overwritten or cut off
+            List<Integer> saved = new ArrayList<>();
+            for (int i : dirty) {
+                if (i < oldCount) saved.add(i);
+            }
+            for (int i = count; i < oldCount; i++) {
+                saved.add(i);
+            }
+            writeJournal(file, header, journal, current, saved);
+
+            // 3. Re-seal in place
+            byte[] entries = Arrays.copyOf(current.entries(), count * SegmentManifest.ENTRY_BYTES);
+            SegmentManifest manifest = new SegmentManifest(segmentSize, length, entries);
+            try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+                Cipher cipher = Cipher.getInstance(SvFileFormat.TRANSFORMATION);
+                Mac mac = fingerprintMac(key);
+                ByteBuffer plain = ByteBuffer.allocate(segmentSize);
+                ByteBuffer sealed = ByteBuffer.allocate(header.sealedSegmentSize());
+                long done = length;
+                long work = length + dirtyBytes;
+
+                for (int i : dirty) {
+                    int n = segmentLength(i, length, segmentSize);
+                    plain.clear().limit(n);
+                    readAt(in, plain, (long) i * segmentSize);
+                    plain.flip();
+
+                    sealSegment(header, cipher, key, mac, i, i == count - 1, plain, sealed, entries);
+                    if (!Arrays.equals(entries, i * SegmentManifest.ENTRY_BYTES,
+                            i * SegmentManifest.ENTRY_BYTES + SegmentManifest.FINGERPRINT_BYTES,
+                            fingerprints, i * SegmentManifest.FINGERPRINT_BYTES,
+                            (i + 1) * SegmentManifest.FINGERPRINT_BYTES)) {
+                        throw new IOException("Source changed while the update was running: " + source);
+                    }
+                    writeAt(file, sealed, header.segmentOffset(i));
+                    done += n;
+                    progress.update(done, work);
+                }
+                file.truncate(header.sealedLength(length));
+                file.force(true);
+
+                // 4. Publish
+                commit.commit(manifest);
+            } catch (Exception e) {
+                try {
+                    recoverLocked(file, journal, current);
+                } catch (Exception rollback) {
+                    e.addSuppressed(rollback);
+                }
+                throw e;
+            }
+            Files.deleteIfExists(journal);
+            return new Result(manifest, false, dirty.size(), dirtyBytes);
+        }
+    }
+
+    /**
+     * Finishes or undoes an update that was interrupted. current loads the
+     * manifest stored for the file (with the file locked): if it is still the
+     * one the update started from, the old segments are put back; otherwise
+     * the update was committed and the journal is just removed. The same
+     * goes for the .old file of an interrupted first rewrite. Cheap when
+     * neither exists, so it can be called before every read of an updatable
+     * file.
+     */
+    public static void recover(Path sealedFile, ManifestLoader current) throws Exception {
+        Path journal = journalPath(sealedFile);
+        Path backup = backupPath(sealedFile);
+        if (!Files.exists(journal) && !Files.exists(backup)) return;
+
+        SvFileLock lock = SvFileLock.exclusive(sealedFile);
+        try {
+            SegmentManifest manifest = current.load();
+            if (Files.exists(backup)) {
+                // Left by a first rewrite: its manifest was either committed or the old version is still current.
+                if (manifest == null) {
+                    Files.move(backup, sealedFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } else {
+                    Files.delete(backup);
+                }
+            }
+            if (manifest == null || !Files.exists(journal)) return;
+            try (FileChannel file = FileChannel.open(sealedFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                recoverLocked(file, journal, manifest);
+            }
+        } finally {
+            lock.release();
+        }
+    }
+
+    /**
+     * Journal: magic (4) | old file length (8) | SHA-256 of the old manifest (32)
+     * | count (4), then per segment: index (4) | length (4) | sealed bytes.
+     * Written to a temp file and renamed, so it is either complete or absent.
+     */
+    private static void writeJournal(FileChannel file, SvFileFormat.Header header, Path journal,
+                                     SegmentManifest current, List<Integer> indexes) throws Exception {
+        Path tmp = journal.resolveSibling(journal.getFileName() + ".tmp");
+        long fileSize = file.size();
+
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer head = ByteBuffer.allocate(4 + 8 + 32 + 4);
+            head.put(JOURNAL_MAGIC).putLong(fileSize).put(sha256(current.encode())).putInt(indexes.size());
+            head.flip();
+            SvFileFormat.writeFully(out, head);
+
+            ByteBuffer sealed = ByteBuffer.allocate(header.sealedSegmentSize());
+            ByteBuffer entry = ByteBuffer.allocate(8);
+            for (int i : indexes) {
+                long offset = header.segmentOffset(i);
+                sealed.clear().limit((int) Math.min(sealed.capacity(), fileSize - offset));
+                readAt(file, sealed, offset);
+                sealed.flip();
+
+                entry.clear();
+                entry.putInt(i).putInt(sealed.remaining()).flip();
+                SvFileFormat.writeFully(out, entry);
+                SvFileFormat.writeFully(out, sealed);
+            }
+            out.force(true);
+        }
+        Files.move(tmp, journal, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static void recoverLocked(FileChannel file, Path journal, SegmentManifest current) throws Exception {
+        if (!Files.exists(journal)) return;
+
+        try (FileChannel in = FileChannel.open(journal, StandardOpenOption.READ)) {
+            ByteBuffer head = ByteBuffer.allocate(4 + 8 + 32 + 4);
+            SvFileFormat.readFully(in, head);
+            head.flip();
+            byte[] magic = new byte[4];
+            head.get(magic);
+            if (!Arrays.equals(magic, JOURNAL_MAGIC)) {
+                throw new IOException("Not an .sv undo journal: " + journal);
+            }
+            long oldSize = head.getLong();
+            byte[] manifestHash = new byte[32];
+            head.get(manifestHash);
+            int count = head.getInt();
+
+            if (MessageDigest.isEqual(manifestHash, sha256(current.encode()))) {
+                // Not committed: put the old segments back.
+                SvFileFormat.Header header = SvFileFormat.Header.read(file);
+                ByteBuffer entry = ByteBuffer.allocate(8);
+                ByteBuffer sealed = ByteBuffer.allocate(header.sealedSegmentSize());
+                for (int k = 0; k < count; k++) {
+                    entry.clear();
+                    SvFileFormat.readFully(in, entry);
+                    entry.flip();
+                    int index = entry.getInt();
+                    int n = entry.getInt();
+
+                    sealed.clear().limit(n);
+                    SvFileFormat.readFully(in, sealed);
+                    sealed.flip();
+                    writeAt(file, sealed, header.segmentOffset(index));
+                }
+                file.truncate(oldSize);
+                file.force(true);
+            }
+        }
+        Files.delete(journal);
+    }
+
+    /**
+     * Fingerprints of every segment of source, in parallel over contiguous
+     * ranges of segments.
+     */
+    private static byte[] fingerprints(Path source, SecretKey key, int segmentSize, long length, int count,
+                                       CryptoProgress progress) throws Exception {
+        byte[] fingerprints = new byte[count * SegmentManifest.FINGERPRINT_BYTES];
+        int tasks = Math.min(count, Runtime.getRuntime().availableProcessors() * 4);
+        AtomicLong done = new AtomicLong();
+
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+            IntStream.range(0, tasks).parallel().forEach(t -> {
+                try {
+                    Mac mac = fingerprintMac(key);
+                    ByteBuffer plain = ByteBuffer.allocate(segmentSize);
+                    for (int i = (int) ((long) count * t / tasks); i < (long) count * (t + 1) / tasks; i++) {
+                        int n = segmentLength(i, length, segmentSize);
+                        plain.clear().limit(n);
+                        readAt(in, plain, (long) i * segmentSize);
+                        mac.update(plain.array(), 0, n);
+                        System.arraycopy(mac.doFinal(), 0, fingerprints, i * SegmentManifest.FINGERPRINT_BYTES,
+                                SegmentManifest.FINGERPRINT_BYTES);
+                        progress.update(done.addAndGet(n), length);
+                    }
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new FingerprintFailure(e);
+                }
+            });
+        } catch (FingerprintFailure e) {
+            throw (Exception) e.getCause();
+        }
+        return fingerprints;
+    }
+
+    /**
+     * Seals one segment into sealed (flipped, ready to write) and records its
+     * fingerprint and nonce in the manifest entries.
+     */
+    private static void sealSegment(SvFileFormat.Header header, Cipher cipher, SecretKey key, Mac mac, int index,
+                                    boolean last, ByteBuffer plain, ByteBuffer sealed, byte[] entries)
+            throws Exception {
+        int entry = index * SegmentManifest.ENTRY_BYTES;
+        mac.update(plain.array(), plain.position(), plain.remaining());
+        System.arraycopy(mac.doFinal(), 0, entries, entry, SegmentManifest.FINGERPRINT_BYTES);
+
+        sealed.clear();
+        header.seal(cipher, key, index, last, plain, sealed);
+        sealed.flip();
+        sealed.get(0, entries, entry + SegmentManifest.FINGERPRINT_BYTES, SvFileFormat.NONCE_BYTES);
+    }
+
+    private static Mac fingerprintMac(SecretKey key) throws Exception {
+        byte[] material = key.getEncoded();
+        byte[] macKey = Hkdf.deriveSha256(material, null, FINGERPRINT_INFO, 32);
+        Arrays.fill(material, (byte) 0);
+
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(macKey, "HmacSHA256"));
+        Arrays.fill(macKey, (byte) 0);
+        return mac;
+    }
+
+    private static int segmentCount(long length, int segmentSize) throws IOException {
+        long count = length / segmentSize + 1;
+        if (count > Integer.MAX_VALUE / SegmentManifest.ENTRY_BYTES) {
+            throw new IOException("File too large to update in place");
+        }
+        return (int) count;
+    }
+
+    private static int segmentLength(int index, long length, int segmentSize) {
+        return (int) Math.min(segmentSize, length - (long) index * segmentSize);
+    }
+
+    private static Path journalPath(Path sealedFile) {
+        return sealedFile.resolveSibling(sealedFile.getFileName() + ".undo");
+    }
+
+    private static Path backupPath(Path sealedFile) {
+        return sealedFile.resolveSibling(sealedFile.getFileName() + ".old");
+    }
+
+    private static byte[] sha256(byte[] data) throws Exception {
+        return MessageDigest.getInstance("SHA-256").digest(data);
+    }
+
+    private static void readAt(FileChannel ch, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = ch.read(buf, position);
+            if (n < 0) throw new EOFException("Unexpected end of input");
+            position += n;
+        }
+    }
+
+    private static void writeAt(FileChannel ch, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            position += ch.write(buf, position);
+        }
+    }
+
+    /** Carries a checked exception out of the parallel fingerprint scan. */
+    private static final class FingerprintFailure extends RuntimeException {
+        FingerprintFailure(Exception cause) {
+            super(cause);
+        }
+    }
+}
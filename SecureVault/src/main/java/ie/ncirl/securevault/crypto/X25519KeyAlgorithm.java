@@ -0,0 +1,116 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package ie.ncirl.securevault.crypto;
+
+import ie.ncirl.securevault.metrics.LatencyHistogram;
+import ie.ncirl.securevault.metrics.Metrics;
+
+import javax.crypto.KeyAgreement;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Arrays;
+
+/**
+ * X25519KeyAlgorithm
+ *
+ * X25519 key pairs with ECDH-ES key wrapping:
+ *  1. generate an ephemeral X25519 key pair
+ *  2. shared secret = X25519(ephemeral private, recipient public)
+ *  3. wrapping key = HKDF-SHA256(shared secret, salt = ephemeral public key,
+ *                                info = "SecureVault X25519 key wrap")
+ *  4. AES key wrap (RFC 3394) of the AES key under the wrapping key
+ *
+ * Wrapped format: ephemeral public key (X.509, 44 bytes) || wrapped key
+ * (40 bytes for AES-256).
+ *
+ * @author Mkwenje Tadiwa
+ */
+public final class X25519KeyAlgorithm implements KeyAlgorithm {
+
+    static final X25519KeyAlgorithm INSTANCE = new X25519KeyAlgorithm();
+
+    private static final int ENCODED_PUBLIC_KEY_BYTES = 44;
+    private static final byte[] INFO = "SecureVault X25519 key wrap".getBytes(StandardCharsets.US_ASCII);
+
+    private static final LatencyHistogram WRAP_TIME = Metrics.histogram("crypto.x25519.wrap");
+    private static final LatencyHistogram UNWRAP_TIME = Metrics.histogram("crypto.x25519.unwrap");
+
+    private X25519KeyAlgorithm() {}
+
+    @Override
+    public String id() {
+        return X25519;
+    }
+
+    @Override
+    public KeyPair generateKeyPair() throws Exception {
+        return KeyPairGenerator.getInstance("X25519").generateKeyPair();
+    }
+
+    @Override
+    public PublicKey decodePublicKey(byte[] encoded) throws Exception {
+        return KeyFactory.getInstance("X25519").generatePublic(new X509EncodedKeySpec(encoded));
+    }
+
+    @Override
+    public PrivateKey decodePrivateKey(byte[] encoded) throws Exception {
+        return KeyFactory.getInstance("X25519").generatePrivate(new PKCS8EncodedKeySpec(encoded));
+    }
+
+    @Override
+    public byte[] wrapKey(SecretKey aesKey, PublicKey publicKey) throws Exception {
+        long start = System.nanoTime();
+        KeyPair ephemeral = generateKeyPair();
+        byte[] ephemeralPublic = ephemeral.getPublic().getEncoded();
+
+        SecretKey kek = deriveWrappingKey(ephemeral.getPrivate(), publicKey, ephemeralPublic);
+        byte[] wrapped = KeyWrapUtil.wrapWithKek(aesKey, kek);
+
+        byte[] out = new byte[ephemeralPublic.length + wrapped.length];
+        System.arraycopy(ephemeralPublic, 0, out, 0, ephemeralPublic.length);
+        System.arraycopy(wrapped, 0, out, ephemeralPublic.length, wrapped.length);
+        WRAP_TIME.recordSince(start);
+        return out;
+    }
+
+    @Override
+    public SecretKey unwrapKey(byte[] wrappedKey, PrivateKey privateKey) throws Exception {
+        long start = System.nanoTime();
+        if (wrappedKey.length <= ENCODED_PUBLIC_KEY_BYTES) {
+            throw new IllegalArgumentException("Wrapped key too short");
+        }
+        byte[] ephemeralPublic = Arrays.copyOfRange(wrappedKey, 0, ENCODED_PUBLIC_KEY_BYTES);
+        byte[] wrapped = Arrays.copyOfRange(wrappedKey, ENCODED_PUBLIC_KEY_BYTES, wrappedKey.length);
+
+        SecretKey kek = deriveWrappingKey(privateKey, decodePublicKey(ephemeralPublic), ephemeralPublic);
+        SecretKey key = KeyWrapUtil.unwrapWithKek(wrapped, kek);
+        UNWRAP_TIME.recordSince(start);
+        return key;
+    }
+
+    private static SecretKey deriveWrappingKey(PrivateKey ownPrivate, PublicKey peerPublic, byte[] ephemeralPublic)
+            throws Exception {
+        KeyAgreement ka = KeyAgreement.getInstance("X25519");
+        ka.init(ownPrivate);
+        ka.doPhase(peerPublic, true);
+        byte[] shared = ka.generateSecret();
+
+        byte[] okm = Hkdf.deriveSha256(shared, ephemeralPublic, INFO, 32);
+        Arrays.fill(shared, (byte) 0);
+        try {
+            return new SecretKeySpec(okm, "AES");
+        } finally {
+            Arrays.fill(okm, (byte) 0);
+        }
+    }
+}
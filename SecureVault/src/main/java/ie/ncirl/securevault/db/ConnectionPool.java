@@ -0,0 +1,373 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package ie.ncirl.securevault.db;
+
+import ie.ncirl.securevault.metrics.LatencyHistogram;
+import ie.ncirl.securevault.metrics.Metrics;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ConnectionPool
+ *
+ * Small fixed-size pool of SQLite connections.
+ *
+ *  - Physical connections are opened lazily (up to maxSize) and configured once
+ *    with the given PRAGMA statements when they are opened.
+ *  - Borrowed connections are handed out as proxies: close() returns the
+ *    connection to the pool instead of closing it.
+ *  - Each physical connection keeps an LRU cache of prepared statements, so the
+ *    DAO pattern "prepareStatement(sql) ... close()" re-uses the compiled
+ *    statement rather than re-preparing the SQL every call.
+ *  - Statements a borrower leaves open (and their result sets) are closed
+ *    when the connection is returned, so none carry over to the next borrow.
+ *  - Time spent waiting in borrow() and in each execute call on a cached
+ *    statement is recorded in the db.pool.borrow / db.jdbc.execute histograms.
+ *
+ * @author Mkwenje Tadiwa
+ */
+public class ConnectionPool {
+
+    private static final int STATEMENT_CACHE_SIZE = 32;
+    private static final long BORROW_TIMEOUT_SECONDS = 30;
+
+    private static final LatencyHistogram BORROW_TIME = Metrics.histogram("db.pool.borrow");
+    private static final LatencyHistogram EXECUTE_TIME = Metrics.histogram("db.jdbc.execute");
+
+    private final String url;
+    private final List<String> pragmas;
+    private final int maxSize;
+
+    private final BlockingQueue<PooledConnection> idle;
+    private final List<PooledConnection> all = new ArrayList<>();
+    private boolean closed;
+
+    public ConnectionPool(String url, List<String> pragmas, int maxSize) {
+        this.url = url;
+        this.pragmas = List.copyOf(pragmas);
+        this.maxSize = Math.max(1, maxSize);
+        this.idle = new ArrayBlockingQueue<>(this.maxSize);
+    }
+
+    /**
+     * Borrows a connection. The caller must close() it to give it back.
+     */
+    public Connection borrow() throws SQLException {
+        long start = System.nanoTime();
+        PooledConnection pc = idle.poll();
+        if (pc == null) {
+            pc = openIfBelowLimit();
+        }
+        if (pc == null) {
+            try {
+                pc = idle.poll(BORROW_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for a database connection", e);
+            }
+            if (pc == null) {
+                throw new SQLException("Timed out waiting for a database connection");
+            }
+        }
+        BORROW_TIME.recordSince(start);
+        return pc.handle(true);
+    }
+
+    /**
+     * Returns another handle on the same physical connection as a borrowed one.
+     * Its close() does not release the connection, so nested DAO calls can
+     * "close" what they were given while the owner keeps it.
+     */
+    Connection share(Connection borrowed) throws SQLException {
+        return borrowed.unwrap(PooledConnection.class).handle(false);
+    }
+
+    /**
+     * Closes every physical connection. Connections that are currently borrowed
+     * are closed when they are returned.
+     */
+    public synchronized void close() {
+        closed = true;
+        PooledConnection pc;
+        while ((pc = idle.poll()) != null) {
+            pc.closePhysical();
+        }
+    }
+
+    /** Physical connections currently open. */
+    public synchronized int getOpenCount() {
+        return all.size();
+    }
+
+    /** Open connections not borrowed right now. */
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    private synchronized PooledConnection openIfBelowLimit() throws SQLException {
+        if (closed) throw new SQLException("Connection pool is closed");
+        if (all.size() >= maxSize) return null;
+
+        Connection physical = DriverManager.getConnection(url);
+        try (Statement stmt = physical.createStatement()) {
+            for (String pragma : pragmas) {
+                stmt.execute(pragma);
+            }
+        } catch (SQLException e) {
+            physical.close();
+            throw e;
+        }
+
+        PooledConnection pc = new PooledConnection(physical);
+        all.add(pc);
+        return pc;
+    }
+
+    private void release(PooledConnection pc) {
+        pc.closeOpenStatements();
+        boolean healthy;
+        try {
+            if (!pc.physical.getAutoCommit()) {
+                // Never hand a half-finished transaction to the next borrower.
+                pc.physical.rollback();
+                pc.physical.setAutoCommit(true);
+            }
+            healthy = !pc.physical.isClosed();
+        } catch (SQLException e) {
+            healthy = false;
+        }
+
+        synchronized (this) {
+            if (healthy && !closed && idle.offer(pc)) {
+                return;
+            }
+            all.remove(pc);
+        }
+        pc.closePhysical();
+    }
+
+    /**
+     * A physical connection plus its prepared-statement cache.
+     */
+    final class PooledConnection {
+
+        final Connection physical;
+        // Statements of the current borrow that are not in the cache.
+        private final List<Statement> uncached = new ArrayList<>();
+        private final Map<String, CachedStatement> statements =
+                new LinkedHashMap<>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+                        if (size() > STATEMENT_CACHE_SIZE && !eldest.getValue().inUse) {
+                            eldest.getValue().closePhysical();
+                            return true;
+                        }
+                        return false;
+                    }
+                };
+
+        PooledConnection(Connection physical) {
+            this.physical = physical;
+        }
+
+        /**
+         * Creates a proxy for one borrow. When releaseOnClose is false (a connection
+         * shared by a unit of work) close() leaves the connection with its owner.
+         */
+        Connection handle(boolean releaseOnClose) {
+            return (Connection) Proxy.newProxyInstance(
+                    Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class},
+                    new ConnectionHandle(this, releaseOnClose));
+        }
+
+        PreparedStatement prepare(String sql, int autoGeneratedKeys) throws SQLException {
+            String cacheKey = autoGeneratedKeys + ":" + sql;
+            CachedStatement cached = statements.get(cacheKey);
+            if (cached == null) {
+                cached = new CachedStatement(physical.prepareStatement(sql, autoGeneratedKeys));
+                statements.put(cacheKey, cached);
+            } else if (cached.inUse) {
+                // Same SQL already open in this borrow (e.g. nested loop): don't share it.
+                return track(physical.prepareStatement(sql, autoGeneratedKeys));
+            }
+            cached.inUse = true;
+            return cached.proxy;
+        }
+
+        <T extends Statement> T track(T statement) {
+            uncached.add(statement);
+            return statement;
+        }
+
+        /**
+         * Closes what the borrower left open. A cached statement still in use
+         * may hold an open result set (and with it a read snapshot), so it is
+         * dropped from the cache rather than handed to the next borrower.
+         */
+        void closeOpenStatements() {
+            for (Statement st : uncached) {
+                try {
+                    st.close();
+                } catch (SQLException ignored) {
+                    // Closing is all that is left to do with it.
+                }
+            }
+            uncached.clear();
+            for (Iterator<CachedStatement> it = statements.values().iterator(); it.hasNext(); ) {
+                CachedStatement cached = it.next();
+                if (cached.inUse) {
+                    cached.inUse = false; // a late close() on its proxy is then a no-op
+                    cached.closePhysical();
+                    it.remove();
+                }
+            }
+        }
+
+        void closePhysical() {
+            for (Iterator<CachedStatement> it = statements.values().iterator(); it.hasNext(); ) {
+                it.next().closePhysical();
+                it.remove();
+            }
+            try {
+                physical.close();
+            } catch (SQLException ignored) {
+                // Nothing useful to do while discarding a connection.
+            }
+        }
+    }
+
+    /**
+     * Proxy behaviour for a borrowed connection.
+     */
+    private final class ConnectionHandle implements InvocationHandler {
+
+        private final PooledConnection pc;
+        private final boolean releaseOnClose;
+        private boolean handleClosed;
+
+        ConnectionHandle(PooledConnection pc, boolean releaseOnClose) {
+            this.pc = pc;
+            this.releaseOnClose = releaseOnClose;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            switch (name) {
+                case "close":
+                    if (!handleClosed) {
+                        handleClosed = true;
+                        if (releaseOnClose) release(pc);
+                    }
+                    return null;
+                case "isClosed":
+                    return handleClosed || pc.physical.isClosed();
+                case "unwrap":
+                    if (args[0] == PooledConnection.class) return pc;
+                    if (((Class<?>) args[0]).isInstance(pc.physical)) return pc.physical;
+                    break;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled[" + pc.physical + "]";
+                default:
+                    break;
+            }
+
+            if (handleClosed) {
+                throw new SQLException("Connection has been returned to the pool");
+            }
+
+            if (name.equals("prepareStatement") && args.length == 1) {
+                return pc.prepare((String) args[0], Statement.NO_GENERATED_KEYS);
+            }
+            if (name.equals("prepareStatement") && args.length == 2 && args[1] instanceof Integer) {
+                return pc.prepare((String) args[0], (Integer) args[1]);
+            }
+
+            try {
+                Object result = method.invoke(pc.physical, args);
+                return result instanceof Statement st ? pc.track(st) : result;
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    /**
+     * A prepared statement kept open across borrows. Its proxy turns close()
+     * into "clear parameters and give it back to the cache".
+     */
+    private static final class CachedStatement implements InvocationHandler {
+
+        private final PreparedStatement physical;
+        private final PreparedStatement proxy;
+        private boolean inUse;
+
+        CachedStatement(PreparedStatement physical) {
+            this.physical = physical;
+            this.proxy = (PreparedStatement) Proxy.newProxyInstance(
+                    PreparedStatement.class.getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class},
+                    this);
+        }
+
+        @Override
+        public Object invoke(Object proxyObj, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (inUse) {
+                        inUse = false;
+                        physical.clearParameters();
+                        physical.clearBatch();
+                    }
+                    return null;
+                case "isClosed":
+                    return !inUse || physical.isClosed();
+                case "equals":
+                    return proxyObj == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxyObj);
+                default:
+                    boolean execute = method.getName().startsWith("execute");
+                    long start = execute ? System.nanoTime() : 0;
+                    try {
+                        return method.invoke(physical, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    } finally {
+                        if (execute) EXECUTE_TIME.recordSince(start);
+                    }
+            }
+        }
+
+        void closePhysical() {
+            try {
+                physical.close();
+            } catch (SQLException ignored) {
+                // Statement is being discarded anyway.
+            }
+        }
+    }
+}
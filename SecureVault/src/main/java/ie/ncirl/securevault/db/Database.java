@@ -4,100 +4,188 @@
  */
 package ie.ncirl.securevault.db;
 
-import java.nio.file.Path;
+import ie.ncirl.securevault.config.AppConfig;
+import ie.ncirl.securevault.metrics.Metrics;
+
 import java.nio.file.Paths;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
-import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Database
  *
  * Centralised SQLite database manager.
- * Uses an absolute file path to ensure a single, consistent database.
  *
- * Database location:
- * C:\Users\Mkwenje Tadiwa\OneDrive\Documents\NetBeansProjects\SecureVault\securevault.db
+ * Connections come from a small {@link ConnectionPool}; each one is configured
+ * once with the PRAGMAs below when it is opened and keeps its prepared
+ * statements cached between calls.
+ *
+ * Settings (system properties or securevault.properties, see {@link AppConfig}):
+ *  - securevault.db.url        full JDBC URL (wins over db.path), e.g.
+ *                              jdbc:sqlite:file:vault?mode=memory&cache=shared
+ *  - securevault.db.path       database file, default "securevault.db" in the
+ *                              working directory
+ *  - securevault.db.pool.size  number of pooled connections, default 4
+ *  - securevault.db.pragma.X   overrides/adds "PRAGMA X=value", e.g.
+ *                              securevault.db.pragma.synchronous=FULL
+ *  - securevault.store         "sqlite" (default) or "memory", see {@link #getStore()}
  */
 public class Database {
 
-    // Absolute, fixed database path (NO more duplicate DB files)
-    private static final Path DB_PATH = Paths.get(
-            "C:\\Users\\Mkwenje Tadiwa\\OneDrive\\Documents\\NetBeansProjects\\SecureVault\\securevault.db"
-    );
+    private static final String DEFAULT_DB_FILE = "securevault.db";
+
+    private static final String URL = resolveUrl();
+
+    private static final int POOL_SIZE = AppConfig.getInt("securevault.db.pool.size", 4);
 
-    private static final String URL = "jdbc:sqlite:" + DB_PATH.toAbsolutePath();
+    private static final ConnectionPool POOL = new ConnectionPool(URL, resolvePragmas(), POOL_SIZE);
+
+    private static final VaultStore STORE = createStore();
+
+    static {
+        Metrics.gauge("db.pool.open", POOL::getOpenCount);
+        Metrics.gauge("db.pool.idle", POOL::getIdleCount);
+    }
+
+    // Connection shared by the current thread's unit of work, if any.
+    private static final ThreadLocal<Connection> BOUND = new ThreadLocal<>();
 
     /**
-     * Returns a new connection to the SQLite database.
+     * A piece of JDBC work run against one borrowed connection.
      */
-    public static Connection getConnection() throws SQLException {
-        return DriverManager.getConnection(URL);
+    @FunctionalInterface
+    public interface SqlWork<T> {
+        T run(Connection conn) throws SQLException;
     }
 
     /**
-     * Creates required tables and columns if they do not already exist.
-     * Called once at application startup.
+     * Returns a pooled connection to the SQLite database. Closing it gives it
+     * back to the pool.
+     *
+     * Inside {@link #withConnection} / {@link #inTransaction} this returns the
+     * connection of that unit of work, so DAO calls made there share it.
      */
-    public static void initialize() throws SQLException {
+    public static Connection getConnection() throws SQLException {
+        Connection bound = BOUND.get();
+        if (bound != null) {
+            return POOL.share(bound);
+        }
+        return POOL.borrow();
+    }
 
-        try (Connection conn = getConnection();
-             Statement stmt = conn.createStatement()) {
-
-            // --- USERS TABLE ---
-            String createUsers = """
-                CREATE TABLE IF NOT EXISTS users (
-                    id INTEGER PRIMARY KEY AUTOINCREMENT,
-                    username TEXT NOT NULL UNIQUE,
-                    password_hash BLOB NOT NULL,
-                    salt BLOB NOT NULL,
-                    totp_secret TEXT NOT NULL,
-                    created_at DATETIME DEFAULT CURRENT_TIMESTAMP
-                );
-                """;
-
-            stmt.execute(createUsers);
-
-            // --- FILE RECORDS TABLE ---
-            String createFiles = """
-                CREATE TABLE IF NOT EXISTS file_records (
-                    id INTEGER PRIMARY KEY AUTOINCREMENT,
-                    user_id INTEGER NOT NULL,
-                    original_path TEXT NOT NULL,
-                    encrypted_path TEXT NOT NULL,
-                    date_encrypted DATETIME DEFAULT CURRENT_TIMESTAMP,
-                    FOREIGN KEY (user_id) REFERENCES users(id)
-                );
-                """;
-
-            stmt.execute(createFiles);
-
-            // --- SAFE SCHEMA MIGRATIONS ---
-
-            // Add RSA public key column to users table
+    /**
+     * Borrows one connection for several statements. Every DAO call made by the
+     * work on this thread uses the same connection.
+     */
+    public static <T> T withConnection(SqlWork<T> work) throws SQLException {
+        if (BOUND.get() != null) {
+            return work.run(POOL.share(BOUND.get()));
+        }
+        try (Connection conn = POOL.borrow()) {
+            BOUND.set(conn);
             try {
-                stmt.execute("ALTER TABLE users ADD COLUMN public_key BLOB;");
-            } catch (SQLException ignored) {
-                // Column already exists
+                return work.run(POOL.share(conn));
+            } finally {
+                BOUND.remove();
             }
+        }
+    }
 
-            // Add RSA private key column to users table
+    /**
+     * Like {@link #withConnection} but commits everything the work does as a
+     * single transaction (rolled back if it throws). Nested calls join the
+     * outer transaction.
+     */
+    public static <T> T inTransaction(SqlWork<T> work) throws SQLException {
+        if (BOUND.get() != null && !BOUND.get().getAutoCommit()) {
+            return work.run(POOL.share(BOUND.get()));
+        }
+        return withConnection(conn -> {
+            conn.setAutoCommit(false);
             try {
-                stmt.execute("ALTER TABLE users ADD COLUMN private_key BLOB;");
-            } catch (SQLException ignored) {
-                // Column already exists
+                T result = work.run(conn);
+                conn.commit();
+                return result;
+            } catch (SQLException | RuntimeException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
             }
+        });
+    }
 
-            // Add wrapped AES key column to file_records table
-            try {
-                stmt.execute("ALTER TABLE file_records ADD COLUMN wrapped_key BLOB;");
-            } catch (SQLException ignored) {
-                // Column already exists
+    /**
+     * Closes the pooled connections (called on application exit).
+     */
+    public static void shutdown() {
+        POOL.close();
+    }
+
+    /**
+     * The configured storage backend for users and file records.
+     */
+    public static VaultStore getStore() {
+        return STORE;
+    }
+
+    /**
+     * Creates required tables and columns if they do not already exist.
+     * Called once at application startup.
+     */
+    public static void initialize() throws SQLException {
+        STORE.initialize();
+
+        // Helpful confirmation (can be removed later)
+        if (STORE instanceof SqliteVaultStore) {
+            System.out.println("USING DB: " + URL);
+        } else {
+            System.out.println("USING STORE: " + STORE.getClass().getSimpleName());
+        }
+    }
+
+    private static String resolveUrl() {
+        String url = AppConfig.getString("securevault.db.url", null);
+        if (url != null) {
+            return url;
+        }
+        String path = AppConfig.getString("securevault.db.path", DEFAULT_DB_FILE);
+        return "jdbc:sqlite:" + Paths.get(path).toAbsolutePath();
+    }
+
+    private static List<String> resolvePragmas() {
+        // Defaults, applied once to every physical connection when the pool opens it.
+        Map<String, String> pragmas = new LinkedHashMap<>();
+        pragmas.put("journal_mode", "WAL");
+        pragmas.put("synchronous", "NORMAL");
+        pragmas.put("mmap_size", "268435456");   // 256 MB
+        pragmas.put("cache_size", "-65536");     // 64 MB (negative = KiB)
+        pragmas.put("busy_timeout", "5000");
+        pragmas.putAll(AppConfig.getWithPrefix("securevault.db.pragma."));
+
+        List<String> statements = new ArrayList<>();
+        for (Map.Entry<String, String> e : pragmas.entrySet()) {
+            if (!e.getKey().matches("[A-Za-z_]+") || !e.getValue().matches("[A-Za-z0-9_-]+")) {
+                throw new IllegalArgumentException("Invalid PRAGMA setting: " + e.getKey() + "=" + e.getValue());
             }
+            statements.add("PRAGMA " + e.getKey() + "=" + e.getValue());
         }
+        return statements;
+    }
 
-        // Helpful confirmation (can be removed later)
-        System.out.println("USING DB FILE: " + DB_PATH.toAbsolutePath());
+    private static VaultStore createStore() {
+        String kind = AppConfig.getString("securevault.store", "sqlite");
+        switch (kind.toLowerCase()) {
+            case "sqlite":
+                return new SqliteVaultStore();
+            case "memory":
+                return new InMemoryVaultStore();
+            default:
+                throw new IllegalArgumentException("Unknown securevault.store: " + kind);
+        }
     }
 }
\ No newline at end of file
@@ -4,11 +4,13 @@
  */
 package ie.ncirl.securevault.db;
 
+import ie.ncirl.securevault.metrics.LatencyHistogram;
+import ie.ncirl.securevault.metrics.Metrics;
 import ie.ncirl.securevault.model.FileRecord;
 
 import java.sql.*;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * FileRecordDao
@@ -16,31 +18,60 @@ import java.util.List;
  * Handles database operations for encrypted file records.
  * Includes support for storing and retrieving wrapped AES keys.
  *
+ * The storage itself is done by a {@link VaultStore} (SQLite by default).
+ * The calls on the upload/decrypt/dashboard paths are timed in
+ * db.filerecords.* histograms (see {@link Metrics}).
+ *
  * @author Mkwenje Tadiwa
  */
 public class FileRecordDao {
 
+    private static final LatencyHistogram INSERT_TIME = Metrics.histogram("db.filerecords.insert");
+    private static final LatencyHistogram INSERT_BATCH_TIME = Metrics.histogram("db.filerecords.insertBatch");
+    private static final LatencyHistogram PAGE_TIME = Metrics.histogram("db.filerecords.page");
+    private static final LatencyHistogram COUNT_TIME = Metrics.histogram("db.filerecords.count");
+    private static final LatencyHistogram KEY_LOOKUP_TIME = Metrics.histogram("db.filerecords.keyLookup");
+
+    private final VaultStore store;
+
+    public FileRecordDao() {
+        this(Database.getStore());
+    }
+
+    public FileRecordDao(VaultStore store) {
+        this.store = store;
+    }
+
     /**
      * 
      * Insert a new encrypted file record, including the wrapped AES key.
      */
     public void insert(int userId, String originalPath, String encryptedPath, byte[] wrappedKey)
             throws SQLException {
+        long start = System.nanoTime();
+        store.insertFileRecord(new FileRecord(0, userId, originalPath, encryptedPath, wrappedKey));
+        INSERT_TIME.recordSince(start);
+    }
 
-        String sql = """
-            INSERT INTO file_records (user_id, original_path, encrypted_path, wrapped_key)
-            VALUES (?, ?, ?, ?)
-        """;
-
-        try (Connection conn = Database.getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
+    /**
+     * Insert a new encrypted file record whose key is wrapped with the given
+     * scheme (FileRecord.KEY_SCHEME_*).
+     */
+    public void insert(int userId, String originalPath, String encryptedPath, byte[] wrappedKey, int keyScheme)
+            throws SQLException {
+        long start = System.nanoTime();
+        store.insertFileRecord(new FileRecord(0, userId, originalPath, encryptedPath, wrappedKey, keyScheme));
+        INSERT_TIME.recordSince(start);
+    }
 
-            ps.setInt(1, userId);
-            ps.setString(2, originalPath);
-            ps.setString(3, encryptedPath);
-            ps.setBytes(4, wrappedKey);
-            ps.executeUpdate();
-        }
+    /**
+     * Inserts many records in one transaction using a JDBC batch.
+     * Used by bulk imports, where a commit per file would dominate the cost.
+     */
+    public void insertBatch(List<FileRecord> records) throws SQLException {
+        long start = System.nanoTime();
+        store.insertFileRecords(records);
+        INSERT_BATCH_TIME.recordSince(start);
     }
 
     /**
@@ -48,33 +79,39 @@ public class FileRecordDao {
      * (Wrapped key is not loaded here for performance reasons.)
      */
     public List<FileRecord> getByUserId(int userId) throws SQLException {
+        return store.getFileRecordsByUserId(userId);
+    }
+
+    /**
+     * One keyset page of a user's records, newest first, with ids below beforeId
+     * (use Integer.MAX_VALUE for the first page).
+     */
+    public List<FileRecord> getPage(int userId, int beforeId, int limit) throws SQLException {
+        long start = System.nanoTime();
+        List<FileRecord> page = store.getFileRecordPage(userId, beforeId, limit);
+        PAGE_TIME.recordSince(start);
+        return page;
+    }
+
+    public int countByUserId(int userId) throws SQLException {
+        long start = System.nanoTime();
+        int count = store.countFileRecords(userId);
+        COUNT_TIME.recordSince(start);
+        return count;
+    }
 
-        String sql = """
-            SELECT id, user_id, original_path, encrypted_path
-            FROM file_records
-            WHERE user_id = ?
-            ORDER BY id DESC
-        """;
-
-        List<FileRecord> results = new ArrayList<>();
-
-        try (Connection conn = Database.getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
-
-            ps.setInt(1, userId);
-            try (ResultSet rs = ps.executeQuery()) {
-                while (rs.next()) {
-                    results.add(new FileRecord(
-                            rs.getInt("id"),
-                            rs.getInt("user_id"),
-                            rs.getString("original_path"),
-                            rs.getString("encrypted_path"),
-                            null // wrappedKey not loaded here
-                    ));
-                }
-            }
-        }
-        return results;
+    /**
+     * Id of the record at a position of the newest-first list, or -1.
+     */
+    public int getIdAt(int userId, int position) throws SQLException {
+        return store.getFileRecordIdAt(userId, position);
+    }
+
+    /**
+     * Streams a user's records from a cursor instead of loading them all.
+     */
+    public void forEachByUserId(int userId, Consumer<FileRecord> action) throws SQLException {
+        store.forEachFileRecord(userId, action);
     }
 
     /**
@@ -83,23 +120,48 @@ public class FileRecordDao {
      * Used during decryption.
      */
     public byte[] getWrappedKeyById(int fileId) throws SQLException {
+        long start = System.nanoTime();
+        byte[] key = store.getWrappedKey(fileId);
+        KEY_LOOKUP_TIME.recordSince(start);
+        return key;
+    }
+
+    /**
+     * A record with its wrapped key and key scheme, or null. Used during decryption.
+     */
+    public FileRecord getByIdWithKey(int fileId) throws SQLException {
+        long start = System.nanoTime();
+        FileRecord record = store.getFileRecord(fileId);
+        KEY_LOOKUP_TIME.recordSince(start);
+        return record;
+    }
 
-        String sql = """
-            SELECT wrapped_key
-            FROM file_records
-            WHERE id = ?
-        """;
-
-        try (Connection conn = Database.getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
-
-            ps.setInt(1, fileId);
-            try (ResultSet rs = ps.executeQuery()) {
-                if (rs.next()) {
-                    return rs.getBytes("wrapped_key");
-                }
-            }
-        }
-        return null;
+    /**
+     * Stored manifest of a record (chunk list or segment manifest), or null.
+     */
+    public byte[] getManifest(int fileId) throws SQLException {
+        return store.getFileManifest(fileId);
+    }
+
+    /**
+     * Replaces the manifest of a record, e.g. after an in-place update.
+     */
+    public void saveManifest(int fileId, byte[] manifest) throws SQLException {
+        store.saveFileManifest(fileId, manifest);
+    }
+
+    /**
+     * Up to limit records of the user still wrapped with the given scheme.
+     */
+    public List<FileRecord> getByKeyScheme(int userId, int keyScheme, int limit) throws SQLException {
+        return store.getFileRecordsByKeyScheme(userId, keyScheme, limit);
+    }
+
+    /**
+     * Re-points records at new wrapped keys (in one transaction), skipping
+     * any that are no longer on expectedScheme.
+     */
+    public int updateWrappedKeys(List<FileRecord> records, int expectedScheme) throws SQLException {
+        return store.updateWrappedKeys(records, expectedScheme);
     }
 }
\ No newline at end of file
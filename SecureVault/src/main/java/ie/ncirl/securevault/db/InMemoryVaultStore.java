@@ -0,0 +1,335 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package ie.ncirl.securevault.db;
+
+import ie.ncirl.securevault.model.AuditCheckpoint;
+import ie.ncirl.securevault.model.ChunkRecord;
+import ie.ncirl.securevault.model.FileRecord;
+import ie.ncirl.securevault.model.User;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * InMemoryVaultStore
+ *
+ * {@link VaultStore} that keeps users and file records in memory only.
+ * Nothing survives a restart; intended for tests and benchmarks that should
+ * measure the crypto/auth code without disk I/O.
+ *
+ * @author Mkwenje Tadiwa
+ */
+public class InMemoryVaultStore implements VaultStore {
+
+    /**
+     * A stored user row, including the keys that {@link User} does not carry.
+     */
+    private static final class UserRow {
+        volatile User user;
+        final String keyAlgorithm;
+        final byte[] publicKey;
+        final byte[] privateKey;
+        volatile byte[] wrappedKek;
+
+        UserRow(User user, String keyAlgorithm, byte[] publicKey, byte[] privateKey) {
+            this.user = user;
+            this.keyAlgorithm = keyAlgorithm;
+            this.publicKey = publicKey;
+            this.privateKey = privateKey;
+        }
+    }
+
+    private final AtomicInteger userIds = new AtomicInteger();
+    private final AtomicInteger fileIds = new AtomicInteger();
+
+    private final Map<Integer, UserRow> usersById = new ConcurrentHashMap<>();
+    private final Map<String, UserRow> usersByName = new ConcurrentHashMap<>();
+
+    // Sorted by id so "newest first" is a descending walk.
+    private final ConcurrentSkipListMap<Integer, FileRecord> files = new ConcurrentSkipListMap<>();
+
+    private final AtomicLong checkpointIds = new AtomicLong();
+    private final List<AuditCheckpoint> checkpoints = new CopyOnWriteArrayList<>();
+
+    // user id -> chunk ids (only the ids are needed in memory)
+    private final Map<Integer, Set<String>> chunksByUser = new ConcurrentHashMap<>();
+    private final Map<Integer, byte[]> manifests = new ConcurrentHashMap<>();
+
+    private final Map<Integer, Long> totpLastSteps = new ConcurrentHashMap<>();
+
+    private static final Comparator<AuditCheckpoint> BY_POSITION =
+            Comparator.comparingLong(AuditCheckpoint::getSegment).thenComparingLong(AuditCheckpoint::getOffset);
+
+    @Override
+    public void initialize() {
+        // Nothing to create.
+    }
+
+    @Override
+    public synchronized int insertUser(String username, byte[] passwordHash, byte[] salt, String totpSecret,
+                                       String keyAlgorithm, byte[] publicKey, byte[] privateKey)
+            throws SQLException {
+        if (usersByName.containsKey(username)) {
+            throw new SQLException("UNIQUE constraint failed: users.username");
+        }
+        int id = userIds.incrementAndGet();
+        UserRow row = new UserRow(new User(id, username, passwordHash, salt, totpSecret), keyAlgorithm,
+                publicKey, privateKey);
+        usersById.put(id, row);
+        usersByName.put(username, row);
+        return id;
+    }
+
+    @Override
+    public User findUserByUsername(String username) {
+        UserRow row = usersByName.get(username);
+        if (row == null) return null;
+        User u = row.user;
+        return new User(u.getId(), u.getUsername(), u.getPasswordHash(), u.getSalt(), u.getTotpSecret());
+    }
+
+    @Override
+    public synchronized void updatePasswordHash(int userId, byte[] passwordHash, byte[] salt) {
+        UserRow row = usersById.get(userId);
+        if (row == null) return;
+        User u = row.user;
+        row.user = new User(u.getId(), u.getUsername(), passwordHash, salt, u.getTotpSecret());
+    }
+
+    @Override
+    public String getKeyAlgorithm(int userId) {
+        UserRow row = usersById.get(userId);
+        return row == null ? null : row.keyAlgorithm;
+    }
+
+    @Override
+    public byte[] getPublicKey(int userId) {
+        UserRow row = usersById.get(userId);
+        return row == null ? null : row.publicKey;
+    }
+
+    @Override
+    public byte[] getPrivateKey(int userId) {
+        UserRow row = usersById.get(userId);
+        return row == null ? null : row.privateKey;
+    }
+
+    @Override
+    public byte[] getWrappedKek(int userId) {
+        UserRow row = usersById.get(userId);
+        return row == null ? null : row.wrappedKek;
+    }
+
+    @Override
+    public boolean setWrappedKekIfAbsent(int userId, byte[] wrappedKek) {
+        UserRow row = usersById.get(userId);
+        if (row == null) return false;
+        synchronized (row) {
+            if (row.wrappedKek != null) return false;
+            row.wrappedKek = wrappedKek;
+            return true;
+        }
+    }
+
+    @Override
+    public void insertFileRecord(FileRecord record) {
+        int id = fileIds.incrementAndGet();
+        files.put(id, new FileRecord(id, record.getUserId(), record.getOriginalPath(),
+                record.getEncryptedPath(), record.getWrappedKey(), record.getKeyScheme()));
+    }
+
+    @Override
+    public void insertFileRecords(List<FileRecord> records) {
+        for (FileRecord record : records) {
+            insertFileRecord(record);
+        }
+    }
+
+    @Override
+    public List<FileRecord> getFileRecordsByUserId(int userId) {
+        List<FileRecord> results = new ArrayList<>();
+        for (FileRecord fr : files.descendingMap().values()) {
+            if (fr.getUserId() == userId) {
+                results.add(withoutKey(fr));
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public List<FileRecord> getFileRecordPage(int userId, int beforeId, int limit) {
+        List<FileRecord> results = new ArrayList<>(limit);
+        for (FileRecord fr : files.headMap(beforeId, false).descendingMap().values()) {
+            if (results.size() == limit) break;
+            if (fr.getUserId() == userId) {
+                results.add(withoutKey(fr));
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public int countFileRecords(int userId) {
+        int count = 0;
+        for (FileRecord fr : files.values()) {
+            if (fr.getUserId() == userId) count++;
+        }
+        return count;
+    }
+
+    @Override
+    public int getFileRecordIdAt(int userId, int position) {
+        int i = 0;
+        for (FileRecord fr : files.descendingMap().values()) {
+            if (fr.getUserId() == userId && i++ == position) {
+                return fr.getId();
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public void forEachFileRecord(int userId, Consumer<FileRecord> action) {
+        for (FileRecord fr : files.descendingMap().values()) {
+            if (fr.getUserId() == userId) {
+                action.accept(withoutKey(fr));
+            }
+        }
+    }
+
+    private static FileRecord withoutKey(FileRecord fr) {
+        return new FileRecord(fr.getId(), fr.getUserId(), fr.getOriginalPath(), fr.getEncryptedPath(), null,
+                fr.getKeyScheme());
+    }
+
+    @Override
+    public byte[] getWrappedKey(int fileId) {
+        FileRecord fr = files.get(fileId);
+        return fr == null ? null : fr.getWrappedKey();
+    }
+
+    @Override
+    public FileRecord getFileRecord(int fileId) {
+        FileRecord fr = files.get(fileId);
+        return fr == null ? null : copy(fr);
+    }
+
+    @Override
+    public List<FileRecord> getFileRecordsByKeyScheme(int userId, int keyScheme, int limit) {
+        List<FileRecord> results = new ArrayList<>();
+        for (FileRecord fr : files.values()) {
+            if (results.size() == limit) break;
+            if (fr.getUserId() == userId && fr.getKeyScheme() == keyScheme) {
+                results.add(copy(fr));
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public synchronized int updateWrappedKeys(List<FileRecord> records, int expectedScheme) {
+        int changed = 0;
+        for (FileRecord record : records) {
+            FileRecord fr = files.get(record.getId());
+            if (fr == null || fr.getKeyScheme() != expectedScheme) continue;
+            files.put(fr.getId(), new FileRecord(fr.getId(), fr.getUserId(), fr.getOriginalPath(),
+                    fr.getEncryptedPath(), record.getWrappedKey(), record.getKeyScheme()));
+            changed++;
+        }
+        return changed;
+    }
+
+    private static FileRecord copy(FileRecord fr) {
+        return new FileRecord(fr.getId(), fr.getUserId(), fr.getOriginalPath(), fr.getEncryptedPath(),
+                fr.getWrappedKey(), fr.getKeyScheme());
+    }
+
+    @Override
+    public Set<String> findExistingChunks(int userId, Collection<String> chunkIds) {
+        Set<String> existing = new HashSet<>();
+        Set<String> stored = chunksByUser.get(userId);
+        if (stored == null) return existing;
+        for (String id : chunkIds) {
+            if (stored.contains(id)) existing.add(id);
+        }
+        return existing;
+    }
+
+    @Override
+    public int insertChunkedFile(FileRecord record, byte[] manifest, List<ChunkRecord> newChunks) {
+        Set<String> stored = chunksByUser.computeIfAbsent(record.getUserId(), u -> ConcurrentHashMap.newKeySet());
+        for (ChunkRecord chunk : newChunks) {
+            stored.add(chunk.getChunkId());
+        }
+        int id = fileIds.incrementAndGet();
+        manifests.put(id, manifest);
+        files.put(id, new FileRecord(id, record.getUserId(), record.getOriginalPath(),
+                record.getEncryptedPath(), record.getWrappedKey(), record.getKeyScheme()));
+        return id;
+    }
+
+    @Override
+    public byte[] getFileManifest(int fileId) {
+        return manifests.get(fileId);
+    }
+
+    @Override
+    public void saveFileManifest(int fileId, byte[] manifest) {
+        manifests.put(fileId, manifest);
+    }
+
+    @Override
+    public void insertAuditCheckpoint(AuditCheckpoint checkpoint) {
+        checkpoint.setId(checkpointIds.incrementAndGet());
+        checkpoints.add(checkpoint);
+    }
+
+    @Override
+    public AuditCheckpoint findLatestAuditCheckpoint(String kind) {
+        return checkpoints.stream()
+                .filter(cp -> cp.getKind().equals(kind))
+                .max(BY_POSITION)
+                .orElse(null);
+    }
+
+    @Override
+    public List<AuditCheckpoint> findAuditCheckpoints(String kind, long fromSegment) {
+        List<AuditCheckpoint> results = new ArrayList<>();
+        for (AuditCheckpoint cp : checkpoints) {
+            if (cp.getKind().equals(kind) && cp.getSegment() >= fromSegment) {
+                results.add(cp);
+            }
+        }
+        results.sort(BY_POSITION);
+        return results;
+    }
+
+    @Override
+    public void saveTotpLastSteps(Map<Integer, Long> steps) {
+        steps.forEach((userId, step) -> totpLastSteps.merge(userId, step, Math::max));
+    }
+
+    @Override
+    public Map<Integer, Long> getTotpLastSteps(long minStep) {
+        Map<Integer, Long> results = new HashMap<>();
+        totpLastSteps.forEach((userId, step) -> {
+            if (step >= minStep) results.put(userId, step);
+        });
+        return results;
+    }
+}
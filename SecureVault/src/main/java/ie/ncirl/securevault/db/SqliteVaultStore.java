@@ -0,0 +1,848 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package ie.ncirl.securevault.db;
+
+import ie.ncirl.securevault.model.AuditCheckpoint;
+import ie.ncirl.securevault.model.ChunkRecord;
+import ie.ncirl.securevault.model.FileRecord;
+import ie.ncirl.securevault.model.User;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * SqliteVaultStore
+ *
+ * {@link VaultStore} backed by the SQLite database from {@link Database}.
+ * All SQL for the users, file_records, chunks, file_manifests,
+ * audit_checkpoints and totp_last_step tables lives here.
+ *
+ * @author Mkwenje Tadiwa
+ */
+public class SqliteVaultStore implements VaultStore {
+
+    // Chunk ids per IN (...) query in findExistingChunks (a power of two).
+    private static final int CHUNK_LOOKUP_BATCH = 512;
+
+    /**
+     * Creates required tables and columns if they do not already exist.
+     */
+    @Override
+    public void initialize() throws SQLException {
+
+        try (Connection conn = Database.getConnection();
+             Statement stmt = conn.createStatement()) {
+
+            // --- USERS TABLE ---
+            String createUsers = """
+                CREATE TABLE IF NOT EXISTS users (
+                    id INTEGER PRIMARY KEY AUTOINCREMENT,
+                    username TEXT NOT NULL UNIQUE,
+                    password_hash BLOB NOT NULL,
+                    salt BLOB NOT NULL,
+                    totp_secret TEXT NOT NULL,
+                    created_at DATETIME DEFAULT CURRENT_TIMESTAMP
+                );
+                """;
+
+            stmt.execute(createUsers);
+
+            // --- FILE RECORDS TABLE ---
+            String createFiles = """
+                CREATE TABLE IF NOT EXISTS file_records (
+                    id INTEGER PRIMARY KEY AUTOINCREMENT,
+                    user_id INTEGER NOT NULL,
+                    original_path TEXT NOT NULL,
+                    encrypted_path TEXT NOT NULL,
+                    date_encrypted DATETIME DEFAULT CURRENT_TIMESTAMP,
+                    FOREIGN KEY (user_id) REFERENCES users(id)
+                );
+                """;
+
+            stmt.execute(createFiles);
+
+            // Serves the dashboard's keyset pages (user_id = ? AND id < ? ORDER BY id DESC)
+            stmt.execute("""
+                CREATE INDEX IF NOT EXISTS idx_file_records_user_id
+                ON file_records (user_id, id);
+                """);
+
+            // --- AUDIT CHECKPOINTS TABLE ---
+            String createCheckpoints = """
+                CREATE TABLE IF NOT EXISTS audit_checkpoints (
+                    id INTEGER PRIMARY KEY AUTOINCREMENT,
+                    kind TEXT NOT NULL,
+                    segment INTEGER NOT NULL,
+                    segment_offset INTEGER NOT NULL,
+                    chain BLOB NOT NULL,
+                    created_at INTEGER NOT NULL,
+                    signature BLOB NOT NULL
+                );
+                """;
+
+            stmt.execute(createCheckpoints);
+            stmt.execute("""
+                CREATE INDEX IF NOT EXISTS idx_audit_checkpoints_position
+                ON audit_checkpoints (kind, segment, segment_offset);
+                """);
+
+            // --- TOTP REPLAY TABLE (last accepted time step per user) ---
+            stmt.execute("""
+                CREATE TABLE IF NOT EXISTS totp_last_step (
+                    user_id INTEGER PRIMARY KEY,
+                    step INTEGER NOT NULL,
+                    FOREIGN KEY (user_id) REFERENCES users(id)
+                );
+                """);
+
+            // --- CHUNK STORE TABLES (see vault.ChunkStore) ---
+            stmt.execute("""
+                CREATE TABLE IF NOT EXISTS chunks (
+                    user_id INTEGER NOT NULL,
+                    chunk_id TEXT NOT NULL,
+                    plain_size INTEGER NOT NULL,
+                    stored_size INTEGER NOT NULL,
+                    PRIMARY KEY (user_id, chunk_id),
+                    FOREIGN KEY (user_id) REFERENCES users(id)
+                ) WITHOUT ROWID;
+                """);
+
+            stmt.execute("""
+                CREATE TABLE IF NOT EXISTS file_manifests (
+                    file_id INTEGER PRIMARY KEY,
+                    manifest BLOB NOT NULL,
+                    FOREIGN KEY (file_id) REFERENCES file_records(id)
+                );
+                """);
+
+            // --- SAFE SCHEMA MIGRATIONS ---
+
+            // Add RSA public key column to users table
+            try {
+                stmt.execute("ALTER TABLE users ADD COLUMN public_key BLOB;");
+            } catch (SQLException ignored) {
+                // Column already exists
+            }
+
+            // Add RSA private key column to users table
+            try {
+                stmt.execute("ALTER TABLE users ADD COLUMN private_key BLOB;");
+            } catch (SQLException ignored) {
+                // Column already exists
+            }
+
+            // Add wrapped AES key column to file_records table
+            try {
+                stmt.execute("ALTER TABLE file_records ADD COLUMN wrapped_key BLOB;");
+            } catch (SQLException ignored) {
+                // Column already exists
+            }
+
+            // Add RSA-wrapped key-encryption key column to users table
+            try {
+                stmt.execute("ALTER TABLE users ADD COLUMN wrapped_kek BLOB;");
+            } catch (SQLException ignored) {
+                // Column already exists
+            }
+
+            // Add key algorithm column to users table (existing users have RSA keys)
+            try {
+                stmt.execute("ALTER TABLE users ADD COLUMN key_alg TEXT NOT NULL DEFAULT 'RSA';");
+            } catch (SQLException ignored) {
+                // Column already exists
+            }
+
+            // Add key scheme column to file_records table (existing rows are RSA-wrapped)
+            try {
+                stmt.execute("ALTER TABLE file_records ADD COLUMN key_scheme INTEGER NOT NULL DEFAULT 0;");
+            } catch (SQLException ignored) {
+                // Column already exists
+            }
+
+            // Finds records still waiting for the key migration; empty once it is done
+            stmt.execute("""
+                CREATE INDEX IF NOT EXISTS idx_file_records_rsa_keys
+                ON file_records (user_id, id) WHERE key_scheme = 0;
+                """);
+        }
+    }
+
+    @Override
+    public int insertUser(String username, byte[] passwordHash, byte[] salt, String totpSecret,
+                          String keyAlgorithm, byte[] publicKey, byte[] privateKey) throws SQLException {
+
+        String sql = """
+            INSERT INTO users (username, password_hash, salt, totp_secret, key_alg, public_key, private_key)
+            VALUES (?, ?, ?, ?, ?, ?, ?)
+            """;
+
+        try (Connection conn = Database.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+
+            ps.setString(1, username);
+            ps.setBytes(2, passwordHash);
+            ps.setBytes(3, salt);
+            ps.setString(4, totpSecret);
+            ps.setString(5, keyAlgorithm);
+            ps.setBytes(6, publicKey);
+            ps.setBytes(7, privateKey);
+            ps.executeUpdate();
+
+            try (ResultSet rs = ps.getGeneratedKeys()) {
+                if (rs.next()) {
+                    return rs.getInt(1);
+                }
+            }
+        }
+        throw new SQLException("Failed to register user");
+    }
+
+    @Override
+    public User findUserByUsername(String username) throws SQLException {
+
+        String sql = """
+            SELECT id, username, password_hash, salt, totp_secret
+            FROM users
+            WHERE username = ?
+            """;
+
+        try (Connection conn = Database.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+
+            ps.setString(1, username);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    return new User(
+                            rs.getInt("id"),
+                            rs.getString("username"),
+                            rs.getBytes("password_hash"),
+                            rs.getBytes("salt"),
+                            rs.getString("totp_secret")
+                    );
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void updatePasswordHash(int userId, byte[] passwordHash, byte[] salt) throws SQLException {
+
+        String sql = """
+            UPDATE users
+            SET password_hash = ?, salt = ?
+            WHERE id = ?
+            """;
+
+        try (Connection conn = Database.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+
+            ps.setBytes(1, passwordHash);
+            ps.setBytes(2, salt);
+            ps.setInt(3, userId);
+            ps.executeUpdate();
+        }
+    }
+
+    @Override
+    public String getKeyAlgorithm(int userId) throws SQLException {
+        try (Connection conn = Database.getConnection();
+             PreparedStatement ps = conn.prepareStatement("SELECT key_alg FROM users WHERE id = ?")) {
+
+            ps.setInt(1, userId);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getString(1);
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public byte[] getPublicKey(int userId) throws SQLException {
+        return getUserBlob("SELECT public_key FROM users WHERE id = ?", userId);
+    }
+
+    @Override
+    public byte[] getPrivateKey(int userId) throws SQLException {
+        return getUserBlob("SELECT private_key FROM users WHERE id = ?", userId);
+    }
+
+    @Override
+    public byte[] getWrappedKek(int userId) throws SQLException {
+        return getUserBlob("SELECT wrapped_kek FROM users WHERE id = ?", userId);
+    }
+
+    @Override
+    public boolean setWrappedKekIfAbsent(int userId, byte[] wrappedKek) throws SQLException {
+
+        String sql = """
+            UPDATE users
+            SET wrapped_kek = ?
+            WHERE id = ? AND wrapped_kek IS NULL
+            """;
+
+        try (Connection conn = Database.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+
+            ps.setBytes(1, wrappedKek);
+            ps.setInt(2, userId);
+            return ps.executeUpdate() == 1;
+        }
+    }
+
+    private byte[] getUserBlob(String sql, int userId) throws SQLException {
+        try (Connection conn = Database.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+
+            ps.setInt(1, userId);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getBytes(1);
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void insertFileRecord(FileRecord record) throws SQLException {
+
+        String sql = """
+            INSERT INTO file_records (user_id, original_path, encrypted_path, wrapped_key, key_scheme)
+            VALUES (?, ?, ?, ?, ?)
+        """;
+
+        try (Connection conn = Database.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+
+            ps.setInt(1, record.getUserId());
+            ps.setString(2, record.getOriginalPath());
+            ps.setString(3, record.getEncryptedPath());
+            ps.setBytes(4, record.getWrappedKey());
+            ps.setInt(5, record.getKeyScheme());
+            ps.executeUpdate();
+        }
+    }
+
+    @Override
+    public void insertFileRecords(List<FileRecord> records) throws SQLException {
+
+        String sql = """
+            INSERT INTO file_records (user_id, original_path, encrypted_path, wrapped_key, key_scheme)
+            VALUES (?, ?, ?, ?, ?)
+        """;
+
+        Database.inTransaction(conn -> {
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                for (FileRecord record : records) {
+                    ps.setInt(1, record.getUserId());
+                    ps.setString(2, record.getOriginalPath());
+                    ps.setString(3, record.getEncryptedPath());
+                    ps.setBytes(4, record.getWrappedKey());
+                    ps.setInt(5, record.getKeyScheme());
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public List<FileRecord> getFileRecordsByUserId(int userId) throws SQLException {
+
+        String sql = """
+            SELECT id, user_id, original_path, encrypted_path, key_scheme
+            FROM file_records
+            WHERE user_id = ?
+            ORDER BY id DESC
+        """;
+
+        List<FileRecord> results = new ArrayList<>();
+
+        try (Connection conn = Database.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+
+            ps.setInt(1, userId);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    results.add(readRecord(rs));
+                }
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public List<FileRecord> getFileRecordPage(int userId, int beforeId, int limit) throws SQLException {
+
+        String sql = """
+            SELECT id, user_id, original_path, encrypted_path, key_scheme
+            FROM file_records
+            WHERE user_id = ? AND id < ?
+            ORDER BY id DESC
+            LIMIT ?
+        """;
+
+        List<FileRecord> results = new ArrayList<>(limit);
+
+        try (Connection conn = Database.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+
+            ps.setInt(1, userId);
+            ps.setInt(2, beforeId);
+            ps.setInt(3, limit);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    results.add(readRecord(rs));
+                }
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public int countFileRecords(int userId) throws SQLException {
+
+        String sql = "SELECT COUNT(*) FROM file_records WHERE user_id = ?";
+
+        try (Connection conn = Database.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+
+            ps.setInt(1, userId);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        }
+    }
+
+    @Override
+    public int getFileRecordIdAt(int userId, int position) throws SQLException {
+
+        // Only touches the (user_id, id) index, never the table rows.
+        String sql = """
+            SELECT id
+            FROM file_records
+            WHERE user_id = ?
+            ORDER BY id DESC
+            LIMIT 1 OFFSET ?
+        """;
+
+        try (Connection conn = Database.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+
+            ps.setInt(1, userId);
+            ps.setInt(2, position);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : -1;
+            }
+        }
+    }
+
+    @Override
+    public void forEachFileRecord(int userId, Consumer<FileRecord> action) throws SQLException {
+
+        String sql = """
+            SELECT id, user_id, original_path, encrypted_path, key_scheme
+            FROM file_records
+            WHERE user_id = ?
+            ORDER BY id DESC
+        """;
+
+        try (Connection conn = Database.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+
+            ps.setInt(1, userId);
+            ps.setFetchSize(500);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    action.accept(readRecord(rs));
+                }
+            }
+        }
+    }
+
+    private FileRecord readRecord(ResultSet rs) throws SQLException {
+        return new FileRecord(
+                rs.getInt("id"),
+                rs.getInt("user_id"),
+                rs.getString("original_path"),
+                rs.getString("encrypted_path"),
+                null, // wrappedKey not loaded here
+                rs.getInt("key_scheme")
+        );
+    }
+
+    @Override
+    public byte[] getWrappedKey(int fileId) throws SQLException {
+
+        String sql = """
+            SELECT wrapped_key
+            FROM file_records
+            WHERE id = ?
+        """;
+
+        try (Connection conn = Database.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+
+            ps.setInt(1, fileId);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getBytes("wrapped_key");
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public FileRecord getFileRecord(int fileId) throws SQLException {
+
+        String sql = """
+            SELECT id, user_id, original_path, encrypted_path, wrapped_key, key_scheme
+            FROM file_records
+            WHERE id = ?
+        """;
+
+        try (Connection conn = Database.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+
+            ps.setInt(1, fileId);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    return readRecordWithKey(rs);
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public List<FileRecord> getFileRecordsByKeyScheme(int userId, int keyScheme, int limit) throws SQLException {
+
+        String sql = """
+            SELECT id, user_id, original_path, encrypted_path, wrapped_key, key_scheme
+            FROM file_records
+            WHERE user_id = ? AND key_scheme = ?
+            ORDER BY id
+            LIMIT ?
+        """;
+
+        List<FileRecord> results = new ArrayList<>();
+
+        try (Connection conn = Database.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+
+            ps.setInt(1, userId);
+            ps.setInt(2, keyScheme);
+            ps.setInt(3, limit);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    results.add(readRecordWithKey(rs));
+                }
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public int updateWrappedKeys(List<FileRecord> records, int expectedScheme) throws SQLException {
+
+        String sql = """
+            UPDATE file_records
+            SET wrapped_key = ?, key_scheme = ?
+            WHERE id = ? AND key_scheme = ?
+        """;
+
+        return Database.inTransaction(conn -> {
+            int changed = 0;
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                for (FileRecord record : records) {
+                    ps.setBytes(1, record.getWrappedKey());
+                    ps.setInt(2, record.getKeyScheme());
+                    ps.setInt(3, record.getId());
+                    ps.setInt(4, expectedScheme);
+                    ps.addBatch();
+                }
+                for (int n : ps.executeBatch()) {
+                    if (n > 0) changed += n;
+                }
+            }
+            return changed;
+        });
+    }
+
+    private FileRecord readRecordWithKey(ResultSet rs) throws SQLException {
+        return new FileRecord(
+                rs.getInt("id"),
+                rs.getInt("user_id"),
+                rs.getString("original_path"),
+                rs.getString("encrypted_path"),
+                rs.getBytes("wrapped_key"),
+                rs.getInt("key_scheme")
+        );
+    }
+
+    @Override
+    public Set<String> findExistingChunks(int userId, Collection<String> chunkIds) throws SQLException {
+
+        Set<String> existing = new HashSet<>();
+        if (chunkIds.isEmpty()) return existing;
+
+        // One query per batch of ids rather than per chunk (SQLite allows 999 parameters).
+        // The IN list is padded to a power of two so only a few statement shapes
+        // end up in the pool's statement cache.
+        List<String> ids = new ArrayList<>(chunkIds);
+        Database.withConnection(conn -> {
+            for (int from = 0; from < ids.size(); from += CHUNK_LOOKUP_BATCH) {
+                List<String> batch = ids.subList(from, Math.min(ids.size(), from + CHUNK_LOOKUP_BATCH));
+                int slots = Integer.highestOneBit(batch.size() * 2 - 1);
+                String sql = "SELECT chunk_id FROM chunks WHERE user_id = ? AND chunk_id IN ("
+                        + "?,".repeat(slots - 1) + "?)";
+
+                try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                    ps.setInt(1, userId);
+                    for (int i = 0; i < slots; i++) {
+                        ps.setString(i + 2, batch.get(Math.min(i, batch.size() - 1)));
+                    }
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            existing.add(rs.getString(1));
+                        }
+                    }
+                }
+            }
+            return null;
+        });
+        return existing;
+    }
+
+    @Override
+    public int insertChunkedFile(FileRecord record, byte[] manifest, List<ChunkRecord> newChunks)
+            throws SQLException {
+
+        String insertRecord = """
+            INSERT INTO file_records (user_id, original_path, encrypted_path, wrapped_key, key_scheme)
+            VALUES (?, ?, ?, ?, ?)
+        """;
+
+        // Another ingest may have added the same chunk meanwhile; either copy is valid.
+        String insertChunk = """
+            INSERT OR IGNORE INTO chunks (user_id, chunk_id, plain_size, stored_size)
+            VALUES (?, ?, ?, ?)
+        """;
+
+        String insertManifest = "INSERT INTO file_manifests (file_id, manifest) VALUES (?, ?)";
+
+        return Database.inTransaction(conn -> {
+            int fileId;
+            try (PreparedStatement ps = conn.prepareStatement(insertRecord, Statement.RETURN_GENERATED_KEYS)) {
+                ps.setInt(1, record.getUserId());
+                ps.setString(2, record.getOriginalPath());
+                ps.setString(3, record.getEncryptedPath());
+                ps.setBytes(4, record.getWrappedKey());
+                ps.setInt(5, record.getKeyScheme());
+                ps.executeUpdate();
+
+                try (ResultSet rs = ps.getGeneratedKeys()) {
+                    if (!rs.next()) throw new SQLException("Failed to insert file record");
+                    fileId = rs.getInt(1);
+                }
+            }
+
+            if (!newChunks.isEmpty()) {
+                try (PreparedStatement ps = conn.prepareStatement(insertChunk)) {
+                    for (ChunkRecord chunk : newChunks) {
+                        ps.setInt(1, record.getUserId());
+                        ps.setString(2, chunk.getChunkId());
+                        ps.setInt(3, chunk.getPlainSize());
+                        ps.setInt(4, chunk.getStoredSize());
+                        ps.addBatch();
+                    }
+                    ps.executeBatch();
+                }
+            }
+
+            try (PreparedStatement ps = conn.prepareStatement(insertManifest)) {
+                ps.setInt(1, fileId);
+                ps.setBytes(2, manifest);
+                ps.executeUpdate();
+            }
+            return fileId;
+        });
+    }
+
+    @Override
+    public byte[] getFileManifest(int fileId) throws SQLException {
+        try (Connection conn = Database.getConnection();
+             PreparedStatement ps = conn.prepareStatement("SELECT manifest FROM file_manifests WHERE file_id = ?")) {
+
+            ps.setInt(1, fileId);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getBytes(1);
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void saveFileManifest(int fileId, byte[] manifest) throws SQLException {
+
+        String sql = """
+            INSERT INTO file_manifests (file_id, manifest)
+            VALUES (?, ?)
+            ON CONFLICT(file_id) DO UPDATE SET manifest = excluded.manifest
+        """;
+
+        try (Connection conn = Database.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+
+            ps.setInt(1, fileId);
+            ps.setBytes(2, manifest);
+            ps.executeUpdate();
+        }
+    }
+
+    @Override
+    public void insertAuditCheckpoint(AuditCheckpoint checkpoint) throws SQLException {
+
+        String sql = """
+            INSERT INTO audit_checkpoints (kind, segment, segment_offset, chain, created_at, signature)
+            VALUES (?, ?, ?, ?, ?, ?)
+        """;
+
+        try (Connection conn = Database.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+
+            ps.setString(1, checkpoint.getKind());
+            ps.setLong(2, checkpoint.getSegment());
+            ps.setLong(3, checkpoint.getOffset());
+            ps.setBytes(4, checkpoint.getChain());
+            ps.setLong(5, checkpoint.getCreatedAt());
+            ps.setBytes(6, checkpoint.getSignature());
+            ps.executeUpdate();
+
+            try (ResultSet rs = ps.getGeneratedKeys()) {
+                if (rs.next()) {
+                    checkpoint.setId(rs.getLong(1));
+                }
+            }
+        }
+    }
+
+    @Override
+    public AuditCheckpoint findLatestAuditCheckpoint(String kind) throws SQLException {
+
+        String sql = """
+            SELECT id, kind, segment, segment_offset, chain, created_at, signature
+            FROM audit_checkpoints
+            WHERE kind = ?
+            ORDER BY segment DESC, segment_offset DESC
+            LIMIT 1
+        """;
+
+        try (Connection conn = Database.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+
+            ps.setString(1, kind);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    return readCheckpoint(rs);
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public List<AuditCheckpoint> findAuditCheckpoints(String kind, long fromSegment) throws SQLException {
+
+        String sql = """
+            SELECT id, kind, segment, segment_offset, chain, created_at, signature
+            FROM audit_checkpoints
+            WHERE kind = ? AND segment >= ?
+            ORDER BY segment, segment_offset
+        """;
+
+        List<AuditCheckpoint> results = new ArrayList<>();
+
+        try (Connection conn = Database.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+
+            ps.setString(1, kind);
+            ps.setLong(2, fromSegment);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    results.add(readCheckpoint(rs));
+                }
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public void saveTotpLastSteps(Map<Integer, Long> steps) throws SQLException {
+
+        // Never move a user's step backwards (MAX keeps the newer of the two).
+        String sql = """
+            INSERT INTO totp_last_step (user_id, step)
+            VALUES (?, ?)
+            ON CONFLICT(user_id) DO UPDATE SET step = MAX(step, excluded.step)
+        """;
+
+        Database.inTransaction(conn -> {
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                for (Map.Entry<Integer, Long> e : steps.entrySet()) {
+                    ps.setInt(1, e.getKey());
+                    ps.setLong(2, e.getValue());
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public Map<Integer, Long> getTotpLastSteps(long minStep) throws SQLException {
+
+        Map<Integer, Long> results = new HashMap<>();
+
+        try (Connection conn = Database.getConnection();
+             PreparedStatement ps = conn.prepareStatement("SELECT user_id, step FROM totp_last_step WHERE step >= ?")) {
+
+            ps.setLong(1, minStep);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    results.put(rs.getInt(1), rs.getLong(2));
+                }
+            }
+        }
+        return results;
+    }
+
+    private AuditCheckpoint readCheckpoint(ResultSet rs) throws SQLException {
+        return new AuditCheckpoint(
+                rs.getLong("id"),
+                rs.getString("kind"),
+                rs.getLong("segment"),
+                rs.getLong("segment_offset"),
+                rs.getBytes("chain"),
+                rs.getLong("created_at"),
+                rs.getBytes("signature")
+        );
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package ie.ncirl.securevault.db;
+
+import ie.ncirl.securevault.model.AuditCheckpoint;
+import ie.ncirl.securevault.model.ChunkRecord;
+import ie.ncirl.securevault.model.FileRecord;
+import ie.ncirl.securevault.model.User;
+
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * VaultStore
+ *
+ * Storage backend for users, encrypted file records, chunk store metadata,
+ * audit checkpoints and the last accepted TOTP step of each user.
+ *
+ *  - {@link SqliteVaultStore}: the normal JDBC/SQLite implementation.
+ *  - {@link InMemoryVaultStore}: keeps everything in memory, for tests and
+ *    benchmarks that should not touch the disk.
+ *
+ * Select one with securevault.store=sqlite|memory (see {@link Database#getStore()}).
+ *
+ * @author Mkwenje Tadiwa
+ */
+public interface VaultStore {
+
+    /**
+     * Creates tables/indexes (or whatever the backend needs) if missing.
+     */
+    void initialize() throws SQLException;
+
+    // --- users ---
+
+    /**
+     * Inserts a user and returns the generated ID. keyAlgorithm is the
+     * KeyAlgorithm id of the key pair.
+     */
+    int insertUser(String username, byte[] passwordHash, byte[] salt, String totpSecret,
+                   String keyAlgorithm, byte[] publicKey, byte[] privateKey) throws SQLException;
+
+    /**
+     * Returns the user (without RSA keys), or null if not found.
+     */
+    User findUserByUsername(String username) throws SQLException;
+
+    /**
+     * Replaces a user's password hash (and salt column), e.g. after a rehash
+     * with stronger parameters.
+     */
+    void updatePasswordHash(int userId, byte[] passwordHash, byte[] salt) throws SQLException;
+
+    /** KeyAlgorithm id of the user's key pair ("RSA" for older users), or null if no such user. */
+    String getKeyAlgorithm(int userId) throws SQLException;
+
+    /** X.509-encoded public key, or null. */
+    byte[] getPublicKey(int userId) throws SQLException;
+
+    /** PKCS#8-encoded private key, or null. */
+    byte[] getPrivateKey(int userId) throws SQLException;
+
+    /** The user's RSA-wrapped key-encryption key, or null if none was created yet. */
+    byte[] getWrappedKek(int userId) throws SQLException;
+
+    /**
+     * Stores the user's wrapped key-encryption key unless one is already set.
+     * Returns false if another caller got there first (re-read it then).
+     */
+    boolean setWrappedKekIfAbsent(int userId, byte[] wrappedKek) throws SQLException;
+
+    // --- file records ---
+
+    void insertFileRecord(FileRecord record) throws SQLException;
+
+    /**
+     * Inserts many records in one transaction.
+     */
+    void insertFileRecords(List<FileRecord> records) throws SQLException;
+
+    /**
+     * All records of a user, newest first, without wrapped keys.
+     */
+    List<FileRecord> getFileRecordsByUserId(int userId) throws SQLException;
+
+    /**
+     * One page of a user's records, newest first: records with id below
+     * beforeId, at most limit of them, without wrapped keys. Keyset pagination,
+     * so the cost does not grow with how deep the page is.
+     */
+    List<FileRecord> getFileRecordPage(int userId, int beforeId, int limit) throws SQLException;
+
+    int countFileRecords(int userId) throws SQLException;
+
+    /**
+     * Id of the record at the given position of the user's newest-first list
+     * (0 = newest), or -1 if there is none. Used to find a keyset boundary when
+     * the UI jumps to a page it has not loaded.
+     */
+    int getFileRecordIdAt(int userId, int position) throws SQLException;
+
+    /**
+     * Passes a user's records (newest first, without wrapped keys) to the action
+     * one at a time from a cursor, without building a list.
+     */
+    void forEachFileRecord(int userId, Consumer<FileRecord> action) throws SQLException;
+
+    /** Wrapped AES key of a record, or null. */
+    byte[] getWrappedKey(int fileId) throws SQLException;
+
+    /**
+     * One record including its wrapped key and key scheme, or null.
+     */
+    FileRecord getFileRecord(int fileId) throws SQLException;
+
+    /**
+     * Up to limit of a user's records (with wrapped keys) that still use the
+     * given key scheme, oldest first. Used by the key migration.
+     */
+    List<FileRecord> getFileRecordsByKeyScheme(int userId, int keyScheme, int limit) throws SQLException;
+
+    /**
+     * Replaces the wrapped key and key scheme of each record in one
+     * transaction, but only where the record still has expectedScheme.
+     * Returns how many rows changed.
+     */
+    int updateWrappedKeys(List<FileRecord> records, int expectedScheme) throws SQLException;
+
+    // --- chunk store ---
+
+    /**
+     * Which of the given chunk ids the user already has.
+     */
+    Set<String> findExistingChunks(int userId, Collection<String> chunkIds) throws SQLException;
+
+    /**
+     * Inserts a KEY_SCHEME_CHUNKED record, its manifest and the chunks it
+     * added to the store, in one transaction, and returns the record id.
+     * Chunks the user already has are left as they are.
+     */
+    int insertChunkedFile(FileRecord record, byte[] manifest, List<ChunkRecord> newChunks) throws SQLException;
+
+    /**
+     * Manifest of a record, or null: the chunk list of a chunked record, or
+     * the segment manifest of a .sv file that has been updated in place.
+     */
+    byte[] getFileManifest(int fileId) throws SQLException;
+
+    /**
+     * Sets (or replaces) the manifest of a record in one statement.
+     */
+    void saveFileManifest(int fileId, byte[] manifest) throws SQLException;
+
+    // --- audit checkpoints ---
+
+    void insertAuditCheckpoint(AuditCheckpoint checkpoint) throws SQLException;
+
+    /**
+     * Checkpoint of the given kind with the highest (segment, offset), or null.
+     */
+    AuditCheckpoint findLatestAuditCheckpoint(String kind) throws SQLException;
+
+    /**
+     * Checkpoints of the given kind in segments >= fromSegment, ordered by
+     * (segment, offset).
+     */
+    List<AuditCheckpoint> findAuditCheckpoints(String kind, long fromSegment) throws SQLException;
+
+    // --- TOTP replay protection ---
+
+    /**
+     * Stores the last accepted TOTP time step per user (user id -> step). A
+     * stored step is never lowered.
+     */
+    void saveTotpLastSteps(Map<Integer, Long> steps) throws SQLException;
+
+    /**
+     * Last accepted TOTP time steps that are >= minStep, by user id.
+     */
+    Map<Integer, Long> getTotpLastSteps(long minStep) throws SQLException;
+}
@@ -0,0 +1,161 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package ie.ncirl.securevault.logging;
+
+import ie.ncirl.securevault.config.AppConfig;
+import ie.ncirl.securevault.model.AuditCheckpoint;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+/**
+ * AuditChain
+ *
+ * HMAC-SHA256 chain over audit records.
+ *
+ * Every record carries chain(i) = HMAC(key, chain(i-1) || record body), and each
+ * segment header stores the chain value it starts from (zeros for the very
+ * first segment). Editing, removing or reordering a record changes every chain
+ * value after it, and without the key nobody can recompute them.
+ *
+ * The key is 32 random bytes kept in securevault.audit.key.path (default
+ * ".securevault/audit.key" in the user's home directory, readable by the user
+ * only), created on first use. Checkpoints are signed with a separate key
+ * derived from it. Whoever holds the key can re-sign an edited log, so it
+ * must not live with the log: a key path inside the log directory is
+ * refused. A key left in the working directory by earlier versions is moved
+ * to the key path on first use, so existing logs still verify.
+ *
+ * @author Mkwenje Tadiwa
+ */
+final class AuditChain {
+
+    static final int CHAIN_BYTES = 32;
+    static final byte[] GENESIS = new byte[CHAIN_BYTES];
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final int KEY_BYTES = 32;
+
+    private static final Path KEY_PATH = Paths.get(AppConfig.getString("securevault.audit.key.path",
+            Paths.get(System.getProperty("user.home"), ".securevault", "audit.key").toString()));
+    private static final Path LEGACY_KEY_PATH = Paths.get("audit.key");
+
+    private static byte[] cachedKey;
+
+    private AuditChain() {}
+
+    /**
+     * The configured audit key, created if it does not exist yet.
+     */
+    static synchronized byte[] loadKey() throws IOException {
+        if (cachedKey == null) {
+            Path logDir = AuditSegmentFormat.configuredDirectory().toAbsolutePath().normalize();
+            if (KEY_PATH.toAbsolutePath().normalize().startsWith(logDir)) {
+                throw new IOException("Audit key " + KEY_PATH + " must be kept outside the log directory " + logDir);
+            }
+            if (!Files.exists(KEY_PATH) && Files.isRegularFile(LEGACY_KEY_PATH)) {
+                createPrivateDirectory(KEY_PATH.toAbsolutePath().getParent());
+                Files.move(LEGACY_KEY_PATH, KEY_PATH);
+                ownerOnly(KEY_PATH, "rw-------");
+            }
+            cachedKey = loadOrCreateKey(KEY_PATH);
+        }
+        return cachedKey.clone();
+    }
+
+    static byte[] loadOrCreateKey(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            byte[] key = new byte[KEY_BYTES];
+            new SecureRandom().nextBytes(key);
+            createPrivateDirectory(path.toAbsolutePath().getParent());
+            try {
+                Files.write(path, key, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                ownerOnly(path, "rw-------");
+                return key;
+            } catch (FileAlreadyExistsException raced) {
+                // Another process created it first; use theirs.
+            }
+        }
+        byte[] key = Files.readAllBytes(path);
+        if (key.length != KEY_BYTES) {
+            throw new IOException("Audit key " + path + " must be " + KEY_BYTES + " bytes");
+        }
+        return key;
+    }
+
+    private static void createPrivateDirectory(Path dir) throws IOException {
+        if (dir == null || Files.isDirectory(dir)) return;
+        Files.createDirectories(dir);
+        ownerOnly(dir, "rwx------");
+    }
+
+    private static void ownerOnly(Path path, String permissions) throws IOException {
+        try {
+            Files.setPosixFilePermissions(path, PosixFilePermissions.fromString(permissions));
+        } catch (UnsupportedOperationException ignored) {
+            // Not a POSIX file system (Windows); rely on the directory ACLs.
+        }
+    }
+
+    static Mac newMac(byte[] key) {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(new SecretKeySpec(key, ALGORITHM));
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 not available", e);
+        }
+    }
+
+    /**
+     * Computes the next chain value into {@code chain} (which holds the previous
+     * value on entry).
+     */
+    static void next(Mac mac, byte[] chain, byte[] body, int offset, int length) {
+        mac.update(chain);
+        mac.update(body, offset, length);
+        try {
+            mac.doFinal(chain, 0);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static void sign(byte[] key, AuditCheckpoint cp) {
+        cp.setSignature(checkpointMac(key, cp));
+    }
+
+    static boolean verifySignature(byte[] key, AuditCheckpoint cp) {
+        return cp.getSignature() != null && cp.getChain() != null
+                && cp.getChain().length == CHAIN_BYTES
+                && MessageDigest.isEqual(cp.getSignature(), checkpointMac(key, cp));
+    }
+
+    private static byte[] checkpointMac(byte[] key, AuditCheckpoint cp) {
+        Mac derive = newMac(key);
+        byte[] signingKey = derive.doFinal("securevault-audit-checkpoint".getBytes(StandardCharsets.US_ASCII));
+
+        byte[] kind = cp.getKind().getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer fields = ByteBuffer.allocate(2 + kind.length + 8 + 8 + CHAIN_BYTES + 8);
+        fields.putShort((short) kind.length).put(kind)
+                .putLong(cp.getSegment())
+                .putLong(cp.getOffset())
+                .put(cp.getChain())
+                .putLong(cp.getCreatedAt());
+        return newMac(signingKey).doFinal(fields.array());
+    }
+}
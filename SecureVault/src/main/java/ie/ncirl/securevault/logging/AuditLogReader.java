@@ -0,0 +1,124 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package ie.ncirl.securevault.logging;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * AuditLogReader
+ *
+ * Reads the binary audit log written by {@link AuditLogger}.
+ *
+ * Sealed segments are searched through their sparse index: a segment whose
+ * time range misses the query is not opened, and inside a segment only the
+ * blocks whose time range and user/event bloom filters can match are read.
+ * The segment currently being written has no index yet and is scanned.
+ *
+ * @author Mkwenje Tadiwa
+ */
+public class AuditLogReader {
+
+    private final Path dir;
+
+    public AuditLogReader(Path dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Audit directory configured for this installation.
+     */
+    public static AuditLogReader forConfiguredLog() {
+        return new AuditLogReader(AuditSegmentFormat.configuredDirectory());
+    }
+
+    public List<AuditRecord> query(AuditQuery query) throws IOException {
+        List<AuditRecord> results = new ArrayList<>();
+        query(query, results::add);
+        return results;
+    }
+
+    /**
+     * Passes every matching record to the sink, oldest segment first.
+     */
+    public void query(AuditQuery query, Consumer<AuditRecord> sink) throws IOException {
+        for (Path segment : AuditSegmentFormat.listSegments(dir)) {
+            AuditSegmentFormat.Index index = AuditSegmentFormat.readIndex(segment);
+
+            if (index != null && index.recordCount > 0 && !query.mayOverlap(index.minMicros, index.maxMicros)) {
+                // Whole segment is outside the time range; only look at bytes
+                // appended after it was indexed (if any).
+                try (FileChannel ch = FileChannel.open(segment, StandardOpenOption.READ)) {
+                    if (ch.size() > index.indexedLength) {
+                        scan(ch, index.indexedLength, ch.size(), query, sink);
+                    }
+                }
+                continue;
+            }
+
+            try (FileChannel ch = FileChannel.open(segment, StandardOpenOption.READ)) {
+                if (index == null) {
+                    scan(ch, AuditSegmentFormat.SEGMENT_HEADER_BYTES, ch.size(), query, sink);
+                    continue;
+                }
+
+                List<AuditSegmentFormat.Block> blocks = index.blocks;
+                for (int i = 0; i < blocks.size(); i++) {
+                    AuditSegmentFormat.Block b = blocks.get(i);
+                    if (!query.mayContain(b)) continue;
+                    long end = i + 1 < blocks.size() ? blocks.get(i + 1).offset : index.indexedLength;
+                    scan(ch, b.offset, end, query, sink);
+                }
+                if (ch.size() > index.indexedLength) {
+                    scan(ch, index.indexedLength, ch.size(), query, sink);
+                }
+            }
+        }
+    }
+
+    /**
+     * Decodes records in [start, end) and passes the matching ones on. Stops
+     * quietly at a torn record (a crash mid-write, or a segment still being
+     * written) or a corrupt one ({@link AuditVerifier} reports those).
+     */
+    private static void scan(FileChannel ch, long start, long end, AuditQuery query,
+                             Consumer<AuditRecord> sink) throws IOException {
+        if (start < AuditSegmentFormat.SEGMENT_HEADER_BYTES) return;
+
+        ch.position(start);
+        // Not closed: closing it would close the shared channel.
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Channels.newInputStream(ch), AuditSegmentFormat.BLOCK_BYTES));
+
+        long pos = start;
+        byte[] body = new byte[256];
+        while (pos + 4 <= end) {
+            int n = in.readInt();
+            if (n <= AuditChain.CHAIN_BYTES || n > AuditSegmentFormat.MAX_RECORD_BYTES || pos + 4 + n > end) return;
+            if (body.length < n) body = new byte[n];
+            in.readFully(body, 0, n);
+            pos += 4 + n;
+
+            AuditRecord r;
+            try {
+                r = AuditSegmentFormat.decodeBody(ByteBuffer.wrap(body, 0, n));
+            } catch (IOException corrupt) {
+                return;
+            }
+            if (query.matches(r)) {
+                sink.accept(r);
+            }
+        }
+    }
+}
@@ -4,32 +4,373 @@
  */
 package ie.ncirl.securevault.logging;
 
+import ie.ncirl.securevault.config.AppConfig;
+import ie.ncirl.securevault.db.Database;
+import ie.ncirl.securevault.metrics.LatencyHistogram;
+import ie.ncirl.securevault.metrics.Metrics;
+import ie.ncirl.securevault.model.AuditCheckpoint;
+
+import java.io.BufferedReader;
 import java.io.IOException;
-import java.nio.file.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 /**
+ * AuditLogger
+ *
+ * Asynchronous audit log. log() only timestamps the event and puts it in a
+ * lock-free {@link AuditRingBuffer}; a single "audit-writer" thread drains the
+ * buffer in batches and appends them as binary records to the current
+ * segment of the log directory (see {@link AuditSegmentFormat}). The caller
+ * (often the Swing EDT) never touches the file. Segments roll over by size or
+ * age and are indexed when sealed; search them with {@link AuditLogReader} or
+ * the {@link AuditQueryTool} command line.
+ *
+ * Settings (see {@link AppConfig}):
+ *  - securevault.audit.dir                log directory, default "audit"
+ *  - securevault.audit.segment.max.bytes  roll over after this size, default 64 MiB
+ *  - securevault.audit.segment.max.age.ms roll over after this age, default 24 h
+ *  - securevault.audit.buffer.size        ring buffer slots, default 8192
+ *  - securevault.audit.batch.size         max events per write, default 256
+ *  - securevault.audit.flush.interval.ms  max time an event waits before it is
+ *                                         written, default 5
+ *  - securevault.audit.fsync              never | batch | interval (default interval)
+ *  - securevault.audit.fsync.interval.ms  for "interval", default 1000
+ *  - securevault.audit.overflow           block (default) | drop, when the buffer is full
+ *  - securevault.audit.checkpoint.records fsync and store a signed checkpoint in the
+ *                                         database every N records, default 10000
+ *                                         (0 = never)
+ *  - securevault.audit.legacy.path        old text log to import, default "audit.log"
+ *
+ * The text log of earlier versions ("time | event | user=name | details" per
+ * line) is imported once when the writer starts: its lines are appended as
+ * records with their original times, and the file is renamed to
+ * "audit.log.imported" so it is not imported again.
+ *
+ * Records are hash-chained ({@link AuditChain}); check the log with
+ * {@link AuditVerifier}.
+ *
+ * A shutdown hook drains the buffer, fsyncs and seals the segment, so events
+ * logged before exit are not lost. {@link #shutdown()} does the same on demand.
+ *
+ * Metrics: audit.queue.depth, audit.written and audit.dropped gauges, and
+ * audit.batch.write (append + flush of one batch) and audit.fsync histograms.
  *
  * @author Mkwenje Tadiwa
  */
 public class AuditLogger {
-    
-    
-    private static final Path LOG_PATH = Paths.get("audit.log");
+
+    enum FsyncPolicy { NEVER, BATCH, INTERVAL }
+
+    private static final Path LOG_DIR = AuditSegmentFormat.configuredDirectory();
+    private static final Path LEGACY_LOG = Paths.get(AppConfig.getString("securevault.audit.legacy.path", "audit.log"));
+    private static final long SEGMENT_MAX_BYTES =
+            AppConfig.getLong("securevault.audit.segment.max.bytes", 64L * 1024 * 1024);
+    private static final long SEGMENT_MAX_AGE_MILLIS =
+            AppConfig.getLong("securevault.audit.segment.max.age.ms", TimeUnit.HOURS.toMillis(24));
+
+    private static final int BATCH_SIZE = AppConfig.getInt("securevault.audit.batch.size", 256);
+    private static final long FLUSH_INTERVAL_NANOS =
+            TimeUnit.MILLISECONDS.toNanos(AppConfig.getLong("securevault.audit.flush.interval.ms", 5));
+    private static final FsyncPolicy FSYNC =
+            FsyncPolicy.valueOf(AppConfig.getString("securevault.audit.fsync", "interval").toUpperCase());
+    private static final long FSYNC_INTERVAL_NANOS =
+            TimeUnit.MILLISECONDS.toNanos(AppConfig.getLong("securevault.audit.fsync.interval.ms", 1000));
+    private static final long CHECKPOINT_RECORDS = AppConfig.getLong("securevault.audit.checkpoint.records", 10_000);
+    private static final boolean DROP_WHEN_FULL =
+            AppConfig.getString("securevault.audit.overflow", "block").equalsIgnoreCase("drop");
+
+    private static final AuditRingBuffer<AuditRecord> BUFFER =
+            new AuditRingBuffer<>(AppConfig.getInt("securevault.audit.buffer.size", 8192));
+
+    private static final AtomicLong dropped = new AtomicLong();
+    private static final AtomicLong written = new AtomicLong();
+
+    private static final LatencyHistogram BATCH_WRITE_TIME = Metrics.histogram("audit.batch.write");
+    private static final LatencyHistogram FSYNC_TIME = Metrics.histogram("audit.fsync");
+
+    static {
+        Metrics.gauge("audit.queue.depth", BUFFER::size);
+        Metrics.gauge("audit.written", written::get);
+        Metrics.gauge("audit.dropped", dropped::get);
+    }
+
+    private static volatile boolean stopping;
+    private static final Thread WRITER = startWriter();
+
+    // Used by writeDirect() once the writer thread has stopped.
+    private static AuditSegmentWriter directWriter;
 
     public static void log(String event, String username, String details) {
-        String line = Instant.now() + " | " + event + " | user=" + username + " | " + details + System.lineSeparator();
+        AuditRecord e = new AuditRecord(Instant.now(), event, username, details);
+
+        if (stopping) {
+            // Writer is gone (JVM shutting down): fall back to a direct append.
+            writeDirect(e);
+            return;
+        }
+
+        if (BUFFER.offer(e)) {
+            if (stopping) {
+                // shutdown() may have made its last pass over the buffer before this landed.
+                drainDirect();
+            } else if (BUFFER.size() > BUFFER.capacity() / 2) {
+                LockSupport.unpark(WRITER);
+            }
+            return;
+        }
+
+        if (DROP_WHEN_FULL) {
+            dropped.incrementAndGet();
+            return;
+        }
+        while (!BUFFER.offer(e)) {
+            LockSupport.unpark(WRITER);
+            LockSupport.parkNanos(50_000);
+            if (stopping) {
+                writeDirect(e);
+                return;
+            }
+        }
+        if (stopping) {
+            drainDirect();
+        }
+    }
+
+    /** Events currently waiting in the buffer. */
+    public static int getQueueDepth() {
+        return BUFFER.size();
+    }
+
+    /** Events discarded because the buffer was full (overflow=drop only). */
+    public static long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /** Events written to the log so far. */
+    public static long getWrittenCount() {
+        return written.get();
+    }
+
+    /** Directory holding the audit segments. */
+    public static Path getLogDirectory() {
+        return LOG_DIR;
+    }
+
+    /**
+     * Writes out everything queued, fsyncs and stops the writer thread.
+     * Called automatically on JVM exit; later log() calls append directly.
+     * The writer stores a last checkpoint in the database on the way out, so
+     * an application that closes the database on exit calls this first (JVM
+     * shutdown hooks run in no particular order). Returns once the writer
+     * has stopped, also when called again.
+     */
+    public static synchronized void shutdown() {
+        stopping = true;
+        LockSupport.unpark(WRITER);
+        try {
+            WRITER.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Catch anything offered while the writer was finishing.
+        drainDirect();
+    }
+
+    /**
+     * Appends whatever is left in the buffer directly. The buffer has a single
+     * consumer, so this does nothing while the writer thread still runs (it
+     * drains the buffer itself before it exits).
+     */
+    private static synchronized void drainDirect() {
+        if (WRITER.isAlive()) return;
+        AuditRecord e;
+        while ((e = BUFFER.poll()) != null) {
+            writeDirect(e);
+        }
+    }
+
+    private static Thread startWriter() {
+        Thread t = new Thread(AuditLogger::runWriter, "audit-writer");
+        t.setDaemon(true);
+        t.start();
+        try {
+            Runtime.getRuntime().addShutdownHook(new Thread(AuditLogger::shutdown, "audit-shutdown"));
+        } catch (IllegalStateException shuttingDown) {
+            // First used from a shutdown hook, which calls shutdown() itself.
+        }
+        return t;
+    }
+
+    private static void runWriter() {
+        AuditSegmentWriter writer = null;
+        byte[] key = null;
+        long lastFsync = System.nanoTime();
+        long sinceCheckpoint = 0;
+
+        while (true) {
+            boolean finishing = stopping;
+
+            int count = 0;
+            long start = System.nanoTime();
+            try {
+                AuditRecord e;
+                while (count < BATCH_SIZE && (e = BUFFER.poll()) != null) {
+                    if (writer == null) {
+                        key = AuditChain.loadKey();
+                        writer = new AuditSegmentWriter(LOG_DIR, key, SEGMENT_MAX_BYTES, SEGMENT_MAX_AGE_MILLIS);
+                        importLegacyLog(writer);
+                    }
+                    writer.append(e);
+                    count++;
+                }
+
+                if (count > 0) {
+                    writer.flush();
+                    written.addAndGet(count);
+
+                    long now = System.nanoTime();
+                    BATCH_WRITE_TIME.record(now - start);
+                    if (FSYNC == FsyncPolicy.BATCH
+                            || (FSYNC == FsyncPolicy.INTERVAL && now - lastFsync >= FSYNC_INTERVAL_NANOS)) {
+                        writer.force();
+                        FSYNC_TIME.recordSince(now);
+                        lastFsync = now;
+                    }
+
+                    sinceCheckpoint += count;
+                    if (CHECKPOINT_RECORDS > 0 && sinceCheckpoint >= CHECKPOINT_RECORDS) {
+                        // The checkpoint must never point past what is durable on disk.
+                        writer.force();
+                        lastFsync = now;
+                        saveCheckpoint(key, writer.checkpoint());
+                        sinceCheckpoint = 0;
+                    }
+                }
+            } catch (IOException ex) {
+                // Don't crash the app because logging failed
+                System.out.println("Audit log failed: " + ex.getMessage());
+                writer = closeQuietly(writer);
+            }
+            if (count == BATCH_SIZE) continue; // more may be waiting
+
+            if (finishing && BUFFER.size() == 0) {
+                break;
+            }
+            LockSupport.parkNanos(FLUSH_INTERVAL_NANOS);
+        }
+
+        if (writer != null && CHECKPOINT_RECORDS > 0 && sinceCheckpoint > 0) {
+            try {
+                writer.force();
+                saveCheckpoint(key, writer.checkpoint());
+            } catch (IOException ex) {
+                System.out.println("Audit log failed: " + ex.getMessage());
+            }
+        }
+        closeQuietly(writer);
+    }
+
+    /**
+     * Appends the records of the old text log, if there is one, and renames it.
+     * Lines that do not start a record (details that contained a line break)
+     * are joined to the record before them.
+     */
+    private static void importLegacyLog(AuditSegmentWriter writer) {
+        if (!Files.isRegularFile(LEGACY_LOG)) return;
+
+        long imported = 0;
+        try (BufferedReader in = Files.newBufferedReader(LEGACY_LOG, StandardCharsets.UTF_8)) {
+            AuditRecord pending = null;
+            String line;
+            while ((line = in.readLine()) != null) {
+                AuditRecord r = parseLegacyLine(line);
+                if (r == null) {
+                    if (pending == null) {
+                        pending = new AuditRecord(Instant.EPOCH, "LEGACY_LOG", null, line);
+                    } else {
+                        pending = new AuditRecord(pending.getTime(), pending.getEvent(), pending.getUsername(),
+                                pending.getDetails() + System.lineSeparator() + line);
+                    }
+                    continue;
+                }
+                if (pending != null) {
+                    writer.append(pending);
+                    imported++;
+                }
+                pending = r;
+            }
+            if (pending != null) {
+                writer.append(pending);
+                imported++;
+            }
+            writer.flush();
+            writer.force();
+            Files.move(LEGACY_LOG, LEGACY_LOG.resolveSibling(LEGACY_LOG.getFileName() + ".imported"),
+                    StandardCopyOption.REPLACE_EXISTING);
+            written.addAndGet(imported);
+        } catch (IOException ex) {
+            // Left in place; the next start tries again.
+            System.out.println("Audit import of " + LEGACY_LOG + " failed: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * A line of the old text log, or null if it does not start a record.
+     */
+    private static AuditRecord parseLegacyLine(String line) {
+        String[] parts = line.split(" \\| ", 4);
+        if (parts.length < 4 || !parts[2].startsWith("user=")) return null;
+        try {
+            String user = parts[2].substring("user=".length());
+            return new AuditRecord(Instant.parse(parts[0]), parts[1], user.equals("null") ? null : user, parts[3]);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    private static void saveCheckpoint(byte[] key, AuditCheckpoint checkpoint) {
+        try {
+            AuditChain.sign(key, checkpoint);
+            Database.getStore().insertAuditCheckpoint(checkpoint);
+        } catch (Exception ex) {
+            // The log itself is intact; only this anchor is missing.
+            System.out.println("Audit checkpoint failed: " + ex.getMessage());
+        }
+    }
+
+    private static AuditSegmentWriter closeQuietly(AuditSegmentWriter writer) {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException ignored) {
+                // Nothing more to do.
+            }
+        }
+        return null;
+    }
+
+    private static synchronized void writeDirect(AuditRecord e) {
         try {
-            Files.writeString(
-                    LOG_PATH,
-                    line,
-                    StandardOpenOption.CREATE,
-                    StandardOpenOption.WRITE,
-                    StandardOpenOption.APPEND
-            );
-        } catch (IOException e) {
+            // This segment is never sealed; the next start-up indexes it.
+            if (directWriter == null) {
+                directWriter = new AuditSegmentWriter(LOG_DIR, AuditChain.loadKey(), Long.MAX_VALUE, Long.MAX_VALUE);
+            }
+            directWriter.append(e);
+            directWriter.flush();
+            directWriter.force();
+            written.incrementAndGet();
+        } catch (IOException ex) {
             // Don't crash the app because logging failed
-            System.out.println("Audit log failed: " + e.getMessage());
+            System.out.println("Audit log failed: " + ex.getMessage());
         }
     }
 }
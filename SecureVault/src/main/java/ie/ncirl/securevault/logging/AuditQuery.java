@@ -0,0 +1,75 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package ie.ncirl.securevault.logging;
+
+import java.time.Instant;
+
+/**
+ * AuditQuery
+ *
+ * Filter for {@link AuditLogReader}. Every criterion is optional; unset ones
+ * match everything. The time range is inclusive of "from" and exclusive of "to".
+ *
+ * @author Mkwenje Tadiwa
+ */
+public class AuditQuery {
+
+    private Instant from;
+    private Instant to;
+    private String username;
+    private String event;
+
+    public AuditQuery from(Instant from) {
+        this.from = from;
+        return this;
+    }
+
+    public AuditQuery to(Instant to) {
+        this.to = to;
+        return this;
+    }
+
+    public AuditQuery user(String username) {
+        this.username = username;
+        return this;
+    }
+
+    public AuditQuery event(String event) {
+        this.event = event;
+        return this;
+    }
+
+    public Instant getFrom() { return from; }
+    public Instant getTo() { return to; }
+    public String getUsername() { return username; }
+    public String getEvent() { return event; }
+
+    public boolean matches(AuditRecord r) {
+        if (from != null && r.getTime().isBefore(from)) return false;
+        if (to != null && !r.getTime().isBefore(to)) return false;
+        if (username != null && !username.equals(r.getUsername())) return false;
+        return event == null || event.equals(r.getEvent());
+    }
+
+    // --- index pruning, in epoch micros like the index itself ---
+
+    long fromMicros() {
+        return from == null ? Long.MIN_VALUE : AuditSegmentFormat.toMicros(from);
+    }
+
+    long toMicros() {
+        return to == null ? Long.MAX_VALUE : AuditSegmentFormat.toMicros(to);
+    }
+
+    boolean mayOverlap(long minMicros, long maxMicros) {
+        return maxMicros >= fromMicros() && minMicros < toMicros();
+    }
+
+    boolean mayContain(AuditSegmentFormat.Block b) {
+        if (!mayOverlap(b.minMicros, b.maxMicros)) return false;
+        if (username != null && !AuditSegmentFormat.mightContain(b.userBloom, username)) return false;
+        return event == null || AuditSegmentFormat.mightContain(b.eventBloom, event);
+    }
+}
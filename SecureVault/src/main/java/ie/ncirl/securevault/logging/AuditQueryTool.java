@@ -0,0 +1,69 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package ie.ncirl.securevault.logging;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+
+/**
+ * AuditQueryTool
+ *
+ * Command-line search over the binary audit log. Prints matching records in
+ * the old text format, one per line.
+ *
+ *   java -cp SecureVault.jar ie.ncirl.securevault.logging.AuditQueryTool \
+ *       [--dir audit] [--user alice] [--event DECRYPT_FILE] \
+ *       [--from 2026-01-01T00:00:00Z] [--to 2026-02-01T00:00:00Z] [--count]
+ *
+ * @author Mkwenje Tadiwa
+ */
+public class AuditQueryTool {
+
+    public static void main(String[] args) throws Exception {
+        Path dir = AuditSegmentFormat.configuredDirectory();
+        AuditQuery query = new AuditQuery();
+        boolean countOnly = false;
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "--dir" -> dir = Paths.get(value(args, ++i, arg));
+                case "--user" -> query.user(value(args, ++i, arg));
+                case "--event" -> query.event(value(args, ++i, arg));
+                case "--from" -> query.from(Instant.parse(value(args, ++i, arg)));
+                case "--to" -> query.to(Instant.parse(value(args, ++i, arg)));
+                case "--count" -> countOnly = true;
+                default -> {
+                    usage();
+                    System.exit(2);
+                    return;
+                }
+            }
+        }
+
+        AuditLogReader reader = new AuditLogReader(dir);
+        if (countOnly) {
+            long[] count = {0};
+            reader.query(query, r -> count[0]++);
+            System.out.println(count[0]);
+        } else {
+            reader.query(query, System.out::println);
+        }
+    }
+
+    private static String value(String[] args, int i, String option) {
+        if (i >= args.length) {
+            usage();
+            throw new IllegalArgumentException("Missing value for " + option);
+        }
+        return args[i];
+    }
+
+    private static void usage() {
+        System.err.println("Usage: AuditQueryTool [--dir DIR] [--user NAME] [--event EVENT]"
+                + " [--from ISO-INSTANT] [--to ISO-INSTANT] [--count]");
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package ie.ncirl.securevault.logging;
+
+import java.time.Instant;
+
+/**
+ * AuditRecord
+ *
+ * One audit event: when it happened, what happened, who did it, and details.
+ *
+ * @author Mkwenje Tadiwa
+ */
+public final class AuditRecord {
+
+    private final Instant time;
+    private final String event;
+    private final String username;
+    private final String details;
+
+    public AuditRecord(Instant time, String event, String username, String details) {
+        this.time = time;
+        this.event = event;
+        this.username = username;
+        this.details = details;
+    }
+
+    public Instant getTime() { return time; }
+    public String getEvent() { return event; }
+    public String getUsername() { return username; }
+    public String getDetails() { return details; }
+
+    /**
+     * Same text layout the original audit.log used.
+     */
+    @Override
+    public String toString() {
+        return time + " | " + event + " | user=" + username + " | " + details;
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package ie.ncirl.securevault.logging;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * AuditRingBuffer
+ *
+ * Bounded, lock-free multi-producer / single-consumer ring buffer.
+ *
+ * Each slot carries a sequence number (the scheme from Dmitry Vyukov's bounded
+ * MPMC queue): a producer claims a slot with one CAS on the tail counter and
+ * publishes it by advancing the slot's sequence; the single consumer reads
+ * slots in order without any CAS at all. offer() never blocks and never
+ * allocates, which keeps AuditLogger.log cheap on the caller's thread.
+ *
+ * @author Mkwenje Tadiwa
+ */
+final class AuditRingBuffer<E> {
+
+    private final int mask;
+    private final AtomicReferenceArray<E> slots;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+
+    // Only touched by the consumer thread.
+    private long head;
+
+    // Published copy of head for size() from other threads.
+    private volatile long headSnapshot;
+
+    AuditRingBuffer(int requestedCapacity) {
+        int capacity = Integer.highestOneBit(Math.max(2, requestedCapacity - 1)) << 1;
+        this.mask = capacity - 1;
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Adds an element. Returns false (without waiting) if the buffer is full.
+     */
+    boolean offer(E element) {
+        while (true) {
+            long t = tail.get();
+            int index = (int) (t & mask);
+            long seq = sequences.get(index);
+
+            if (seq == t) {
+                if (tail.compareAndSet(t, t + 1)) {
+                    slots.lazySet(index, element);
+                    sequences.lazySet(index, t + 1);
+                    return true;
+                }
+            } else if (seq < t) {
+                return false; // consumer has not freed this slot yet: full
+            }
+            // Another producer moved the tail; retry with the new value.
+        }
+    }
+
+    /**
+     * Removes the next element, or returns null if none is published yet.
+     * Must only be called from the single consumer thread.
+     */
+    E poll() {
+        int index = (int) (head & mask);
+        if (sequences.get(index) != head + 1) {
+            return null;
+        }
+        E element = slots.get(index);
+        slots.lazySet(index, null);
+        sequences.lazySet(index, head + mask + 1);
+        head++;
+        headSnapshot = head;
+        return element;
+    }
+
+    /**
+     * Approximate number of queued elements.
+     */
+    int size() {
+        long size = tail.get() - headSnapshot;
+        return (int) Math.max(0, Math.min(size, capacity()));
+    }
+}
@@ -0,0 +1,409 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package ie.ncirl.securevault.logging;
+
+import ie.ncirl.securevault.config.AppConfig;
+
+import javax.crypto.Mac;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * AuditSegmentFormat
+ *
+ * On-disk layout of the binary audit log.
+ *
+ * The log is a directory of segments "audit-000001.seg", "audit-000002.seg", ...
+ * Each segment is:
+ *
+ *   header: magic "SVAU" (4) | version (1) | segment number (8) | created, epoch ms (8)
+ *           | start chain (32)
+ *   record: length (4) | time, epoch micros (8) | event (2 + UTF-8) | user (2 + UTF-8)
+ *           | details (4 + UTF-8) | chain (32)       (length counts what follows it)
+ *
+ * The chain values are described in {@link AuditChain}.
+ *
+ * When a segment is sealed (rotation or shutdown) a sparse index "audit-N.idx"
+ * is written next to it:
+ *
+ *   magic "SVAI" (4) | version (1) | segment number (8) | indexed length (8)
+ *   | record count (8) | min time (8) | max time (8) | block count (4)
+ *   | blocks: offset (8) | min time (8) | max time (8) | records (4)
+ *             | user bloom (8) | event bloom (8)
+ *
+ * A block covers roughly {@link #BLOCK_BYTES} of records. The time range and the
+ * two 64-bit bloom filters let a query skip whole blocks (and whole segments)
+ * without reading them. Bytes past "indexed length" (e.g. after a crash) are
+ * simply scanned.
+ *
+ * @author Mkwenje Tadiwa
+ */
+final class AuditSegmentFormat {
+
+    static final byte[] SEGMENT_MAGIC = {'S', 'V', 'A', 'U'};
+    static final byte[] INDEX_MAGIC = {'S', 'V', 'A', 'I'};
+    static final int VERSION = 2;
+
+    static final int SEGMENT_HEADER_BYTES = 4 + 1 + 8 + 8 + AuditChain.CHAIN_BYTES;
+    static final int INDEX_HEADER_BYTES = 4 + 1 + 8 + 8 + 8 + 8 + 8 + 4;
+    static final int INDEX_BLOCK_BYTES = 8 + 8 + 8 + 4 + 8 + 8;
+
+    static final int BLOCK_BYTES = 64 * 1024;
+
+    // Upper bound for one record, so a corrupt length cannot make us allocate gigabytes.
+    static final int MAX_RECORD_BYTES = 16 * 1024 * 1024;
+
+    private static final int MAX_SHORT_STRING = 0xFFFF;
+    private static final Pattern SEGMENT_NAME = Pattern.compile("audit-(\\d+)\\.seg");
+
+    private AuditSegmentFormat() {}
+
+    /**
+     * Log directory configured for this installation (securevault.audit.dir,
+     * default "audit"). Only reads the setting, so the read-only tools can use
+     * it without loading {@link AuditLogger}, which starts the writer thread.
+     */
+    static Path configuredDirectory() {
+        return Paths.get(AppConfig.getString("securevault.audit.dir", "audit"));
+    }
+
+    static Path segmentPath(Path dir, long number) {
+        return dir.resolve(String.format("audit-%06d.seg", number));
+    }
+
+    static Path indexPath(Path segment) {
+        String name = segment.getFileName().toString();
+        return segment.resolveSibling(name.substring(0, name.length() - 4) + ".idx");
+    }
+
+    /**
+     * Segment files in the directory, oldest first.
+     */
+    static List<Path> listSegments(Path dir) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        if (!Files.isDirectory(dir)) return segments;
+        try (var stream = Files.list(dir)) {
+            stream.filter(p -> SEGMENT_NAME.matcher(p.getFileName().toString()).matches())
+                    .sorted()
+                    .forEach(segments::add);
+        }
+        return segments;
+    }
+
+    static long segmentNumber(Path segment) {
+        Matcher m = SEGMENT_NAME.matcher(segment.getFileName().toString());
+        if (!m.matches()) throw new IllegalArgumentException("Not an audit segment: " + segment);
+        return Long.parseLong(m.group(1));
+    }
+
+    static ByteBuffer encodeHeader(long number, long createdMillis, byte[] startChain) {
+        ByteBuffer buf = ByteBuffer.allocate(SEGMENT_HEADER_BYTES);
+        buf.put(SEGMENT_MAGIC).put((byte) VERSION).putLong(number).putLong(createdMillis).put(startChain);
+        return buf.flip();
+    }
+
+    /**
+     * Reads and checks the header of an open segment.
+     */
+    static ByteBuffer readHeader(FileChannel ch, Path segment) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_BYTES);
+        while (header.hasRemaining()) {
+            if (ch.read(header, header.position()) < 0) {
+                throw new IOException("Truncated audit segment header: " + segment);
+            }
+        }
+        checkHeader(header, segment);
+        return header;
+    }
+
+    static long headerSegmentNumber(ByteBuffer header) {
+        return header.getLong(5);
+    }
+
+    static byte[] headerStartChain(ByteBuffer header) {
+        byte[] chain = new byte[AuditChain.CHAIN_BYTES];
+        header.get(4 + 1 + 8 + 8, chain);
+        return chain;
+    }
+
+    /**
+     * Chain value after the last indexed record of a segment (its start chain
+     * if it holds no records).
+     */
+    static byte[] endChain(Path segment, Index index) throws IOException {
+        try (FileChannel ch = FileChannel.open(segment, StandardOpenOption.READ)) {
+            ByteBuffer header = readHeader(ch, segment);
+            if (index.indexedLength <= SEGMENT_HEADER_BYTES) {
+                return headerStartChain(header);
+            }
+            ByteBuffer chain = ByteBuffer.allocate(AuditChain.CHAIN_BYTES);
+            ch.read(chain, index.indexedLength - AuditChain.CHAIN_BYTES);
+            return chain.array();
+        }
+    }
+
+    static void checkHeader(ByteBuffer header, Path segment) throws IOException {
+        for (int i = 0; i < SEGMENT_MAGIC.length; i++) {
+            if (header.get(i) != SEGMENT_MAGIC[i]) throw new IOException("Not an audit segment: " + segment);
+        }
+        if ((header.get(4) & 0xFF) != VERSION) {
+            throw new IOException("Unsupported audit segment version in " + segment);
+        }
+    }
+
+    // --- records ---
+
+    static long toMicros(Instant t) {
+        return t.getEpochSecond() * 1_000_000L + t.getNano() / 1_000;
+    }
+
+    static Instant fromMicros(long micros) {
+        return Instant.ofEpochSecond(Math.floorDiv(micros, 1_000_000L), Math.floorMod(micros, 1_000_000L) * 1_000L);
+    }
+
+    /**
+     * Appends one encoded record to the (heap) buffer, which must have room
+     * (see {@link #encodedSize}). {@code chain} holds the previous chain value
+     * and is advanced to this record's.
+     */
+    static void encode(AuditRecord r, byte[] event, byte[] user, byte[] details,
+                       Mac mac, byte[] chain, ByteBuffer out) {
+        int bodyLength = 8 + 2 + event.length + 2 + user.length + 4 + details.length;
+        out.putInt(bodyLength + AuditChain.CHAIN_BYTES);
+
+        int bodyStart = out.position();
+        out.putLong(toMicros(r.getTime()));
+        out.putShort((short) event.length).put(event);
+        out.putShort((short) user.length).put(user);
+        out.putInt(details.length).put(details);
+
+        AuditChain.next(mac, chain, out.array(), out.arrayOffset() + bodyStart, bodyLength);
+        out.put(chain);
+    }
+
+    static int encodedSize(byte[] event, byte[] user, byte[] details) {
+        return 4 + 8 + 2 + event.length + 2 + user.length + 4 + details.length + AuditChain.CHAIN_BYTES;
+    }
+
+    static byte[] shortString(String s) {
+        byte[] bytes = Objects.toString(s, "").getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_SHORT_STRING) {
+            // Event names and usernames are short; cut anything absurd rather than fail.
+            byte[] cut = new byte[MAX_SHORT_STRING];
+            System.arraycopy(bytes, 0, cut, 0, cut.length);
+            return cut;
+        }
+        return bytes;
+    }
+
+    static byte[] longString(String s) {
+        return Objects.toString(s, "").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Decodes the record body that follows a length prefix (the trailing chain
+     * value is not needed for that and is left unread).
+     */
+    static AuditRecord decodeBody(ByteBuffer body) throws IOException {
+        try {
+            long micros = body.getLong();
+            String event = readString(body, body.getShort() & 0xFFFF);
+            String user = readString(body, body.getShort() & 0xFFFF);
+            String details = readString(body, body.getInt());
+            return new AuditRecord(fromMicros(micros), event, user, details);
+        } catch (RuntimeException e) {
+            // String lengths that run past the body: the record is damaged.
+            throw new IOException("Corrupt audit record", e);
+        }
+    }
+
+    private static String readString(ByteBuffer buf, int len) {
+        String s = new String(buf.array(), buf.arrayOffset() + buf.position(), len, StandardCharsets.UTF_8);
+        buf.position(buf.position() + len);
+        return s;
+    }
+
+    // --- bloom filters ---
+
+    static long bloomBits(String value) {
+        int h = Objects.toString(value, "").hashCode();
+        h ^= (h >>> 16);
+        h *= 0x85ebca6b;
+        h ^= (h >>> 13);
+        return (1L << (h & 63)) | (1L << ((h >>> 6) & 63));
+    }
+
+    static boolean mightContain(long bloom, String value) {
+        long bits = bloomBits(value);
+        return (bloom & bits) == bits;
+    }
+
+    // --- index ---
+
+    /**
+     * One block of the sparse index.
+     */
+    static final class Block {
+        long offset;
+        long minMicros = Long.MAX_VALUE;
+        long maxMicros = Long.MIN_VALUE;
+        int records;
+        long userBloom;
+        long eventBloom;
+
+        Block(long offset) {
+            this.offset = offset;
+        }
+
+        void add(long micros, String user, String event) {
+            minMicros = Math.min(minMicros, micros);
+            maxMicros = Math.max(maxMicros, micros);
+            records++;
+            userBloom |= bloomBits(user);
+            eventBloom |= bloomBits(event);
+        }
+    }
+
+    /**
+     * Parsed index of one segment.
+     */
+    static final class Index {
+        long segmentNumber;
+        long indexedLength;
+        long recordCount;
+        long minMicros = Long.MAX_VALUE;
+        long maxMicros = Long.MIN_VALUE;
+        final List<Block> blocks = new ArrayList<>();
+
+        void addBlock(Block b) {
+            if (b.records == 0) return;
+            blocks.add(b);
+            recordCount += b.records;
+            minMicros = Math.min(minMicros, b.minMicros);
+            maxMicros = Math.max(maxMicros, b.maxMicros);
+        }
+    }
+
+    static void writeIndex(Path segment, Index index) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(INDEX_HEADER_BYTES + index.blocks.size() * INDEX_BLOCK_BYTES);
+        buf.put(INDEX_MAGIC).put((byte) VERSION)
+                .putLong(index.segmentNumber)
+                .putLong(index.indexedLength)
+                .putLong(index.recordCount)
+                .putLong(index.minMicros)
+                .putLong(index.maxMicros)
+                .putInt(index.blocks.size());
+        for (Block b : index.blocks) {
+            buf.putLong(b.offset).putLong(b.minMicros).putLong(b.maxMicros)
+                    .putInt(b.records).putLong(b.userBloom).putLong(b.eventBloom);
+        }
+        buf.flip();
+
+        // Write to a temp file and move it into place so readers never see half an index.
+        Path target = indexPath(segment);
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buf.hasRemaining()) ch.write(buf);
+            ch.force(true);
+        }
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads the index of a segment, or returns null if it has none (or it is unreadable).
+     */
+    static Index readIndex(Path segment) {
+        Path file = indexPath(segment);
+        if (!Files.isRegularFile(file)) return null;
+        try {
+            ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(file));
+            for (int i = 0; i < INDEX_MAGIC.length; i++) {
+                if (buf.get() != INDEX_MAGIC[i]) return null;
+            }
+            if ((buf.get() & 0xFF) != VERSION) return null;
+
+            Index index = new Index();
+            index.segmentNumber = buf.getLong();
+            index.indexedLength = buf.getLong();
+            buf.getLong(); // record count, recomputed from blocks
+            buf.getLong();
+            buf.getLong();
+            int blocks = buf.getInt();
+            for (int i = 0; i < blocks; i++) {
+                Block b = new Block(buf.getLong());
+                b.minMicros = buf.getLong();
+                b.maxMicros = buf.getLong();
+                b.records = buf.getInt();
+                b.userBloom = buf.getLong();
+                b.eventBloom = buf.getLong();
+                index.addBlock(b);
+            }
+            return index;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Builds an index by scanning a segment (used for segments that were never
+     * sealed, e.g. after a crash). Stops at the first torn or corrupt record.
+     */
+    static Index scanIndex(Path segment) throws IOException {
+        Index index = new Index();
+        index.segmentNumber = segmentNumber(segment);
+
+        try (FileChannel ch = FileChannel.open(segment, StandardOpenOption.READ)) {
+            if (ch.size() < SEGMENT_HEADER_BYTES) {
+                index.indexedLength = 0;
+                return index;
+            }
+            readHeader(ch, segment);
+
+            long pos = SEGMENT_HEADER_BYTES;
+            Block block = new Block(pos);
+            ByteBuffer len = ByteBuffer.allocate(4);
+            long size = ch.size();
+            while (pos + 4 <= size) {
+                len.clear();
+                ch.read(len, pos);
+                int n = len.flip().getInt();
+                if (n <= AuditChain.CHAIN_BYTES || n > MAX_RECORD_BYTES || pos + 4 + n > size) break;
+
+                ByteBuffer body = ByteBuffer.allocate(n);
+                ch.read(body, pos + 4);
+                AuditRecord r;
+                try {
+                    r = decodeBody(body.flip());
+                } catch (IOException corrupt) {
+                    break;
+                }
+                block.add(toMicros(r.getTime()), r.getUsername(), r.getEvent());
+                pos += 4 + n;
+
+                if (pos - block.offset >= BLOCK_BYTES) {
+                    index.addBlock(block);
+                    block = new Block(pos);
+                }
+            }
+            index.addBlock(block);
+            index.indexedLength = pos;
+        }
+        return index;
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package ie.ncirl.securevault.logging;
+
+import ie.ncirl.securevault.model.AuditCheckpoint;
+
+import javax.crypto.Mac;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * AuditSegmentWriter
+ *
+ * Appends binary records to the current audit segment, keeps that segment's
+ * sparse index in memory and rolls over to a new segment when the size or
+ * age limit is reached. Each record is chained to the previous one with
+ * {@link AuditChain}, across segment boundaries too. Not thread-safe: the
+ * audit-writer thread owns it.
+ *
+ * See {@link AuditSegmentFormat} for the file layout.
+ *
+ * @author Mkwenje Tadiwa
+ */
+final class AuditSegmentWriter implements Closeable {
+
+    private final Path dir;
+    private final long maxBytes;
+    private final long maxAgeMillis;
+
+    private FileChannel channel;
+    private Path segment;
+    private long segmentNumber;
+    private long openedAtMillis;
+    private long position; // bytes in the segment, including what is still buffered
+
+    private AuditSegmentFormat.Index index;
+    private AuditSegmentFormat.Block block;
+
+    private final Mac mac;
+    private final byte[] chain; // chain value of the last appended record
+
+    private ByteBuffer pending = ByteBuffer.allocate(AuditSegmentFormat.BLOCK_BYTES);
+
+    AuditSegmentWriter(Path dir, byte[] key, long maxBytes, long maxAgeMillis) throws IOException {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        this.maxAgeMillis = maxAgeMillis;
+        this.mac = AuditChain.newMac(key);
+
+        Files.createDirectories(dir);
+        List<Path> existing = AuditSegmentFormat.listSegments(dir);
+
+        // Segments left without an index (the process died before sealing them)
+        // get one now, so queries do not have to scan them every time. One that
+        // cannot be read is left as it is (queries scan it, the verifier reports it).
+        for (Path p : existing) {
+            if (AuditSegmentFormat.readIndex(p) == null) {
+                try {
+                    AuditSegmentFormat.writeIndex(p, AuditSegmentFormat.scanIndex(p));
+                } catch (IOException e) {
+                    System.out.println("Audit segment " + p.getFileName() + " not indexed: " + e.getMessage());
+                }
+            }
+        }
+
+        if (existing.isEmpty()) {
+            segmentNumber = 0;
+            chain = AuditChain.GENESIS.clone();
+        } else {
+            // Continue the chain from the last record of the newest segment.
+            Path last = existing.get(existing.size() - 1);
+            segmentNumber = AuditSegmentFormat.segmentNumber(last);
+            AuditSegmentFormat.Index lastIndex = AuditSegmentFormat.readIndex(last);
+            if (lastIndex == null) {
+                lastIndex = AuditSegmentFormat.scanIndex(last);
+            }
+            chain = AuditSegmentFormat.endChain(last, lastIndex);
+        }
+        openNext();
+    }
+
+    /**
+     * Buffers one record; call {@link #flush()} to write it out.
+     */
+    void append(AuditRecord r) throws IOException {
+        if (position >= maxBytes || System.currentTimeMillis() - openedAtMillis >= maxAgeMillis) {
+            rotate();
+        }
+
+        byte[] event = AuditSegmentFormat.shortString(r.getEvent());
+        byte[] user = AuditSegmentFormat.shortString(r.getUsername());
+        byte[] details = AuditSegmentFormat.longString(r.getDetails());
+        int size = AuditSegmentFormat.encodedSize(event, user, details);
+
+        if (pending.remaining() < size) {
+            flush();
+            if (pending.capacity() < size) {
+                pending = ByteBuffer.allocate(size);
+            }
+        }
+
+        AuditSegmentFormat.encode(r, event, user, details, mac, chain, pending);
+        block.add(AuditSegmentFormat.toMicros(r.getTime()), r.getUsername(), r.getEvent());
+        position += size;
+
+        if (position - block.offset >= AuditSegmentFormat.BLOCK_BYTES) {
+            index.addBlock(block);
+            block = new AuditSegmentFormat.Block(position);
+        }
+    }
+
+    /**
+     * Writes buffered records to the segment file (no fsync).
+     */
+    void flush() throws IOException {
+        pending.flip();
+        while (pending.hasRemaining()) {
+            channel.write(pending);
+        }
+        pending.clear();
+    }
+
+    void force() throws IOException {
+        channel.force(false);
+    }
+
+    /**
+     * Unsigned checkpoint at the current end of the log. Only meaningful after
+     * {@link #flush()} and {@link #force()}.
+     */
+    AuditCheckpoint checkpoint() {
+        return new AuditCheckpoint(0, AuditCheckpoint.WRITER, segmentNumber, position, chain.clone(),
+                System.currentTimeMillis(), null);
+    }
+
+    /**
+     * Flushes, fsyncs and seals the current segment (writes its index).
+     */
+    @Override
+    public void close() throws IOException {
+        if (channel == null) return;
+        try {
+            seal();
+        } finally {
+            channel = null;
+        }
+    }
+
+    private void rotate() throws IOException {
+        seal();
+        openNext();
+    }
+
+    private void seal() throws IOException {
+        try {
+            flush();
+            channel.force(false);
+        } finally {
+            channel.close();
+        }
+        index.addBlock(block);
+        index.indexedLength = position;
+        AuditSegmentFormat.writeIndex(segment, index);
+    }
+
+    private void openNext() throws IOException {
+        segmentNumber++;
+        segment = AuditSegmentFormat.segmentPath(dir, segmentNumber);
+        openedAtMillis = System.currentTimeMillis();
+
+        channel = FileChannel.open(segment, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        ByteBuffer header = AuditSegmentFormat.encodeHeader(segmentNumber, openedAtMillis, chain);
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        position = AuditSegmentFormat.SEGMENT_HEADER_BYTES;
+
+        index = new AuditSegmentFormat.Index();
+        index.segmentNumber = segmentNumber;
+        block = new AuditSegmentFormat.Block(position);
+    }
+}
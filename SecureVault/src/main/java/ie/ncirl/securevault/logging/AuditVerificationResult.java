@@ -0,0 +1,58 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package ie.ncirl.securevault.logging;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * AuditVerificationResult
+ *
+ * Outcome of an {@link AuditVerifier} run.
+ *
+ * @author Mkwenje Tadiwa
+ */
+public class AuditVerificationResult {
+
+    private final boolean incremental;
+    private final int segmentsVerified;
+    private final long recordsVerified;
+    private final long elapsedMillis;
+    private final List<String> problems;
+
+    AuditVerificationResult(boolean incremental, int segmentsVerified, long recordsVerified,
+                            long elapsedMillis, List<String> problems) {
+        this.incremental = incremental;
+        this.segmentsVerified = segmentsVerified;
+        this.recordsVerified = recordsVerified;
+        this.elapsedMillis = elapsedMillis;
+        this.problems = Collections.unmodifiableList(problems);
+    }
+
+    /** True if no tampering, gap or truncation was found. */
+    public boolean isValid() { return problems.isEmpty(); }
+
+    /** True if the run started from a verified checkpoint rather than the first record. */
+    public boolean isIncremental() { return incremental; }
+
+    public int getSegmentsVerified() { return segmentsVerified; }
+    public long getRecordsVerified() { return recordsVerified; }
+    public long getElapsedMillis() { return elapsedMillis; }
+    public List<String> getProblems() { return problems; }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(isValid() ? "Audit log OK" : "Audit log FAILED verification")
+                .append(" (").append(incremental ? "incremental" : "full")
+                .append(", ").append(segmentsVerified).append(" segments, ")
+                .append(recordsVerified).append(" records, ")
+                .append(elapsedMillis).append(" ms)");
+        for (String p : problems) {
+            sb.append(System.lineSeparator()).append("  - ").append(p);
+        }
+        return sb.toString();
+    }
+}
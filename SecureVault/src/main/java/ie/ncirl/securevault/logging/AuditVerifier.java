@@ -0,0 +1,351 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package ie.ncirl.securevault.logging;
+
+import ie.ncirl.securevault.db.Database;
+import ie.ncirl.securevault.db.VaultStore;
+import ie.ncirl.securevault.model.AuditCheckpoint;
+
+import javax.crypto.Mac;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * AuditVerifier
+ *
+ * Checks the hash chain of the audit log.
+ *
+ *  - {@link #verify()} starts from the latest VERIFIED checkpoint, so each run
+ *    only re-reads what was written since the previous clean run.
+ *  - {@link #verifyAll()} starts from the first record.
+ *
+ * Every segment header stores the chain value it starts from, so segments are
+ * verified independently on a thread pool; afterwards the verifier checks that
+ * each segment starts where the previous one ended. Signed WRITER checkpoints
+ * catch a log that was cut short (a truncated or deleted tail leaves no broken
+ * link behind). A clean run stores a new VERIFIED checkpoint.
+ *
+ *   java -cp SecureVault.jar ie.ncirl.securevault.logging.AuditVerifier [--full] [--dir audit]
+ *
+ * @author Mkwenje Tadiwa
+ */
+public class AuditVerifier {
+
+    private static final int READ_BUFFER_BYTES = 1024 * 1024;
+
+    private final Path dir;
+    private final byte[] key;
+    private final VaultStore store;
+    private final int threads;
+
+    /**
+     * Result of checking one segment.
+     */
+    private static final class SegmentCheck {
+        long number;
+        byte[] headerStart;
+        byte[] endChain;
+        long endOffset;
+        long records;
+        final List<String> problems = new ArrayList<>();
+    }
+
+    public AuditVerifier(Path dir, byte[] key, VaultStore store, int threads) {
+        this.dir = dir;
+        this.key = key.clone();
+        this.store = store;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Verifier for the configured audit directory, key and database.
+     */
+    public static AuditVerifier forConfiguredLog() throws IOException {
+        return forDirectory(AuditSegmentFormat.configuredDirectory());
+    }
+
+    public static AuditVerifier forDirectory(Path dir) throws IOException {
+        return new AuditVerifier(dir, AuditChain.loadKey(), Database.getStore(),
+                Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Verifies everything written since the last clean verification.
+     */
+    public AuditVerificationResult verify() throws IOException, SQLException {
+        return run(store.findLatestAuditCheckpoint(AuditCheckpoint.VERIFIED));
+    }
+
+    /**
+     * Verifies the whole log from the first record.
+     */
+    public AuditVerificationResult verifyAll() throws IOException, SQLException {
+        return run(null);
+    }
+
+    private AuditVerificationResult run(AuditCheckpoint from) throws IOException, SQLException {
+        long started = System.currentTimeMillis();
+        List<String> problems = new ArrayList<>();
+
+        if (from != null && !AuditChain.verifySignature(key, from)) {
+            problems.add("VERIFIED checkpoint " + from.getId() + " has an invalid signature; verifying from the start");
+            from = null;
+        }
+
+        List<Path> all = AuditSegmentFormat.listSegments(dir);
+        long startSegment = from != null ? from.getSegment()
+                : all.isEmpty() ? 1 : AuditSegmentFormat.segmentNumber(all.get(0));
+
+        List<Path> segments = new ArrayList<>();
+        for (Path p : all) {
+            if (AuditSegmentFormat.segmentNumber(p) >= startSegment) {
+                segments.add(p);
+            }
+        }
+
+        if (from == null && startSegment != 1) {
+            problems.add("Segments before " + startSegment + " are missing");
+        }
+        if (from != null && (segments.isEmpty() || AuditSegmentFormat.segmentNumber(segments.get(0)) != startSegment)) {
+            problems.add("Segment " + startSegment + " of the last verified checkpoint is missing");
+        }
+
+        Map<Long, TreeMap<Long, byte[]>> expected = writerCheckpoints(startSegment, problems);
+
+        List<SegmentCheck> checks = checkSegments(segments, from, expected);
+
+        // Link the segments: numbers must be consecutive and each one must start
+        // with the chain value the previous one ended with.
+        long records = 0;
+        for (int i = 0; i < checks.size(); i++) {
+            SegmentCheck c = checks.get(i);
+            problems.addAll(c.problems);
+            records += c.records;
+
+            if (i == 0) {
+                if (from == null && !Arrays.equals(c.headerStart, AuditChain.GENESIS)) {
+                    problems.add("Segment " + c.number + " does not start a new chain");
+                }
+                continue;
+            }
+            SegmentCheck prev = checks.get(i - 1);
+            if (c.number != prev.number + 1) {
+                problems.add("Segments " + (prev.number + 1) + " to " + (c.number - 1) + " are missing");
+            } else if (prev.problems.isEmpty() && !Arrays.equals(c.headerStart, prev.endChain)) {
+                problems.add("Segment " + c.number + " does not continue the chain of segment " + prev.number);
+            }
+        }
+
+        // Checkpoints in segments that no longer exist mean the tail was removed.
+        long lastNumber = checks.isEmpty() ? startSegment - 1 : checks.get(checks.size() - 1).number;
+        for (long number : expected.keySet()) {
+            if (number > lastNumber) {
+                problems.add("Log truncated: a checkpoint refers to missing segment " + number);
+            }
+        }
+
+        if (problems.isEmpty() && !checks.isEmpty()) {
+            SegmentCheck last = checks.get(checks.size() - 1);
+            if (from == null || last.number != from.getSegment() || last.endOffset != from.getOffset()) {
+                AuditCheckpoint cp = new AuditCheckpoint(0, AuditCheckpoint.VERIFIED, last.number, last.endOffset,
+                        last.endChain, System.currentTimeMillis(), null);
+                AuditChain.sign(key, cp);
+                store.insertAuditCheckpoint(cp);
+            }
+        }
+
+        return new AuditVerificationResult(from != null, checks.size(), records,
+                System.currentTimeMillis() - started, problems);
+    }
+
+    /**
+     * Signed WRITER checkpoints from startSegment on, as segment -> (offset -> chain).
+     */
+    private Map<Long, TreeMap<Long, byte[]>> writerCheckpoints(long startSegment, List<String> problems)
+            throws SQLException {
+        Map<Long, TreeMap<Long, byte[]>> expected = new HashMap<>();
+        for (AuditCheckpoint cp : store.findAuditCheckpoints(AuditCheckpoint.WRITER, startSegment)) {
+            if (!AuditChain.verifySignature(key, cp)) {
+                problems.add("WRITER checkpoint " + cp.getId() + " has an invalid signature");
+                continue;
+            }
+            expected.computeIfAbsent(cp.getSegment(), s -> new TreeMap<>()).put(cp.getOffset(), cp.getChain());
+        }
+        return expected;
+    }
+
+    private List<SegmentCheck> checkSegments(List<Path> segments, AuditCheckpoint from,
+                                             Map<Long, TreeMap<Long, byte[]>> expected) throws IOException {
+        List<Callable<SegmentCheck>> tasks = new ArrayList<>();
+        for (int i = 0; i < segments.size(); i++) {
+            Path segment = segments.get(i);
+            AuditCheckpoint resumeAt = i == 0 ? from : null;
+            boolean last = i == segments.size() - 1;
+            TreeMap<Long, byte[]> checkpoints =
+                    expected.getOrDefault(AuditSegmentFormat.segmentNumber(segment), new TreeMap<>());
+            tasks.add(() -> checkSegment(segment, resumeAt, checkpoints, last));
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, Math.max(1, tasks.size())));
+        try {
+            List<SegmentCheck> checks = new ArrayList<>();
+            for (Future<SegmentCheck> f : pool.invokeAll(tasks)) {
+                checks.add(f.get());
+            }
+            return checks;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Audit verification interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException io) throw io;
+            throw new IOException("Audit verification failed", cause);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Recomputes the chain over one segment (from resumeAt if given, otherwise
+     * from its header) and compares it with the stored values and checkpoints.
+     */
+    private SegmentCheck checkSegment(Path segment, AuditCheckpoint resumeAt,
+                                      TreeMap<Long, byte[]> checkpoints, boolean lastSegment) throws IOException {
+        SegmentCheck check = new SegmentCheck();
+        check.number = AuditSegmentFormat.segmentNumber(segment);
+        String name = segment.getFileName().toString();
+
+        try (FileChannel ch = FileChannel.open(segment, StandardOpenOption.READ)) {
+            ByteBuffer header = AuditSegmentFormat.readHeader(ch, segment);
+            check.headerStart = AuditSegmentFormat.headerStartChain(header);
+            if (AuditSegmentFormat.headerSegmentNumber(header) != check.number) {
+                check.problems.add(name + ": header says segment " + AuditSegmentFormat.headerSegmentNumber(header));
+            }
+
+            long size = ch.size();
+            long pos = AuditSegmentFormat.SEGMENT_HEADER_BYTES;
+            byte[] chain = check.headerStart.clone();
+
+            if (resumeAt != null) {
+                pos = resumeAt.getOffset();
+                chain = resumeAt.getChain().clone();
+                if (!chainBefore(ch, pos, check.headerStart, size, chain)) {
+                    check.problems.add(name + ": data before the last verified checkpoint was changed or cut");
+                    check.endChain = chain;
+                    check.endOffset = pos;
+                    return check;
+                }
+            }
+
+            Mac mac = AuditChain.newMac(key);
+            ch.position(pos);
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(Channels.newInputStream(ch), READ_BUFFER_BYTES));
+            byte[] body = new byte[256];
+            boolean badLength = false;
+
+            while (pos + 4 <= size) {
+                int n = in.readInt();
+                if (n <= AuditChain.CHAIN_BYTES || n > AuditSegmentFormat.MAX_RECORD_BYTES) {
+                    badLength = true;
+                    break;
+                }
+                if (pos + 4 + n > size) {
+                    break;
+                }
+                if (body.length < n) body = new byte[n];
+                in.readFully(body, 0, n);
+
+                int bodyLength = n - AuditChain.CHAIN_BYTES;
+                AuditChain.next(mac, chain, body, 0, bodyLength);
+                if (!Arrays.equals(chain, 0, AuditChain.CHAIN_BYTES, body, bodyLength, n)) {
+                    check.problems.add(name + ": record at offset " + pos + " was modified, inserted or reordered");
+                    break;
+                }
+                pos += 4 + n;
+                check.records++;
+
+                byte[] anchored = checkpoints.get(pos);
+                if (anchored != null && !Arrays.equals(anchored, chain)) {
+                    check.problems.add(name + ": chain differs from the checkpoint at offset " + pos);
+                }
+            }
+
+            if (check.problems.isEmpty()) {
+                // A crash can leave a half-written record at the end of a segment (the
+                // writer then continues the chain in a new one), so an incomplete last
+                // record is a truncation, caught by the checkpoints below. Bytes that
+                // do not even frame a record are damage, except in the newest segment.
+                if (badLength && !lastSegment) {
+                    check.problems.add(name + ": " + (size - pos) + " unreadable bytes at offset " + pos);
+                }
+                Long beyond = checkpoints.higherKey(pos);
+                if (beyond != null) {
+                    check.problems.add(name + ": log truncated at offset " + pos
+                            + " but a checkpoint covers offset " + beyond);
+                }
+            }
+
+            check.endChain = chain;
+            check.endOffset = pos;
+        }
+        return check;
+    }
+
+    /**
+     * True if the record ending at pos carries the given chain value.
+     */
+    private static boolean chainBefore(FileChannel ch, long pos, byte[] headerStart, long size, byte[] chain)
+            throws IOException {
+        if (pos > size) return false;
+        if (pos == AuditSegmentFormat.SEGMENT_HEADER_BYTES) {
+            return Arrays.equals(headerStart, chain);
+        }
+        ByteBuffer stored = ByteBuffer.allocate(AuditChain.CHAIN_BYTES);
+        ch.read(stored, pos - AuditChain.CHAIN_BYTES);
+        return Arrays.equals(stored.array(), chain);
+    }
+
+    public static void main(String[] args) throws Exception {
+        boolean full = false;
+        Path dir = AuditSegmentFormat.configuredDirectory();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--full" -> full = true;
+                case "--dir" -> dir = Paths.get(args[++i]);
+                default -> {
+                    System.err.println("Usage: AuditVerifier [--full] [--dir DIR]");
+                    System.exit(2);
+                    return;
+                }
+            }
+        }
+
+        Database.initialize();
+        AuditVerifier verifier = forDirectory(dir);
+        AuditVerificationResult result = full ? verifier.verifyAll() : verifier.verify();
+        System.out.println(result);
+        System.exit(result.isValid() ? 0 : 1);
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package ie.ncirl.securevault.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counter
+ *
+ * A monotonically increasing count (operations, bytes, failures). Backed by a
+ * LongAdder, so concurrent increments from many threads do not contend.
+ * Rates (per second) are derived from two snapshots, see {@link MetricsSnapshot}.
+ *
+ * @author Mkwenje Tadiwa
+ */
+public final class Counter {
+
+    private final String name;
+    private final LongAdder count = new LongAdder();
+
+    Counter(String name) {
+        this.name = name;
+    }
+
+    public void increment() {
+        count.increment();
+    }
+
+    public void add(long n) {
+        count.add(n);
+    }
+
+    public long get() {
+        return count.sum();
+    }
+
+    public String getName() { return name; }
+
+    @Override
+    public String toString() {
+        return name + "=" + get();
+    }
+}
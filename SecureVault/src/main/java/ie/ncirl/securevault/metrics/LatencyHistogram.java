@@ -0,0 +1,157 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package ie.ncirl.securevault.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LatencyHistogram
+ *
+ * Distribution of operation durations in nanoseconds, in the style of
+ * HdrHistogram: values below 64 ns get their own bucket, above that every
+ * power of two is split into 32 linear sub-buckets. Any recorded value is
+ * therefore reported within about 3% of its true value, in a fixed array
+ * of counters (no allocation, no lock when recording).
+ *
+ * Values above 2^40 ns (about 18 minutes) are counted in the last bucket.
+ *
+ * Usage on a hot path:
+ * <pre>
+ *   long start = System.nanoTime();
+ *   ... work ...
+ *   histogram.recordSince(start);
+ * </pre>
+ *
+ * @author Mkwenje Tadiwa
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;           // 32
+    private static final int MAX_BIT = 40;
+    private static final long MAX_VALUE = (1L << MAX_BIT) - 1;
+    private static final int BUCKETS = indexOf(MAX_VALUE) + 1;
+
+    private final String name;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Records the time since startNanos (a System.nanoTime() value).
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        counts.incrementAndGet(indexOf(Math.min(nanos, MAX_VALUE)));
+        total.increment();
+        sum.add(nanos);
+        if (nanos > max.get()) {
+            max.accumulateAndGet(nanos, Math::max);
+        }
+        if (MetricsJfr.enabled) {
+            MetricsJfr.operation(name, nanos);
+        }
+    }
+
+    static int indexOf(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+        // Shift that brings value into [SUB_BUCKETS, 2 * SUB_BUCKETS)
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    /** Largest value that lands in the bucket. */
+    static long highestInBucket(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long mantissa = index - (long) shift * SUB_BUCKETS;
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+    /**
+     * Count, mean, max and the usual percentiles as of now. Reads are not
+     * atomic with respect to concurrent recording, which only matters for
+     * values recorded during the call.
+     */
+    public Summary summarize() {
+        long[] snapshot = new long[BUCKETS];
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            n += snapshot[i];
+        }
+        long maxValue = max.get();
+        return new Summary(n, n == 0 ? 0 : sum.sum() / (double) n,
+                percentile(snapshot, n, 0.50, maxValue),
+                percentile(snapshot, n, 0.90, maxValue),
+                percentile(snapshot, n, 0.99, maxValue),
+                percentile(snapshot, n, 0.999, maxValue),
+                maxValue);
+    }
+
+    private static long percentile(long[] snapshot, long n, double fraction, long maxValue) {
+        if (n == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(n * fraction));
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(highestInBucket(i), maxValue);
+            }
+        }
+        return maxValue;
+    }
+
+    public long getCount() {
+        return total.sum();
+    }
+
+    public String getName() { return name; }
+
+    /**
+     * Point-in-time view of a histogram; all times in nanoseconds.
+     */
+    public static final class Summary {
+        public final long count;
+        public final double mean;
+        public final long p50;
+        public final long p90;
+        public final long p99;
+        public final long p999;
+        public final long max;
+
+        Summary(long count, double mean, long p50, long p90, long p99, long p999, long max) {
+            this.count = count;
+            this.mean = mean;
+            this.p50 = p50;
+            this.p90 = p90;
+            this.p99 = p99;
+            this.p999 = p999;
+            this.max = max;
+        }
+    }
+
+    @Override
+    public String toString() {
+        Summary s = summarize();
+        return String.format("%s count=%d mean=%.3fms p50=%.3fms p99=%.3fms max=%.3fms",
+                name, s.count, s.mean / 1e6, s.p50 / 1e6, s.p99 / 1e6, s.max / 1e6);
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package ie.ncirl.securevault.metrics;
+
+import ie.ncirl.securevault.config.AppConfig;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Metrics
+ *
+ * Process-wide registry of counters, latency histograms and gauges, with no
+ * dependencies. Metrics are created on first use by name and live for the
+ * whole run; recording is lock-free and does not allocate.
+ *
+ * Names are dotted, area first: crypto.aes.encrypt, db.jdbc.execute,
+ * auth.password.verify, audit.queue.depth, ...
+ *
+ * A daemon reporter can write a snapshot periodically, and
+ * {@link MetricsJfr} can mirror everything into Java Flight Recorder.
+ *
+ * Settings (see {@link AppConfig}):
+ *  - securevault.metrics.report.seconds  snapshot interval, default 0 (no reporter)
+ *  - securevault.metrics.format          "text" (default) or "json" (one line per snapshot)
+ *  - securevault.metrics.file            file to append snapshots to, default standard output
+ *  - securevault.metrics.jfr             emit JFR events, default false
+ *
+ * @author Mkwenje Tadiwa
+ */
+public final class Metrics {
+
+    private static final Map<String, Counter> COUNTERS = new ConcurrentSkipListMap<>();
+    private static final Map<String, LatencyHistogram> HISTOGRAMS = new ConcurrentSkipListMap<>();
+    private static final Map<String, LongSupplier> GAUGES = new ConcurrentSkipListMap<>();
+
+    private static ScheduledExecutorService reporter;
+
+    private Metrics() {}
+
+    public static Counter counter(String name) {
+        return COUNTERS.computeIfAbsent(name, Counter::new);
+    }
+
+    public static LatencyHistogram histogram(String name) {
+        return HISTOGRAMS.computeIfAbsent(name, LatencyHistogram::new);
+    }
+
+    /**
+     * Registers (or replaces) a gauge: a value read when a snapshot is taken,
+     * e.g. a queue depth. The supplier must be cheap and thread-safe.
+     */
+    public static void gauge(String name, LongSupplier value) {
+        GAUGES.put(name, value);
+    }
+
+    /**
+     * The current value of every metric. A gauge that throws is left out.
+     */
+    public static MetricsSnapshot snapshot() {
+        Map<String, Long> counters = new LinkedHashMap<>();
+        COUNTERS.forEach((name, c) -> counters.put(name, c.get()));
+
+        Map<String, Long> gauges = new LinkedHashMap<>();
+        GAUGES.forEach((name, g) -> {
+            try {
+                gauges.put(name, g.getAsLong());
+            } catch (RuntimeException ignored) {
+                // A broken gauge must not stop the report.
+            }
+        });
+
+        Map<String, LatencyHistogram.Summary> histograms = new LinkedHashMap<>();
+        HISTOGRAMS.forEach((name, h) -> histograms.put(name, h.summarize()));
+
+        return new MetricsSnapshot(Instant.now(), System.nanoTime(), Collections.unmodifiableMap(counters),
+                Collections.unmodifiableMap(gauges), Collections.unmodifiableMap(histograms));
+    }
+
+    static Map<String, Counter> counters() { return COUNTERS; }
+    static Map<String, LongSupplier> gauges() { return GAUGES; }
+
+    /**
+     * Starts the periodic reporter and the JFR emitter if they are configured.
+     * Called once at startup; later calls do nothing.
+     */
+    public static synchronized void start() {
+        if (AppConfig.getBoolean("securevault.metrics.jfr", false)) {
+            MetricsJfr.install();
+        }
+
+        long seconds = AppConfig.getLong("securevault.metrics.report.seconds", 0);
+        if (seconds <= 0 || reporter != null) return;
+
+        boolean json = AppConfig.getString("securevault.metrics.format", "text").equalsIgnoreCase("json");
+        String file = AppConfig.getString("securevault.metrics.file", "");
+        Path path = file.isBlank() ? null : Paths.get(file);
+
+        reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "metrics-reporter");
+            t.setDaemon(true);
+            return t;
+        });
+        MetricsSnapshot[] previous = {snapshot()};
+        reporter.scheduleAtFixedRate(() -> {
+            MetricsSnapshot now = snapshot();
+            String out = json ? now.toJson(previous[0]) + System.lineSeparator() : now.toText(previous[0]);
+            previous[0] = now;
+            write(path, out);
+        }, seconds, seconds, TimeUnit.SECONDS);
+    }
+
+    private static void write(Path path, String text) {
+        if (path == null) {
+            PrintStream out = System.out;
+            out.print(text);
+            out.flush();
+            return;
+        }
+        try {
+            Files.writeString(path, text, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException ignored) {
+            // Metrics are best effort; try again next interval.
+        }
+    }
+
+    /**
+     * Stops the periodic reporter, if running.
+     */
+    public static synchronized void stop() {
+        if (reporter != null) {
+            reporter.shutdown();
+            reporter = null;
+        }
+    }
+}
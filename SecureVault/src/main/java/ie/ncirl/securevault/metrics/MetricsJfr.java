@@ -0,0 +1,102 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package ie.ncirl.securevault.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * MetricsJfr
+ *
+ * Mirrors the metrics into Java Flight Recorder, so a recording shows the
+ * SecureVault operations next to GC, I/O and thread events:
+ *
+ *  - ie.ncirl.securevault.Operation: one event per recorded histogram value
+ *    (metric name and duration), e.g. each AES encrypt or JDBC execute
+ *  - ie.ncirl.securevault.Metric: every counter and gauge, once per period
+ *    (default 10 s, configurable in the .jfc settings)
+ *
+ * Installed by {@link Metrics#start()} when securevault.metrics.jfr=true.
+ * While no recording is running the events cost a flag check.
+ *
+ * Record with e.g.
+ *   java -Dsecurevault.metrics.jfr=true -XX:StartFlightRecording=filename=vault.jfr ...
+ *
+ * @author Mkwenje Tadiwa
+ */
+final class MetricsJfr {
+
+    static volatile boolean enabled;
+
+    private MetricsJfr() {}
+
+    @Name("ie.ncirl.securevault.Operation")
+    @Label("SecureVault Operation")
+    @Category("SecureVault")
+    @Description("A timed operation recorded in a LatencyHistogram")
+    @StackTrace(false)
+    static final class OperationEvent extends Event {
+        @Label("Metric")
+        String metric;
+
+        @Label("Duration")
+        @Timespan(Timespan.NANOSECONDS)
+        long nanos;
+    }
+
+    @Name("ie.ncirl.securevault.Metric")
+    @Label("SecureVault Metric")
+    @Category("SecureVault")
+    @Description("Value of a counter or gauge")
+    @StackTrace(false)
+    @Period("10 s")
+    static final class MetricEvent extends Event {
+        @Label("Metric")
+        String metric;
+
+        @Label("Value")
+        long value;
+    }
+
+    static synchronized void install() {
+        if (enabled) return;
+        FlightRecorder.addPeriodicEvent(MetricEvent.class, MetricsJfr::emitValues);
+        enabled = true;
+    }
+
+    static void operation(String metric, long nanos) {
+        OperationEvent event = new OperationEvent();
+        if (event.shouldCommit()) {
+            event.metric = metric;
+            event.nanos = nanos;
+            event.commit();
+        }
+    }
+
+    private static void emitValues() {
+        Metrics.counters().forEach((name, counter) -> emit(name, counter.get()));
+        Metrics.gauges().forEach((name, gauge) -> {
+            try {
+                emit(name, gauge.getAsLong());
+            } catch (RuntimeException ignored) {
+                // Skip a broken gauge.
+            }
+        });
+    }
+
+    private static void emit(String metric, long value) {
+        MetricEvent event = new MetricEvent();
+        event.metric = metric;
+        event.value = value;
+        event.commit();
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package ie.ncirl.securevault.metrics;
+
+import java.time.Instant;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * MetricsSnapshot
+ *
+ * The value of every registered metric at one moment, rendered as text or
+ * JSON. Rates (counter increase, or histogram operations, per second) are
+ * computed against an earlier snapshot; pass null to print totals only.
+ *
+ * Histogram times are printed in milliseconds.
+ *
+ * @author Mkwenje Tadiwa
+ */
+public final class MetricsSnapshot {
+
+    private final Instant timestamp;
+    private final long nanoTime;
+    private final Map<String, Long> counters;
+    private final Map<String, Long> gauges;
+    private final Map<String, LatencyHistogram.Summary> histograms;
+
+    MetricsSnapshot(Instant timestamp, long nanoTime, Map<String, Long> counters, Map<String, Long> gauges,
+                    Map<String, LatencyHistogram.Summary> histograms) {
+        this.timestamp = timestamp;
+        this.nanoTime = nanoTime;
+        this.counters = counters;
+        this.gauges = gauges;
+        this.histograms = histograms;
+    }
+
+    public Instant getTimestamp() { return timestamp; }
+    public Map<String, Long> getCounters() { return counters; }
+    public Map<String, Long> getGauges() { return gauges; }
+    public Map<String, LatencyHistogram.Summary> getHistograms() { return histograms; }
+
+    /**
+     * Per-second increase of a counter since previous, or -1 if unknown.
+     */
+    public double rate(String counter, MetricsSnapshot previous) {
+        if (previous == null || !previous.counters.containsKey(counter)) return -1;
+        double seconds = (nanoTime - previous.nanoTime) / 1e9;
+        if (seconds <= 0) return -1;
+        return (counters.get(counter) - previous.counters.get(counter)) / seconds;
+    }
+
+    /**
+     * Operations per second recorded in a histogram since previous, or -1 if unknown.
+     */
+    public double opsRate(String histogram, MetricsSnapshot previous) {
+        if (previous == null || !previous.histograms.containsKey(histogram)) return -1;
+        double seconds = (nanoTime - previous.nanoTime) / 1e9;
+        if (seconds <= 0) return -1;
+        return (histograms.get(histogram).count - previous.histograms.get(histogram).count) / seconds;
+    }
+
+    public String toText(MetricsSnapshot previous) {
+        String nl = System.lineSeparator();
+        StringBuilder sb = new StringBuilder("=== metrics ").append(timestamp).append(" ===").append(nl);
+        counters.forEach((name, value) -> {
+            sb.append(String.format(Locale.ROOT, "counter   %-36s %14d", name, value));
+            double rate = rate(name, previous);
+            if (rate >= 0) sb.append(String.format(Locale.ROOT, "  %12.1f/s", rate));
+            sb.append(nl);
+        });
+        gauges.forEach((name, value) ->
+                sb.append(String.format(Locale.ROOT, "gauge     %-36s %14d", name, value)).append(nl));
+        histograms.forEach((name, s) -> {
+            sb.append(String.format(Locale.ROOT,
+                    "histogram %-36s count=%d mean=%.3f p50=%.3f p90=%.3f p99=%.3f p99.9=%.3f max=%.3f ms",
+                    name, s.count, s.mean / 1e6, s.p50 / 1e6, s.p90 / 1e6, s.p99 / 1e6, s.p999 / 1e6, s.max / 1e6));
+            double rate = opsRate(name, previous);
+            if (rate >= 0) sb.append(String.format(Locale.ROOT, " rate=%.1f/s", rate));
+            sb.append(nl);
+        });
+        return sb.toString();
+    }
+
+    /**
+     * One JSON object on a single line (so a file of snapshots is JSON Lines).
+     */
+    public String toJson(MetricsSnapshot previous) {
+        StringBuilder sb = new StringBuilder("{\"timestamp\":\"").append(timestamp).append("\",\"counters\":{");
+        boolean first = true;
+        for (Map.Entry<String, Long> e : counters.entrySet()) {
+            if (!first) sb.append(',');
+            first = false;
+            sb.append('"').append(e.getKey()).append("\":{\"total\":").append(e.getValue());
+            double rate = rate(e.getKey(), previous);
+            if (rate >= 0) sb.append(String.format(Locale.ROOT, ",\"perSecond\":%.3f", rate));
+            sb.append('}');
+        }
+        sb.append("},\"gauges\":{");
+        first = true;
+        for (Map.Entry<String, Long> e : gauges.entrySet()) {
+            if (!first) sb.append(',');
+            first = false;
+            sb.append('"').append(e.getKey()).append("\":").append(e.getValue());
+        }
+        sb.append("},\"histograms\":{");
+        first = true;
+        for (Map.Entry<String, LatencyHistogram.Summary> e : histograms.entrySet()) {
+            if (!first) sb.append(',');
+            first = false;
+            LatencyHistogram.Summary s = e.getValue();
+            sb.append('"').append(e.getKey()).append("\":").append(String.format(Locale.ROOT,
+                    "{\"count\":%d,\"meanMs\":%.6f,\"p50Ms\":%.6f,\"p90Ms\":%.6f,\"p99Ms\":%.6f,\"p999Ms\":%.6f,\"maxMs\":%.6f",
+                    s.count, s.mean / 1e6, s.p50 / 1e6, s.p90 / 1e6, s.p99 / 1e6, s.p999 / 1e6, s.max / 1e6));
+            double rate = opsRate(e.getKey(), previous);
+            if (rate >= 0) sb.append(String.format(Locale.ROOT, ",\"perSecond\":%.3f", rate));
+            sb.append('}');
+        }
+        return sb.append("}}").toString();
+    }
+
+    @Override
+    public String toString() {
+        return toText(null);
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package ie.ncirl.securevault.model;
+
+/**
+ * AuditCheckpoint
+ *
+ * A signed position in the hash-chained audit log, stored in the
+ * 'audit_checkpoints' table.
+ *
+ *  - WRITER checkpoints are taken by the audit writer every N records, after the
+ *    data is fsynced. They let the verifier notice a log that was cut short.
+ *  - VERIFIED checkpoints are taken by the verifier after a clean run; the next
+ *    incremental verification starts from the latest one.
+ *
+ * @author Mkwenje Tadiwa
+ */
+public class AuditCheckpoint {
+
+    public static final String WRITER = "WRITER";
+    public static final String VERIFIED = "VERIFIED";
+
+    private long id;
+    private String kind;
+    private long segment;
+    private long offset;
+    private byte[] chain;
+    private long createdAt;
+
+    // HMAC over the fields above, keyed from the audit key
+    private byte[] signature;
+
+    public AuditCheckpoint() {}
+
+    public AuditCheckpoint(long id, String kind, long segment, long offset, byte[] chain,
+                           long createdAt, byte[] signature) {
+        this.id = id;
+        this.kind = kind;
+        this.segment = segment;
+        this.offset = offset;
+        this.chain = chain;
+        this.createdAt = createdAt;
+        this.signature = signature;
+    }
+
+    public long getId() { return id; }
+    public String getKind() { return kind; }
+
+    /** Segment number the position refers to. */
+    public long getSegment() { return segment; }
+
+    /** Byte offset in that segment just after the last covered record. */
+    public long getOffset() { return offset; }
+
+    /** Chain value of the last covered record. */
+    public byte[] getChain() { return chain; }
+
+    /** Epoch milliseconds. */
+    public long getCreatedAt() { return createdAt; }
+
+    public byte[] getSignature() { return signature; }
+
+    public void setId(long id) { this.id = id; }
+    public void setKind(String kind) { this.kind = kind; }
+    public void setSegment(long segment) { this.segment = segment; }
+    public void setOffset(long offset) { this.offset = offset; }
+    public void setChain(byte[] chain) { this.chain = chain; }
+    public void setCreatedAt(long createdAt) { this.createdAt = createdAt; }
+    public void setSignature(byte[] signature) { this.signature = signature; }
+}
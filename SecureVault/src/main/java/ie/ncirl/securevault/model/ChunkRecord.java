@@ -0,0 +1,34 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package ie.ncirl.securevault.model;
+
+/**
+ * ChunkRecord
+ *
+ * One encrypted chunk in a user's chunk store, stored in the 'chunks' table.
+ * The chunk id is the hex HMAC-SHA256 of the plaintext under a per-user key,
+ * so equal data gets the same id (and is stored once) only within one user's
+ * vault, and the id reveals nothing about the content to anyone else.
+ *
+ * @author Mkwenje Tadiwa
+ */
+public class ChunkRecord {
+
+    private final String chunkId;
+    private final int plainSize;
+    private final int storedSize;
+
+    public ChunkRecord(String chunkId, int plainSize, int storedSize) {
+        this.chunkId = chunkId;
+        this.plainSize = plainSize;
+        this.storedSize = storedSize;
+    }
+
+    public String getChunkId() { return chunkId; }
+    public int getPlainSize() { return plainSize; }
+
+    // Size of the chunk file (nonce + ciphertext + tag)
+    public int getStoredSize() { return storedSize; }
+}
@@ -12,10 +12,21 @@ package ie.ncirl.securevault.model;
  * Includes metadata about the file and the wrapped AES key
  * used for secure decryption.
  *
+ * The key scheme says what the wrapped key is wrapped with:
+ *  - KEY_SCHEME_RSA: RSA-OAEP under the user's public key (older records, 256 bytes)
+ *  - KEY_SCHEME_KEK: AES key wrap (RFC 3394) under the user's key-encryption
+ *    key, which is itself RSA-wrapped once per user (40 bytes)
+ *  - KEY_SCHEME_CHUNKED: no file key; the content is in the user's chunk
+ *    store and the record's manifest lists its chunks (see vault.ChunkStore)
+ *
  * @author Mkwenje Tadiwa
  */
 public class FileRecord {
 
+    public static final int KEY_SCHEME_RSA = 0;
+    public static final int KEY_SCHEME_KEK = 1;
+    public static final int KEY_SCHEME_CHUNKED = 2;
+
     private int id;
     private int userId;
     private String originalPath;
@@ -23,6 +34,7 @@ public class FileRecord {
 
     // Wrapped AES key (encrypted using RSA public key)
     private byte[] wrappedKey;
+    private int keyScheme = KEY_SCHEME_RSA;
 
     public FileRecord() {}
 
@@ -34,6 +46,12 @@ public class FileRecord {
         this.wrappedKey = wrappedKey;
     }
 
+    public FileRecord(int id, int userId, String originalPath, String encryptedPath, byte[] wrappedKey,
+                      int keyScheme) {
+        this(id, userId, originalPath, encryptedPath, wrappedKey);
+        this.keyScheme = keyScheme;
+    }
+
     public int getId() { return id; }
     public int getUserId() { return userId; }
     public String getOriginalPath() { return originalPath; }
@@ -41,6 +59,7 @@ public class FileRecord {
 
     // Getter for wrapped AES key
     public byte[] getWrappedKey() { return wrappedKey; }
+    public int getKeyScheme() { return keyScheme; }
 
     public void setId(int id) { this.id = id; }
     public void setUserId(int userId) { this.userId = userId; }
@@ -49,4 +68,5 @@ public class FileRecord {
 
     // Setter for wrapped AES key
     public void setWrappedKey(byte[] wrappedKey) { this.wrappedKey = wrappedKey; }
+    public void setKeyScheme(int keyScheme) { this.keyScheme = keyScheme; }
 }
@@ -4,7 +4,13 @@
  */
 package ie.ncirl.securevault.ui;
 
+import ie.ncirl.securevault.auth.TotpReplayGuard;
+import ie.ncirl.securevault.crypto.KeyAlgorithm;
+import ie.ncirl.securevault.crypto.KeyPairPool;
+import ie.ncirl.securevault.crypto.PasswordHasher;
 import ie.ncirl.securevault.db.Database;
+import ie.ncirl.securevault.logging.AuditLogger;
+import ie.ncirl.securevault.metrics.Metrics;
 
 import javax.swing.*;
 
@@ -14,13 +20,32 @@ import javax.swing.*;
  */
 public class App {
         public static void main(String[] args) {
-        SwingUtilities.invokeLater(() -> {
-            try {
-                Database.initialize();
-                new LoginFrame().setVisible(true);
-            } catch (Exception e) {
-                JOptionPane.showMessageDialog(null, "Startup error: " + e.getMessage());
-            }
-        });
+        // Save used TOTP steps and write out the audit log (its last checkpoint goes to the database),
+        // then return pooled DB connections (and checkpoint the WAL) on exit. One hook, so the order holds.
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            TotpReplayGuard.closeAll();
+            AuditLogger.shutdown();
+            Database.shutdown();
+        }));
+
+        // Schema setup runs here on the main thread; the EDT only builds the UI.
+        try {
+            Database.initialize();
+        } catch (Exception e) {
+            SwingUtilities.invokeLater(() ->
+                    JOptionPane.showMessageDialog(null, "Startup error: " + e.getMessage()));
+            return;
+        }
+
+        // Periodic metrics snapshots / JFR events, if configured.
+        Metrics.start();
+
+        // Start pre-generating key pairs so a registration does not wait for one.
+        KeyPairPool.shared(KeyAlgorithm.forNewUsers());
+
+        // Time the password hash on this machine before the first login needs it.
+        PasswordHasher.calibrateInBackground();
+
+        SwingUtilities.invokeLater(() -> new LoginFrame().setVisible(true));
     }
 }
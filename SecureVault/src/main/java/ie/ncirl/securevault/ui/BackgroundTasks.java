@@ -0,0 +1,51 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package ie.ncirl.securevault.ui;
+
+import javax.swing.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * BackgroundTasks
+ *
+ * Runs slow work (PBKDF2, RSA, file crypto, JDBC) off the Event Dispatch
+ * Thread. Each task gets its own virtual thread, so several encrypt/decrypt
+ * jobs can run at once; the success/failure callbacks are delivered back on
+ * the EDT where they may touch Swing components.
+ *
+ * @author Mkwenje Tadiwa
+ */
+public class BackgroundTasks {
+
+    /**
+     * Work to run in the background.
+     */
+    @FunctionalInterface
+    public interface Work<T> {
+        T run() throws Exception;
+    }
+
+    private static final ExecutorService EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
+
+    private BackgroundTasks() {}
+
+    /**
+     * Runs the work on a virtual thread, then calls onSuccess or onFailure on
+     * the EDT.
+     */
+    public static <T> Future<?> submit(Work<T> work, Consumer<T> onSuccess, Consumer<Exception> onFailure) {
+        return EXECUTOR.submit(() -> {
+            try {
+                T result = work.run();
+                SwingUtilities.invokeLater(() -> onSuccess.accept(result));
+            } catch (Exception e) {
+                SwingUtilities.invokeLater(() -> onFailure.accept(e));
+            }
+        });
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package ie.ncirl.securevault.ui;
+
+import ie.ncirl.securevault.db.FileRecordDao;
+import ie.ncirl.securevault.model.FileRecord;
+
+import javax.swing.table.AbstractTableModel;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * FileTableModel
+ *
+ * Table model for the dashboard's file list that loads rows lazily.
+ *
+ * Only the row count is fetched up front. Rows are read in pages of
+ * {@link #PAGE_SIZE} with a keyset query (id < last id of the previous page)
+ * when the table first paints them, on a background thread; until then the
+ * cells show "Loading...". Recently used pages stay in a small LRU cache, so
+ * memory stays flat no matter how many records the user has.
+ *
+ * Must only be used from the EDT.
+ *
+ * @author Mkwenje Tadiwa
+ */
+public class FileTableModel extends AbstractTableModel {
+
+    static final int PAGE_SIZE = 200;
+    private static final int MAX_CACHED_PAGES = 50;
+
+    private static final String[] COLUMNS = {"ID", "Original Path", "Encrypted Path"};
+    private static final String LOADING = "Loading...";
+
+    private final FileRecordDao fileDao;
+    private final Consumer<Exception> onError;
+
+    private int userId;
+    private int rowCount;
+
+    // Bumped by refresh(); results of loads started before it are dropped.
+    private int generation;
+
+    private final Map<Integer, List<FileRecord>> pages =
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, List<FileRecord>> eldest) {
+                    return size() > MAX_CACHED_PAGES;
+                }
+            };
+
+    // Page index -> id of the last row of the previous page (the keyset boundary).
+    private final Map<Integer, Integer> boundaries = new HashMap<>();
+    private final Set<Integer> loading = new HashSet<>();
+
+    public FileTableModel(FileRecordDao fileDao, Consumer<Exception> onError) {
+        this.fileDao = fileDao;
+        this.onError = onError;
+    }
+
+    /**
+     * Drops everything cached and reloads the row count for the user.
+     */
+    public void refresh(int userId) {
+        int gen = ++generation;
+        this.userId = userId;
+        pages.clear();
+        boundaries.clear();
+        loading.clear();
+
+        BackgroundTasks.submit(() -> fileDao.countByUserId(userId), count -> {
+            if (gen != generation) return;
+            rowCount = count;
+            fireTableDataChanged();
+        }, onError);
+    }
+
+    /**
+     * The record shown in a row, or null if its page is not loaded yet.
+     */
+    public FileRecord getRecordAt(int row) {
+        List<FileRecord> page = pages.get(row / PAGE_SIZE);
+        int i = row % PAGE_SIZE;
+        return page != null && i < page.size() ? page.get(i) : null;
+    }
+
+    @Override
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMNS.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMNS[column];
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        FileRecord fr = getRecordAt(row);
+        if (fr == null) {
+            requestPage(row / PAGE_SIZE);
+            return LOADING;
+        }
+        switch (column) {
+            case 0: return fr.getId();
+            case 1: return fr.getOriginalPath();
+            default: return fr.getEncryptedPath();
+        }
+    }
+
+    private void requestPage(int pageIndex) {
+        if (!loading.add(pageIndex)) return;
+
+        int gen = generation;
+        int user = userId;
+        Integer knownBoundary = pageIndex == 0 ? Integer.valueOf(Integer.MAX_VALUE) : boundaries.get(pageIndex);
+
+        BackgroundTasks.submit(() -> {
+            int beforeId;
+            if (knownBoundary != null) {
+                beforeId = knownBoundary;
+            } else {
+                // Jumped past pages we never loaded: look the boundary up in the index.
+                beforeId = fileDao.getIdAt(user, pageIndex * PAGE_SIZE - 1);
+                if (beforeId < 0) return List.<FileRecord>of();
+            }
+            return fileDao.getPage(user, beforeId, PAGE_SIZE);
+        }, page -> {
+            if (gen != generation) return;
+            loading.remove(pageIndex);
+            pages.put(pageIndex, page);
+            if (!page.isEmpty()) {
+                boundaries.put(pageIndex + 1, page.get(page.size() - 1).getId());
+            }
+
+            int first = pageIndex * PAGE_SIZE;
+            int last = Math.min(rowCount, first + PAGE_SIZE) - 1;
+            if (last >= first) {
+                fireTableRowsUpdated(first, last);
+            }
+        }, ex -> {
+            if (gen != generation) return;
+            loading.remove(pageIndex);
+            onError.accept(ex);
+        });
+    }
+}
@@ -4,7 +4,7 @@
  */
 package ie.ncirl.securevault.ui;
 
-import ie.ncirl.securevault.auth.AuthService;
+import ie.ncirl.securevault.auth.LoginVerifier;
 import ie.ncirl.securevault.logging.AuditLogger;
 
 import javax.swing.*;
@@ -20,7 +20,10 @@ public class LoginFrame extends JFrame {
     private final JPasswordField passwordField = new JPasswordField(20);
     private final JTextField totpField = new JTextField(6);
 
-    private final AuthService authService = new AuthService();
+    private final LoginVerifier loginVerifier = LoginVerifier.shared();
+
+    private final JButton loginBtn = new JButton("Login");
+    private final JButton registerBtn = new JButton("Register");
 
     public LoginFrame() {
         setTitle("SecureVault - Login");
@@ -42,9 +45,6 @@ public class LoginFrame extends JFrame {
         gc.gridx = 0; gc.gridy = 2; panel.add(new JLabel("TOTP Code:"), gc);
         gc.gridx = 1; panel.add(totpField, gc);
 
-        JButton loginBtn = new JButton("Login");
-        JButton registerBtn = new JButton("Register");
-
         JPanel btns = new JPanel();
         btns.add(loginBtn);
         btns.add(registerBtn);
@@ -63,30 +63,52 @@ public class LoginFrame extends JFrame {
     }
 
     private void doLogin() {
+        String username = usernameField.getText().trim();
+        char[] password = passwordField.getPassword();
+        int code;
         try {
-            String username = usernameField.getText().trim();
-            char[] password = passwordField.getPassword();
-            int code = Integer.parseInt(totpField.getText().trim());
-
-            boolean ok = authService.verifyLogin(username, password, code);
-
-            // Clear password in memory after use
+            code = Integer.parseInt(totpField.getText().trim());
+        } catch (NumberFormatException ex) {
             java.util.Arrays.fill(password, '\0');
+            JOptionPane.showMessageDialog(this, "Login error: " + ex.getMessage());
+            return;
+        }
 
-            if (ok) {
+        // PBKDF2 + DB lookup take long enough to freeze the window; run them off the EDT.
+        setBusy(true);
+        BackgroundTasks.submit(() -> {
+            try {
+                return loginVerifier.verify(username, password, code, LoginVerifier.LOCAL_SOURCE);
+            } finally {
+                // Clear password in memory after use
+                java.util.Arrays.fill(password, '\0');
+            }
+        }, outcome -> {
+            setBusy(false);
+            if (outcome == LoginVerifier.Outcome.SUCCESS) {
                 JOptionPane.showMessageDialog(this, "✅ Login successful!");
                 // on success:
                 AuditLogger.log("LOGIN_SUCCESS", username, "Password+TOTP verified");
                 // Next: open dashboard
                 new VaultDashboardFrame(username).setVisible(true);
                 this.dispose();
-            } else {
+            } else if (outcome == LoginVerifier.Outcome.FAILED) {
                 JOptionPane.showMessageDialog(this, "❌ Login failed. Check password or TOTP.");
                 // on fail:
                 AuditLogger.log("LOGIN_FAIL", username, "Invalid password or TOTP");
+            } else {
+                JOptionPane.showMessageDialog(this, "Too many login attempts. Please wait and try again.");
+                AuditLogger.log("LOGIN_THROTTLED", username, outcome.name());
             }
-        } catch (Exception ex) {
+        }, ex -> {
+            setBusy(false);
             JOptionPane.showMessageDialog(this, "Login error: " + ex.getMessage());
-        }
+        });
+    }
+
+    private void setBusy(boolean busy) {
+        loginBtn.setEnabled(!busy);
+        registerBtn.setEnabled(!busy);
+        setCursor(busy ? Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR) : Cursor.getDefaultCursor());
     }
 }
\ No newline at end of file
@@ -26,6 +26,9 @@ public class RegisterFrame extends JFrame {
     private final AuthService authService = new AuthService();
     private final JFrame parent;
 
+    private final JButton createBtn = new JButton("Create Account");
+    private final JButton backBtn = new JButton("Back to Login");
+
     public RegisterFrame(JFrame parent) {
         this.parent = parent;
 
@@ -45,9 +48,6 @@ public class RegisterFrame extends JFrame {
         gc.gridx = 0; gc.gridy = 1; panel.add(new JLabel("Password:"), gc);
         gc.gridx = 1; panel.add(passwordField, gc);
 
-        JButton createBtn = new JButton("Create Account");
-        JButton backBtn = new JButton("Back to Login");
-
         JPanel btns = new JPanel();
         btns.add(createBtn);
         btns.add(backBtn);
@@ -66,26 +66,39 @@ public class RegisterFrame extends JFrame {
     }
 
     private void doRegister() {
-        try {
-            String username = usernameField.getText().trim();
-            char[] password = passwordField.getPassword();
-
-            User user = authService.register(username, password);
-
-            java.util.Arrays.fill(password, '\0');
+        String username = usernameField.getText().trim();
+        char[] password = passwordField.getPassword();
+        String qrFileName = "qrcode_" + username + ".png";
+
+        // Password hashing, RSA key generation and the insert run off the EDT.
+        setBusy(true);
+        BackgroundTasks.submit(() -> {
+            User user;
+            try {
+                user = authService.register(username, password);
+            } finally {
+                java.util.Arrays.fill(password, '\0');
+            }
 
             // Build otpauth URL + generate QR PNG
             String issuer = "SecureVault";
             String otpAuthUrl = TotpUtil.buildOtpAuthUrl(username, issuer, user.getTotpSecret());
-            String qrFileName = "qrcode_" + username + ".png";
             QrCodeUtil.generateQrCode(otpAuthUrl, qrFileName, 320, 320);
-
+            return user;
+        }, user -> {
+            setBusy(false);
             // Show QR inside Swing (A)
             new QrSetupDialog(this, username, user.getTotpSecret(), qrFileName).setVisible(true);
             AuditLogger.log("REGISTER_SUCCESS", username, "User created, QR generated for SafeAuth");
-
-        } catch (Exception ex) {
+        }, ex -> {
+            setBusy(false);
             JOptionPane.showMessageDialog(this, "Registration error: " + ex.getMessage());
-        }
+        });
+    }
+
+    private void setBusy(boolean busy) {
+        createBtn.setEnabled(!busy);
+        backBtn.setEnabled(!busy);
+        setCursor(busy ? Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR) : Cursor.getDefaultCursor());
     }
 }
@@ -0,0 +1,87 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package ie.ncirl.securevault.ui;
+
+import ie.ncirl.securevault.crypto.CryptoProgress;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * TransferJob
+ *
+ * State of one encrypt/decrypt job shown in the {@link TransferPanel}.
+ *
+ * The crypto code reports progress into it from worker threads; the panel
+ * reads it on the EDT. Cancelling only sets a flag: the next progress update
+ * (or {@link #checkCancelled()} between steps) throws CancellationException and
+ * the crypto code deletes its partial output.
+ *
+ * @author Mkwenje Tadiwa
+ */
+public class TransferJob implements CryptoProgress {
+
+    public enum State { RUNNING, DONE, FAILED, CANCELLED }
+
+    private final String title;
+    private final long startedNanos = System.nanoTime();
+
+    private volatile long bytesDone;
+    private volatile long bytesTotal;
+    private volatile boolean cancelRequested;
+    private volatile State state = State.RUNNING;
+    private volatile long finishedNanos;
+
+    public TransferJob(String title) {
+        this.title = title;
+    }
+
+    @Override
+    public void update(long bytesDone, long bytesTotal) {
+        this.bytesDone = bytesDone;
+        this.bytesTotal = bytesTotal;
+        checkCancelled();
+    }
+
+    /**
+     * Throws CancellationException if the user asked to cancel this job.
+     */
+    public void checkCancelled() {
+        if (cancelRequested) {
+            throw new CancellationException("Cancelled by user");
+        }
+    }
+
+    public void cancel() {
+        cancelRequested = true;
+    }
+
+    void finish(State finalState) {
+        finishedNanos = System.nanoTime();
+        state = finalState;
+    }
+
+    public String getTitle() { return title; }
+    public long getBytesDone() { return bytesDone; }
+    public long getBytesTotal() { return bytesTotal; }
+    public boolean isCancelRequested() { return cancelRequested; }
+    public State getState() { return state; }
+
+    /**
+     * Average throughput so far, in MB/s.
+     */
+    public double getMegabytesPerSecond() {
+        long end = state == State.RUNNING ? System.nanoTime() : finishedNanos;
+        double seconds = (end - startedNanos) / 1e9;
+        return seconds <= 0 ? 0 : bytesDone / (1024.0 * 1024.0) / seconds;
+    }
+
+    /**
+     * e.g. "12.5 / 300.0 MB  (85.2 MB/s)"
+     */
+    public String describeProgress() {
+        return String.format("%.1f / %.1f MB  (%.1f MB/s)",
+                bytesDone / (1024.0 * 1024.0), bytesTotal / (1024.0 * 1024.0), getMegabytesPerSecond());
+    }
+}
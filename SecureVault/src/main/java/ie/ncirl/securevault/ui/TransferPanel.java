@@ -0,0 +1,182 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package ie.ncirl.securevault.ui;
+
+import javax.swing.*;
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * TransferPanel
+ *
+ * One row per encrypt/decrypt job: name, progress bar with bytes and
+ * throughput, and a Cancel button (Dismiss once the job has ended).
+ *
+ * The bars are refreshed by a Swing timer rather than by every progress
+ * callback, so fast jobs do not flood the EDT. All methods must be called on
+ * the EDT.
+ *
+ * @author Mkwenje Tadiwa
+ */
+public class TransferPanel extends JPanel {
+
+    private static final int REFRESH_MS = 200;
+    private static final int BAR_MAX = 1000;
+
+    private final Map<TransferJob, Row> rows = new LinkedHashMap<>();
+    private final List<Runnable> idleActions = new ArrayList<>();
+    private final Timer timer = new Timer(REFRESH_MS, e -> refresh());
+
+    /**
+     * Widgets of one job.
+     */
+    private final class Row extends JPanel {
+        final TransferJob job;
+        final JLabel title = new JLabel();
+        final JProgressBar bar = new JProgressBar(0, BAR_MAX);
+        final JButton button = new JButton("Cancel");
+
+        Row(TransferJob job) {
+            super(new BorderLayout(8, 0));
+            this.job = job;
+
+            title.setText(job.getTitle());
+            title.setPreferredSize(new Dimension(260, title.getPreferredSize().height));
+            bar.setStringPainted(true);
+            bar.setIndeterminate(true);
+            bar.setString("Starting...");
+
+            button.addActionListener(e -> {
+                if (job.getState() == TransferJob.State.RUNNING) {
+                    job.cancel();
+                    button.setEnabled(false);
+                    button.setText("Cancelling...");
+                } else {
+                    dismiss(job);
+                }
+            });
+
+            add(title, BorderLayout.WEST);
+            add(bar, BorderLayout.CENTER);
+            add(button, BorderLayout.EAST);
+            setMaximumSize(new Dimension(Integer.MAX_VALUE, getPreferredSize().height));
+        }
+
+        void update() {
+            long total = job.getBytesTotal();
+            if (total <= 0) return;
+            bar.setIndeterminate(false);
+            bar.setValue((int) (job.getBytesDone() * BAR_MAX / total));
+            bar.setString(job.describeProgress());
+        }
+
+        void end(String message) {
+            update();
+            bar.setIndeterminate(false);
+            if (job.getState() == TransferJob.State.DONE) bar.setValue(BAR_MAX);
+            bar.setString(message);
+            button.setEnabled(true);
+            button.setText("Dismiss");
+        }
+    }
+
+    public TransferPanel() {
+        setLayout(new BoxLayout(this, BoxLayout.Y_AXIS));
+        setBorder(BorderFactory.createTitledBorder("Transfers"));
+    }
+
+    /**
+     * Adds a row for a new job and returns it; pass it to the crypto call as
+     * the progress listener.
+     */
+    public TransferJob start(String title) {
+        TransferJob job = new TransferJob(title);
+        Row row = new Row(job);
+        rows.put(job, row);
+        add(row);
+        revalidate();
+        repaint();
+        timer.start();
+        return job;
+    }
+
+    public void succeeded(TransferJob job, String message) {
+        end(job, TransferJob.State.DONE, "Done: " + message);
+    }
+
+    public void failed(TransferJob job, String message) {
+        end(job, TransferJob.State.FAILED, "Failed: " + message);
+    }
+
+    public void cancelled(TransferJob job) {
+        end(job, TransferJob.State.CANCELLED, "Cancelled");
+    }
+
+    public boolean hasRunningJobs() {
+        for (TransferJob job : rows.keySet()) {
+            if (job.getState() == TransferJob.State.RUNNING) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Asks every running job to stop.
+     */
+    public void cancelAll() {
+        for (Row row : rows.values()) {
+            if (row.job.getState() == TransferJob.State.RUNNING) {
+                row.job.cancel();
+                row.button.setEnabled(false);
+                row.button.setText("Cancelling...");
+            }
+        }
+    }
+
+    /**
+     * Runs the action on the EDT once no job is running (immediately if none is).
+     */
+    public void whenIdle(Runnable action) {
+        if (!hasRunningJobs()) {
+            action.run();
+        } else {
+            idleActions.add(action);
+        }
+    }
+
+    private void end(TransferJob job, TransferJob.State state, String message) {
+        job.finish(state);
+        Row row = rows.get(job);
+        if (row != null) {
+            row.end(message);
+        }
+        refresh();
+    }
+
+    private void dismiss(TransferJob job) {
+        Row row = rows.remove(job);
+        if (row != null) {
+            remove(row);
+            revalidate();
+            repaint();
+        }
+    }
+
+    private void refresh() {
+        for (Row row : rows.values()) {
+            if (row.job.getState() == TransferJob.State.RUNNING) {
+                row.update();
+            }
+        }
+        if (!hasRunningJobs()) {
+            timer.stop();
+            List<Runnable> actions = new ArrayList<>(idleActions);
+            idleActions.clear();
+            actions.forEach(Runnable::run);
+        }
+    }
+}
@@ -6,21 +6,24 @@ package ie.ncirl.securevault.ui;
 
 
 import ie.ncirl.securevault.auth.AuthService;
+import ie.ncirl.securevault.auth.EnvelopeKeyService;
+import ie.ncirl.securevault.auth.SessionKeyCache;
+import ie.ncirl.securevault.config.AppConfig;
 import ie.ncirl.securevault.crypto.AesGcmCrypto;
-import ie.ncirl.securevault.crypto.KeyWrapUtil;
+import ie.ncirl.securevault.crypto.SegmentManifest;
+import ie.ncirl.securevault.crypto.SvFileUpdater;
 import ie.ncirl.securevault.db.FileRecordDao;
 import ie.ncirl.securevault.logging.AuditLogger;
 import ie.ncirl.securevault.model.FileRecord;
+import ie.ncirl.securevault.vault.ChunkIngestResult;
+import ie.ncirl.securevault.vault.ChunkStore;
 
 import javax.crypto.SecretKey;
 import javax.swing.*;
-import javax.swing.table.DefaultTableModel;
 import java.awt.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.security.PrivateKey;
-import java.security.PublicKey;
-import java.util.List;
+import java.util.concurrent.CancellationException;
 
 /**
  * VaultDashboardFrame
@@ -32,16 +35,33 @@ import java.util.List;
  *  - "Delete original after encryption" checkbox (optional plaintext removal)
  *
  *  - Encrypt file using AES-GCM
- *  - Wrap AES key using user's RSA public key (RSA-OAEP)
+ *  - Wrap AES key under the user's key-encryption key (see {@link EnvelopeKeyService})
  *  - Store wrapped key in DB
  *
  *  - Load wrapped AES key from DB
- *  - Unwrap AES key using user's RSA private key (RSA-OAEP)
+ *  - Unwrap AES key (KEK, or RSA-OAEP for older records)
  *  - Decrypt file using AES-GCM
  *
+ *  - Older RSA-wrapped records are re-wrapped under the KEK in the background
+ *    after login
+ *
+ *  - With securevault.chunks.enabled, files go to the deduplicating
+ *    {@link ChunkStore} instead of a chosen .sv file
+ *
+ *  - "Update Selected" re-encrypts a changed source into the record's
+ *    existing .sv file, rewriting only the segments that changed (see
+ *    {@link SvFileUpdater}); the record's key stays the same
+ *
  * Extra UX improvement:
  *  - Suggest decrypted filename based on original name
  *  - Ask user if they want to open the decrypted file automatically
+ *
+ * All crypto, key and DB work runs through {@link BackgroundTasks}, never on
+ * the EDT. Each encrypt/decrypt gets a row in the {@link TransferPanel} with
+ * progress, throughput and Cancel; several jobs can run at once.
+ *
+ * Decoded RSA keys, the KEK and unwrapped file keys are reused from the
+ * {@link SessionKeyCache}, which is cleared on logout and on exit.
  */
 public class VaultDashboardFrame extends JFrame {
 
@@ -49,28 +69,35 @@ public class VaultDashboardFrame extends JFrame {
     private int userId;
 
     private final AuthService authService = new AuthService();
+    private final EnvelopeKeyService envelopeKeys = new EnvelopeKeyService();
     private final FileRecordDao fileDao = new FileRecordDao();
+    private final ChunkStore chunkStore = new ChunkStore(envelopeKeys);
 
     private final JCheckBox deleteOriginalCheck = new JCheckBox("Delete original after encryption");
 
-    private final DefaultTableModel tableModel = new DefaultTableModel(
-            new String[]{"ID", "Original Path", "Encrypted Path"}, 0
-    );
+    // Loads rows page by page as they are scrolled into view.
+    private final FileTableModel tableModel = new FileTableModel(fileDao,
+            ex -> JOptionPane.showMessageDialog(this, "Refresh error: " + ex.getMessage()));
     private final JTable table = new JTable(tableModel);
 
+    private final TransferPanel transfers = new TransferPanel();
+
+    private final JButton encryptBtn = new JButton("Encrypt File");
+    private final JButton decryptBtn = new JButton("Decrypt Selected");
+    private final JButton updateBtn = new JButton("Update Selected");
+
     public VaultDashboardFrame(String username) {
         this.username = username;
 
         setTitle("SecureVault - Dashboard");
-        setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-        setSize(900, 420);
+        // Closing waits for running jobs to clean up, see confirmClose().
+        setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
+        setSize(900, 520);
         setLocationRelativeTo(null);
 
         JLabel welcome = new JLabel("Welcome, " + username + "!", SwingConstants.LEFT);
         welcome.setFont(welcome.getFont().deriveFont(Font.BOLD, 16f));
 
-        JButton encryptBtn = new JButton("Encrypt File");
-        JButton decryptBtn = new JButton("Decrypt Selected");
         JButton refreshBtn = new JButton("Refresh");
         JButton logoutBtn = new JButton("Logout");
 
@@ -81,115 +108,225 @@ public class VaultDashboardFrame extends JFrame {
         buttons.add(deleteOriginalCheck);
         buttons.add(encryptBtn);
         buttons.add(decryptBtn);
+        buttons.add(updateBtn);
         buttons.add(refreshBtn);
         buttons.add(logoutBtn);
 
         top.add(buttons, BorderLayout.EAST);
 
+        JScrollPane transferScroll = new JScrollPane(transfers);
+        transferScroll.setPreferredSize(new Dimension(900, 130));
+
         add(top, BorderLayout.NORTH);
         add(new JScrollPane(table), BorderLayout.CENTER);
+        add(transferScroll, BorderLayout.SOUTH);
 
         encryptBtn.addActionListener(e -> encryptFileFlow());
         decryptBtn.addActionListener(e -> decryptSelectedFlow());
+        updateBtn.addActionListener(e -> updateSelectedFlow());
         refreshBtn.addActionListener(e -> refreshTable());
         logoutBtn.addActionListener(e -> {
-            AuditLogger.log("LOGOUT", username, "User logged out");
-            new LoginFrame().setVisible(true);
-            dispose();
+            if (!confirmStopJobs()) return;
+            transfers.whenIdle(() -> {
+                SessionKeyCache.clear();
+                AuditLogger.log("LOGOUT", username, "User logged out");
+                new LoginFrame().setVisible(true);
+                dispose();
+            });
+        });
+        addWindowListener(new java.awt.event.WindowAdapter() {
+            @Override
+            public void windowClosing(java.awt.event.WindowEvent e) {
+                if (confirmStopJobs()) {
+                    transfers.whenIdle(() -> {
+                        SessionKeyCache.clear();
+                        System.exit(0);
+                    });
+                }
+            }
         });
 
-        try {
-            userId = authService.getUserId(username);
+        // Nothing to act on until we know who the user is.
+        encryptBtn.setEnabled(false);
+        decryptBtn.setEnabled(false);
+        updateBtn.setEnabled(false);
+        BackgroundTasks.submit(() -> authService.getUserId(username), id -> {
+            userId = id;
+            encryptBtn.setEnabled(true);
+            decryptBtn.setEnabled(true);
+            updateBtn.setEnabled(true);
             refreshTable();
-        } catch (Exception ex) {
-            JOptionPane.showMessageDialog(this, "Dashboard error: " + ex.getMessage());
-        }
+            migrateKeys();
+        }, ex -> JOptionPane.showMessageDialog(this, "Dashboard error: " + ex.getMessage()));
     }
 
-    private void refreshTable() {
-        try {
-            tableModel.setRowCount(0);
-            List<FileRecord> files = fileDao.getByUserId(userId);
-            for (FileRecord fr : files) {
-                tableModel.addRow(new Object[]{fr.getId(), fr.getOriginalPath(), fr.getEncryptedPath()});
+    /**
+     * Re-wraps the user's older RSA-wrapped file keys under the KEK, in the
+     * background. Decryption works either way, so failures are only logged.
+     */
+    private void migrateKeys() {
+        if (!AppConfig.getBoolean("securevault.keys.migrate", true)) return;
+
+        BackgroundTasks.submit(() -> envelopeKeys.migrateUser(userId), migrated -> {
+            if (migrated > 0) {
+                AuditLogger.log("KEY_MIGRATION", username, "Re-wrapped " + migrated + " file keys under the user KEK");
             }
-        } catch (Exception ex) {
-            JOptionPane.showMessageDialog(this, "Refresh error: " + ex.getMessage());
-        }
+        }, ex -> AuditLogger.log("KEY_MIGRATION_FAIL", username, ex.getMessage()));
+    }
+
+    /**
+     * If jobs are running, asks whether to cancel them. Returns false if the
+     * user wants to keep them running.
+     */
+    private boolean confirmStopJobs() {
+        if (!transfers.hasRunningJobs()) return true;
+        int confirm = JOptionPane.showConfirmDialog(
+                this,
+                "Encryption/decryption jobs are still running.\nCancel them and continue?",
+                "Jobs running",
+                JOptionPane.YES_NO_OPTION
+        );
+        if (confirm != JOptionPane.YES_OPTION) return false;
+        transfers.cancelAll();
+        return true;
+    }
+
+    private void refreshTable() {
+        tableModel.refresh(userId);
     }
 
     /**
-     * Encrypt + RSA wrap AES key + store wrapped key
+     * Encrypt + wrap AES key under the KEK + store wrapped key
      */
     private void encryptFileFlow() {
-        try {
-            JFileChooser chooser = new JFileChooser();
-            chooser.setDialogTitle("Select a file to encrypt");
-            int result = chooser.showOpenDialog(this);
-            if (result != JFileChooser.APPROVE_OPTION) return;
+        JFileChooser chooser = new JFileChooser();
+        chooser.setDialogTitle("Select a file to encrypt");
+        int result = chooser.showOpenDialog(this);
+        if (result != JFileChooser.APPROVE_OPTION) return;
 
-            Path input = chooser.getSelectedFile().toPath();
+        Path input = chooser.getSelectedFile().toPath();
 
-            JFileChooser saveChooser = new JFileChooser();
-            saveChooser.setDialogTitle("Save encrypted file as...");
-            saveChooser.setSelectedFile(new java.io.File(input.getFileName().toString() + ".sv"));
-            int saveResult = saveChooser.showSaveDialog(this);
-            if (saveResult != JFileChooser.APPROVE_OPTION) return;
+        if (ChunkStore.isEnabled()) {
+            storeChunkedFlow(input);
+            return;
+        }
+
+        JFileChooser saveChooser = new JFileChooser();
+        saveChooser.setDialogTitle("Save encrypted file as...");
+        saveChooser.setSelectedFile(new java.io.File(input.getFileName().toString() + ".sv"));
+        int saveResult = saveChooser.showSaveDialog(this);
+        if (saveResult != JFileChooser.APPROVE_OPTION) return;
+
+        Path output = saveChooser.getSelectedFile().toPath();
+        boolean deleteOriginal = deleteOriginalCheck.isSelected();
 
-            Path output = saveChooser.getSelectedFile().toPath();
+        TransferJob job = transfers.start("Encrypt " + input.getFileName());
 
+        BackgroundTasks.submit(() -> {
             // Generate per-file AES key (AES-256)
             SecretKey aesKey = AesGcmCrypto.generateKey();
 
-            // Encrypt the file using AES-GCM
-            AesGcmCrypto.encryptFile(input, output, aesKey);
+            // Encrypt the file using AES-GCM (deletes its partial output if cancelled)
+            AesGcmCrypto.encryptFile(input, output, aesKey, job);
 
-            // Load user's RSA public key from DB
-            PublicKey publicKey = authService.getUserPublicKey(userId);
-            if (publicKey == null) {
-                throw new Exception("User RSA public key not found. Register again or reset DB.");
-            }
+            try {
+                job.checkCancelled();
+
+                // Wrap AES key under the user's KEK (AES key wrap)
+                byte[] wrappedKey = envelopeKeys.wrapFileKey(userId, aesKey);
 
-            // Wrap AES key using RSA-OAEP (secure key storage)
-            byte[] wrappedKey = KeyWrapUtil.wrapKey(aesKey, publicKey);
+                job.checkCancelled();
 
-            // Store record in DB including wrapped AES key
-            fileDao.insert(userId, input.toString(), output.toString(), wrappedKey);
+                // Store record in DB including wrapped AES key
+                fileDao.insert(userId, input.toString(), output.toString(), wrappedKey,
+                        FileRecord.KEY_SCHEME_KEK);
+            } catch (Exception e) {
+                // Without a DB record nobody can decrypt the output; don't leave it behind.
+                Files.deleteIfExists(output);
+                throw e;
+            }
 
             AuditLogger.log("ENCRYPT_FILE", username,
-                    "Encrypted " + input + " -> " + output + " (AES-GCM + RSA-wrapped key)");
+                    "Encrypted " + input + " -> " + output + " (AES-GCM + KEK-wrapped key)");
+            return output;
+        }, done -> {
+            transfers.succeeded(job, "encrypted to " + output.getFileName());
+            refreshTable();
 
             // Optional plaintext deletion
-            if (deleteOriginalCheck.isSelected()) {
-                int confirm = JOptionPane.showConfirmDialog(
-                        this,
-                        "Are you sure you want to delete the original file?\n\n" + input,
-                        "Confirm delete",
-                        JOptionPane.YES_NO_OPTION
-                );
-
-                if (confirm == JOptionPane.YES_OPTION) {
-                    try {
-                        Files.deleteIfExists(input);
-                        AuditLogger.log("PLAINTEXT_DELETED", username, "Deleted original: " + input);
-                    } catch (Exception ex) {
-                        AuditLogger.log("PLAINTEXT_DELETE_FAIL", username, ex.getMessage());
-                        JOptionPane.showMessageDialog(this, "Could not delete original file: " + ex.getMessage());
-                    }
-                }
+            if (deleteOriginal) {
+                confirmDeleteOriginal(input);
+            }
+        }, ex -> {
+            if (ex instanceof CancellationException) {
+                transfers.cancelled(job);
+                AuditLogger.log("ENCRYPT_CANCELLED", username, "Cancelled " + input + " -> " + output);
+                return;
             }
+            transfers.failed(job, ex.getMessage());
+            AuditLogger.log("ENCRYPT_FAIL", username, ex.getMessage());
+            JOptionPane.showMessageDialog(this, "Encrypt error: " + ex.getMessage());
+        });
+    }
+
+    /**
+     * Chunk + encrypt only the chunks the vault does not have yet + store the
+     * manifest (see {@link ChunkStore})
+     */
+    private void storeChunkedFlow(Path input) {
+        boolean deleteOriginal = deleteOriginalCheck.isSelected();
+
+        TransferJob job = transfers.start("Store " + input.getFileName());
+
+        BackgroundTasks.submit(() -> {
+            ChunkIngestResult stored = chunkStore.ingest(userId, input, job);
 
-            JOptionPane.showMessageDialog(this, "✅ File encrypted successfully!");
+            AuditLogger.log("ENCRYPT_FILE", username,
+                    "Stored " + input + " in the chunk store as record " + stored.getFileId() + ": " + stored);
+            return stored;
+        }, stored -> {
+            transfers.succeeded(job, stored.getNewChunks() + " of " + stored.getChunks() + " chunks new");
             refreshTable();
 
-        } catch (Exception ex) {
+            if (deleteOriginal) {
+                confirmDeleteOriginal(input);
+            }
+        }, ex -> {
+            if (ex instanceof CancellationException) {
+                transfers.cancelled(job);
+                AuditLogger.log("ENCRYPT_CANCELLED", username, "Cancelled storing " + input);
+                return;
+            }
+            transfers.failed(job, ex.getMessage());
             AuditLogger.log("ENCRYPT_FAIL", username, ex.getMessage());
             JOptionPane.showMessageDialog(this, "Encrypt error: " + ex.getMessage());
+        });
+    }
+
+    /**
+     * Optional plaintext deletion, after the user confirms.
+     */
+    private void confirmDeleteOriginal(Path input) {
+        int confirm = JOptionPane.showConfirmDialog(
+                this,
+                "Are you sure you want to delete the original file?\n\n" + input,
+                "Confirm delete",
+                JOptionPane.YES_NO_OPTION
+        );
+
+        if (confirm == JOptionPane.YES_OPTION) {
+            try {
+                Files.deleteIfExists(input);
+                AuditLogger.log("PLAINTEXT_DELETED", username, "Deleted original: " + input);
+            } catch (Exception ex) {
+                AuditLogger.log("PLAINTEXT_DELETE_FAIL", username, ex.getMessage());
+                JOptionPane.showMessageDialog(this, "Could not delete original file: " + ex.getMessage());
+            }
         }
     }
 
     /**
-     * Decrypt selected + load wrapped key + RSA unwrap AES key + decrypt
+     * Decrypt selected + load wrapped key + unwrap AES key + decrypt
      * (Improved: suggests decrypted filename + offers to open file)
      */
     private void decryptSelectedFlow() {
@@ -199,52 +336,66 @@ public class VaultDashboardFrame extends JFrame {
             return;
         }
 
-        int fileId = (int) tableModel.getValueAt(row, 0);
-        String originalPathStr = (String) tableModel.getValueAt(row, 1);
-        String encryptedPathStr = (String) tableModel.getValueAt(row, 2);
+        FileRecord record = tableModel.getRecordAt(row);
+        if (record == null) {
+            JOptionPane.showMessageDialog(this, "That row is still loading, try again in a moment.");
+            return;
+        }
 
-        try {
-            Path encryptedPath = Path.of(encryptedPathStr);
+        int fileId = record.getId();
+        String originalPathStr = record.getOriginalPath();
+        String encryptedPathStr = record.getEncryptedPath();
 
-            JFileChooser saveChooser = new JFileChooser();
-            saveChooser.setDialogTitle("Save decrypted file as...");
+        Path encryptedPath = Path.of(encryptedPathStr);
 
-            // ✅ Better default decrypted filename: OriginalName_decrypted.ext
-            String originalName = java.nio.file.Path.of(originalPathStr).getFileName().toString();
-            String decryptedName;
-            int dot = originalName.lastIndexOf('.');
-            if (dot != -1) {
-                decryptedName = originalName.substring(0, dot) + "_decrypted" + originalName.substring(dot);
-            } else {
-                decryptedName = originalName + "_decrypted";
-            }
-            saveChooser.setSelectedFile(new java.io.File(decryptedName));
+        JFileChooser saveChooser = new JFileChooser();
+        saveChooser.setDialogTitle("Save decrypted file as...");
 
-            int saveResult = saveChooser.showSaveDialog(this);
-            if (saveResult != JFileChooser.APPROVE_OPTION) return;
+        // ✅ Better default decrypted filename: OriginalName_decrypted.ext
+        String originalName = java.nio.file.Path.of(originalPathStr).getFileName().toString();
+        String decryptedName;
+        int dot = originalName.lastIndexOf('.');
+        if (dot != -1) {
+            decryptedName = originalName.substring(0, dot) + "_decrypted" + originalName.substring(dot);
+        } else {
+            decryptedName = originalName + "_decrypted";
+        }
+        saveChooser.setSelectedFile(new java.io.File(decryptedName));
 
-            Path output = saveChooser.getSelectedFile().toPath();
+        int saveResult = saveChooser.showSaveDialog(this);
+        if (saveResult != JFileChooser.APPROVE_OPTION) return;
 
-            // Get wrapped AES key from DB
-            byte[] wrappedKey = fileDao.getWrappedKeyById(fileId);
-            if (wrappedKey == null || wrappedKey.length == 0) {
-                throw new Exception("Wrapped key not found for this record.");
-            }
+        Path output = saveChooser.getSelectedFile().toPath();
+
+        boolean chunked = record.getKeyScheme() == FileRecord.KEY_SCHEME_CHUNKED;
 
-            // Load user's RSA private key from DB
-            PrivateKey privateKey = authService.getUserPrivateKey(userId);
-            if (privateKey == null) {
-                throw new Exception("User RSA private key not found. Register again or reset DB.");
+        TransferJob job = transfers.start("Decrypt "
+                + (chunked ? Path.of(originalPathStr).getFileName() : encryptedPath.getFileName()));
+
+        BackgroundTasks.submit(() -> {
+            if (chunked) {
+                // Reassemble from the chunk store (no per-file key)
+                chunkStore.restore(record, output, job);
+
+                AuditLogger.log("DECRYPT_FILE", username,
+                        "Restored record " + fileId + " -> " + output + " from the chunk store");
+                return output;
             }
 
-            // Unwrap AES key using RSA-OAEP
-            SecretKey aesKey = KeyWrapUtil.unwrapKey(wrappedKey, privateKey);
+            SecretKey aesKey = fileKey(fileId);
+            job.checkCancelled();
+
+            // Files updated in place carry a segment manifest; finish any interrupted update first
+            SvFileUpdater.recover(encryptedPath, () -> segmentManifest(fileId));
 
-            // Decrypt file using AES-GCM
-            AesGcmCrypto.decryptFile(encryptedPath, output, aesKey);
+            // Decrypt file using AES-GCM (deletes its partial output if cancelled)
+            AesGcmCrypto.decryptUpdatable(encryptedPath, output, aesKey, () -> segmentManifest(fileId), job);
 
             AuditLogger.log("DECRYPT_FILE", username,
-                    "Decrypted " + encryptedPath + " -> " + output + " (RSA-unwrapped key + AES-GCM)");
+                    "Decrypted " + encryptedPath + " -> " + output + " (unwrapped key + AES-GCM)");
+            return output;
+        }, done -> {
+            transfers.succeeded(job, "decrypted to " + output.getFileName());
 
             // ✅ Ask to open decrypted file
             int open = JOptionPane.showConfirmDialog(
@@ -262,10 +413,98 @@ public class VaultDashboardFrame extends JFrame {
                             "Could not open file automatically:\n" + ex.getMessage());
                 }
             }
-
-        } catch (Exception ex) {
+        }, ex -> {
+            if (ex instanceof CancellationException) {
+                transfers.cancelled(job);
+                AuditLogger.log("DECRYPT_CANCELLED", username, "Cancelled " + encryptedPath + " -> " + output);
+                return;
+            }
+            transfers.failed(job, ex.getMessage());
             AuditLogger.log("DECRYPT_FAIL", username, ex.getMessage());
             JOptionPane.showMessageDialog(this, "Decrypt error: " + ex.getMessage());
+        });
+    }
+
+    /**
+     * Update selected + choose the changed source + re-seal only the changed
+     * segments of the existing .sv file + store the new segment manifest
+     */
+    private void updateSelectedFlow() {
+        int row = table.getSelectedRow();
+        if (row == -1) {
+            JOptionPane.showMessageDialog(this, "Select a file record first.");
+            return;
+        }
+
+        FileRecord record = tableModel.getRecordAt(row);
+        if (record == null) {
+            JOptionPane.showMessageDialog(this, "That row is still loading, try again in a moment.");
+            return;
+        }
+        if (record.getKeyScheme() == FileRecord.KEY_SCHEME_CHUNKED) {
+            JOptionPane.showMessageDialog(this,
+                    "This file is in the chunk store. Encrypt the new version instead;\n"
+                    + "only its changed chunks will be stored.");
+            return;
         }
+
+        int fileId = record.getId();
+        Path encryptedPath = Path.of(record.getEncryptedPath());
+
+        JFileChooser chooser = new JFileChooser();
+        chooser.setDialogTitle("Choose the new version of the file");
+        chooser.setSelectedFile(new java.io.File(record.getOriginalPath()));
+
+        int result = chooser.showOpenDialog(this);
+        if (result != JFileChooser.APPROVE_OPTION) return;
+
+        Path source = chooser.getSelectedFile().toPath();
+
+        TransferJob job = transfers.start("Update " + encryptedPath.getFileName());
+
+        BackgroundTasks.submit(() -> {
+            SecretKey aesKey = fileKey(fileId);
+            job.checkCancelled();
+
+            // Only the segments that differ from the stored manifest are re-encrypted and written
+            SvFileUpdater.Result updated = SvFileUpdater.update(source, encryptedPath, aesKey,
+                    () -> segmentManifest(fileId), manifest -> fileDao.saveManifest(fileId, manifest.encode()), job);
+
+            AuditLogger.log("UPDATE_FILE", username,
+                    "Updated " + encryptedPath + " from " + source + " (" + updated + ")");
+            return updated;
+        }, updated -> transfers.succeeded(job, updated.toString()), ex -> {
+            if (ex instanceof CancellationException) {
+                transfers.cancelled(job);
+                AuditLogger.log("UPDATE_CANCELLED", username, "Cancelled " + source + " -> " + encryptedPath);
+                return;
+            }
+            transfers.failed(job, ex.getMessage());
+            AuditLogger.log("UPDATE_FAIL", username, ex.getMessage());
+            JOptionPane.showMessageDialog(this, "Update error: " + ex.getMessage());
+        });
+    }
+
+    /**
+     * Unwrapped AES key of a record, from the session cache or via the
+     * record's key scheme. Runs in the background.
+     */
+    private SecretKey fileKey(int fileId) throws Exception {
+        return SessionKeyCache.getFileKey(fileId, () -> {
+            FileRecord withKey = fileDao.getByIdWithKey(fileId);
+            if (withKey == null) {
+                throw new Exception("File record not found.");
+            }
+            return envelopeKeys.unwrapFileKey(withKey);
+        });
+    }
+
+    /**
+     * Stored segment manifest of a record, or null if it was never updated in
+     * place. Runs in the background.
+     */
+    private SegmentManifest segmentManifest(int fileId) throws Exception {
+        byte[] manifest = fileDao.getManifest(fileId);
+        return SegmentManifest.isSegmentManifest(manifest) ? SegmentManifest.decode(manifest) : null;
     }
 }
\ No newline at end of file
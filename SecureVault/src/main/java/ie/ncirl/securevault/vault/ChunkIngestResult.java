@@ -0,0 +1,49 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package ie.ncirl.securevault.vault;
+
+/**
+ * ChunkIngestResult
+ *
+ * Outcome of storing one file in the {@link ChunkStore}: the new record id and
+ * how much of the file was new, as opposed to already present in the user's
+ * vault.
+ *
+ * @author Mkwenje Tadiwa
+ */
+public class ChunkIngestResult {
+
+    private final int fileId;
+    private final long totalBytes;
+    private final int chunks;
+    private final int newChunks;
+    private final long newBytes;
+
+    public ChunkIngestResult(int fileId, long totalBytes, int chunks, int newChunks, long newBytes) {
+        this.fileId = fileId;
+        this.totalBytes = totalBytes;
+        this.chunks = chunks;
+        this.newChunks = newChunks;
+        this.newBytes = newBytes;
+    }
+
+    public int getFileId() { return fileId; }
+    public long getTotalBytes() { return totalBytes; }
+    public int getChunks() { return chunks; }
+    public int getNewChunks() { return newChunks; }
+    public long getNewBytes() { return newBytes; }
+
+    /** Share of the file's bytes that were already stored, 0..1. */
+    public double getDedupRatio() {
+        return totalBytes == 0 ? 0 : 1.0 - (double) newBytes / totalBytes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d chunks (%d new), %.1f MB (%.1f MB new, %.0f%% deduplicated)",
+                chunks, newChunks, totalBytes / (1024.0 * 1024.0), newBytes / (1024.0 * 1024.0),
+                getDedupRatio() * 100);
+    }
+}
@@ -0,0 +1,391 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package ie.ncirl.securevault.vault;
+
+import ie.ncirl.securevault.auth.EnvelopeKeyService;
+import ie.ncirl.securevault.config.AppConfig;
+import ie.ncirl.securevault.crypto.CryptoProgress;
+import ie.ncirl.securevault.crypto.Hkdf;
+import ie.ncirl.securevault.db.Database;
+import ie.ncirl.securevault.db.VaultStore;
+import ie.ncirl.securevault.metrics.Counter;
+import ie.ncirl.securevault.metrics.LatencyHistogram;
+import ie.ncirl.securevault.metrics.Metrics;
+import ie.ncirl.securevault.model.ChunkRecord;
+import ie.ncirl.securevault.model.FileRecord;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * ChunkStore
+ *
+ * Deduplicating storage for a user's files. Instead of one independent .sv
+ * ciphertext per file, a file is split with {@link ContentDefinedChunker} and
+ * every chunk is encrypted and written once per user; a file is just a
+ * manifest (the list of its chunk ids and lengths, in the file_manifests
+ * table) on a FileRecord with KEY_SCHEME_CHUNKED. Storing a revised version
+ * of a large document or VM image then only costs the chunks that changed.
+ *
+ * Keys, both derived (HKDF) from the user's KEK (see {@link EnvelopeKeyService}):
+ *  - an HMAC-SHA256 key for chunk ids, so ids only match within one user's
+ *    vault and do not reveal a plain hash of the content;
+ *  - an AES-256 key for the chunks themselves.
+ *
+ * Chunk file, at &lt;root&gt;/&lt;user id&gt;/&lt;first 2 hex digits&gt;/&lt;chunk id&gt;:
+ *
+ *   [version (1)] [nonce (12)] [AES-GCM ciphertext + tag], AAD = chunk id
+ *
+ * Nonces are random: each chunk is encrypted once, when it is first seen.
+ * The AAD ties a chunk file to its id, so a swapped or corrupted file fails
+ * authentication on restore.
+ *
+ * Ingest makes two passes over the input. The first only finds boundaries
+ * and computes ids; after one batched lookup of which ids exist, the second
+ * reads back, encrypts and writes just the new chunks. Unchanged data thus
+ * costs an HMAC, not AES plus a disk write. The record, its manifest and the
+ * new chunk rows are inserted in one transaction; chunk files written by an
+ * ingest that then fails are not referenced and are rewritten when needed.
+ *
+ * Settings (see {@link AppConfig}):
+ *  - securevault.chunks.enabled  store new files here instead of as .sv files, default false
+ *  - securevault.chunks.dir      root directory of the chunk files, default "chunks"
+ *
+ * @author Mkwenje Tadiwa
+ */
+public class ChunkStore {
+
+    private static final int FORMAT_VERSION = 1;
+    private static final int MANIFEST_VERSION = 1;
+    private static final int NONCE_BYTES = 12;
+    private static final int TAG_BITS = 128;
+    private static final int ID_BYTES = 32;
+    private static final int MANIFEST_ENTRY_BYTES = ID_BYTES + 4;
+    private static final int CHUNK_OVERHEAD = 1 + NONCE_BYTES + TAG_BITS / 8;
+
+    // Read buffer for the boundary scan; a multiple of the largest chunk.
+    private static final int SCAN_BUFFER_CHUNKS = 4;
+
+    private static final byte[] ID_KEY_INFO = "securevault chunk id".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] ENCRYPTION_KEY_INFO = "securevault chunk encryption".getBytes(StandardCharsets.UTF_8);
+
+    private static final HexFormat HEX = HexFormat.of();
+    private static final SecureRandom random = new SecureRandom();
+
+    private static final LatencyHistogram INGEST_TIME = Metrics.histogram("vault.chunks.ingest");
+    private static final LatencyHistogram RESTORE_TIME = Metrics.histogram("vault.chunks.restore");
+    private static final Counter NEW_CHUNKS = Metrics.counter("vault.chunks.new");
+    private static final Counter NEW_BYTES = Metrics.counter("vault.chunks.new.bytes");
+    private static final Counter DEDUP_CHUNKS = Metrics.counter("vault.chunks.dedup");
+    private static final Counter DEDUP_BYTES = Metrics.counter("vault.chunks.dedup.bytes");
+
+    private final VaultStore store;
+    private final EnvelopeKeyService envelopeKeys;
+    private final Path root;
+    private final ContentDefinedChunker chunker;
+
+    public ChunkStore(EnvelopeKeyService envelopeKeys) {
+        this(Database.getStore(), envelopeKeys, Path.of(AppConfig.getString("securevault.chunks.dir", "chunks")),
+                new ContentDefinedChunker());
+    }
+
+    public ChunkStore(VaultStore store, EnvelopeKeyService envelopeKeys, Path root, ContentDefinedChunker chunker) {
+        this.store = store;
+        this.envelopeKeys = envelopeKeys;
+        this.root = root;
+        this.chunker = chunker;
+    }
+
+    /**
+     * True if new files should go to the chunk store (securevault.chunks.enabled).
+     * Chunked records can be restored either way.
+     */
+    public static boolean isEnabled() {
+        return AppConfig.getBoolean("securevault.chunks.enabled", false);
+    }
+
+    /**
+     * A chunk found by the boundary scan.
+     */
+    private static final class Entry {
+        final byte[] id;
+        final String hex;
+        final long offset;
+        final int length;
+
+        Entry(byte[] id, long offset, int length) {
+            this.id = id;
+            this.hex = HEX.formatHex(id);
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Stores a file for the user and inserts its record. Progress covers the
+     * scan of the whole file plus the encryption of the new chunks; throwing
+     * CancellationException from it stops the ingest before anything is
+     * recorded.
+     */
+    public ChunkIngestResult ingest(int userId, Path input, CryptoProgress progress) throws Exception {
+        long start = System.nanoTime();
+        SecretKey kek = envelopeKeys.getUserKek(userId);
+        byte[] idKey = deriveKey(kek, ID_KEY_INFO);
+        SecretKey encryptionKey = new SecretKeySpec(deriveKey(kek, ENCRYPTION_KEY_INFO), "AES");
+
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(idKey, "HmacSHA256"));
+        Arrays.fill(idKey, (byte) 0);
+
+        // Pass 1: boundaries and ids
+        List<Entry> entries = scan(input, mac, progress);
+        long total = 0;
+        Set<String> distinct = new LinkedHashSet<>();
+        for (Entry e : entries) {
+            total += e.length;
+            distinct.add(e.hex);
+        }
+
+        // New = not stored yet, and the first occurrence within this file
+        Set<String> existing = store.findExistingChunks(userId, distinct);
+        Set<String> planned = new HashSet<>();
+        List<Entry> toWrite = new ArrayList<>();
+        long newBytes = 0;
+        for (Entry e : entries) {
+            if (!existing.contains(e.hex) && planned.add(e.hex)) {
+                toWrite.add(e);
+                newBytes += e.length;
+            }
+        }
+
+        // Pass 2: encrypt and write the new chunks only
+        Path userDir = root.resolve(Integer.toString(userId));
+        List<ChunkRecord> newChunks = new ArrayList<>(toWrite.size());
+        if (!toWrite.isEmpty()) {
+            long done = total;
+            long work = total + newBytes;
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            ByteBuffer plain = ByteBuffer.allocate(chunker.getMaxSize());
+            byte[] sealed = new byte[chunker.getMaxSize() + CHUNK_OVERHEAD];
+
+            try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ)) {
+                for (Entry e : toWrite) {
+                    plain.clear().limit(e.length);
+                    while (plain.hasRemaining()) {
+                        if (in.read(plain, e.offset + plain.position()) < 0) {
+                            throw new Exception("File changed while it was being stored: " + input);
+                        }
+                    }
+
+                    // The id was computed in pass 1; make sure these are still the same bytes.
+                    mac.update(plain.array(), 0, e.length);
+                    if (!MessageDigest.isEqual(mac.doFinal(), e.id)) {
+                        throw new Exception("File changed while it was being stored: " + input);
+                    }
+
+                    int length = seal(cipher, encryptionKey, e.id, plain.array(), e.length, sealed);
+                    writeChunk(userDir, e.hex, sealed, length);
+                    newChunks.add(new ChunkRecord(e.hex, e.length, length));
+
+                    done += e.length;
+                    progress.update(done, work);
+                }
+            }
+        }
+
+        FileRecord record = new FileRecord(0, userId, input.toString(), userDir.toString(), null,
+                FileRecord.KEY_SCHEME_CHUNKED);
+        int fileId = store.insertChunkedFile(record, encodeManifest(entries), newChunks);
+
+        NEW_CHUNKS.add(newChunks.size());
+        NEW_BYTES.add(newBytes);
+        DEDUP_CHUNKS.add(entries.size() - newChunks.size());
+        DEDUP_BYTES.add(total - newBytes);
+        INGEST_TIME.recordSince(start);
+        return new ChunkIngestResult(fileId, total, entries.size(), newChunks.size(), newBytes);
+    }
+
+    /**
+     * Finds the chunk boundaries of the input and computes each chunk id.
+     */
+    private List<Entry> scan(Path input, Mac mac, CryptoProgress progress) throws Exception {
+        long size = Files.size(input);
+        int maxChunk = chunker.getMaxSize();
+        byte[] buf = new byte[maxChunk * SCAN_BUFFER_CHUNKS];
+        List<Entry> entries = new ArrayList<>();
+
+        int start = 0;
+        int end = 0;
+        long offset = 0;
+        boolean eof = false;
+        try (InputStream in = Files.newInputStream(input)) {
+            while (true) {
+                // The chunker needs a full max-size window except at the end of the file.
+                if (!eof && end - start < maxChunk) {
+                    System.arraycopy(buf, start, buf, 0, end - start);
+                    end -= start;
+                    start = 0;
+                    end += in.readNBytes(buf, end, buf.length - end);
+                    eof = end < buf.length;
+                }
+                if (start == end) break;
+
+                int n = chunker.cut(buf, start, end - start);
+                mac.update(buf, start, n);
+                entries.add(new Entry(mac.doFinal(), offset, n));
+                start += n;
+                offset += n;
+                progress.update(offset, size);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Writes a chunked record's content to output, authenticating every
+     * chunk. If anything fails the partial output is removed.
+     */
+    public void restore(FileRecord record, Path output, CryptoProgress progress) throws Exception {
+        long start = System.nanoTime();
+        byte[] manifest = store.getFileManifest(record.getId());
+        if (manifest == null) {
+            throw new Exception("Chunk manifest not found for record " + record.getId());
+        }
+        if (manifest.length < 5 || manifest[0] != MANIFEST_VERSION
+                || (manifest.length - 5) % MANIFEST_ENTRY_BYTES != 0) {
+            throw new Exception("Malformed chunk manifest for record " + record.getId());
+        }
+
+        ByteBuffer entries = ByteBuffer.wrap(manifest, 5, manifest.length - 5);
+        int count = ByteBuffer.wrap(manifest, 1, 4).getInt();
+        if ((long) count * MANIFEST_ENTRY_BYTES != entries.remaining()) {
+            throw new Exception("Malformed chunk manifest for record " + record.getId());
+        }
+
+        long total = 0;
+        int largest = 0;
+        for (int i = 0; i < count; i++) {
+            int length = entries.getInt(5 + i * MANIFEST_ENTRY_BYTES + ID_BYTES);
+            total += length;
+            largest = Math.max(largest, length);
+        }
+
+        SecretKey kek = envelopeKeys.getUserKek(record.getUserId());
+        SecretKey encryptionKey = new SecretKeySpec(deriveKey(kek, ENCRYPTION_KEY_INFO), "AES");
+        Path userDir = Path.of(record.getEncryptedPath());
+
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        byte[] id = new byte[ID_BYTES];
+        byte[] plain = new byte[largest];
+        long done = 0;
+
+        try (FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (int i = 0; i < count; i++) {
+                entries.get(id);
+                int length = entries.getInt();
+                String hex = HEX.formatHex(id);
+
+                byte[] sealed = Files.readAllBytes(chunkPath(userDir, hex));
+                if (sealed.length != length + CHUNK_OVERHEAD || sealed[0] != FORMAT_VERSION) {
+                    throw new AEADBadTagException("Chunk " + hex + " is damaged");
+                }
+                cipher.init(Cipher.DECRYPT_MODE, encryptionKey,
+                        new GCMParameterSpec(TAG_BITS, sealed, 1, NONCE_BYTES));
+                cipher.updateAAD(id);
+                int n = cipher.doFinal(sealed, 1 + NONCE_BYTES, sealed.length - 1 - NONCE_BYTES, plain, 0);
+
+                ByteBuffer buf = ByteBuffer.wrap(plain, 0, n);
+                while (buf.hasRemaining()) {
+                    out.write(buf);
+                }
+                done += n;
+                progress.update(done, total);
+            }
+        } catch (Exception e) {
+            Files.deleteIfExists(output);
+            throw e;
+        }
+        RESTORE_TIME.recordSince(start);
+    }
+
+    private static int seal(Cipher cipher, SecretKey key, byte[] id, byte[] plain, int length, byte[] out)
+            throws Exception {
+        out[0] = FORMAT_VERSION;
+        byte[] nonce = new byte[NONCE_BYTES];
+        random.nextBytes(nonce);
+        System.arraycopy(nonce, 0, out, 1, NONCE_BYTES);
+
+        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, nonce));
+        cipher.updateAAD(id);
+        return 1 + NONCE_BYTES + cipher.doFinal(plain, 0, length, out, 1 + NONCE_BYTES);
+    }
+
+    /**
+     * Writes a chunk file through a temp file and a rename, so a reader never
+     * sees a half-written chunk. An existing file for the id is replaced: any
+     * valid copy decrypts to the same data.
+     */
+    private static void writeChunk(Path userDir, String hex, byte[] sealed, int length) throws Exception {
+        Path target = chunkPath(userDir, hex);
+        Files.createDirectories(target.getParent());
+        Path tmp = Files.createTempFile(target.getParent(), hex, ".tmp");
+        try {
+            Files.write(tmp, length == sealed.length ? sealed : Arrays.copyOf(sealed, length));
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (Exception e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+    }
+
+    private static Path chunkPath(Path userDir, String hex) {
+        return userDir.resolve(hex.substring(0, 2)).resolve(hex);
+    }
+
+    /**
+     * [version (1)] [count (4)] then per chunk [id (32)] [length (4)].
+     */
+    private static byte[] encodeManifest(List<Entry> entries) {
+        ByteBuffer buf = ByteBuffer.allocate(5 + entries.size() * MANIFEST_ENTRY_BYTES);
+        buf.put((byte) MANIFEST_VERSION).putInt(entries.size());
+        for (Entry e : entries) {
+            buf.put(e.id).putInt(e.length);
+        }
+        return buf.array();
+    }
+
+    private static byte[] deriveKey(SecretKey kek, byte[] info) throws Exception {
+        byte[] material = kek.getEncoded();
+        try {
+            return Hkdf.deriveSha256(material, null, info, 32);
+        } finally {
+            Arrays.fill(material, (byte) 0);
+        }
+    }
+
+    public Path getRoot() { return root; }
+}
@@ -0,0 +1,102 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package ie.ncirl.securevault.vault;
+
+import java.util.SplittableRandom;
+
+/**
+ * ContentDefinedChunker
+ *
+ * Splits data into chunks whose boundaries depend on the content rather than
+ * on fixed offsets (FastCDC: a Gear rolling hash with normalized chunking).
+ * Inserting or deleting bytes in a file therefore only changes the chunks
+ * around the edit; the rest cut at the same places as before and deduplicate.
+ *
+ * A boundary is declared where the top bits of the hash are all zero. Between
+ * the minimum size and the average a stricter mask is used, after it a looser
+ * one, which pulls chunk sizes towards the average. The first minSize bytes
+ * of a chunk are skipped entirely (no cut can happen there).
+ *
+ * The gear table comes from a fixed seed: changing it (or the sizes) moves
+ * every boundary and stops new data deduplicating against existing chunks.
+ *
+ * Instances are immutable and thread-safe.
+ *
+ * @author Mkwenje Tadiwa
+ */
+public final class ContentDefinedChunker {
+
+    public static final int DEFAULT_MIN_SIZE = 16 * 1024;
+    public static final int DEFAULT_AVG_SIZE = 64 * 1024;
+    public static final int DEFAULT_MAX_SIZE = 256 * 1024;
+
+    private static final long[] GEAR = new long[256];
+
+    static {
+        SplittableRandom random = new SplittableRandom(0x5345_4355_5245_5641L);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    private final int minSize;
+    private final int avgSize;
+    private final int maxSize;
+    private final long maskSmall;
+    private final long maskLarge;
+
+    public ContentDefinedChunker() {
+        this(DEFAULT_MIN_SIZE, DEFAULT_AVG_SIZE, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * avgSize must be a power of two, with minSize &lt; avgSize &lt; maxSize.
+     */
+    public ContentDefinedChunker(int minSize, int avgSize, int maxSize) {
+        if (Integer.bitCount(avgSize) != 1 || avgSize < 256) {
+            throw new IllegalArgumentException("Average chunk size must be a power of two >= 256");
+        }
+        if (minSize < 1 || minSize >= avgSize || maxSize <= avgSize) {
+            throw new IllegalArgumentException("Chunk sizes must satisfy 0 < min < avg < max");
+        }
+        this.minSize = minSize;
+        this.avgSize = avgSize;
+        this.maxSize = maxSize;
+
+        // Normalization level 1: one bit more than log2(avg) before it, one less after.
+        int bits = Integer.numberOfTrailingZeros(avgSize);
+        this.maskSmall = -1L << (64 - (bits + 1));
+        this.maskLarge = -1L << (64 - (bits - 1));
+    }
+
+    /**
+     * Length of the chunk starting at buf[off], looking at no more than len
+     * bytes. If len is below the maximum chunk size the caller must only pass
+     * a short buffer at the end of the data; otherwise the cut may differ from
+     * the one a longer buffer would give.
+     */
+    public int cut(byte[] buf, int off, int len) {
+        if (len <= minSize) return len;
+
+        int n = Math.min(len, maxSize);
+        int normal = Math.min(avgSize, n);
+        long hash = 0;
+        int i = minSize;
+
+        for (; i < normal; i++) {
+            hash = (hash << 1) + GEAR[buf[off + i] & 0xFF];
+            if ((hash & maskSmall) == 0) return i + 1;
+        }
+        for (; i < n; i++) {
+            hash = (hash << 1) + GEAR[buf[off + i] & 0xFF];
+            if ((hash & maskLarge) == 0) return i + 1;
+        }
+        return n;
+    }
+
+    public int getMinSize() { return minSize; }
+    public int getAvgSize() { return avgSize; }
+    public int getMaxSize() { return maxSize; }
+}
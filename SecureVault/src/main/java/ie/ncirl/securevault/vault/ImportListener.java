@@ -0,0 +1,18 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package ie.ncirl.securevault.vault;
+
+/**
+ * ImportListener
+ *
+ * Receives progress from a bulk import. Called on a pipeline thread, not the
+ * Swing EDT, so UI code must hand the update over with SwingUtilities.invokeLater.
+ *
+ * @author Mkwenje Tadiwa
+ */
+public interface ImportListener {
+
+    void onProgress(ImportProgress progress);
+}
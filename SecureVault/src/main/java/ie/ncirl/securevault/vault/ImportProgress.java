@@ -0,0 +1,56 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package ie.ncirl.securevault.vault;
+
+/**
+ * ImportProgress
+ *
+ * Immutable snapshot of a bulk import started by {@link VaultService}.
+ *
+ * @author Mkwenje Tadiwa
+ */
+public class ImportProgress {
+
+    private final long filesDiscovered;
+    private final long filesEncrypted;
+    private final long filesStored;
+    private final long filesFailed;
+    private final long bytesEncrypted;
+    private final long elapsedNanos;
+    private final boolean finished;
+
+    public ImportProgress(long filesDiscovered, long filesEncrypted, long filesStored, long filesFailed,
+                          long bytesEncrypted, long elapsedNanos, boolean finished) {
+        this.filesDiscovered = filesDiscovered;
+        this.filesEncrypted = filesEncrypted;
+        this.filesStored = filesStored;
+        this.filesFailed = filesFailed;
+        this.bytesEncrypted = bytesEncrypted;
+        this.elapsedNanos = elapsedNanos;
+        this.finished = finished;
+    }
+
+    public long getFilesDiscovered() { return filesDiscovered; }
+    public long getFilesEncrypted() { return filesEncrypted; }
+    public long getFilesStored() { return filesStored; }
+    public long getFilesFailed() { return filesFailed; }
+    public long getBytesEncrypted() { return bytesEncrypted; }
+    public long getElapsedNanos() { return elapsedNanos; }
+    public boolean isFinished() { return finished; }
+
+    public double getFilesPerSecond() {
+        return elapsedNanos == 0 ? 0 : filesStored / (elapsedNanos / 1e9);
+    }
+
+    public double getMegabytesPerSecond() {
+        return elapsedNanos == 0 ? 0 : (bytesEncrypted / (1024.0 * 1024.0)) / (elapsedNanos / 1e9);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d/%d stored, %d failed, %.1f MB/s, %.0f files/s",
+                filesStored, filesDiscovered, filesFailed, getMegabytesPerSecond(), getFilesPerSecond());
+    }
+}
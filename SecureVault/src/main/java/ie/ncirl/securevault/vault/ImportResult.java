@@ -0,0 +1,29 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package ie.ncirl.securevault.vault;
+
+import java.util.List;
+
+/**
+ * ImportResult
+ *
+ * Outcome of a bulk import: the final progress counters plus one message per
+ * file that could not be encrypted (those files are skipped, not fatal).
+ *
+ * @author Mkwenje Tadiwa
+ */
+public class ImportResult {
+
+    private final ImportProgress progress;
+    private final List<String> failures;
+
+    public ImportResult(ImportProgress progress, List<String> failures) {
+        this.progress = progress;
+        this.failures = List.copyOf(failures);
+    }
+
+    public ImportProgress getProgress() { return progress; }
+    public List<String> getFailures() { return failures; }
+}
@@ -0,0 +1,370 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package ie.ncirl.securevault.vault;
+
+import ie.ncirl.securevault.auth.EnvelopeKeyService;
+import ie.ncirl.securevault.crypto.AesGcmCrypto;
+import ie.ncirl.securevault.crypto.KeyWrapUtil;
+import ie.ncirl.securevault.db.FileRecordDao;
+import ie.ncirl.securevault.model.FileRecord;
+
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * VaultService
+ *
+ * Bulk encryption of many files for one user.
+ *
+ * Files flow through a pipeline of stages connected by bounded queues, so a
+ * directory of 100k+ files never has more than a few hundred items in flight:
+ *
+ *   discover -> encrypt (one worker per core) -> key-wrap -> DB insert
+ *
+ *  - discover: walks the input (or directory tree) and decides each output path.
+ *  - encrypt:  generates a per-file AES key and streams the file through AES-GCM.
+ *  - key-wrap: wraps each AES key with the user's key-encryption key (AES key
+ *              wrap), which is unwrapped once per import instead of once per file.
+ *  - insert:   stores the file_records rows in batches, one transaction per batch.
+ *
+ * An output never replaces an existing file: if "name.sv" is taken (say, by
+ * an earlier import of the same file, whose row still points at it), the
+ * output becomes "name (2).sv", and so on.
+ *
+ * A file that cannot be encrypted is recorded as a failure and skipped; a
+ * database failure aborts the whole import, and the outputs written by it
+ * that have no row yet are deleted, since their keys are gone.
+ *
+ * @author Mkwenje Tadiwa
+ */
+public class VaultService {
+
+    private static final int QUEUE_CAPACITY = 256;
+    private static final int INSERT_BATCH_SIZE = 500;
+
+    // Marks the end of the stream on every queue.
+    private static final ImportItem END = new ImportItem(null, null);
+
+    private final EnvelopeKeyService envelopeKeys;
+    private final FileRecordDao fileDao;
+    private final int encryptWorkers;
+
+    public VaultService() {
+        this(new EnvelopeKeyService(), new FileRecordDao(), Runtime.getRuntime().availableProcessors());
+    }
+
+    public VaultService(EnvelopeKeyService envelopeKeys, FileRecordDao fileDao, int encryptWorkers) {
+        this.envelopeKeys = envelopeKeys;
+        this.fileDao = fileDao;
+        this.encryptWorkers = Math.max(1, encryptWorkers);
+    }
+
+    /**
+     * Encrypts every given file to "name.sv" (or the first free "name (n).sv")
+     * next to the original and records them for the user.
+     */
+    public ImportResult encryptAll(int userId, Collection<Path> inputs, ImportListener listener)
+            throws Exception {
+        return runPipeline(userId, listener, sink -> {
+            for (Path input : inputs) {
+                sink.accept(input, input.resolveSibling(input.getFileName() + ".sv"));
+            }
+        });
+    }
+
+    /**
+     * Encrypts every regular file under sourceDir into outputDir, keeping the
+     * relative directory layout and appending ".sv" to each name.
+     */
+    public ImportResult encryptDirectory(int userId, Path sourceDir, Path outputDir, ImportListener listener)
+            throws Exception {
+        Path source = sourceDir.toAbsolutePath().normalize();
+        Path target = outputDir.toAbsolutePath().normalize();
+
+        return runPipeline(userId, listener, sink -> {
+            try (Stream<Path> files = Files.walk(source)) {
+                for (Path input : (Iterable<Path>) files::iterator) {
+                    // Skip our own output if it lives inside the tree being imported.
+                    if (!Files.isRegularFile(input) || input.startsWith(target)) continue;
+                    Path output = target.resolve(source.relativize(input) + ".sv");
+                    sink.accept(input, output);
+                }
+            }
+        });
+    }
+
+    private ImportResult runPipeline(int userId, ImportListener listener, Discovery discovery) throws Exception {
+        SecretKey kek = envelopeKeys.getUserKek(userId);
+
+        ExecutorService pool = Executors.newFixedThreadPool(encryptWorkers + 3);
+        Pipeline p = new Pipeline(userId, kek, listener, pool);
+        try {
+            List<Future<?>> stages = new ArrayList<>();
+            stages.add(pool.submit(() -> p.discover(discovery)));
+            for (int i = 0; i < encryptWorkers; i++) {
+                stages.add(pool.submit(p::encryptStage));
+            }
+            stages.add(pool.submit(p::wrapStage));
+            stages.add(pool.submit(p::insertStage));
+
+            for (Future<?> stage : stages) {
+                stage.get();
+            }
+        } catch (InterruptedException e) {
+            p.abort(e);
+            Thread.currentThread().interrupt();
+        } finally {
+            pool.shutdownNow();
+            pool.awaitTermination(10, TimeUnit.SECONDS);
+        }
+
+        if (p.fatal != null) {
+            p.deleteUnrecorded();
+            throw new Exception("Bulk import aborted: " + p.fatal.getMessage(), p.fatal);
+        }
+        ImportProgress last = p.snapshot(true);
+        if (listener != null) listener.onProgress(last);
+        return new ImportResult(last, p.failures);
+    }
+
+    @FunctionalInterface
+    private interface Discovery {
+        void run(Sink sink) throws Exception;
+    }
+
+    @FunctionalInterface
+    private interface Sink {
+        void accept(Path input, Path output) throws InterruptedException;
+    }
+
+    /**
+     * One file as it moves through the stages.
+     */
+    private static final class ImportItem {
+        final Path input;
+        final Path target;
+        Path output;        // target or a free variant of it, once created
+        SecretKey key;
+        byte[] wrappedKey;
+
+        ImportItem(Path input, Path target) {
+            this.input = input;
+            this.target = target;
+        }
+    }
+
+    /**
+     * Creates an empty file at target, or at "name (n).sv" next to it if
+     * target exists, and returns its path. Creation is atomic, so two imports
+     * never get the same output.
+     */
+    private static Path createOutput(Path target) throws IOException {
+        String name = target.getFileName().toString();
+        String stem = name.endsWith(".sv") ? name.substring(0, name.length() - 3) : name;
+        for (int n = 1; ; n++) {
+            Path candidate = n == 1 ? target : target.resolveSibling(stem + " (" + n + ").sv");
+            try {
+                return Files.createFile(candidate);
+            } catch (FileAlreadyExistsException taken) {
+                // Try the next name.
+            }
+        }
+    }
+
+    /**
+     * Shared state of one running import.
+     */
+    private final class Pipeline {
+
+        private final int userId;
+        private final SecretKey kek;
+        private final ImportListener listener;
+        private final ExecutorService stages;
+
+        private final BlockingQueue<ImportItem> toEncrypt = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        private final BlockingQueue<ImportItem> toWrap = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        private final BlockingQueue<ImportItem> toInsert = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+        private final AtomicLong discovered = new AtomicLong();
+        private final AtomicLong encrypted = new AtomicLong();
+        private final AtomicLong stored = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+        private final List<String> failures = Collections.synchronizedList(new ArrayList<>());
+        // Outputs written by this import whose row is not stored yet.
+        private final Set<Path> unrecorded = ConcurrentHashMap.newKeySet();
+        private final long startNanos = System.nanoTime();
+
+        private volatile Throwable fatal;
+
+        Pipeline(int userId, SecretKey kek, ImportListener listener, ExecutorService stages) {
+            this.userId = userId;
+            this.kek = kek;
+            this.listener = listener;
+            this.stages = stages;
+        }
+
+        void discover(Discovery discovery) {
+            try {
+                discovery.run((input, output) -> {
+                    discovered.incrementAndGet();
+                    toEncrypt.put(new ImportItem(input, output));
+                });
+            } catch (Exception e) {
+                abort(e);
+            } finally {
+                for (int i = 0; i < encryptWorkers; i++) {
+                    putQuietly(toEncrypt, END);
+                }
+            }
+        }
+
+        void encryptStage() {
+            try {
+                for (ImportItem item = toEncrypt.take(); item != END; item = toEncrypt.take()) {
+                    try {
+                        Path parent = item.target.getParent();
+                        if (parent != null) Files.createDirectories(parent);
+                        item.output = createOutput(item.target);
+                        unrecorded.add(item.output);
+
+                        item.key = AesGcmCrypto.generateKey();
+                        AesGcmCrypto.encryptFile(item.input, item.output, item.key);
+                        bytes.addAndGet(Files.size(item.input));
+                    } catch (Exception e) {
+                        fail(item, e);
+                        continue;
+                    }
+                    encrypted.incrementAndGet();
+                    toWrap.put(item);
+                }
+            } catch (Exception e) {
+                abort(e);
+            } finally {
+                putQuietly(toWrap, END);
+            }
+        }
+
+        void wrapStage() {
+            int finishedWorkers = 0;
+            try {
+                while (finishedWorkers < encryptWorkers) {
+                    ImportItem item = toWrap.take();
+                    if (item == END) {
+                        finishedWorkers++;
+                        continue;
+                    }
+
+                    item.wrappedKey = KeyWrapUtil.wrapWithKek(item.key, kek);
+                    item.key = null;
+                    toInsert.put(item);
+                }
+            } catch (Exception e) {
+                abort(e);
+            } finally {
+                putQuietly(toInsert, END);
+            }
+        }
+
+        void insertStage() {
+            List<ImportItem> batch = new ArrayList<>(INSERT_BATCH_SIZE);
+            try {
+                for (ImportItem item = toInsert.take(); item != END; item = toInsert.take()) {
+                    batch.add(item);
+                    if (batch.size() == INSERT_BATCH_SIZE || toInsert.isEmpty()) {
+                        flush(batch);
+                    }
+                }
+                flush(batch);
+            } catch (Exception e) {
+                abort(e);
+            }
+        }
+
+        private void flush(List<ImportItem> batch) throws Exception {
+            if (batch.isEmpty()) return;
+            List<FileRecord> records = new ArrayList<>(batch.size());
+            for (ImportItem item : batch) {
+                records.add(new FileRecord(0, userId, item.input.toString(), item.output.toString(),
+                        item.wrappedKey, FileRecord.KEY_SCHEME_KEK));
+            }
+            fileDao.insertBatch(records);
+            for (ImportItem item : batch) {
+                unrecorded.remove(item.output);
+            }
+            stored.addAndGet(batch.size());
+            batch.clear();
+            if (listener != null) listener.onProgress(snapshot(false));
+        }
+
+        private void fail(ImportItem item, Exception e) {
+            failed.incrementAndGet();
+            failures.add(item.input + ": " + e.getMessage());
+            if (item.output == null) return;    // nothing created, and target may be someone else's file
+            try {
+                Files.deleteIfExists(item.output);
+                unrecorded.remove(item.output);
+            } catch (IOException ignored) {
+                // Best effort: the partial output is already unusable.
+            }
+        }
+
+        /**
+         * After an abort, deletes the outputs that never got a row (those in
+         * the failed batch and those still queued): without their keys
+         * nobody can decrypt them.
+         */
+        void deleteUnrecorded() {
+            for (Path output : unrecorded) {
+                try {
+                    Files.deleteIfExists(output);
+                } catch (IOException e) {
+                    failures.add(output + ": could not delete unrecorded output: " + e.getMessage());
+                }
+            }
+            unrecorded.clear();
+        }
+
+        /**
+         * Stops the import: records the first cause and interrupts every stage,
+         * so none of them is left blocked on a queue that is no longer drained.
+         */
+        synchronized void abort(Throwable t) {
+            if (fatal != null) return;
+            fatal = t;
+            stages.shutdownNow();
+        }
+
+        private void putQuietly(BlockingQueue<ImportItem> queue, ImportItem item) {
+            try {
+                queue.put(item);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        ImportProgress snapshot(boolean finished) {
+            return new ImportProgress(discovered.get(), encrypted.get(), stored.get(), failed.get(),
+                    bytes.get(), System.nanoTime() - startNanos, finished);
+        }
+    }
+}
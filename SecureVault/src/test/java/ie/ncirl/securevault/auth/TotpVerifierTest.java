@@ -0,0 +1,109 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package ie.ncirl.securevault.auth;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * TotpVerifierTest
+ *
+ * The RFC 6238 Appendix B test vectors for all three hash algorithms, plus a
+ * comparison of the hand-rolled HMAC with javax.crypto.Mac for key lengths
+ * around and beyond the hash block size.
+ *
+ * @author Mkwenje Tadiwa
+ */
+class TotpVerifierTest {
+
+    private static final String SEED_SHA1 = "12345678901234567890";
+    private static final String SEED_SHA256 = "12345678901234567890123456789012";
+    private static final String SEED_SHA512 = "1234567890123456789012345678901234567890123456789012345678901234";
+
+    @ParameterizedTest
+    @CsvSource({
+            "59,          94287082, 46119246, 90693936",
+            "1111111109,  07081804, 68084774, 25091201",
+            "1111111111,  14050471, 67062674, 99943326",
+            "1234567890,  89005924, 91819424, 93441116",
+            "2000000000,  69279037, 90698825, 38618901",
+            "20000000000, 65353130, 77737706, 47863826",
+    })
+    void matchesRfc6238Vectors(long seconds, String sha1, String sha256, String sha512) {
+        // Codes as strings: leading zeros are part of the expected value.
+        long millis = seconds * 1000;
+        assertEquals(sha1, code(SEED_SHA1, TotpVerifier.Algorithm.SHA1, millis));
+        assertEquals(sha256, code(SEED_SHA256, TotpVerifier.Algorithm.SHA256, millis));
+        assertEquals(sha512, code(SEED_SHA512, TotpVerifier.Algorithm.SHA512, millis));
+    }
+
+    @Test
+    void matchesJdkHmacForAnyKeyLength() throws Exception {
+        Random random = new Random(6238);
+        for (TotpVerifier.Algorithm algorithm : TotpVerifier.Algorithm.values()) {
+            for (int keyLength : new int[] {1, 10, 20, 63, 64, 65, 128, 129, 200}) {
+                byte[] key = new byte[keyLength];
+                random.nextBytes(key);
+                TotpVerifier verifier = new TotpVerifier(key, algorithm, 6, 30);
+
+                for (int i = 0; i < 20; i++) {
+                    long millis = random.nextLong(4_000_000_000_000L);
+                    assertEquals(jdkCode(key, algorithm, 6, millis / 30_000), verifier.generateCode(millis),
+                            algorithm + " key length " + keyLength);
+                }
+            }
+        }
+    }
+
+    @Test
+    void acceptsCodesWithinDriftOnly() {
+        TotpVerifier verifier = verifier(SEED_SHA1, TotpVerifier.Algorithm.SHA1);
+        long now = 1_234_567_890_000L;
+        int previous = verifier.generateCode(now - 30_000);
+        int older = verifier.generateCode(now - 60_000);
+
+        assertTrue(verifier.verify(verifier.generateCode(now), now, 0));
+        assertTrue(verifier.verify(previous, now, 1));
+        assertFalse(verifier.verify(previous, now, 0));
+        assertFalse(verifier.verify(older, now, 1));
+        assertEquals(now / 30_000 - 1, verifier.matchStep(previous, now, 1));
+    }
+
+    private static String code(String seed, TotpVerifier.Algorithm algorithm, long millis) {
+        return String.format("%08d", verifier(seed, algorithm).generateCode(millis));
+    }
+
+    private static TotpVerifier verifier(String seed, TotpVerifier.Algorithm algorithm) {
+        return new TotpVerifier(seed.getBytes(StandardCharsets.US_ASCII), algorithm, 8, 30);
+    }
+
+    /** RFC 4226 dynamic truncation over javax.crypto.Mac, as reference. */
+    private static int jdkCode(byte[] key, TotpVerifier.Algorithm algorithm, int digits, long step) throws Exception {
+        String name = switch (algorithm) {
+            case SHA1 -> "HmacSHA1";
+            case SHA256 -> "HmacSHA256";
+            case SHA512 -> "HmacSHA512";
+        };
+        Mac mac = Mac.getInstance(name);
+        mac.init(new SecretKeySpec(key, name));
+        byte[] hash = mac.doFinal(ByteBuffer.allocate(8).putLong(step).array());
+
+        int offset = hash[hash.length - 1] & 0x0F;
+        int binary = ((hash[offset] & 0x7F) << 24) | ((hash[offset + 1] & 0xFF) << 16)
+                | ((hash[offset + 2] & 0xFF) << 8) | (hash[offset + 3] & 0xFF);
+        return binary % (int) Math.pow(10, digits);
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package ie.ncirl.securevault.crypto;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * AesGcmCryptoTest
+ *
+ * Round trips through the segmented .sv format, reading of the old
+ * single-tag layout, and rejection of altered or truncated files.
+ *
+ * @author Mkwenje Tadiwa
+ */
+class AesGcmCryptoTest {
+
+    private static final int SEGMENT = SvFileFormat.MIN_SEGMENT_SIZE;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void roundTripsAtSegmentBoundaries() throws Exception {
+        SecretKey key = AesGcmCrypto.generateKey();
+        for (int size : new int[] {0, 1, SEGMENT - 1, SEGMENT, SEGMENT + 1, 3 * SEGMENT, 5 * SEGMENT + 17}) {
+            byte[] data = randomBytes(size);
+            Path plain = write("in-" + size, data);
+            Path sealed = dir.resolve("in-" + size + ".sv");
+            Path out = dir.resolve("out-" + size);
+
+            AesGcmCrypto.encryptFile(plain, sealed, key, SEGMENT);
+            // One tag per segment, plus an empty final segment when the size is a multiple.
+            long segments = size / SEGMENT + 1;
+            assertEquals(SvFileFormat.HEADER_BYTES + size + segments * SvFileFormat.TAG_BYTES, Files.size(sealed));
+
+            AesGcmCrypto.decryptFile(sealed, out, key);
+            assertArrayEquals(data, Files.readAllBytes(out), "size " + size);
+        }
+    }
+
+    @Test
+    void roundTripsWithDefaultSegmentSize() throws Exception {
+        SecretKey key = AesGcmCrypto.generateKey();
+        byte[] data = randomBytes(200_000);
+        Path sealed = dir.resolve("big.sv");
+
+        AesGcmCrypto.encryptFile(write("big", data), sealed, key);
+        AesGcmCrypto.decryptFile(sealed, dir.resolve("big.out"), key);
+        assertArrayEquals(data, Files.readAllBytes(dir.resolve("big.out")));
+    }
+
+    @Test
+    void readsLegacySingleTagFiles() throws Exception {
+        SecretKey key = AesGcmCrypto.generateKey();
+        byte[] data = randomBytes(100_000);
+
+        // The layout written before .sv: [IV length (1)] [IV] [ciphertext + tag]
+        byte[] iv = randomBytes(12);
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(128, iv));
+        byte[] ciphertext = cipher.doFinal(data);
+        byte[] legacy = new byte[1 + iv.length + ciphertext.length];
+        legacy[0] = (byte) iv.length;
+        System.arraycopy(iv, 0, legacy, 1, iv.length);
+        System.arraycopy(ciphertext, 0, legacy, 1 + iv.length, ciphertext.length);
+
+        Path out = dir.resolve("legacy.out");
+        AesGcmCrypto.decryptFile(write("legacy.sv", legacy), out, key);
+        assertArrayEquals(data, Files.readAllBytes(out));
+    }
+
+    @Test
+    void rejectsAlteredSegmentAndRemovesOutput() throws Exception {
+        SecretKey key = AesGcmCrypto.generateKey();
+        Path sealed = dir.resolve("f.sv");
+        AesGcmCrypto.encryptFile(write("f", randomBytes(4 * SEGMENT)), sealed, key, SEGMENT);
+
+        byte[] bytes = Files.readAllBytes(sealed);
+        bytes[SvFileFormat.HEADER_BYTES + 2 * (SEGMENT + SvFileFormat.TAG_BYTES) + 5] ^= 1;
+        Files.write(sealed, bytes);
+
+        Path out = dir.resolve("f.out");
+        assertThrows(Exception.class, () -> AesGcmCrypto.decryptFile(sealed, out, key));
+        assertFalse(Files.exists(out));
+    }
+
+    @Test
+    void rejectsFileCutAtSegmentBoundary() throws Exception {
+        SecretKey key = AesGcmCrypto.generateKey();
+        Path sealed = dir.resolve("t.sv");
+        AesGcmCrypto.encryptFile(write("t", randomBytes(4 * SEGMENT + 100)), sealed, key, SEGMENT);
+
+        // Whole segments dropped from the end: the new last one is not marked last.
+        byte[] bytes = Files.readAllBytes(sealed);
+        Files.write(sealed, Arrays.copyOf(bytes, SvFileFormat.HEADER_BYTES + 2 * (SEGMENT + SvFileFormat.TAG_BYTES)));
+
+        assertThrows(Exception.class, () -> AesGcmCrypto.decryptFile(sealed, dir.resolve("t.out"), key));
+    }
+
+    @Test
+    void rejectsWrongKey() throws Exception {
+        Path sealed = dir.resolve("k.sv");
+        AesGcmCrypto.encryptFile(write("k", randomBytes(3 * SEGMENT)), sealed, AesGcmCrypto.generateKey(), SEGMENT);
+
+        assertThrows(Exception.class,
+                () -> AesGcmCrypto.decryptFile(sealed, dir.resolve("k.out"), AesGcmCrypto.generateKey()));
+    }
+
+    private Path write(String name, byte[] data) throws Exception {
+        return Files.write(dir.resolve(name), data);
+    }
+
+    private static byte[] randomBytes(int n) {
+        byte[] b = new byte[n];
+        new Random(n).nextBytes(b);
+        return b;
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package ie.ncirl.securevault.crypto;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * SvFileUpdaterTest
+ *
+ * Updates in place against a manifest held in memory (standing in for the
+ * file_records row): the first rewrite from v1 to v2, an incremental update,
+ * crash recovery from the undo journal, and rejection of segments that do
+ * not match the manifest.
+ *
+ * @author Mkwenje Tadiwa
+ */
+class SvFileUpdaterTest {
+
+    private static final int SEGMENT = SvFileFormat.MIN_SEGMENT_SIZE;
+
+    @TempDir
+    Path dir;
+
+    private SecretKey key;
+    private Path source;
+    private Path sealed;
+    private final AtomicReference<SegmentManifest> stored = new AtomicReference<>();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        key = AesGcmCrypto.generateKey();
+        source = dir.resolve("doc");
+        sealed = dir.resolve("doc.sv");
+    }
+
+    @Test
+    void firstUpdateRewritesV1FileAsV2() throws Exception {
+        byte[] v1 = randomBytes(10 * SEGMENT + 300, 1);
+        Files.write(source, v1);
+        AesGcmCrypto.encryptFile(source, sealed, key, SEGMENT);
+
+        byte[] v2 = v1.clone();
+        v2[3 * SEGMENT] ^= 1;
+        SvFileUpdater.Result result = update(v2);
+
+        assertTrue(result.isFullRewrite());
+        assertEquals(11, result.getRewrittenSegments());
+        assertEquals(SvFileFormat.VERSION_UPDATABLE, Files.readAllBytes(sealed)[4]);
+        assertFalse(Files.exists(dir.resolve("doc.sv.old")));
+        assertArrayEquals(v2, decrypt(stored.get()));
+    }
+
+    @Test
+    void incrementalUpdateRewritesOnlyChangedSegment() throws Exception {
+        byte[] v1 = randomBytes(10 * SEGMENT + 300, 2);
+        startUpdatable(v1);
+        byte[] before = Files.readAllBytes(sealed);
+
+        byte[] v2 = v1.clone();
+        v2[4 * SEGMENT + 10] ^= 1;
+        SvFileUpdater.Result result = update(v2);
+
+        assertFalse(result.isFullRewrite());
+        assertEquals(1, result.getRewrittenSegments());
+        assertArrayEquals(v2, decrypt(stored.get()));
+
+        byte[] after = Files.readAllBytes(sealed);
+        int sealedSegment = SEGMENT + SvFileFormat.NONCE_BYTES + SvFileFormat.TAG_BYTES;
+        for (int i = 0; i < 11; i++) {
+            int from = SvFileFormat.HEADER_BYTES + i * sealedSegment;
+            int to = Math.min(from + sealedSegment, after.length);
+            assertEquals(i != 4, Arrays.equals(before, from, to, after, from, to), "segment " + i);
+        }
+        assertFalse(Files.exists(dir.resolve("doc.sv.undo")));
+    }
+
+    @Test
+    void updateHandlesGrowingAndShrinkingFile() throws Exception {
+        byte[] v1 = randomBytes(5 * SEGMENT + 100, 3);
+        startUpdatable(v1);
+
+        byte[] longer = Arrays.copyOf(v1, 8 * SEGMENT);
+        update(longer);
+        assertArrayEquals(longer, decrypt(stored.get()));
+
+        byte[] shorter = Arrays.copyOf(v1, 2 * SEGMENT + 7);
+        update(shorter);
+        assertArrayEquals(shorter, decrypt(stored.get()));
+    }
+
+    @Test
+    void failedCommitLeavesOldVersion() throws Exception {
+        byte[] v1 = randomBytes(6 * SEGMENT, 4);
+        startUpdatable(v1);
+        SegmentManifest old = stored.get();
+
+        byte[] v2 = v1.clone();
+        v2[SEGMENT] ^= 1;
+        Files.write(source, v2);
+        assertThrows(IOException.class, () -> SvFileUpdater.update(source, sealed, key, stored::get,
+                m -> { throw new IOException("database down"); }, CryptoProgress.NONE));
+
+        assertArrayEquals(v1, decrypt(old));
+        assertFalse(Files.exists(dir.resolve("doc.sv.undo")));
+    }
+
+    @Test
+    void recoversFromJournalLeftMidUpdate() throws Exception {
+        byte[] v1 = randomBytes(6 * SEGMENT + 50, 5);
+        startUpdatable(v1);
+        SegmentManifest old = stored.get();
+
+        // Capture the file and journal as they are on disk just before the commit, i.e. a crash there.
+        byte[] v2 = v1.clone();
+        v2[2 * SEGMENT] ^= 1;
+        Files.write(source, v2);
+        Path crashedFile = dir.resolve("crashed.sv");
+        Path crashedJournal = dir.resolve("crashed.undo");
+        AtomicReference<SegmentManifest> updated = new AtomicReference<>();
+        assertThrows(IOException.class, () -> SvFileUpdater.update(source, sealed, key, stored::get, m -> {
+            updated.set(m);
+            Files.copy(sealed, crashedFile);
+            Files.copy(dir.resolve("doc.sv.undo"), crashedJournal);
+            throw new IOException("crash");
+        }, CryptoProgress.NONE));
+
+        // Not committed: the stored manifest is still the old one, so the old segments go back.
+        restore(crashedFile, crashedJournal);
+        SvFileUpdater.recover(sealed, () -> old);
+        assertFalse(Files.exists(dir.resolve("doc.sv.undo")));
+        assertArrayEquals(v1, decrypt(old));
+
+        // Committed before the crash: the new version stays and the journal is dropped.
+        restore(crashedFile, crashedJournal);
+        SvFileUpdater.recover(sealed, updated::get);
+        assertFalse(Files.exists(dir.resolve("doc.sv.undo")));
+        assertArrayEquals(v2, decrypt(updated.get()));
+    }
+
+    @Test
+    void rejectsSegmentsNotMatchingManifest() throws Exception {
+        byte[] v1 = randomBytes(6 * SEGMENT, 6);
+        startUpdatable(v1);
+        SegmentManifest old = stored.get();
+        byte[] oldFile = Files.readAllBytes(sealed);
+
+        byte[] v2 = v1.clone();
+        v2[3 * SEGMENT + 1] ^= 1;
+        update(v2);
+
+        // The current file read with the previous manifest: segment 3 has a new nonce.
+        assertThrows(Exception.class, () -> decrypt(old));
+
+        // An old segment put back into the current file still has a valid tag, but not the recorded nonce.
+        byte[] replayed = Files.readAllBytes(sealed);
+        int sealedSegment = SEGMENT + SvFileFormat.NONCE_BYTES + SvFileFormat.TAG_BYTES;
+        int from = SvFileFormat.HEADER_BYTES + 3 * sealedSegment;
+        System.arraycopy(oldFile, from, replayed, from, sealedSegment);
+        Files.write(sealed, replayed);
+        assertThrows(Exception.class, () -> decrypt(stored.get()));
+    }
+
+    @Test
+    void decodeRejectsInvalidSegmentSize() {
+        byte[] encoded = ByteBuffer.allocate(1 + 4 + 8 + 4)
+                .put((byte) SegmentManifest.KIND).putInt(0).putLong(0).putInt(1).array();
+        assertThrows(IOException.class, () -> SegmentManifest.decode(encoded));
+    }
+
+    /**
+     * Writes data as the source and brings the .sv file up to date with it,
+     * storing the new manifest.
+     */
+    private SvFileUpdater.Result update(byte[] data) throws Exception {
+        Files.write(source, data);
+        return SvFileUpdater.update(source, sealed, key, stored::get, stored::set, CryptoProgress.NONE);
+    }
+
+    /** An updatable (v2) file holding data, with its manifest stored. */
+    private void startUpdatable(byte[] data) throws Exception {
+        Files.write(source, data);
+        AesGcmCrypto.encryptFile(source, sealed, key, SEGMENT);
+        update(data);
+    }
+
+    private byte[] decrypt(SegmentManifest manifest) throws Exception {
+        Path out = dir.resolve("doc.out");
+        Files.deleteIfExists(out);
+        AesGcmCrypto.decryptFile(sealed, out, key, manifest, CryptoProgress.NONE);
+        return Files.readAllBytes(out);
+    }
+
+    private void restore(Path file, Path journal) throws Exception {
+        Files.copy(file, sealed, StandardCopyOption.REPLACE_EXISTING);
+        Files.copy(journal, dir.resolve("doc.sv.undo"), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static byte[] randomBytes(int n, long seed) {
+        byte[] b = new byte[n];
+        new Random(seed).nextBytes(b);
+        return b;
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package ie.ncirl.securevault.logging;
+
+import ie.ncirl.securevault.db.InMemoryVaultStore;
+import ie.ncirl.securevault.model.AuditCheckpoint;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * AuditVerifierTest
+ *
+ * Writes a small chained log over several segments and checks that the
+ * verifier accepts it, resumes from its own checkpoint, and reports edits,
+ * missing segments and a cut tail.
+ *
+ * @author Mkwenje Tadiwa
+ */
+class AuditVerifierTest {
+
+    private static final int RECORDS = 500;
+    private static final long SEGMENT_BYTES = 8 * 1024;
+
+    @TempDir
+    Path dir;
+
+    private final byte[] key = new byte[32];
+    private InMemoryVaultStore store;
+
+    @BeforeEach
+    void setUp() {
+        for (int i = 0; i < key.length; i++) key[i] = (byte) i;
+        store = new InMemoryVaultStore();
+    }
+
+    @Test
+    void acceptsIntactLog() throws Exception {
+        writeLog(RECORDS);
+        AuditVerificationResult result = verifier().verifyAll();
+
+        assertTrue(result.isValid(), result.toString());
+        assertEquals(RECORDS, result.getRecordsVerified());
+        assertTrue(result.getSegmentsVerified() > 2, "log should span several segments");
+        assertNotNull(store.findLatestAuditCheckpoint(AuditCheckpoint.VERIFIED));
+    }
+
+    @Test
+    void resumesFromLastVerifiedCheckpoint() throws Exception {
+        writeLog(RECORDS);
+        assertTrue(verifier().verify().isValid());
+
+        writeLog(50);
+        AuditVerificationResult result = verifier().verify();
+        assertTrue(result.isValid(), result.toString());
+        assertTrue(result.isIncremental());
+        assertEquals(50, result.getRecordsVerified());
+    }
+
+    @Test
+    void detectsModifiedRecord() throws Exception {
+        writeLog(RECORDS);
+        Path segment = segments().get(1);
+        flipByte(segment, AuditSegmentFormat.SEGMENT_HEADER_BYTES + 40);
+
+        AuditVerificationResult result = verifier().verifyAll();
+        assertFalse(result.isValid());
+        assertTrue(result.getProblems().get(0).contains(segment.getFileName().toString()), result.toString());
+    }
+
+    @Test
+    void detectsMissingSegment() throws Exception {
+        writeLog(RECORDS);
+        Files.delete(segments().get(1));
+
+        assertFalse(verifier().verifyAll().isValid());
+    }
+
+    @Test
+    void detectsCutTailCoveredByCheckpoint() throws Exception {
+        writeLog(RECORDS);
+        List<Path> segments = segments();
+        Path last = segments.get(segments.size() - 1);
+        try (FileChannel ch = FileChannel.open(last, StandardOpenOption.WRITE)) {
+            ch.truncate(AuditSegmentFormat.SEGMENT_HEADER_BYTES + 10);
+        }
+
+        AuditVerificationResult result = verifier().verifyAll();
+        assertFalse(result.isValid());
+        assertTrue(result.toString().contains("truncated"), result.toString());
+    }
+
+    @Test
+    void toleratesTornRecordAtEndOfOlderSegment() throws Exception {
+        writeLog(RECORDS);
+        // What a crash mid-write leaves behind: a length prefix promising more than is there.
+        try (FileChannel ch = FileChannel.open(segments().get(0), StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ch.write(ByteBuffer.allocate(14).putInt(100).rewind());
+        }
+
+        AuditVerificationResult result = verifier().verifyAll();
+        assertTrue(result.isValid(), result.toString());
+    }
+
+    /**
+     * Appends count records through a writer (continuing any existing log),
+     * storing a signed WRITER checkpoint at the end as the logger does.
+     */
+    private void writeLog(int count) throws Exception {
+        AuditSegmentWriter writer = new AuditSegmentWriter(dir, key, SEGMENT_BYTES, Long.MAX_VALUE);
+        try {
+            for (int i = 0; i < count; i++) {
+                writer.append(new AuditRecord(Instant.now(), "LOGIN", "user" + (i % 7), "detail " + i));
+            }
+            writer.flush();
+            writer.force();
+            AuditCheckpoint cp = writer.checkpoint();
+            AuditChain.sign(key, cp);
+            store.insertAuditCheckpoint(cp);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private AuditVerifier verifier() {
+        return new AuditVerifier(dir, key, store, 2);
+    }
+
+    private List<Path> segments() throws Exception {
+        return AuditSegmentFormat.listSegments(dir);
+    }
+
+    private static void flipByte(Path file, long offset) throws Exception {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer b = ByteBuffer.allocate(1);
+            ch.read(b, offset);
+            b.put(0, (byte) (b.get(0) ^ 1));
+            ch.write(b.rewind(), offset);
+        }
+    }
+}